@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.hash.Hashing;
+import org.jdbi.v3.core.Handle;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Named database advisory locks used to serialize writers of the same
+ * environment without blocking writers of other environments. Writers of a
+ * subtree hold the lock of the environment in shared mode, so that they only
+ * exclude writers of the whole environment and of overlapping subtrees. On
+ * MySQL, where every lock is exclusive, writers of subtrees of the same
+ * environment exclude each other as well.
+ */
+public final class AdvisoryLocks
+{
+    public static final int LOCK_TIMEOUT_SECONDS = 300;
+
+    // MySQL limits lock names to 64 characters
+    private static final int MAX_LOCK_NAME_LENGTH = 64;
+    private static final String LOCK_NAME_PREFIX = "trino_resource_groups:";
+
+    // H2 has no named locks and is only used embedded, so locks in this JVM,
+    // one per database and name, stand in for them; there are only as many
+    // names as environments and subtrees written, so they are never removed
+    private static final ConcurrentMap<String, ReentrantReadWriteLock> H2_LOCKS = new ConcurrentHashMap<>();
+
+    private AdvisoryLocks() {}
+
+    public static String lockName(String environment)
+    {
+        String name = LOCK_NAME_PREFIX + environment;
+        if (name.length() > MAX_LOCK_NAME_LENGTH) {
+            return LOCK_NAME_PREFIX + Hashing.sha256().hashString(environment, UTF_8).toString().substring(0, MAX_LOCK_NAME_LENGTH - LOCK_NAME_PREFIX.length());
+        }
+        return name;
+    }
+
+    /**
+     * Name of the lock of the resource groups under {@code path} in the
+     * environment.
+     */
+    public static String subtreeLockName(String environment, String path)
+    {
+        return lockName(environment + ":" + path);
+    }
+
+    /**
+     * Acquires an exclusive lock for the current transaction. On PostgreSQL and
+     * Oracle the lock is released when the transaction ends, on MySQL it is
+     * held by the session until {@link #unlock(Handle, DatabaseType, String)}.
+     * On H2 a lock of this JVM is held by the thread until unlocked. Locks are
+     * reentrant, and every call must be matched by an unlock.
+     */
+    public static void lock(Handle handle, DatabaseType databaseType, String name)
+    {
+        switch (databaseType) {
+            case POSTGRESQL:
+                lockPostgresql(handle, "pg_advisory_xact_lock", name);
+                return;
+            case MYSQL:
+                Integer acquired = handle.createQuery("SELECT GET_LOCK(:name, :timeout)")
+                        .bind("name", name)
+                        .bind("timeout", LOCK_TIMEOUT_SECONDS)
+                        .mapTo(Integer.class)
+                        .one();
+                if (acquired == null || acquired != 1) {
+                    throw new IllegalStateException(format("Timed out after %s seconds waiting for lock %s", LOCK_TIMEOUT_SECONDS, name));
+                }
+                return;
+            case ORACLE:
+                lockOracle(handle, "DBMS_LOCK.X_MODE", name);
+                return;
+            case H2:
+                lockH2(h2Lock(handle, name).writeLock(), name);
+                return;
+        }
+        throw new IllegalArgumentException("Unsupported database type: " + databaseType);
+    }
+
+    /**
+     * Acquires a shared lock for the current transaction, which is held
+     * together with other shared locks of the same name but excludes the
+     * exclusive one. MySQL has no shared locks, and {@code GET_LOCK} cannot
+     * build one without a lock table, so the lock is exclusive there: holders
+     * of a shared lock of the same name are serialized, which is correct but
+     * gives up their concurrency. On MySQL and H2 the lock must be released
+     * with {@link #unlock(Handle, DatabaseType, String)} like any other.
+     */
+    public static void lockShared(Handle handle, DatabaseType databaseType, String name)
+    {
+        switch (databaseType) {
+            case POSTGRESQL:
+                lockPostgresql(handle, "pg_advisory_xact_lock_shared", name);
+                return;
+            case ORACLE:
+                lockOracle(handle, "DBMS_LOCK.S_MODE", name);
+                return;
+            case H2:
+                lockH2(h2Lock(handle, name).readLock(), name);
+                return;
+            case MYSQL:
+                lock(handle, databaseType, name);
+                return;
+        }
+        throw new IllegalArgumentException("Unsupported database type: " + databaseType);
+    }
+
+    public static void unlock(Handle handle, DatabaseType databaseType, String name)
+    {
+        if (databaseType == DatabaseType.MYSQL) {
+            handle.createQuery("SELECT RELEASE_LOCK(:name)")
+                    .bind("name", name)
+                    .mapTo(Integer.class)
+                    .one();
+        }
+        else if (databaseType == DatabaseType.H2) {
+            ReentrantReadWriteLock lock = h2Lock(handle, name);
+            // a thread holds a name either exclusively or shared, as nothing
+            // here takes both modes of the same name
+            if (lock.isWriteLockedByCurrentThread()) {
+                lock.writeLock().unlock();
+            }
+            else if (lock.getReadHoldCount() > 0) {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static ReentrantReadWriteLock h2Lock(Handle handle, String name)
+    {
+        String url;
+        try {
+            url = handle.getConnection().getMetaData().getURL();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return H2_LOCKS.computeIfAbsent(url + "\n" + name, ignored -> new ReentrantReadWriteLock());
+    }
+
+    private static void lockH2(Lock lock, String name)
+    {
+        try {
+            if (!lock.tryLock(LOCK_TIMEOUT_SECONDS, SECONDS)) {
+                throw new IllegalStateException(format("Timed out after %s seconds waiting for lock %s", LOCK_TIMEOUT_SECONDS, name));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void lockPostgresql(Handle handle, String function, String name)
+    {
+        handle.createQuery("SELECT " + function + "(hashtext(:name))")
+                .bind("name", name)
+                .mapToMap()
+                .one();
+    }
+
+    private static void lockOracle(Handle handle, String mode, String name)
+    {
+        // ALLOCATE_UNIQUE commits, which would end the transaction and release
+        // the locks it already holds, so the handle is allocated in an
+        // autonomous transaction and only REQUEST runs in the caller's
+        int result = handle.createCall("DECLARE\n" +
+                "    lock_handle VARCHAR2(128);\n" +
+                "    FUNCTION allocate_lock_handle(lock_name VARCHAR2) RETURN VARCHAR2 IS\n" +
+                "        PRAGMA AUTONOMOUS_TRANSACTION;\n" +
+                "        allocated VARCHAR2(128);\n" +
+                "    BEGIN\n" +
+                "        DBMS_LOCK.ALLOCATE_UNIQUE(lock_name, allocated);\n" +
+                "        COMMIT;\n" +
+                "        RETURN allocated;\n" +
+                "    END;\n" +
+                "BEGIN\n" +
+                "    lock_handle := allocate_lock_handle(?);\n" +
+                "    ? := DBMS_LOCK.REQUEST(lock_handle, " + mode + ", ?, TRUE);\n" +
+                "END;")
+                .bind(0, name)
+                .registerOutParameter(1, Types.INTEGER)
+                .bind(2, LOCK_TIMEOUT_SECONDS)
+                .invoke()
+                .getInt(1);
+        // 0 is success, 4 means this session already owns the lock
+        if (result != 0 && result != 4) {
+            throw new IllegalStateException(format("Failed to acquire lock %s, DBMS_LOCK.REQUEST returned %s", name, result));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Progress of a resumable apply, stored in the resource_groups_apply_journal
+ * table. Rows are keyed by the target environment and the fingerprint of the
+ * configuration, and are updated in the same transaction as each chunk of
+ * rows written to the staging environment.
+ */
+public class ApplyJournalEntry
+{
+    private final String environment;
+    private final String fingerprint;
+    private final String stagingEnvironment;
+    private final int resourceGroupsLoaded;
+    private final int selectorsLoaded;
+
+    public ApplyJournalEntry(String environment, String fingerprint, String stagingEnvironment, int resourceGroupsLoaded, int selectorsLoaded)
+    {
+        this.environment = requireNonNull(environment, "environment is null");
+        this.fingerprint = requireNonNull(fingerprint, "fingerprint is null");
+        this.stagingEnvironment = requireNonNull(stagingEnvironment, "stagingEnvironment is null");
+        this.resourceGroupsLoaded = resourceGroupsLoaded;
+        this.selectorsLoaded = selectorsLoaded;
+    }
+
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    public String getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    public String getStagingEnvironment()
+    {
+        return stagingEnvironment;
+    }
+
+    public int getResourceGroupsLoaded()
+    {
+        return resourceGroupsLoaded;
+    }
+
+    public int getSelectorsLoaded()
+    {
+        return selectorsLoaded;
+    }
+
+    public static class Mapper
+            implements RowMapper<ApplyJournalEntry>
+    {
+        @Override
+        public ApplyJournalEntry map(ResultSet resultSet, StatementContext context)
+                throws SQLException
+        {
+            return new ApplyJournalEntry(
+                    resultSet.getString("environment"),
+                    resultSet.getString("fingerprint"),
+                    resultSet.getString("staging_environment"),
+                    resultSet.getInt("resource_groups_loaded"),
+                    resultSet.getInt("selectors_loaded"));
+        }
+    }
+}
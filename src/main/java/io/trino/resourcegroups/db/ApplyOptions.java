@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Options of {@link ResourceGroupsClient#apply}.
+ */
+public class ApplyOptions
+{
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    private boolean bulkLoad;
+    private boolean staged;
+    private Optional<String> stagingEnvironment = Optional.empty();
+    private boolean resumable;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int parallelism = 1;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors = Optional.empty();
+    private Optional<String> subtree = Optional.empty();
+
+    public boolean isBulkLoad()
+    {
+        return bulkLoad;
+    }
+
+    /**
+     * Write rows with the database specific {@link BulkLoader}.
+     */
+    public ApplyOptions setBulkLoad(boolean bulkLoad)
+    {
+        this.bulkLoad = bulkLoad;
+        return this;
+    }
+
+    public boolean isStaged()
+    {
+        return staged;
+    }
+
+    /**
+     * Write to a staging environment first and swap it in once verified.
+     */
+    public ApplyOptions setStaged(boolean staged)
+    {
+        this.staged = staged;
+        return this;
+    }
+
+    public Optional<String> getStagingEnvironment()
+    {
+        return stagingEnvironment;
+    }
+
+    public ApplyOptions setStagingEnvironment(String stagingEnvironment)
+    {
+        this.stagingEnvironment = Optional.of(requireNonNull(stagingEnvironment, "stagingEnvironment is null"));
+        return this;
+    }
+
+    public String getStagingEnvironment(String environment)
+    {
+        return stagingEnvironment.orElse(environment + "_staging");
+    }
+
+    public boolean isResumable()
+    {
+        return resumable;
+    }
+
+    /**
+     * Write to the staging environment in chunks committed with their progress
+     * in the apply journal, so a failed apply resumes where it stopped when it
+     * is run again. Implies a staged apply with the bulk loader.
+     */
+    public ApplyOptions setResumable(boolean resumable)
+    {
+        this.resumable = resumable;
+        return this;
+    }
+
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Rows written per transaction by a resumable apply.
+     */
+    public ApplyOptions setChunkSize(int chunkSize)
+    {
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Write the staging environment over this many connections at once, one
+     * subtree of the resource groups per connection at a time. Above 1,
+     * implies a staged apply with the bulk loader.
+     */
+    public ApplyOptions setParallelism(int parallelism)
+    {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    /**
+     * How a resumable apply retries transient database failures.
+     */
+    public ApplyOptions setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        this.retryPolicy = requireNonNull(retryPolicy, "retryPolicy is null");
+        return this;
+    }
+
+    public Optional<List<ExactMatchSelectorSpec>> getExactMatchSelectors()
+    {
+        return exactMatchSelectors;
+    }
+
+    /**
+     * Replace the rows of the environment in the exact_match_source_selectors
+     * table with these selectors. Without this option, the table is not
+     * changed.
+     */
+    public ApplyOptions setExactMatchSelectors(List<ExactMatchSelectorSpec> exactMatchSelectors)
+    {
+        this.exactMatchSelectors = Optional.of(ImmutableList.copyOf(requireNonNull(exactMatchSelectors, "exactMatchSelectors is null")));
+        return this;
+    }
+
+    public Optional<String> getSubtree()
+    {
+        return subtree;
+    }
+
+    /**
+     * Replace only the resource groups under this path, such as
+     * {@code global.etl}, and the selectors that target them. Cannot be
+     * combined with the other options.
+     */
+    public ApplyOptions setSubtree(String subtree)
+    {
+        this.subtree = Optional.of(requireNonNull(subtree, "subtree is null"));
+        return this;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.log.Logger;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+@CommandLine.Command(
+        name = "batch",
+        usageHelpAutoWidth = true
+)
+public class BatchCommand
+        implements Callable<Integer>
+{
+    private static final Logger LOG = Logger.get(BatchCommand.class);
+    private static final String BARRIER = "wait";
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--script", required = true, description = "File with one subcommand per line, either as command line arguments or as a JSON object")
+    public String script;
+
+    @CommandLine.Option(names = "--parallelism", defaultValue = "1", description = "Number of commands run at the same time; a line containing only 'wait' waits for all previous commands")
+    public int parallelism;
+
+    private BatchCommand() {}
+
+    @Override
+    public Integer call()
+            throws Exception
+    {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        List<Step> steps = parseScript(Files.readAllLines(Paths.get(script), UTF_8));
+        LOG.info("Running %d commands from %s", steps.stream().filter(step -> !step.isBarrier()).count(), script);
+
+        PrintWriter out = spec.commandLine().getOut();
+        Stopwatch total = Stopwatch.createStarted();
+        List<Result> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        CommandInjectors.startSharing();
+        try {
+            List<Future<Result>> running = new ArrayList<>();
+            for (Step step : steps) {
+                if (step.isBarrier()) {
+                    collect(running, results, out);
+                    continue;
+                }
+                running.add(executor.submit(() -> run(step)));
+            }
+            collect(running, results, out);
+        }
+        finally {
+            executor.shutdownNow();
+            CommandInjectors.stopSharing();
+        }
+
+        long failed = results.stream().filter(result -> result.getExitCode() != 0).count();
+        out.println(format("%-6s %-5s %10s  %s", "line", "exit", "millis", "command"));
+        for (Result result : results) {
+            out.println(format("%-6d %-5d %10d  %s", result.getStep().getLine(), result.getExitCode(), result.getMillis(), String.join(" ", result.getStep().getArguments())));
+        }
+        out.println(format("%d commands, %d failed, %d ms", results.size(), failed, total.elapsed(MILLISECONDS)));
+        out.flush();
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static void collect(List<Future<Result>> running, List<Result> results, PrintWriter out)
+            throws InterruptedException, ExecutionException
+    {
+        // futures are collected in script order, so output is not interleaved
+        for (Future<Result> future : running) {
+            Result result = future.get();
+            out.print(result.getOutput());
+            results.add(result);
+        }
+        running.clear();
+    }
+
+    private static Result run(Step step)
+    {
+        CommandLine commandLine = Cli.create();
+        StringWriter output = new StringWriter();
+        commandLine.setOut(new PrintWriter(output));
+        commandLine.setErr(new PrintWriter(output));
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int exitCode = commandLine.execute(step.getArguments().toArray(new String[0]));
+        commandLine.getOut().flush();
+        commandLine.getErr().flush();
+        return new Result(step, exitCode, stopwatch.elapsed(MILLISECONDS), output.toString());
+    }
+
+    static List<Step> parseScript(List<String> lines)
+    {
+        ObjectMapper mapper = new ObjectMapperProvider().get();
+        ImmutableList.Builder<Step> steps = ImmutableList.builder();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> arguments;
+            if (line.startsWith("{")) {
+                try {
+                    arguments = parseJson(mapper.readTree(line));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(format("Invalid JSON at line %s of the script", i + 1), e);
+                }
+            }
+            else {
+                arguments = tokenize(line);
+            }
+            checkArgument(!arguments.get(0).equals("batch"), "Batches cannot be nested, line %s", i + 1);
+            steps.add(new Step(i + 1, arguments));
+        }
+        return steps.build();
+    }
+
+    /**
+     * Converts {"command": "list_resource_groups", "options": {"environment": "prod", "bulk-load": true}}
+     * to command line arguments. Options set to true become flags, options set
+     * to false are left out.
+     */
+    private static List<String> parseJson(JsonNode node)
+    {
+        checkArgument(node.hasNonNull("command"), "JSON operation without command: %s", node);
+        ImmutableList.Builder<String> arguments = ImmutableList.builder();
+        arguments.add(node.get("command").asText());
+        if (node.has("options")) {
+            Iterator<Map.Entry<String, JsonNode>> options = node.get("options").fields();
+            while (options.hasNext()) {
+                Map.Entry<String, JsonNode> option = options.next();
+                if (option.getValue().isBoolean()) {
+                    if (option.getValue().asBoolean()) {
+                        arguments.add("--" + option.getKey());
+                    }
+                }
+                else {
+                    arguments.add("--" + option.getKey() + "=" + option.getValue().asText());
+                }
+            }
+        }
+        return arguments.build();
+    }
+
+    /**
+     * Splits a line on whitespace, keeping single or double quoted strings together.
+     */
+    private static List<String> tokenize(String line)
+    {
+        ImmutableList.Builder<String> tokens = ImmutableList.builder();
+        StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+        for (char c : line.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                else {
+                    token.append(c);
+                }
+            }
+            else if (c == '"' || c == '\'') {
+                quote = c;
+                inToken = true;
+            }
+            else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            }
+            else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        checkArgument(quote == 0, "Unterminated quote in: %s", line);
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens.build();
+    }
+
+    static class Step
+    {
+        private final int line;
+        private final List<String> arguments;
+
+        public Step(int line, List<String> arguments)
+        {
+            this.line = line;
+            this.arguments = ImmutableList.copyOf(arguments);
+        }
+
+        public int getLine()
+        {
+            return line;
+        }
+
+        public List<String> getArguments()
+        {
+            return arguments;
+        }
+
+        public boolean isBarrier()
+        {
+            return arguments.size() == 1 && arguments.get(0).equals(BARRIER);
+        }
+    }
+
+    private static class Result
+    {
+        private final Step step;
+        private final int exitCode;
+        private final long millis;
+        private final String output;
+
+        public Result(Step step, int exitCode, long millis, String output)
+        {
+            this.step = step;
+            this.exitCode = exitCode;
+            this.millis = millis;
+            this.output = output;
+        }
+
+        public Step getStep()
+        {
+            return step;
+        }
+
+        public int getExitCode()
+        {
+            return exitCode;
+        }
+
+        public long getMillis()
+        {
+            return millis;
+        }
+
+        public String getOutput()
+        {
+            return output;
+        }
+    }
+}
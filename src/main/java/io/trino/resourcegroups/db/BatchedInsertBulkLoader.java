@@ -0,0 +1,241 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.Lists;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Loads rows with JDBC batches of parameterized inserts. On MySQL the
+ * driver is configured with rewriteBatchedStatements, so every batch is
+ * sent as a single multi-row VALUES statement.
+ */
+public class BatchedInsertBulkLoader
+        implements BulkLoader
+{
+    private static final int BATCH_SIZE = 1000;
+    private static final String ID_ALLOCATION_LOCK = "trino_resource_groups:ids";
+    // environment of the rows reserving ids on MySQL, which are deleted in the transaction that inserts them
+    private static final String ID_ALLOCATION_ENVIRONMENT = "trino_resource_groups:ids";
+    // H2 is only used embedded, so the highest id handed out in this JVM, per
+    // database, covers the rows of transactions that have not committed yet
+    private static final Map<String, Long> H2_ALLOCATED_IDS = new HashMap<>();
+
+    private final DatabaseType databaseType;
+
+    public BatchedInsertBulkLoader(DatabaseType databaseType)
+    {
+        this.databaseType = requireNonNull(databaseType, "databaseType is null");
+    }
+
+    @Override
+    public long[] allocateResourceGroupIds(Handle handle, int count)
+    {
+        if (count == 0) {
+            return new long[0];
+        }
+        switch (databaseType) {
+            case POSTGRESQL:
+                return CopyBulkLoader.allocateFromSerialSequence(handle, count);
+            case MYSQL:
+                return allocateMysql(handle, count);
+            case ORACLE:
+                return allocateOracle(handle, count);
+            case H2:
+                return allocateH2(handle, count);
+        }
+        throw new IllegalArgumentException("Unsupported database type: " + databaseType);
+    }
+
+    /**
+     * Reserves the ids from the AUTO_INCREMENT counter, which moves past an
+     * explicit id as soon as it is inserted, even if the insert is rolled
+     * back: a row inserted without an id gets the first id of the range, and
+     * one inserted with the id after the range moves the counter past it.
+     * Both rows are deleted again, so besides the range only the two rows are
+     * locked until the transaction ends, and only other allocators wait for
+     * the lock, for as long as the two inserts take.
+     */
+    private static long[] allocateMysql(Handle handle, int count)
+    {
+        while (true) {
+            long firstId;
+            boolean taken;
+            AdvisoryLocks.lock(handle, DatabaseType.MYSQL, ID_ALLOCATION_LOCK);
+            try {
+                firstId = handle.attach(ResourceGroupsDao.class).insertResourceGroup("reserved", "0%", 0, null, 0, null, null, false, null, null, null, ID_ALLOCATION_ENVIRONMENT);
+                // inserts without an id that ran in between may already have taken it
+                taken = handle.createUpdate("INSERT IGNORE INTO resource_groups (resource_group_id, name, soft_memory_limit, max_queued, hard_concurrency_limit, environment) VALUES (:id, 'reserved', '0%', 0, 0, :environment)")
+                        .bind("id", firstId + count)
+                        .bind("environment", ID_ALLOCATION_ENVIRONMENT)
+                        .execute() == 0;
+            }
+            finally {
+                AdvisoryLocks.unlock(handle, DatabaseType.MYSQL, ID_ALLOCATION_LOCK);
+            }
+            // nothing references the reserved rows, and checking that would lock the gaps at the end of the
+            // indexes on the referencing columns, which concurrent inserts of sub groups and selectors go to
+            handle.execute("SET foreign_key_checks = 0");
+            try {
+                deleteResourceGroup(handle, firstId);
+                if (taken) {
+                    continue;
+                }
+                // an insert without an id that ran between the two got an id of the range; the locking read
+                // waits for it to commit or roll back, and only locks the range up to the second row, as long
+                // as it is a range scan of the primary key that ends at a row that is not deleted yet
+                taken = handle.createQuery("SELECT resource_group_id FROM resource_groups WHERE resource_group_id > :first AND resource_group_id < :last ORDER BY resource_group_id LIMIT 1 FOR UPDATE")
+                        .bind("first", firstId)
+                        .bind("last", firstId + count)
+                        .mapTo(Long.class)
+                        .findOne()
+                        .isPresent();
+                deleteResourceGroup(handle, firstId + count);
+            }
+            finally {
+                handle.execute("SET foreign_key_checks = 1");
+            }
+            if (!taken) {
+                long[] ids = new long[count];
+                for (int i = 0; i < count; i++) {
+                    ids[i] = firstId + i;
+                }
+                return ids;
+            }
+        }
+    }
+
+    private static void deleteResourceGroup(Handle handle, long id)
+    {
+        handle.createUpdate("DELETE FROM resource_groups WHERE resource_group_id = :id")
+                .bind("id", id)
+                .execute();
+    }
+
+    /**
+     * Draws the ids from the sequence of the identity column, like the serial
+     * sequence on PostgreSQL, so rows inserted later without an id never get
+     * one of them, and concurrent loads never wait on each other.
+     */
+    private static long[] allocateOracle(Handle handle, int count)
+    {
+        String sequence = handle.createQuery("SELECT sequence_name FROM user_tab_identity_cols WHERE table_name = 'RESOURCE_GROUPS' AND column_name = 'RESOURCE_GROUP_ID'")
+                .mapTo(String.class)
+                .one();
+        long[] ids = handle.createQuery("SELECT \"" + sequence + "\".NEXTVAL FROM dual CONNECT BY LEVEL <= :count")
+                .bind("count", count)
+                .mapTo(Long.class)
+                .stream()
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+        long maxId = handle.createQuery("SELECT COALESCE(MAX(resource_group_id), 0) FROM resource_groups")
+                .mapTo(Long.class)
+                .one();
+        if (ids[0] <= maxId) {
+            // rows were inserted with explicit ids without moving the identity past them, e.g. by a script of --emit-sql
+            // that stopped before its last statement; DDL commits implicitly, so it cannot be run from here
+            throw new IllegalStateException(format(
+                    "The identity of resource_groups.resource_group_id is behind the highest id %s, run " +
+                            "ALTER TABLE resource_groups MODIFY resource_group_id GENERATED BY DEFAULT ON NULL AS IDENTITY (START WITH LIMIT VALUE) and apply again",
+                    maxId));
+        }
+        return ids;
+    }
+
+    private static long[] allocateH2(Handle handle, int count)
+    {
+        String url;
+        try {
+            url = handle.getConnection().getMetaData().getURL();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (H2_ALLOCATED_IDS) {
+            long maxId = Math.max(
+                    handle.createQuery("SELECT COALESCE(MAX(resource_group_id), 0) FROM resource_groups").mapTo(Long.class).one(),
+                    H2_ALLOCATED_IDS.getOrDefault(url, 0L));
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = maxId + i + 1;
+            }
+            H2_ALLOCATED_IDS.put(url, maxId + count);
+            return ids;
+        }
+    }
+
+    @Override
+    public void load(Handle handle, ManagerSpecRows rows)
+    {
+        insert(handle, "INSERT INTO resource_groups (" + RESOURCE_GROUP_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                rows.getResourceGroups(),
+                BatchedInsertBulkLoader::bindResourceGroup);
+        insert(handle, "INSERT INTO selectors (" + SELECTOR_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                rows.getSelectors(),
+                BatchedInsertBulkLoader::bindSelector);
+    }
+
+    private static <T> void insert(Handle handle, String sql, List<T> rows, BiConsumer<PreparedBatch, T> binder)
+    {
+        for (List<T> partition : Lists.partition(rows, BATCH_SIZE)) {
+            try (PreparedBatch batch = handle.prepareBatch(sql)) {
+                for (T row : partition) {
+                    binder.accept(batch, row);
+                    batch.add();
+                }
+                batch.execute();
+            }
+        }
+    }
+
+    private static void bindResourceGroup(PreparedBatch batch, ResourceGroupRow row)
+    {
+        batch.bind(0, row.getId())
+                .bind(1, row.getName())
+                .bind(2, row.getSoftMemoryLimit())
+                .bind(3, row.getMaxQueued())
+                .bind(4, row.getSoftConcurrencyLimit())
+                .bind(5, row.getHardConcurrencyLimit())
+                .bind(6, row.getSchedulingPolicy())
+                .bind(7, row.getSchedulingWeight())
+                .bind(8, row.getJmxExport())
+                .bind(9, row.getSoftCpuLimit())
+                .bind(10, row.getHardCpuLimit())
+                .bind(11, row.getParentId().orElse(null))
+                .bind(12, row.getEnvironment());
+    }
+
+    private static void bindSelector(PreparedBatch batch, SelectorRow row)
+    {
+        batch.bind(0, row.getResourceGroupId())
+                .bind(1, row.getPriority())
+                .bind(2, row.getUserRegex())
+                .bind(3, row.getUserGroupRegex())
+                .bind(4, row.getSourceRegex())
+                .bind(5, row.getQueryType())
+                .bind(6, row.getClientTags())
+                .bind(7, row.getSelectorResourceEstimate());
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import org.jdbi.v3.core.Handle;
+
+/**
+ * Strategy for writing a flattened resource groups configuration in bulk.
+ * Ids are allocated on the client so parent links and selectors can be
+ * written without reading generated keys back row by row.
+ */
+public interface BulkLoader
+{
+    String RESOURCE_GROUP_COLUMNS = "resource_group_id, name, soft_memory_limit, max_queued, soft_concurrency_limit, hard_concurrency_limit, " +
+            "scheduling_policy, scheduling_weight, jmx_export, soft_cpu_limit, hard_cpu_limit, parent, environment";
+
+    String SELECTOR_COLUMNS = "resource_group_id, priority, user_regex, user_group_regex, source_regex, query_type, client_tags, selector_resource_estimate";
+
+    long[] allocateResourceGroupIds(Handle handle, int count);
+
+    void load(Handle handle, ManagerSpecRows rows);
+
+    static BulkLoader forDatabaseType(DatabaseType databaseType)
+    {
+        switch (databaseType) {
+            case POSTGRESQL:
+                return new CopyBulkLoader();
+            case MYSQL:
+            case ORACLE:
+            case H2:
+                return new BatchedInsertBulkLoader(databaseType);
+        }
+        throw new IllegalArgumentException("Unsupported database type: " + databaseType);
+    }
+}
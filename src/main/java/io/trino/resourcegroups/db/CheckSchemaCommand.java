@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.inject.Injector;
+import io.airlift.log.Logger;
+import org.jdbi.v3.core.Jdbi;
+import picocli.CommandLine;
+
+import java.util.List;
+
+@CommandLine.Command(
+        name = "check_schema",
+        usageHelpAutoWidth = true
+)
+public class CheckSchemaCommand
+        implements Runnable
+{
+    private static final Logger LOG = Logger.get(CheckSchemaCommand.class);
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--db-config", required = true, description = "Properties file with resource groups database config")
+    public String configFilename;
+
+    private CheckSchemaCommand() {}
+
+    @Override
+    public void run()
+    {
+        Injector injector = CommandInjectors.acquire(configFilename);
+        try {
+            injector.injectMembers(this);
+            List<ResourceGroupsSchema.Index> missingIndexes = injector.getInstance(Jdbi.class).withHandle(ResourceGroupsSchema::findMissingIndexes);
+            for (ResourceGroupsSchema.Index index : missingIndexes) {
+                LOG.warn("Missing index %s: %s", index, index.getReason());
+            }
+            if (missingIndexes.isEmpty()) {
+                LOG.info("All recommended indexes are present");
+            }
+            else {
+                LOG.warn("%d recommended indexes are missing, run init_schema to create them", missingIndexes.size());
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            CommandInjectors.release(injector);
+        }
+    }
+}
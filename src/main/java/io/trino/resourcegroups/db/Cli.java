@@ -21,7 +21,15 @@ import picocli.CommandLine;
         subcommands = {
                 CreateResourceGroupsCommand.class,
                 ListResourceGroupsCommand.class,
-                ValidateResourceGroupsJsonCommand.class
+                ValidateResourceGroupsJsonCommand.class,
+                InitSchemaCommand.class,
+                CheckSchemaCommand.class,
+                DiffResourceGroupsCommand.class,
+                BatchCommand.class,
+                RecommendLimitsCommand.class,
+                RollbackCommand.class,
+                CostReportCommand.class,
+                MigrateCommand.class
         }
 )
 public class Cli
@@ -33,7 +41,8 @@ public class Cli
 
     public static CommandLine create()
     {
-        return new CommandLine(new Cli());
+        return new CommandLine(new Cli())
+                .setCaseInsensitiveEnumValuesAllowed(true);
     }
 
     public static void main(String[] args)
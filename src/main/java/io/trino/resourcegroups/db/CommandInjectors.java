@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import io.airlift.bootstrap.Bootstrap;
+import io.airlift.bootstrap.LifeCycleManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+
+/**
+ * Creates the injectors used by the commands. A command normally bootstraps
+ * its own injector and stops it when done. While a batch is running, the
+ * injector of each database config file, and with it the connection pool, is
+ * shared by all commands of the batch and stopped when the batch ends.
+ */
+final class CommandInjectors
+{
+    private static final Map<String, Injector> SHARED = new HashMap<>();
+    private static boolean sharing;
+
+    private CommandInjectors() {}
+
+    public static synchronized Injector acquire(String configFilename)
+    {
+        if (!sharing) {
+            return create(configFilename);
+        }
+        Injector injector = SHARED.get(configFilename);
+        if (injector == null) {
+            injector = create(configFilename);
+            SHARED.put(configFilename, injector);
+        }
+        return injector;
+    }
+
+    public static synchronized void release(Injector injector)
+    {
+        if (!SHARED.containsValue(injector)) {
+            injector.getInstance(LifeCycleManager.class).stop();
+        }
+    }
+
+    public static synchronized void startSharing()
+    {
+        checkState(!sharing, "Batches cannot be nested");
+        sharing = true;
+    }
+
+    public static synchronized void stopSharing()
+    {
+        sharing = false;
+        for (Injector injector : SHARED.values()) {
+            injector.getInstance(LifeCycleManager.class).stop();
+        }
+        SHARED.clear();
+    }
+
+    private static Injector create(String configFilename)
+    {
+        if (configFilename != null) {
+            // Read
+            System.setProperty("config", configFilename);
+        }
+
+        ImmutableList.Builder<Module> builder = ImmutableList.<Module>builder()
+                .add(new ResourceGroupsDbModule())
+                .addAll(ImmutableList.of());
+
+        Bootstrap app = new Bootstrap(builder.build());
+        try {
+            return app.initialize();
+        }
+        catch (Exception e) {
+            throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A version in the resource_groups_history table, without its snapshot.
+ * Every apply to an environment, and every rollback, adds a version.
+ */
+public class ConfigHistoryEntry
+{
+    private final long version;
+    private final String environment;
+    private final String fingerprint;
+    private final int resourceGroups;
+    private final int selectors;
+    private final Instant createTime;
+
+    public ConfigHistoryEntry(long version, String environment, String fingerprint, int resourceGroups, int selectors, Instant createTime)
+    {
+        this.version = version;
+        this.environment = requireNonNull(environment, "environment is null");
+        this.fingerprint = requireNonNull(fingerprint, "fingerprint is null");
+        this.resourceGroups = resourceGroups;
+        this.selectors = selectors;
+        this.createTime = requireNonNull(createTime, "createTime is null");
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    public String getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    public int getResourceGroups()
+    {
+        return resourceGroups;
+    }
+
+    public int getSelectors()
+    {
+        return selectors;
+    }
+
+    public Instant getCreateTime()
+    {
+        return createTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return format("%s\t%s\t%s\t%s resource groups, %s selectors", version, createTime, fingerprint, resourceGroups, selectors);
+    }
+
+    public static class Mapper
+            implements RowMapper<ConfigHistoryEntry>
+    {
+        @Override
+        public ConfigHistoryEntry map(ResultSet resultSet, StatementContext context)
+                throws SQLException
+        {
+            return new ConfigHistoryEntry(
+                    resultSet.getLong("version"),
+                    resultSet.getString("environment"),
+                    resultSet.getString("fingerprint"),
+                    resultSet.getInt("resource_groups"),
+                    resultSet.getInt("selectors"),
+                    resultSet.getTimestamp("create_time").toInstant());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.trino.plugin.resourcegroups.ManagerSpec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A configuration as stored in the resource_groups_history table: the
+ * resource groups JSON written by {@link ManagerSpecToJson}, including the
+ * exact match selectors if the apply replaced them, compressed with gzip.
+ */
+public class ConfigSnapshot
+{
+    private final ManagerSpec managerSpec;
+    private final Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors;
+    private final String fingerprint;
+    private final byte[] compressed;
+
+    private ConfigSnapshot(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, byte[] compressed)
+    {
+        this.managerSpec = requireNonNull(managerSpec, "managerSpec is null");
+        this.exactMatchSelectors = requireNonNull(exactMatchSelectors, "exactMatchSelectors is null");
+        this.fingerprint = ManagerSpecFingerprint.fingerprint(managerSpec).toString();
+        this.compressed = requireNonNull(compressed, "compressed is null");
+    }
+
+    public static ConfigSnapshot create(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors)
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(output), UTF_8)) {
+            ManagerSpecToJson.write(managerSpec, exactMatchSelectors, writer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ConfigSnapshot(managerSpec, exactMatchSelectors, output.toByteArray());
+    }
+
+    public static ConfigSnapshot decode(byte[] compressed)
+    {
+        byte[] json;
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            json = input.readAllBytes();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ManagerSpecBinary.Snapshot snapshot = FileBasedResourceGroups.parseResourceGroupsFile(json);
+        return new ConfigSnapshot(snapshot.getManagerSpec(), snapshot.getExactMatchSelectors(), compressed);
+    }
+
+    public ManagerSpec getManagerSpec()
+    {
+        return managerSpec;
+    }
+
+    public Optional<List<ExactMatchSelectorSpec>> getExactMatchSelectors()
+    {
+        return exactMatchSelectors;
+    }
+
+    public String getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    public int getResourceGroupCount()
+    {
+        return ManagerSpecRows.countResourceGroups(managerSpec.getRootGroups());
+    }
+
+    public int getSelectorCount()
+    {
+        return managerSpec.getSelectors().size();
+    }
+
+    public byte[] getCompressed()
+    {
+        return compressed;
+    }
+}
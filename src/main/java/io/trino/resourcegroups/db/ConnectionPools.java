@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.trino.plugin.resourcegroups.db.DbResourceGroupConfig;
+import org.jdbi.v3.core.Jdbi;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Connection pools of the resource groups database and of its optional read
+ * replica. Everything bound in one injector, including all commands of a
+ * batch using the same config file, borrows connections from these pools,
+ * which are closed when the injector is stopped. Connections are opened on
+ * first use, so a command that never touches the replica never connects to
+ * it.
+ */
+public class ConnectionPools
+{
+    private final HikariDataSource primary;
+    private final Optional<HikariDataSource> readReplica;
+
+    @Inject
+    public ConnectionPools(DbResourceGroupConfig config, ReadReplicaConfig replicaConfig, ConnectionPoolConfig poolConfig)
+    {
+        requireNonNull(config, "config is null");
+        requireNonNull(replicaConfig, "replicaConfig is null");
+        requireNonNull(poolConfig, "poolConfig is null");
+        this.primary = createDataSource("resource-groups", config.getConfigDbUrl(), config.getConfigDbUser(), config.getConfigDbPassword(), poolConfig.getMaxConnections());
+        this.readReplica = Optional.ofNullable(replicaConfig.getReadReplicaDbUrl())
+                .map(url -> createDataSource(
+                        "resource-groups-read-replica",
+                        url,
+                        Optional.ofNullable(replicaConfig.getReadReplicaDbUser()).orElse(config.getConfigDbUser()),
+                        Optional.ofNullable(replicaConfig.getReadReplicaDbPassword()).orElse(config.getConfigDbPassword()),
+                        poolConfig.getMaxConnections()));
+    }
+
+    public Jdbi getPrimary()
+    {
+        return Jdbi.create(primary);
+    }
+
+    public Optional<Jdbi> getReadReplica()
+    {
+        return readReplica.map(Jdbi::create);
+    }
+
+    @PreDestroy
+    public void close()
+    {
+        readReplica.ifPresent(HikariDataSource::close);
+        primary.close();
+    }
+
+    private static HikariDataSource createDataSource(String poolName, String url, String user, String password, int maxConnections)
+    {
+        DatabaseType databaseType = DatabaseType.fromJdbcUrl(url);
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(poolName);
+        hikariConfig.setJdbcUrl(url);
+        hikariConfig.setDriverClassName(databaseType.getDriverClassName());
+        hikariConfig.setUsername(user);
+        hikariConfig.setPassword(password);
+        hikariConfig.setMaximumPoolSize(maxConnections);
+        // connections are opened as they are needed rather than up front
+        hikariConfig.setMinimumIdle(0);
+        hikariConfig.setInitializationFailTimeout(-1);
+        if (databaseType == DatabaseType.MYSQL) {
+            // lets the driver collapse batched inserts into multi-row VALUES statements
+            hikariConfig.addDataSourceProperty("rewriteBatchedStatements", "true");
+        }
+        return new HikariDataSource(hikariConfig);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import org.jdbi.v3.core.Handle;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Loads rows on PostgreSQL with COPY, streaming CSV records to the server
+ * in fixed size buffers.
+ */
+public class CopyBulkLoader
+        implements BulkLoader
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    @Override
+    public long[] allocateResourceGroupIds(Handle handle, int count)
+    {
+        return allocateFromSerialSequence(handle, count);
+    }
+
+    static long[] allocateFromSerialSequence(Handle handle, int count)
+    {
+        // reserve the ids from the serial sequence so concurrent writers never hand out the same id
+        List<Long> ids = handle.createQuery("SELECT nextval(pg_get_serial_sequence('resource_groups', 'resource_group_id')) FROM generate_series(1, :count)")
+                .bind("count", count)
+                .mapTo(Long.class)
+                .list();
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public void load(Handle handle, ManagerSpecRows rows)
+    {
+        try {
+            CopyManager copyManager = handle.getConnection().unwrap(PGConnection.class).getCopyAPI();
+            copy(copyManager, "COPY resource_groups (" + RESOURCE_GROUP_COLUMNS + ") FROM STDIN WITH (FORMAT csv)", rows.getResourceGroups(), CopyBulkLoader::appendResourceGroup);
+            copy(copyManager, "COPY selectors (" + SELECTOR_COLUMNS + ") FROM STDIN WITH (FORMAT csv)", rows.getSelectors(), CopyBulkLoader::appendSelector);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> void copy(CopyManager copyManager, String sql, List<T> rows, BiConsumer<StringBuilder, T> formatter)
+            throws SQLException
+    {
+        CopyIn copyIn = copyManager.copyIn(sql);
+        try {
+            StringBuilder buffer = new StringBuilder(BUFFER_SIZE * 2);
+            for (T row : rows) {
+                formatter.accept(buffer, row);
+                if (buffer.length() >= BUFFER_SIZE) {
+                    write(copyIn, buffer);
+                }
+            }
+            write(copyIn, buffer);
+            copyIn.endCopy();
+        }
+        finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void write(CopyIn copyIn, StringBuilder buffer)
+            throws SQLException
+    {
+        byte[] bytes = buffer.toString().getBytes(UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    private static void appendResourceGroup(StringBuilder buffer, ResourceGroupRow row)
+    {
+        buffer.append(row.getId()).append(',');
+        appendString(buffer, row.getName()).append(',');
+        appendString(buffer, row.getSoftMemoryLimit()).append(',');
+        buffer.append(row.getMaxQueued()).append(',');
+        appendNullable(buffer, row.getSoftConcurrencyLimit()).append(',');
+        buffer.append(row.getHardConcurrencyLimit()).append(',');
+        appendString(buffer, row.getSchedulingPolicy()).append(',');
+        appendNullable(buffer, row.getSchedulingWeight()).append(',');
+        buffer.append(row.getJmxExport()).append(',');
+        appendString(buffer, row.getSoftCpuLimit()).append(',');
+        appendString(buffer, row.getHardCpuLimit()).append(',');
+        appendNullable(buffer, row.getParentId().orElse(null)).append(',');
+        appendString(buffer, row.getEnvironment()).append('\n');
+    }
+
+    private static void appendSelector(StringBuilder buffer, SelectorRow row)
+    {
+        buffer.append(row.getResourceGroupId()).append(',');
+        buffer.append(row.getPriority()).append(',');
+        appendString(buffer, row.getUserRegex()).append(',');
+        appendString(buffer, row.getUserGroupRegex()).append(',');
+        appendString(buffer, row.getSourceRegex()).append(',');
+        appendString(buffer, row.getQueryType()).append(',');
+        appendString(buffer, row.getClientTags()).append(',');
+        appendString(buffer, row.getSelectorResourceEstimate()).append('\n');
+    }
+
+    private static StringBuilder appendNullable(StringBuilder buffer, Object value)
+    {
+        // an unquoted empty field is NULL in CSV format
+        if (value != null) {
+            buffer.append(value);
+        }
+        return buffer;
+    }
+
+    private static StringBuilder appendString(StringBuilder buffer, String value)
+    {
+        if (value == null) {
+            return buffer;
+        }
+        return buffer.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
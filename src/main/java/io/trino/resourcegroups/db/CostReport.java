@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Estimates what a configuration costs Trino. The reload cost is paid by
+ * every coordinator each time it refreshes the configuration from the
+ * database: it reads the rows, builds the resource group tree and compiles the
+ * regexes of the selectors. The routing cost is paid by every query to find
+ * its resource group, and is measured by routing sample query contexts with
+ * the compiled selectors, counting the selectors evaluated before one
+ * matches and timing the routing after a warm up.
+ */
+public class CostReport
+{
+    public static final String RESOURCE_GROUPS = "resource_groups";
+    public static final String SELECTORS = "selectors";
+    public static final String TREE_DEPTH = "tree_depth";
+    public static final String REGEXES = "regexes";
+    public static final String REGEX_COMPILE_MICROS = "regex_compile_micros";
+    public static final String SELECTORS_PER_QUERY = "selectors_per_query";
+    public static final String NANOS_PER_QUERY = "nanos_per_query";
+
+    private static final int COMPILE_ROUNDS = 5;
+
+    private final Map<String, Double> costs;
+    private final double unroutedQueries;
+
+    private CostReport(Map<String, Double> costs, double unroutedQueries)
+    {
+        this.costs = ImmutableMap.copyOf(requireNonNull(costs, "costs is null"));
+        this.unroutedQueries = unroutedQueries;
+    }
+
+    /**
+     * Measures the costs of the configuration, routing the contexts
+     * repeatedly for the benchmark time, half of which is spent warming up.
+     */
+    public static CostReport measure(ManagerSpec managerSpec, List<QueryEvent> contexts, Duration benchmarkTime)
+    {
+        requireNonNull(managerSpec, "managerSpec is null");
+        checkArgument(!contexts.isEmpty(), "contexts is empty");
+        List<SelectorSpec> selectors = managerSpec.getSelectors();
+        List<String> regexes = new ArrayList<>();
+        for (SelectorSpec selector : selectors) {
+            selector.getUserRegex().ifPresent(regex -> regexes.add(regex.pattern()));
+            selector.getUserGroupRegex().ifPresent(regex -> regexes.add(regex.pattern()));
+            selector.getSourceRegex().ifPresent(regex -> regexes.add(regex.pattern()));
+        }
+        // the fastest of a few rounds is the least disturbed by class loading and collection
+        long compileNanos = Long.MAX_VALUE;
+        for (int round = 0; round < COMPILE_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String regex : regexes) {
+                Pattern.compile(regex);
+            }
+            compileNanos = Math.min(compileNanos, System.nanoTime() - start);
+        }
+
+        SelectorMatcher matcher = new SelectorMatcher(selectors);
+        long evaluated = 0;
+        long unrouted = 0;
+        for (QueryEvent context : contexts) {
+            Optional<SelectorMatcher.Route> route = route(matcher, context);
+            evaluated += route.map(value -> value.getSelector() + 1).orElse(selectors.size());
+            if (route.isEmpty()) {
+                unrouted++;
+            }
+        }
+
+        long halfTime = (long) benchmarkTime.getValue(NANOSECONDS) / 2;
+        routeFor(matcher, contexts, halfTime);
+        long[] routed = routeFor(matcher, contexts, halfTime);
+
+        return new CostReport(
+                ImmutableMap.<String, Double>builder()
+                        .put(RESOURCE_GROUPS, (double) ManagerSpecRows.countResourceGroups(managerSpec.getRootGroups()))
+                        .put(SELECTORS, (double) selectors.size())
+                        .put(TREE_DEPTH, (double) depth(managerSpec.getRootGroups()))
+                        .put(REGEXES, (double) regexes.size())
+                        .put(REGEX_COMPILE_MICROS, compileNanos / 1000.0)
+                        .put(SELECTORS_PER_QUERY, (double) evaluated / contexts.size())
+                        .put(NANOS_PER_QUERY, (double) routed[1] / routed[0])
+                        .build(),
+                (double) unrouted / contexts.size());
+    }
+
+    /**
+     * Query contexts aimed at the selectors, one picked at random for each:
+     * regexes that only match one string are matched with it, others with a
+     * generated value, which usually leaves the query to later selectors as
+     * it would a query of a user the configuration was not written for.
+     */
+    public static List<QueryEvent> generateContexts(ManagerSpec managerSpec, int count, long seed)
+    {
+        checkArgument(count > 0, "count must be positive");
+        List<SelectorSpec> selectors = managerSpec.getSelectors();
+        Random random = new Random(seed);
+        ImmutableList.Builder<QueryEvent> contexts = ImmutableList.builderWithExpectedSize(count);
+        for (int i = 0; i < count; i++) {
+            Optional<SelectorSpec> selector = selectors.isEmpty() ? Optional.empty() : Optional.of(selectors.get(random.nextInt(selectors.size())));
+            String user = selector.flatMap(SelectorSpec::getUserRegex)
+                    .flatMap(regex -> ExactMatchSelectors.literal(regex.pattern()))
+                    .orElse("user_" + random.nextInt(1000));
+            List<String> groups = selector.flatMap(SelectorSpec::getUserGroupRegex)
+                    .flatMap(regex -> ExactMatchSelectors.literal(regex.pattern()))
+                    .map(ImmutableList::of)
+                    .orElse(ImmutableList.of());
+            Optional<String> source = Optional.of(selector.flatMap(SelectorSpec::getSourceRegex)
+                    .flatMap(regex -> ExactMatchSelectors.literal(regex.pattern()))
+                    .orElse("source_" + random.nextInt(100)));
+            List<String> clientTags = selector.flatMap(SelectorSpec::getClientTags).orElse(ImmutableList.of());
+            Optional<String> queryType = selector.flatMap(SelectorSpec::getQueryType);
+            contexts.add(new QueryEvent(user, groups, source, clientTags, queryType, 0, 0, 0, 0));
+        }
+        return contexts.build();
+    }
+
+    /**
+     * Costs by name, in the order of the constants of this class.
+     */
+    public Map<String, Double> getCosts()
+    {
+        return costs;
+    }
+
+    public double getCost(String name)
+    {
+        Double cost = costs.get(name);
+        checkArgument(cost != null, "Unknown cost: %s", name);
+        return cost;
+    }
+
+    /**
+     * Fraction of the contexts that matched no selector.
+     */
+    public double getUnroutedQueries()
+    {
+        return unroutedQueries;
+    }
+
+    /**
+     * Routes the contexts until the time is up, and returns the number of
+     * contexts routed and the nanoseconds it took.
+     */
+    private static long[] routeFor(SelectorMatcher matcher, List<QueryEvent> contexts, long nanos)
+    {
+        long routed = 0;
+        long matched = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (QueryEvent context : contexts) {
+                matched += route(matcher, context).map(SelectorMatcher.Route::getSelector).orElse(-1);
+            }
+            routed += contexts.size();
+            elapsed = System.nanoTime() - start;
+        }
+        while (elapsed < nanos);
+        // keeps the routing from being optimized away
+        if (matched == Long.MIN_VALUE) {
+            throw new AssertionError();
+        }
+        return new long[] {routed, elapsed};
+    }
+
+    private static Optional<SelectorMatcher.Route> route(SelectorMatcher matcher, QueryEvent context)
+    {
+        return matcher.route(context.getUser(), context.getGroups(), context.getSource(), context.getClientTags(), context.getQueryType());
+    }
+
+    private static int depth(List<ResourceGroupSpec> groups)
+    {
+        int depth = 0;
+        for (ResourceGroupSpec group : groups) {
+            depth = Math.max(depth, 1 + depth(group.getSubGroups()));
+        }
+        return depth;
+    }
+}
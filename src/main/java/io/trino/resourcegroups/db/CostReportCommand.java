@@ -0,0 +1,207 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import picocli.CommandLine;
+
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.lang.String.format;
+
+@CommandLine.Command(
+        name = "cost_report",
+        usageHelpAutoWidth = true
+)
+public class CostReportCommand
+        implements Callable<Integer>
+{
+    private static final Logger LOG = Logger.get(CostReportCommand.class);
+    private static final long SEED = 20220301;
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--resource-groups-json", required = true, description = "JSON file with the resource groups to estimate the costs of")
+    public String resourceGroupsSchema;
+
+    @CommandLine.Option(names = "--baseline-resource-groups-json", description = "JSON file with the resource groups before the change, measured with the same query contexts")
+    public String baselineResourceGroupsSchema;
+
+    @CommandLine.Option(names = "--query-log", arity = "1..*", description = "JSON lines files with Trino query completed events, optionally gzip compressed, sampled for query contexts (default: contexts generated from the selectors)")
+    public List<String> queryLogs;
+
+    @CommandLine.Option(names = "--samples", defaultValue = "10000", description = "Number of query contexts routed by the benchmark (default: ${DEFAULT-VALUE})")
+    public int samples;
+
+    @CommandLine.Option(names = "--benchmark-time", defaultValue = "2s", description = "Time spent routing the query contexts with each configuration, half of it warming up (default: ${DEFAULT-VALUE})")
+    public String benchmarkTime;
+
+    @CommandLine.Option(names = "--max-resource-groups", description = "Budget for the number of resource group rows")
+    public Double maxResourceGroups;
+
+    @CommandLine.Option(names = "--max-selectors", description = "Budget for the number of selector rows")
+    public Double maxSelectors;
+
+    @CommandLine.Option(names = "--max-tree-depth", description = "Budget for the depth of the resource group tree")
+    public Double maxTreeDepth;
+
+    @CommandLine.Option(names = "--max-regexes", description = "Budget for the number of regexes compiled on every reload")
+    public Double maxRegexes;
+
+    @CommandLine.Option(names = "--max-regex-compile-micros", description = "Budget for the microseconds spent compiling the regexes on every reload")
+    public Double maxRegexCompileMicros;
+
+    @CommandLine.Option(names = "--max-selectors-per-query", description = "Budget for the mean number of selectors evaluated to route a query")
+    public Double maxSelectorsPerQuery;
+
+    @CommandLine.Option(names = "--max-nanos-per-query", description = "Budget for the mean nanoseconds spent routing a query")
+    public Double maxNanosPerQuery;
+
+    @CommandLine.Option(names = "--max-growth", description = "Budget for every cost as a multiple of the baseline, e.g. 1.1 for at most 10% more")
+    public Double maxGrowth;
+
+    @CommandLine.Option(names = "--threads", description = "Number of threads parsing the query logs (default: number of processors)")
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    private CostReportCommand() {}
+
+    @Override
+    public Integer call()
+    {
+        checkArgument(samples > 0, "samples must be positive");
+        checkArgument(maxGrowth == null || baselineResourceGroupsSchema != null, "--max-growth requires --baseline-resource-groups-json");
+        ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsSchema);
+        Optional<ManagerSpec> baselineSpec = Optional.ofNullable(baselineResourceGroupsSchema).map(FileBasedResourceGroups::parseResourceGroupsSchema);
+
+        List<QueryEvent> contexts = queryLogs != null ? sampleQueryLogs() : generateContexts(managerSpec, baselineSpec);
+        LOG.info("Routing %s query contexts", contexts.size());
+
+        Duration duration = Duration.valueOf(benchmarkTime);
+        Optional<CostReport> baseline = baselineSpec.map(baselineManagerSpec -> CostReport.measure(baselineManagerSpec, contexts, duration));
+        CostReport report = CostReport.measure(managerSpec, contexts, duration);
+
+        Map<String, Double> budgets = new HashMap<>();
+        putBudget(budgets, CostReport.RESOURCE_GROUPS, maxResourceGroups);
+        putBudget(budgets, CostReport.SELECTORS, maxSelectors);
+        putBudget(budgets, CostReport.TREE_DEPTH, maxTreeDepth);
+        putBudget(budgets, CostReport.REGEXES, maxRegexes);
+        putBudget(budgets, CostReport.REGEX_COMPILE_MICROS, maxRegexCompileMicros);
+        putBudget(budgets, CostReport.SELECTORS_PER_QUERY, maxSelectorsPerQuery);
+        putBudget(budgets, CostReport.NANOS_PER_QUERY, maxNanosPerQuery);
+
+        PrintWriter out = spec.commandLine().getOut();
+        out.println(format("%-22s %14s %14s %14s  %s", "cost", "value", "baseline", "budget", "status"));
+        int exceeded = 0;
+        for (Map.Entry<String, Double> cost : report.getCosts().entrySet()) {
+            Optional<Double> baselineCost = baseline.map(value -> value.getCost(cost.getKey()));
+            Optional<Double> budget = Optional.ofNullable(budgets.get(cost.getKey()));
+            // growth from nothing is not measured, only the absolute budget applies
+            if (maxGrowth != null && baselineCost.isPresent() && baselineCost.get() > 0) {
+                double growthBudget = baselineCost.get() * maxGrowth;
+                budget = Optional.of(budget.map(value -> Math.min(value, growthBudget)).orElse(growthBudget));
+            }
+            boolean over = budget.isPresent() && cost.getValue() > budget.get();
+            if (over) {
+                exceeded++;
+            }
+            out.println(format("%-22s %14s %14s %14s  %s",
+                    cost.getKey(),
+                    formatCost(cost.getValue()),
+                    baselineCost.map(CostReportCommand::formatCost).orElse("-"),
+                    budget.map(CostReportCommand::formatCost).orElse("-"),
+                    over ? "OVER BUDGET" : "ok"));
+        }
+        out.println(format("%.1f%% of the query contexts matched no selector", report.getUnroutedQueries() * 100));
+        out.flush();
+        if (exceeded > 0) {
+            LOG.error("%s costs are over budget", exceeded);
+            return 1;
+        }
+        return 0;
+    }
+
+    private List<QueryEvent> generateContexts(ManagerSpec managerSpec, Optional<ManagerSpec> baselineSpec)
+    {
+        // contexts are aimed at the baseline selectors as well, so both configurations are measured on the same ones
+        List<QueryEvent> contexts = new ArrayList<>(CostReport.generateContexts(managerSpec, samples, SEED));
+        baselineSpec.ifPresent(baseline -> contexts.addAll(CostReport.generateContexts(baseline, samples, SEED)));
+        return contexts;
+    }
+
+    /**
+     * Samples the events of the query logs uniformly, with a fixed seed so that
+     * runs on the same logs route the same contexts.
+     */
+    private List<QueryEvent> sampleQueryLogs()
+    {
+        List<QueryEvent> sample = new ArrayList<>();
+        Random random = new Random(SEED);
+        long[] seen = new long[1];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            new QueryLogIngester(executor, threads).ingest(
+                    queryLogs.stream().map(Paths::get).collect(toImmutableList()),
+                    batch -> {
+                        for (int position = 0; position < batch.getPositionCount(); position++) {
+                            seen[0]++;
+                            if (sample.size() < samples) {
+                                sample.add(batch.getEvent(position));
+                            }
+                            else {
+                                long slot = (long) (random.nextDouble() * seen[0]);
+                                if (slot < samples) {
+                                    sample.set((int) slot, batch.getEvent(position));
+                                }
+                            }
+                        }
+                    });
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        LOG.info("Sampled %s of %s query events", sample.size(), seen[0]);
+        checkArgument(!sample.isEmpty(), "No query completed events in %s", queryLogs);
+        return sample;
+    }
+
+    private static void putBudget(Map<String, Double> budgets, String cost, Double budget)
+    {
+        if (budget != null) {
+            budgets.put(cost, budget);
+        }
+    }
+
+    private static String formatCost(double cost)
+    {
+        return cost == Math.rint(cost) ? format("%.0f", cost) : format("%.2f", cost);
+    }
+}
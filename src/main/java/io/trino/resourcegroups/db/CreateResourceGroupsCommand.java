@@ -15,17 +15,22 @@ package io.trino.resourcegroups.db;
 
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Injector;
-import com.google.inject.Module;
-import io.airlift.bootstrap.Bootstrap;
-import io.airlift.bootstrap.LifeCycleManager;
 import io.airlift.log.Logger;
+import io.airlift.units.Duration;
 import io.trino.plugin.resourcegroups.ManagerSpec;
-import io.trino.plugin.resourcegroups.ResourceGroupIdTemplate;
-import io.trino.plugin.resourcegroups.ResourceGroupSpec;
-import io.trino.plugin.resourcegroups.SelectorSpec;
 import picocli.CommandLine;
 
-import static com.google.common.base.Throwables.throwIfUnchecked;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+
+import static io.trino.resourcegroups.db.ResourceGroupsClient.getFutureValue;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 @CommandLine.Command(
         name = "create_resource_groups",
@@ -36,64 +41,129 @@ public class CreateResourceGroupsCommand
 {
     private static final Logger LOG = Logger.get(CreateResourceGroupsCommand.class);
 
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
     @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
     public boolean usageHelpRequested;
 
-    @CommandLine.Option(names = "--db-config", required = true, description = "Properties file with resource groups database config")
+    @CommandLine.Option(names = "--db-config", description = "Properties file with resource groups database config (required unless --emit-sql is given with --dialect and --first-resource-group-id)")
     public String configFilename;
 
-    @CommandLine.Option(names = "--resource-groups-json", required = true, description = "JSON file with resource groups schema to load")
+    @CommandLine.Option(names = "--resource-groups-json", description = "JSON, Smile or CBOR file with resource groups schema to load")
     public String resourceGroupsSchema;
 
+    @CommandLine.Option(names = "--template", description = "JSON template with the resource groups and selectors repeated for every tenant, instead of --resource-groups-json")
+    public String template;
+
+    @CommandLine.Option(names = "--tenants", description = "CSV file with a header, or JSON lines file, with the parameters of each tenant of --template")
+    public String tenants;
+
     @CommandLine.Option(names = "--environment", defaultValue = "test", required = true, description = "Environment where resource groups will be used (matches environment in node.properties)")
     public String environment;
 
+    @CommandLine.Option(names = "--bulk-load", description = "Write rows with the database specific bulk loader (COPY on PostgreSQL, batched multi-row inserts on MySQL)")
+    public boolean bulkLoad;
+
+    @CommandLine.Option(names = "--staged", description = "Write to a staging environment first, verify it, and then swap it in with a single short transaction")
+    public boolean staged;
+
+    @CommandLine.Option(names = "--staging-environment", description = "Staging environment used with --staged (default: <environment>_staging)")
+    public String stagingEnvironment;
+
+    @CommandLine.Option(names = "--resumable", description = "Write to the staging environment in committed chunks, retrying transient failures, so that rerunning a failed apply resumes after the last committed chunk")
+    public boolean resumable;
+
+    @CommandLine.Option(names = "--chunk-size", defaultValue = "10000", description = "Rows written per transaction with --resumable (default: ${DEFAULT-VALUE})")
+    public int chunkSize;
+
+    @CommandLine.Option(names = "--parallelism", defaultValue = "1", description = "Write the staging environment over this many connections at once, one subtree of the resource groups per connection at a time, and swap it in like --staged (default: ${DEFAULT-VALUE})")
+    public int parallelism;
+
+    @CommandLine.Option(names = "--max-attempts", defaultValue = "5", description = "Attempts for each chunk with --resumable before giving up (default: ${DEFAULT-VALUE})")
+    public int maxAttempts;
+
+    @CommandLine.Option(names = "--retry-delay", defaultValue = "1s", description = "Delay before the first retry with --resumable, doubled after each attempt up to 1m (default: ${DEFAULT-VALUE})")
+    public String retryDelay;
+
+    @CommandLine.Option(names = "--emit-sql", description = "Write the statements to this SQL script instead of running them")
+    public String emitSql;
+
+    @CommandLine.Option(names = "--dialect", description = "SQL dialect of the script written with --emit-sql: ${COMPLETION-CANDIDATES} (default: from the JDBC URL in --db-config)")
+    public DatabaseType dialect;
+
+    @CommandLine.Option(names = "--first-resource-group-id", description = "First resource group id of the script written with --emit-sql (default: one above the largest id in the database of --db-config)")
+    public Long firstResourceGroupId;
+
+    @CommandLine.Option(names = "--promote-exact-match-selectors", description = "Move selectors that only match a literal source to the exact_match_source_selectors table, read by Trino with resource-groups.exact-match-selector-enabled")
+    public boolean promoteExactMatchSelectors;
+
+    @CommandLine.Option(names = "--subtree", description = "Replace only the resource groups under this path, such as global.etl, and the selectors that target them, leaving the rest of the environment alone")
+    public String subtree;
+
+    private ManagerSpec managerSpec;
+    private Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors;
+
     private CreateResourceGroupsCommand() {}
 
     @Override
     public void run()
     {
-        if (configFilename != null) {
-            // Read
-            System.setProperty("config", configFilename);
+        if ((resourceGroupsSchema == null) == (template == null)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Exactly one of --resource-groups-json and --template is required");
         }
-
-        ImmutableList.Builder<Module> builder = ImmutableList.<Module>builder()
-                .add(new ResourceGroupsDbModule())
-                .addAll(ImmutableList.of());
-
-        Bootstrap app = new Bootstrap(builder.build());
-        Injector injector;
-        try {
-            injector = app.initialize();
+        if ((template == null) != (tenants == null)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--template and --tenants must be given together");
         }
-        catch (Exception e) {
-            throwIfUnchecked(e);
-            throw new RuntimeException(e);
+        if (template != null && (emitSql != null || staged || resumable || promoteExactMatchSelectors)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--template cannot be combined with --emit-sql, --staged, --resumable or --promote-exact-match-selectors");
         }
-
+        if (subtree != null && (template != null || emitSql != null || staged || resumable || bulkLoad || promoteExactMatchSelectors)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--subtree cannot be combined with --template, --emit-sql, --staged, --resumable, --bulk-load or --promote-exact-match-selectors");
+        }
+        if (parallelism < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--parallelism must be positive");
+        }
+        if (parallelism > 1 && (template != null || emitSql != null || resumable || subtree != null)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--parallelism cannot be combined with --template, --emit-sql, --resumable or --subtree");
+        }
+        if (emitSql != null) {
+            emitSql();
+            return;
+        }
+        if (configFilename == null) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Missing required option: '--db-config'");
+        }
+        Injector injector = CommandInjectors.acquire(configFilename);
         try {
             injector.injectMembers(this);
             LOG.info("Environment to update resource groups for: %s", environment);
+            if (template != null) {
+                LOG.info("Input template: %s, tenants: %s", template, tenants);
+                getFutureValue(injector.getInstance(ResourceGroupsClient.class).applyTemplate(TenantTemplate.parse(Paths.get(template)), Paths.get(tenants), environment));
+                LOG.info("Resource groups created successfully");
+                return;
+            }
             LOG.info("Input JSON file: %s", resourceGroupsSchema);
-            ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsSchema);
-            ResourceGroupsDao dao = injector.getInstance(ResourceGroupsDao.class);
-            dao.setCpuQuotaPeriod(managerSpec.getCpuQuotaPeriod().get().toString());
-            // truncating resource_groups table will remove all rows
-            // in tables with foreign key constraints on resource_groups
-            dao.truncateTable("resource_groups");
-            // insert root groups and all children
-            for (ResourceGroupSpec resourceGroup : managerSpec.getRootGroups()) {
-                dao.insertResourceGroup(resourceGroup, environment, null);
+            readResourceGroupsJson();
+            ApplyOptions options = new ApplyOptions()
+                    .setBulkLoad(bulkLoad)
+                    .setStaged(staged)
+                    .setResumable(resumable)
+                    .setChunkSize(chunkSize)
+                    .setParallelism(parallelism)
+                    .setRetryPolicy(new RetryPolicy(maxAttempts, Duration.valueOf(retryDelay), new Duration(1, MINUTES)));
+            if (stagingEnvironment != null) {
+                options.setStagingEnvironment(stagingEnvironment);
+            }
+            if (subtree != null) {
+                LOG.info("Replacing resource groups under %s", subtree);
+                options.setSubtree(subtree);
             }
-            // userGroup rule in DB selectors is not supported.
-            // PR in trino has been opened to add support for this.
-            int priority = managerSpec.getSelectors().size();
-            for (SelectorSpec selector : managerSpec.getSelectors()) {
-                ResourceGroupIdTemplate resourceGroupIdTemplate = selector.getGroup();
-                dao.insertSelector(selector, priority);
-                priority--;
+            else {
+                exactMatchSelectors.ifPresent(options::setExactMatchSelectors);
             }
+            getFutureValue(injector.getInstance(ResourceGroupsClient.class).apply(managerSpec, environment, options));
             LOG.info("Resource groups created successfully");
         }
         catch (IllegalArgumentException iae) {
@@ -104,7 +174,57 @@ public class CreateResourceGroupsCommand
             throw new RuntimeException(e);
         }
         finally {
-            injector.getInstance(LifeCycleManager.class).stop();
+            CommandInjectors.release(injector);
+        }
+    }
+
+    /**
+     * Reads the resource groups and the exact match selectors of the input
+     * file, and promotes selectors if requested.
+     */
+    private void readResourceGroupsJson()
+    {
+        ManagerSpecBinary.Snapshot input = FileBasedResourceGroups.parseResourceGroupsFile(resourceGroupsSchema);
+        managerSpec = input.getManagerSpec();
+        exactMatchSelectors = input.getExactMatchSelectors();
+        if (promoteExactMatchSelectors) {
+            ExactMatchSelectors.Promotion promotion = ExactMatchSelectors.promote(managerSpec, exactMatchSelectors.orElse(ImmutableList.of()));
+            LOG.info("%s", promotion);
+            managerSpec = promotion.getManagerSpec();
+            exactMatchSelectors = Optional.of(promotion.getExactMatchSelectors());
+        }
+    }
+
+    private void emitSql()
+    {
+        DatabaseType databaseType = dialect;
+        Long firstId = firstResourceGroupId;
+        if (configFilename != null && (databaseType == null || firstId == null)) {
+            // only reads from the database
+            Injector injector = CommandInjectors.acquire(configFilename);
+            try {
+                if (databaseType == null) {
+                    databaseType = injector.getInstance(DatabaseType.class);
+                }
+                if (firstId == null) {
+                    firstId = injector.getInstance(ResourceGroupsDao.class).getMaxResourceGroupId() + 1;
+                }
+            }
+            finally {
+                CommandInjectors.release(injector);
+            }
+        }
+        if (databaseType == null || firstId == null) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--emit-sql requires --db-config, or both --dialect and --first-resource-group-id");
+        }
+
+        readResourceGroupsJson();
+        try (Writer writer = Files.newBufferedWriter(Paths.get(emitSql), UTF_8)) {
+            new SqlScriptWriter(databaseType, writer).write(managerSpec, exactMatchSelectors, environment, firstId);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        LOG.info("Wrote %s script for environment %s to %s", databaseType, environment, emitSql);
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import static java.lang.String.format;
+
+public enum DatabaseType
+{
+    POSTGRESQL("jdbc:postgresql", "org.postgresql.Driver"),
+    MYSQL("jdbc:mysql", "com.mysql.cj.jdbc.Driver"),
+    ORACLE("jdbc:oracle", "oracle.jdbc.driver.Driver"),
+    H2("jdbc:h2", "org.h2.Driver");
+
+    private final String urlPrefix;
+    private final String driverClassName;
+
+    DatabaseType(String urlPrefix, String driverClassName)
+    {
+        this.urlPrefix = urlPrefix;
+        this.driverClassName = driverClassName;
+    }
+
+    public String getDriverClassName()
+    {
+        return driverClassName;
+    }
+
+    /**
+     * Returns the JDBC fetch size that makes the driver stream rows instead of
+     * buffering the whole result set. MySQL only streams with the special
+     * {@code Integer.MIN_VALUE} fetch size.
+     */
+    public int streamingFetchSize(int fetchSize)
+    {
+        if (this == MYSQL) {
+            return Integer.MIN_VALUE;
+        }
+        return fetchSize;
+    }
+
+    public static DatabaseType fromJdbcUrl(String configDbUrl)
+    {
+        for (DatabaseType databaseType : values()) {
+            if (configDbUrl.startsWith(databaseType.urlPrefix)) {
+                return databaseType;
+            }
+        }
+        throw new IllegalArgumentException(format("Invalid JDBC URL: %s. Only PostgreSQL, MySQL, Oracle, and embedded H2 are supported.", configDbUrl));
+    }
+}
@@ -21,7 +21,13 @@ import io.trino.plugin.resourcegroups.ResourceGroupSpec;
 import io.trino.plugin.resourcegroups.SelectorSpec;
 import io.trino.plugin.resourcegroups.db.ResourceGroupGlobalProperties;
 import io.trino.plugin.resourcegroups.db.ResourceGroupSpecBuilder;
+import io.trino.plugin.resourcegroups.db.SelectorRecord;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.result.ResultIterator;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -29,14 +35,34 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkState;
 
 public class DbBasedResourceGroups
 {
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
     public static ManagerSpec loadResourceGroupsFromDb(ResourceGroupsDao dao, String environment)
     {
+        return loadResourceGroupsFromDb(dao, environment, DEFAULT_FETCH_SIZE);
+    }
+
+    public static ManagerSpec loadResourceGroupsFromDb(ResourceGroupsDao dao, String environment, int fetchSize)
+    {
+        // rows are streamed, PostgreSQL only honors the fetch size inside a transaction
+        return dao.withHandle(handle -> handle.inTransaction(transaction -> loadResourceGroupsFromDb(dao, transaction, environment, fetchSize)));
+    }
+
+    /**
+     * Loads the environment in a transaction the caller has already opened.
+     * The cpu_quota_period is read through the dao, which is attached to the
+     * same handle when it should be read in that transaction as well.
+     */
+    static ManagerSpec loadResourceGroupsFromDb(ResourceGroupsDao dao, Handle handle, String environment, int fetchSize)
+    {
+        int streamingFetchSize = getDatabaseType(handle).streamingFetchSize(fetchSize);
         // Set of root group db ids
         Set<Long> rootGroupIds = new HashSet<>();
         // Map of id from db to resource group spec
@@ -47,7 +73,7 @@ public class DbBasedResourceGroups
         Map<Long, ResourceGroupSpecBuilder> recordMap = new HashMap<>();
         // Map of subgroup id's not yet built
         Map<Long, Set<Long>> subGroupIdsToBuild = new HashMap<>();
-        populateFromDbHelper(dao, recordMap, rootGroupIds, resourceGroupIdTemplateMap, subGroupIdsToBuild, environment);
+        populateFromDbHelper(dao, handle, streamingFetchSize, recordMap, rootGroupIds, resourceGroupIdTemplateMap, subGroupIdsToBuild, environment);
         // Build up resource group specs from leaf to root
         for (LinkedList<Long> queue = new LinkedList<>(rootGroupIds); !queue.isEmpty(); ) {
             Long id = queue.pollFirst();
@@ -80,38 +106,48 @@ public class DbBasedResourceGroups
         // Specs are built from db records, validate and return manager spec
         List<ResourceGroupSpec> rootGroups = rootGroupIds.stream().map(resourceGroupSpecMap::get).collect(Collectors.toList());
 
-        List<SelectorSpec> selectors = dao.getSelectors(environment)
-                .stream()
-                .map(selectorRecord ->
-                        new SelectorSpec(
-                                selectorRecord.getUserRegex(),
-                                Optional.empty(),
-                                selectorRecord.getSourceRegex(),
-                                selectorRecord.getQueryType(),
-                                selectorRecord.getClientTags(),
-                                selectorRecord.getSelectorResourceEstimate(),
-                                resourceGroupIdTemplateMap.get(selectorRecord.getResourceGroupId()))
-                ).collect(Collectors.toList());
+        List<SelectorSpec> selectors = new ArrayList<>();
+        RowMapper<SelectorRecord> selectorRecordMapper = new SelectorRecord.Mapper();
+        RowMapper<SelectorSpec> selectorSpecMapper = (resultSet, context) -> {
+            SelectorRecord selectorRecord = selectorRecordMapper.map(resultSet, context);
+            // user_group_regex is written by this tool but not part of SelectorRecord
+            Optional<Pattern> userGroupRegex = Optional.ofNullable(resultSet.getString("user_group_regex")).map(Pattern::compile);
+            return new SelectorSpec(
+                    selectorRecord.getUserRegex(),
+                    userGroupRegex,
+                    selectorRecord.getSourceRegex(),
+                    selectorRecord.getQueryType(),
+                    selectorRecord.getClientTags(),
+                    selectorRecord.getSelectorResourceEstimate(),
+                    resourceGroupIdTemplateMap.get(selectorRecord.getResourceGroupId()));
+        };
+        try (ResultIterator<SelectorSpec> records = dao.streamSelectors(handle, environment, streamingFetchSize, selectorSpecMapper).iterator()) {
+            records.forEachRemaining(selectors::add);
+        }
         return new ManagerSpec(rootGroups, selectors, getCpuQuotaPeriodFromDb(dao));
     }
 
     private static void populateFromDbHelper(
             ResourceGroupsDao dao,
+            Handle handle,
+            int fetchSize,
             Map<Long, ResourceGroupSpecBuilder> recordMap,
             Set<Long> rootGroupIds,
             Map<Long, ResourceGroupIdTemplate> resourceGroupIdTemplateMap,
             Map<Long, Set<Long>> subGroupIdsToBuild,
             String environment)
     {
-        List<ResourceGroupSpecBuilder> records = dao.getResourceGroups(environment);
-        for (ResourceGroupSpecBuilder record : records) {
-            recordMap.put(record.getId(), record);
-            if (record.getParentId().isEmpty()) {
-                rootGroupIds.add(record.getId());
-                resourceGroupIdTemplateMap.put(record.getId(), new ResourceGroupIdTemplate(record.getNameTemplate().toString()));
-            }
-            else {
-                subGroupIdsToBuild.computeIfAbsent(record.getParentId().get(), k -> new HashSet<>()).add(record.getId());
+        try (ResultIterator<ResourceGroupSpecBuilder> records = dao.streamResourceGroups(handle, environment, fetchSize).iterator()) {
+            while (records.hasNext()) {
+                ResourceGroupSpecBuilder record = records.next();
+                recordMap.put(record.getId(), record);
+                if (record.getParentId().isEmpty()) {
+                    rootGroupIds.add(record.getId());
+                    resourceGroupIdTemplateMap.put(record.getId(), new ResourceGroupIdTemplate(record.getNameTemplate().toString()));
+                }
+                else {
+                    subGroupIdsToBuild.computeIfAbsent(record.getParentId().get(), k -> new HashSet<>()).add(record.getId());
+                }
             }
         }
     }
@@ -122,4 +158,14 @@ public class DbBasedResourceGroups
         checkState(globalProperties.size() <= 1, "There is more than one cpu_quota_period");
         return (!globalProperties.isEmpty()) ? globalProperties.get(0).getCpuQuotaPeriod() : Optional.empty();
     }
+
+    static DatabaseType getDatabaseType(Handle handle)
+    {
+        try {
+            return DatabaseType.fromJdbcUrl(handle.getConnection().getMetaData().getURL());
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.inject.Injector;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.log.Logger;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import picocli.CommandLine;
+
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static io.trino.resourcegroups.db.ResourceGroupsClient.getFutureValue;
+
+@CommandLine.Command(
+        name = "diff",
+        usageHelpAutoWidth = true
+)
+public class DiffResourceGroupsCommand
+        implements Runnable
+{
+    private static final Logger LOG = Logger.get(DiffResourceGroupsCommand.class);
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--db-config", description = "Properties file with resource groups database config (required when comparing a database environment)")
+    public String configFilename;
+
+    @CommandLine.ArgGroup(exclusive = true, multiplicity = "1")
+    public Source from;
+
+    @CommandLine.ArgGroup(exclusive = true, multiplicity = "1")
+    public Target to;
+
+    @CommandLine.Option(names = "--fetch-size", defaultValue = "1000", description = "Number of rows fetched from the database at a time while streaming resource groups and selectors")
+    public int fetchSize;
+
+    @CommandLine.Option(names = "--output-format", defaultValue = "TEXT", description = "Format of the change list: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})")
+    public OutputFormat outputFormat;
+
+    public static class Source
+    {
+        @CommandLine.Option(names = "--from-json", required = true, description = "JSON file with the resource groups to compare from")
+        public String json;
+
+        @CommandLine.Option(names = "--from-environment", required = true, description = "Database environment with the resource groups to compare from")
+        public String environment;
+    }
+
+    public static class Target
+    {
+        @CommandLine.Option(names = "--to-json", required = true, description = "JSON file with the resource groups to compare to")
+        public String json;
+
+        @CommandLine.Option(names = "--to-environment", required = true, description = "Database environment with the resource groups to compare to")
+        public String environment;
+    }
+
+    public enum OutputFormat
+    {
+        TEXT,
+        JSON
+    }
+
+    private DiffResourceGroupsCommand() {}
+
+    @Override
+    public void run()
+    {
+        if (from.environment == null && to.environment == null) {
+            print(ManagerSpecDiff.diff(
+                    FileBasedResourceGroups.parseResourceGroupsSchema(from.json),
+                    FileBasedResourceGroups.parseResourceGroupsSchema(to.json)));
+            return;
+        }
+
+        if (configFilename == null) {
+            throw new IllegalArgumentException("--db-config is required when comparing a database environment");
+        }
+        Injector injector = CommandInjectors.acquire(configFilename);
+        try {
+            injector.injectMembers(this);
+            ResourceGroupsClient client = injector.getInstance(ResourceGroupsClient.class);
+            ManagerSpec before = load(client, from.json, from.environment);
+            ManagerSpec after = load(client, to.json, to.environment);
+            print(getFutureValue(client.diff(before, after)));
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            CommandInjectors.release(injector);
+        }
+    }
+
+    private ManagerSpec load(ResourceGroupsClient client, String json, String environment)
+    {
+        if (json != null) {
+            LOG.info("Loading resource groups from %s", json);
+            return getFutureValue(client.validate(json));
+        }
+        LOG.info("Loading resource groups for environment %s", environment);
+        return getFutureValue(client.list(environment, fetchSize));
+    }
+
+    private void print(List<ManagerSpecDiff.Change> changes)
+    {
+        PrintWriter out = spec.commandLine().getOut();
+        if (outputFormat == OutputFormat.JSON) {
+            try {
+                out.println(new ObjectMapperProvider().get().writerWithDefaultPrettyPrinter().writeValueAsString(changes));
+            }
+            catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        else {
+            changes.forEach(out::println);
+        }
+        out.flush();
+        LOG.info("Found %d differences", changes.size());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import io.airlift.json.JsonCodec;
+import io.airlift.json.JsonCodecFactory;
+import io.trino.spi.resourcegroups.QueryType;
+import io.trino.spi.resourcegroups.ResourceGroupId;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An entry of Trino's exact_match_source_selectors table, which routes
+ * queries whose source equals {@code source} to a resource group with a
+ * single indexed lookup when {@code resource-groups.exact-match-selector-enabled}
+ * is set. Trino consults the table before any regex selector. An entry
+ * without a query type applies to queries of every type.
+ */
+public class ExactMatchSelectorSpec
+{
+    private static final JsonCodec<ResourceGroupId> RESOURCE_GROUP_ID_CODEC = new JsonCodecFactory().jsonCodec(ResourceGroupId.class);
+
+    private final String source;
+    private final Optional<String> queryType;
+    private final String group;
+
+    @JsonCreator
+    public ExactMatchSelectorSpec(
+            @JsonProperty("source") String source,
+            @JsonProperty("queryType") Optional<String> queryType,
+            @JsonProperty("group") String group)
+    {
+        this.source = requireNonNull(source, "source is null");
+        this.queryType = requireNonNull(queryType, "queryType is null").map(type -> type.toUpperCase(ENGLISH));
+        this.group = requireNonNull(group, "group is null");
+        checkArgument(!source.isEmpty(), "source is empty");
+        this.queryType.ifPresent(type -> checkArgument(
+                Arrays.stream(QueryType.values()).anyMatch(value -> value.name().equals(type)),
+                "Unknown query type %s of exact match selector for source %s",
+                type,
+                source));
+        // Trino uses the stored id as is, without expanding variables
+        checkArgument(!group.contains("${"), "Group of exact match selector for source %s cannot contain variables: %s", source, group);
+    }
+
+    @JsonProperty
+    public String getSource()
+    {
+        return source;
+    }
+
+    @JsonProperty
+    public Optional<String> getQueryType()
+    {
+        return queryType;
+    }
+
+    @JsonProperty
+    public String getGroup()
+    {
+        return group;
+    }
+
+    /**
+     * Query types of the rows stored for this entry. The primary key of the
+     * table includes the query type, which PostgreSQL and MySQL therefore
+     * never store as NULL, so an entry for every type is written as one row
+     * per type.
+     */
+    public List<String> getQueryTypes()
+    {
+        return queryType.map(ImmutableList::of)
+                .orElseGet(() -> Arrays.stream(QueryType.values())
+                        .map(Enum::name)
+                        .collect(toImmutableList()));
+    }
+
+    /**
+     * The group as the JSON encoded {@link ResourceGroupId} Trino reads from
+     * the resource_group_id column.
+     */
+    public String getResourceGroupId()
+    {
+        return RESOURCE_GROUP_ID_CODEC.toJson(new ResourceGroupId(Splitter.on('.').splitToList(group)));
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ExactMatchSelectorSpec that = (ExactMatchSelectorSpec) o;
+        return source.equals(that.source) &&
+                queryType.equals(that.queryType) &&
+                group.equals(that.group);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(source, queryType, group);
+    }
+
+    @Override
+    public String toString()
+    {
+        return source + queryType.map(type -> " (" + type + ")").orElse("") + " -> " + group;
+    }
+
+    /**
+     * Maps rows of the exact_match_source_selectors table, one entry per row.
+     */
+    public static class Mapper
+            implements RowMapper<ExactMatchSelectorSpec>
+    {
+        @Override
+        public ExactMatchSelectorSpec map(ResultSet resultSet, StatementContext context)
+                throws SQLException
+        {
+            return new ExactMatchSelectorSpec(
+                    resultSet.getString("source"),
+                    Optional.ofNullable(resultSet.getString("query_type")),
+                    String.join(".", RESOURCE_GROUP_ID_CODEC.fromJson(resultSet.getString("resource_group_id")).getSegments()));
+        }
+    }
+}
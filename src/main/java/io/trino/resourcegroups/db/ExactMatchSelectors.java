@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupNameTemplate;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Moves selectors that only match a literal source off the regex path and
+ * into Trino's exact_match_source_selectors table.
+ * <p>
+ * Trino looks up the exact match table before it evaluates any regex
+ * selector, so a selector is only promoted if no selector ahead of it could
+ * match a query with that source; otherwise promoting it would change which
+ * group such queries land in. Promoted selectors must have no user, user
+ * group, client tag or resource estimate conditions, and their group may
+ * only use the {@code ${SOURCE}} variable, which is expanded to the literal.
+ */
+public final class ExactMatchSelectors
+{
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final Pattern SOURCE_VARIABLE = Pattern.compile("\\$\\{SOURCE}");
+
+    private ExactMatchSelectors() {}
+
+    public static Promotion promote(ManagerSpec managerSpec, List<ExactMatchSelectorSpec> exactMatchSelectors)
+    {
+        Set<String> keys = new HashSet<>();
+        for (ExactMatchSelectorSpec exactMatchSelector : exactMatchSelectors) {
+            for (String queryType : exactMatchSelector.getQueryTypes()) {
+                keys.add(key(exactMatchSelector.getSource(), queryType));
+            }
+        }
+
+        List<SelectorSpec> selectors = managerSpec.getSelectors();
+        ImmutableList.Builder<SelectorSpec> remaining = ImmutableList.builder();
+        ImmutableList.Builder<ExactMatchSelectorSpec> promoted = ImmutableList.builder();
+        int sourceRegexSelectors = 0;
+        for (int i = 0; i < selectors.size(); i++) {
+            SelectorSpec selector = selectors.get(i);
+            if (selector.getSourceRegex().isPresent()) {
+                sourceRegexSelectors++;
+            }
+            Optional<ExactMatchSelectorSpec> candidate = toExactMatchSelector(selector);
+            if (candidate.isPresent() && !isShadowed(candidate.get(), selectors.subList(0, i)) && claim(candidate.get(), keys)) {
+                promoted.add(candidate.get());
+            }
+            else {
+                remaining.add(selector);
+            }
+        }
+        return new Promotion(
+                new ManagerSpec(managerSpec.getRootGroups(), remaining.build(), managerSpec.getCpuQuotaPeriod()),
+                ImmutableList.<ExactMatchSelectorSpec>builder()
+                        .addAll(exactMatchSelectors)
+                        .addAll(promoted.build())
+                        .build(),
+                promoted.build().size(),
+                sourceRegexSelectors);
+    }
+
+    /**
+     * Returns the string a regex matches if it matches nothing else, that is,
+     * if it has no metacharacters other than escaped punctuation and the
+     * anchors Trino's full match makes redundant.
+     */
+    static Optional<String> literal(String regex)
+    {
+        int start = regex.startsWith("^") ? 1 : 0;
+        int end = regex.endsWith("$") && !regex.endsWith("\\$") ? regex.length() - 1 : regex.length();
+        StringBuilder literal = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= end || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // classes such as \d and back references are not literals
+                    return Optional.empty();
+                }
+                literal.append(regex.charAt(++i));
+            }
+            else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                return Optional.empty();
+            }
+            else {
+                literal.append(c);
+            }
+        }
+        return literal.length() == 0 ? Optional.empty() : Optional.of(literal.toString());
+    }
+
+    private static Optional<ExactMatchSelectorSpec> toExactMatchSelector(SelectorSpec selector)
+    {
+        if (selector.getUserRegex().isPresent() ||
+                selector.getUserGroupRegex().isPresent() ||
+                !selector.getClientTags().orElse(ImmutableList.of()).isEmpty() ||
+                selector.getSelectorResourceEstimate().isPresent()) {
+            return Optional.empty();
+        }
+        Optional<String> source = selector.getSourceRegex().map(Pattern::pattern).flatMap(ExactMatchSelectors::literal);
+        if (source.isEmpty()) {
+            return Optional.empty();
+        }
+        String group = selector.getGroup().getSegments().stream()
+                .map(ResourceGroupNameTemplate::toString)
+                .map(segment -> SOURCE_VARIABLE.matcher(segment).replaceAll(source.get()))
+                .collect(Collectors.joining("."));
+        if (group.contains("${")) {
+            return Optional.empty();
+        }
+        return Optional.of(new ExactMatchSelectorSpec(source.get(), selector.getQueryType(), group));
+    }
+
+    /**
+     * Returns whether one of the earlier selectors could match a query with
+     * the source and query type of the candidate.
+     */
+    private static boolean isShadowed(ExactMatchSelectorSpec candidate, List<SelectorSpec> earlierSelectors)
+    {
+        for (SelectorSpec earlier : earlierSelectors) {
+            boolean sourceMatches = earlier.getSourceRegex()
+                    .map(regex -> regex.matcher(candidate.getSource()).matches())
+                    .orElse(true);
+            boolean queryTypeMatches = earlier.getQueryType().isEmpty() ||
+                    candidate.getQueryType().isEmpty() ||
+                    earlier.getQueryType().get().equalsIgnoreCase(candidate.getQueryType().get());
+            if (sourceMatches && queryTypeMatches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reserves the rows of the candidate, unless an entry of the file or an
+     * earlier promoted selector already holds one of them.
+     */
+    private static boolean claim(ExactMatchSelectorSpec candidate, Set<String> keys)
+    {
+        List<String> candidateKeys = candidate.getQueryTypes().stream()
+                .map(queryType -> key(candidate.getSource(), queryType))
+                .collect(toImmutableList());
+        if (candidateKeys.stream().anyMatch(keys::contains)) {
+            return false;
+        }
+        keys.addAll(candidateKeys);
+        return true;
+    }
+
+    private static String key(String source, String queryType)
+    {
+        return source + '\0' + queryType;
+    }
+
+    public static class Promotion
+    {
+        private final ManagerSpec managerSpec;
+        private final List<ExactMatchSelectorSpec> exactMatchSelectors;
+        private final int promotedSelectors;
+        private final int sourceRegexSelectors;
+
+        public Promotion(ManagerSpec managerSpec, List<ExactMatchSelectorSpec> exactMatchSelectors, int promotedSelectors, int sourceRegexSelectors)
+        {
+            this.managerSpec = requireNonNull(managerSpec, "managerSpec is null");
+            this.exactMatchSelectors = ImmutableList.copyOf(requireNonNull(exactMatchSelectors, "exactMatchSelectors is null"));
+            this.promotedSelectors = promotedSelectors;
+            this.sourceRegexSelectors = sourceRegexSelectors;
+        }
+
+        /**
+         * The configuration without the promoted selectors.
+         */
+        public ManagerSpec getManagerSpec()
+        {
+            return managerSpec;
+        }
+
+        /**
+         * The exact match selectors of the file followed by the promoted ones.
+         */
+        public List<ExactMatchSelectorSpec> getExactMatchSelectors()
+        {
+            return exactMatchSelectors;
+        }
+
+        public int getPromotedSelectors()
+        {
+            return promotedSelectors;
+        }
+
+        /**
+         * Number of selectors with a source regex before the promotion.
+         */
+        public int getSourceRegexSelectors()
+        {
+            return sourceRegexSelectors;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Promoted %s of %s source regex selectors to exact match selectors, %s regex selectors remain",
+                    promotedSelectors,
+                    sourceRegexSelectors,
+                    managerSpec.getSelectors().size());
+        }
+    }
+}
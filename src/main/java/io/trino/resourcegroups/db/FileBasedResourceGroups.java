@@ -13,10 +13,15 @@
  */
 package io.trino.resourcegroups.db;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.deser.DeserializationProblemHandler;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
-import io.airlift.json.JsonCodec;
-import io.airlift.json.JsonCodecFactory;
 import io.airlift.json.ObjectMapperProvider;
 import io.trino.plugin.resourcegroups.FileResourceGroupConfig;
 import io.trino.plugin.resourcegroups.ManagerSpec;
@@ -25,46 +30,134 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
 import static java.lang.String.format;
 
 public class FileBasedResourceGroups
 {
-    private static final JsonCodec<ManagerSpec> CODEC = new JsonCodecFactory(
-            () -> new ObjectMapperProvider().get().enable(FAIL_ON_UNKNOWN_PROPERTIES))
-            .jsonCodec(ManagerSpec.class);
+    private static final String EXACT_MATCH_SELECTORS = "exactMatchSelectors";
+    private static final ObjectReader READER = new ObjectMapperProvider().get()
+            .enable(FAIL_ON_UNKNOWN_PROPERTIES)
+            .addHandler(new ExactMatchSelectorsHandler())
+            .readerFor(ManagerSpec.class);
 
     public static ManagerSpec parseResourceGroupsSchema(String fileName)
+    {
+        return parseResourceGroupsFile(fileName).getManagerSpec();
+    }
+
+    public static ManagerSpec parseResourceGroupsSchema(byte[] json)
+    {
+        return parseResourceGroupsFile(json).getManagerSpec();
+    }
+
+    /**
+     * Reads the {@code exactMatchSelectors} of the file, which are not part
+     * of Trino's file format and are skipped by {@link #parseResourceGroupsSchema}.
+     * Returns empty if the file has no such property.
+     */
+    public static Optional<List<ExactMatchSelectorSpec>> parseExactMatchSelectors(String fileName)
+    {
+        return parseResourceGroupsFile(fileName).getExactMatchSelectors();
+    }
+
+    public static Optional<List<ExactMatchSelectorSpec>> parseExactMatchSelectors(byte[] json)
+    {
+        return parseResourceGroupsFile(json).getExactMatchSelectors();
+    }
+
+    /**
+     * Reads the resource groups and the exact match selectors of the file,
+     * which is read and decoded once for both.
+     */
+    public static ManagerSpecBinary.Snapshot parseResourceGroupsFile(String fileName)
     {
         FileResourceGroupConfig config = new FileResourceGroupConfig();
         config.setConfigFile(fileName);
-        ManagerSpec managerSpec;
         try {
-            managerSpec = CODEC.fromJson(Files.readAllBytes(Paths.get(config.getConfigFile())));
+            return parseResourceGroupsFile(Files.readAllBytes(Paths.get(config.getConfigFile())));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a resource groups file in JSON, or in Smile or CBOR as written
+     * by {@link ManagerSpecBinary}, which is detected by its leading bytes.
+     * The {@code exactMatchSelectors} of a JSON file are collected while the
+     * {@link ManagerSpec} is parsed, as Trino's file format has no such
+     * property.
+     */
+    public static ManagerSpecBinary.Snapshot parseResourceGroupsFile(byte[] json)
+    {
+        if (isBinary(json)) {
+            return ManagerSpecBinary.read(json);
+        }
+        AtomicReference<Optional<List<ExactMatchSelectorSpec>>> exactMatchSelectors = new AtomicReference<>(Optional.empty());
+        try {
+            ManagerSpec managerSpec = READER.withAttribute(EXACT_MATCH_SELECTORS, exactMatchSelectors).readValue(json);
+            return new ManagerSpecBinary.Snapshot(managerSpec, exactMatchSelectors.get());
+        }
+        catch (UnrecognizedPropertyException e) {
+            String message = format("Unknown property at line %s:%s: %s",
+                    e.getLocation().getLineNr(),
+                    e.getLocation().getColumnNr(),
+                    e.getPropertyName());
+            throw new IllegalArgumentException(message, e);
+        }
+        catch (JsonMappingException e) {
+            // remove the extra "through reference chain" message
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IllegalArgumentException(cause.getMessage(), e);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(format("Invalid JSON: %s", e.getOriginalMessage()), e);
         }
         catch (IOException e) {
             throw new UncheckedIOException(e);
         }
-        catch (IllegalArgumentException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof UnrecognizedPropertyException) {
-                UnrecognizedPropertyException ex = (UnrecognizedPropertyException) cause;
-                String message = format("Unknown property at line %s:%s: %s",
-                        ex.getLocation().getLineNr(),
-                        ex.getLocation().getColumnNr(),
-                        ex.getPropertyName());
-                throw new IllegalArgumentException(message, e);
+    }
+
+    private static boolean isBinary(byte[] content)
+    {
+        return ManagerSpecBinary.Format.detect(content) != ManagerSpecBinary.Format.JSON;
+    }
+
+    /**
+     * Reads the {@code exactMatchSelectors} property of the top level object
+     * into the reference passed as the attribute of the same name.
+     */
+    private static class ExactMatchSelectorsHandler
+            extends DeserializationProblemHandler
+    {
+        @Override
+        public boolean handleUnknownProperty(DeserializationContext context, JsonParser parser, JsonDeserializer<?> deserializer, Object beanOrClass, String propertyName)
+                throws IOException
+        {
+            if (!propertyName.equals(EXACT_MATCH_SELECTORS) || deserializer.handledType() != ManagerSpec.class) {
+                return false;
+            }
+            @SuppressWarnings("unchecked")
+            AtomicReference<Optional<List<ExactMatchSelectorSpec>>> exactMatchSelectors = (AtomicReference<Optional<List<ExactMatchSelectorSpec>>>) context.getAttribute(EXACT_MATCH_SELECTORS);
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                exactMatchSelectors.set(Optional.empty());
+                return true;
+            }
+            try {
+                List<ExactMatchSelectorSpec> selectors = context.readValue(parser, context.getTypeFactory().constructCollectionType(List.class, ExactMatchSelectorSpec.class));
+                exactMatchSelectors.set(Optional.of(selectors));
             }
-            if (cause instanceof JsonMappingException) {
-                // remove the extra "through reference chain" message
-                if (cause.getCause() != null) {
-                    cause = cause.getCause();
-                }
-                throw new IllegalArgumentException(cause.getMessage(), e);
+            catch (JsonMappingException e) {
+                // the message of a failed constructor is more helpful than the mapping error
+                String message = e.getCause() != null ? e.getCause().getMessage() : e.getOriginalMessage();
+                throw new IllegalArgumentException(format("Invalid %s: %s", EXACT_MATCH_SELECTORS, message), e);
             }
-            throw e;
+            return true;
         }
-        return managerSpec;
     }
 }
@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.inject.Injector;
+import io.airlift.log.Logger;
+import org.jdbi.v3.core.Jdbi;
+import picocli.CommandLine;
+
+@CommandLine.Command(
+        name = "init_schema",
+        usageHelpAutoWidth = true
+)
+public class InitSchemaCommand
+        implements Runnable
+{
+    private static final Logger LOG = Logger.get(InitSchemaCommand.class);
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--db-config", required = true, description = "Properties file with resource groups database config")
+    public String configFilename;
+
+    private InitSchemaCommand() {}
+
+    @Override
+    public void run()
+    {
+        Injector injector = CommandInjectors.acquire(configFilename);
+        try {
+            injector.injectMembers(this);
+            DatabaseType databaseType = injector.getInstance(DatabaseType.class);
+            LOG.info("Creating resource groups schema for %s", databaseType);
+            injector.getInstance(Jdbi.class).useHandle(handle -> ResourceGroupsSchema.initialize(handle, databaseType));
+            LOG.info("Resource groups schema created successfully");
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            CommandInjectors.release(injector);
+        }
+    }
+}
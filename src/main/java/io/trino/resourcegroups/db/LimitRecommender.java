@@ -0,0 +1,424 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.floorMod;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Proposes concurrency, queue and memory limits for every resource group of
+ * a configuration from a stream of query completed events.
+ * <p>
+ * Each query is routed with the selectors of the configuration and placed on
+ * the per second timeline of the group it runs in and of all its ancestors,
+ * with variables such as {@code ${USER}} expanded, so a template group is
+ * sized for a single one of its instances. Timelines only keep a sliding
+ * window of seconds, as events arrive roughly in completion order, and every
+ * second that leaves the window is added to the quantile sketches of the
+ * template group. Memory use is therefore bounded by the number of groups
+ * active within the window, not by the length of the log.
+ */
+public class LimitRecommender
+{
+    private static final int SWEEP_INTERVAL = 100_000;
+
+    private final SelectorMatcher matcher;
+    private final int windowSeconds;
+    private final Map<String, GroupStatistics> statistics = new HashMap<>();
+    private final Map<String, Timeline> timelines = new HashMap<>();
+    private long routedQueries;
+    private long unroutedQueries;
+    private long latestSecond = Long.MIN_VALUE;
+    private long addedSinceSweep;
+
+    public LimitRecommender(ManagerSpec managerSpec, Duration window)
+    {
+        requireNonNull(managerSpec, "managerSpec is null");
+        this.matcher = new SelectorMatcher(managerSpec.getSelectors());
+        this.windowSeconds = (int) Math.max(1, window.roundTo(SECONDS));
+    }
+
+    public void add(QueryEvent event)
+    {
+        add(matcher.route(event.getUser(), event.getGroups(), event.getSource(), event.getClientTags(), event.getQueryType()),
+                event.getCreateTime(),
+                event.getExecutionStartTime(),
+                event.getEndTime(),
+                event.getPeakMemoryBytes());
+    }
+
+    /**
+     * Adds all events of the batch. Queries are routed once per distinct
+     * combination of dictionary ids, which most queries of a batch share.
+     */
+    public void add(QueryEventBatch batch)
+    {
+        Map<RouteKey, Optional<SelectorMatcher.Route>> routes = new HashMap<>();
+        for (int position = 0; position < batch.getPositionCount(); position++) {
+            RouteKey key = new RouteKey(batch, position);
+            Optional<SelectorMatcher.Route> route = routes.computeIfAbsent(key, ignored -> matcher.route(
+                    batch.getString(key.user),
+                    batch.getList(key.groups),
+                    batch.getOptionalString(key.source),
+                    batch.getList(key.clientTags),
+                    batch.getOptionalString(key.queryType)));
+            add(route,
+                    batch.getCreateTime(position),
+                    batch.getExecutionStartTime(position),
+                    batch.getEndTime(position),
+                    batch.getPeakMemoryBytes(position));
+        }
+    }
+
+    private void add(Optional<SelectorMatcher.Route> route, long createTime, long executionStartTime, long endTime, long peakMemoryBytes)
+    {
+        if (route.isEmpty()) {
+            unroutedQueries++;
+            return;
+        }
+        routedQueries++;
+
+        long createSecond = floorDiv(createTime, 1000);
+        long startSecond = floorDiv(executionStartTime, 1000);
+        // a query that finishes within a second still runs during that second
+        long endSecond = Math.max(floorDiv(endTime, 1000), startSecond + 1);
+
+        List<String> template = route.get().getTemplate();
+        List<String> group = route.get().getGroup();
+        StringBuilder templatePath = new StringBuilder();
+        StringBuilder groupPath = new StringBuilder();
+        for (int i = 0; i < template.size(); i++) {
+            if (i > 0) {
+                templatePath.append('.');
+                groupPath.append('.');
+            }
+            templatePath.append(template.get(i));
+            groupPath.append(group.get(i));
+            GroupStatistics groupStatistics = statistics.computeIfAbsent(templatePath.toString(), GroupStatistics::new);
+            groupStatistics.addQuery(executionStartTime - createTime);
+            timelines.computeIfAbsent(groupPath.toString(), path -> new Timeline(groupStatistics, windowSeconds))
+                    .add(createSecond, startSecond, endSecond, peakMemoryBytes);
+        }
+
+        latestSecond = Math.max(latestSecond, endSecond);
+        if (++addedSinceSweep >= SWEEP_INTERVAL) {
+            addedSinceSweep = 0;
+            flush(latestSecond - windowSeconds);
+        }
+    }
+
+    public long getRoutedQueries()
+    {
+        return routedQueries;
+    }
+
+    public long getUnroutedQueries()
+    {
+        return unroutedQueries;
+    }
+
+    /**
+     * Flushes all timelines and returns the statistics of every template
+     * group that received queries, keyed by group path.
+     */
+    public Map<String, GroupStatistics> finish()
+    {
+        flush(Long.MAX_VALUE);
+        return statistics;
+    }
+
+    /**
+     * Returns a copy of the configuration with limits sized to the quantile of
+     * the observed values times the headroom. Groups without queries keep
+     * their limits. Memory limits are given as a percentage when the cluster
+     * memory is known and as an absolute size otherwise.
+     */
+    public ManagerSpec recommend(ManagerSpec managerSpec, double quantile, double headroom, Optional<DataSize> clusterMemory)
+    {
+        checkArgument(quantile > 0 && quantile <= 1, "quantile must be in (0, 1]");
+        checkArgument(headroom >= 1, "headroom must be at least 1");
+        Map<String, GroupStatistics> groupStatistics = finish();
+        ImmutableList.Builder<ResourceGroupSpec> rootGroups = ImmutableList.builder();
+        for (ResourceGroupSpec rootGroup : managerSpec.getRootGroups()) {
+            rootGroups.add(recommend(rootGroup, "", groupStatistics, quantile, headroom, clusterMemory));
+        }
+        return new ManagerSpec(rootGroups.build(), managerSpec.getSelectors(), managerSpec.getCpuQuotaPeriod());
+    }
+
+    private static ResourceGroupSpec recommend(ResourceGroupSpec group, String parentPath, Map<String, GroupStatistics> groupStatistics, double quantile, double headroom, Optional<DataSize> clusterMemory)
+    {
+        String path = parentPath.isEmpty() ? group.getName().toString() : parentPath + "." + group.getName();
+        ImmutableList.Builder<ResourceGroupSpec> subGroups = ImmutableList.builder();
+        for (ResourceGroupSpec subGroup : group.getSubGroups()) {
+            subGroups.add(recommend(subGroup, path, groupStatistics, quantile, headroom, clusterMemory));
+        }
+
+        int hardConcurrencyLimit = group.getHardConcurrencyLimit();
+        int maxQueued = group.getMaxQueued();
+        String softMemoryLimit = ResourceGroupRow.getSoftMemoryLimit(group);
+        GroupStatistics statistics = groupStatistics.get(path);
+        if (statistics != null && statistics.getConcurrency().getCount() > 0) {
+            hardConcurrencyLimit = (int) Math.max(1, Math.ceil(statistics.getConcurrency().getQuantile(quantile) * headroom));
+            // never size the queue below one round of running queries
+            maxQueued = (int) Math.max(hardConcurrencyLimit, Math.ceil(statistics.getQueued().getQuantile(quantile) * headroom));
+            double memoryBytes = Math.max(1, statistics.getMemory().getQuantile(quantile) * headroom);
+            if (clusterMemory.isPresent()) {
+                long percent = Math.min(100, Math.max(1, (long) Math.ceil(memoryBytes * 100 / clusterMemory.get().toBytes())));
+                softMemoryLimit = percent + "%";
+            }
+            else {
+                softMemoryLimit = DataSize.succinctBytes((long) Math.ceil(memoryBytes)).toString();
+            }
+        }
+
+        Optional<Integer> softConcurrencyLimit = group.getSoftConcurrencyLimit();
+        if (softConcurrencyLimit.isPresent() && softConcurrencyLimit.get() > hardConcurrencyLimit) {
+            softConcurrencyLimit = Optional.of(hardConcurrencyLimit);
+        }
+        List<ResourceGroupSpec> builtSubGroups = subGroups.build();
+        return new ResourceGroupSpec(
+                group.getName(),
+                softMemoryLimit,
+                maxQueued,
+                softConcurrencyLimit,
+                Optional.of(hardConcurrencyLimit),
+                Optional.empty(),
+                Optional.ofNullable(ResourceGroupRow.getSchedulingPolicy(group)),
+                group.getSchedulingWeight(),
+                builtSubGroups.isEmpty() ? Optional.empty() : Optional.of(builtSubGroups),
+                group.getJmxExport(),
+                group.getSoftCpuLimit(),
+                group.getHardCpuLimit());
+    }
+
+    private void flush(long second)
+    {
+        Iterator<Timeline> iterator = timelines.values().iterator();
+        while (iterator.hasNext()) {
+            Timeline timeline = iterator.next();
+            timeline.flush(second);
+            if (timeline.isIdle()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class RouteKey
+    {
+        private final int user;
+        private final int groups;
+        private final int source;
+        private final int clientTags;
+        private final int queryType;
+
+        public RouteKey(QueryEventBatch batch, int position)
+        {
+            this.user = batch.getUser(position);
+            this.groups = batch.getGroups(position);
+            this.source = batch.getSource(position);
+            this.clientTags = batch.getClientTags(position);
+            this.queryType = batch.getQueryType(position);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RouteKey that = (RouteKey) o;
+            return user == that.user &&
+                    groups == that.groups &&
+                    source == that.source &&
+                    clientTags == that.clientTags &&
+                    queryType == that.queryType;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(user, groups, source, clientTags, queryType);
+        }
+    }
+
+    public static class GroupStatistics
+    {
+        private final String path;
+        private final QuantileSketch concurrency = new QuantileSketch();
+        private final QuantileSketch queued = new QuantileSketch();
+        private final QuantileSketch memory = new QuantileSketch();
+        private final QuantileSketch queuedMillis = new QuantileSketch();
+        private long queries;
+
+        public GroupStatistics(String path)
+        {
+            this.path = requireNonNull(path, "path is null");
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public long getQueries()
+        {
+            return queries;
+        }
+
+        /**
+         * Running queries of one group instance, for every second it had running or queued queries.
+         */
+        public QuantileSketch getConcurrency()
+        {
+            return concurrency;
+        }
+
+        /**
+         * Queued queries of one group instance, for every second it had running or queued queries.
+         */
+        public QuantileSketch getQueued()
+        {
+            return queued;
+        }
+
+        /**
+         * Sum of the peak memory of the running queries of one group instance, per second.
+         */
+        public QuantileSketch getMemory()
+        {
+            return memory;
+        }
+
+        /**
+         * Queue time of each query, in milliseconds.
+         */
+        public QuantileSketch getQueuedMillis()
+        {
+            return queuedMillis;
+        }
+
+        private void addQuery(long queuedMillis)
+        {
+            queries++;
+            this.queuedMillis.add(queuedMillis);
+        }
+
+        private void addSecond(long running, long queued, long memoryBytes)
+        {
+            concurrency.add(running);
+            this.queued.add(queued);
+            memory.add(memoryBytes);
+        }
+    }
+
+    /**
+     * Ring of per second changes to the running and queued query counts and
+     * the memory of one group instance. Seconds before {@code base} have
+     * been added to the statistics.
+     */
+    private static class Timeline
+    {
+        private final GroupStatistics statistics;
+        private final int capacity;
+        private final int[] runningChanges;
+        private final int[] queuedChanges;
+        private final long[] memoryChanges;
+        private long base = Long.MIN_VALUE;
+        private long last = Long.MIN_VALUE;
+        private long running;
+        private long queued;
+        private long memoryBytes;
+
+        public Timeline(GroupStatistics statistics, int windowSeconds)
+        {
+            this.statistics = requireNonNull(statistics, "statistics is null");
+            this.capacity = windowSeconds + 1;
+            this.runningChanges = new int[capacity];
+            this.queuedChanges = new int[capacity];
+            this.memoryChanges = new long[capacity];
+        }
+
+        public void add(long createSecond, long startSecond, long endSecond, long peakMemoryBytes)
+        {
+            if (base == Long.MIN_VALUE) {
+                base = createSecond;
+            }
+            if (endSecond >= base + capacity) {
+                flush(endSecond - capacity + 1);
+            }
+            if (endSecond < base) {
+                // the query ended before the window, which has already been counted
+                return;
+            }
+            // the part of the query before the window is lost
+            createSecond = Math.max(createSecond, base);
+            startSecond = Math.max(startSecond, base);
+            if (startSecond > createSecond) {
+                queuedChanges[floorMod(createSecond, capacity)]++;
+                queuedChanges[floorMod(startSecond, capacity)]--;
+            }
+            runningChanges[floorMod(startSecond, capacity)]++;
+            runningChanges[floorMod(endSecond, capacity)]--;
+            memoryChanges[floorMod(startSecond, capacity)] += peakMemoryBytes;
+            memoryChanges[floorMod(endSecond, capacity)] -= peakMemoryBytes;
+            last = Math.max(last, endSecond);
+        }
+
+        public void flush(long second)
+        {
+            while (base < second) {
+                if (base > last && running == 0 && queued == 0) {
+                    // nothing left to replay, skip ahead
+                    base = second;
+                    return;
+                }
+                int slot = floorMod(base, capacity);
+                running += runningChanges[slot];
+                queued += queuedChanges[slot];
+                memoryBytes += memoryChanges[slot];
+                runningChanges[slot] = 0;
+                queuedChanges[slot] = 0;
+                memoryChanges[slot] = 0;
+                if (running > 0 || queued > 0) {
+                    statistics.addSecond(running, queued, memoryBytes);
+                }
+                base++;
+            }
+        }
+
+        public boolean isIdle()
+        {
+            return base > last && running == 0 && queued == 0;
+        }
+    }
+}
@@ -14,12 +14,8 @@
 package io.trino.resourcegroups.db;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Injector;
-import com.google.inject.Module;
-import io.airlift.bootstrap.Bootstrap;
-import io.airlift.bootstrap.LifeCycleManager;
 import io.airlift.log.Logger;
 import io.airlift.units.Duration;
 import io.trino.plugin.resourcegroups.ManagerSpec;
@@ -30,9 +26,11 @@ import io.trino.plugin.resourcegroups.db.ResourceGroupGlobalProperties;
 import io.trino.plugin.resourcegroups.db.ResourceGroupSpecBuilder;
 import picocli.CommandLine;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -43,7 +41,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.base.Throwables.throwIfUnchecked;
+import static io.trino.resourcegroups.db.ResourceGroupsClient.getFutureValue;
 
 @CommandLine.Command(
         name = "list_resource_groups",
@@ -60,61 +58,46 @@ public class ListResourceGroupsCommand
     @CommandLine.Option(names = "--db-config", required = true, description = "Properties file with resource groups database config")
     public String configFilename;
 
-    @CommandLine.Option(names = "--output-json-file", required = true, description = "Path to write JSON file with resource groups schema")
+    @CommandLine.Option(names = {"--output-json-file", "--output-file"}, required = true, description = "Path to write the resource groups schema to")
     public String outputJsonFile;
 
+    @CommandLine.Option(names = "--format", defaultValue = "JSON", description = "Format of the output file: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}). Smile and CBOR are compact binary encodings that every command reading a resource groups file accepts")
+    public ManagerSpecBinary.Format format;
+
     @CommandLine.Option(names = "--environment", defaultValue = "test", required = true, description = "Environment where resource groups will be retrieved from (matches environment in node.properties)")
     public String environment;
 
+    @CommandLine.Option(names = "--fetch-size", defaultValue = "1000", description = "Number of rows fetched from the database at a time while streaming resource groups and selectors")
+    public int fetchSize;
+
     private ListResourceGroupsCommand() {}
 
     @Override
     public void run()
     {
-        if (configFilename != null) {
-            // Read
-            System.setProperty("config", configFilename);
-        }
-
-        ImmutableList.Builder<Module> builder = ImmutableList.<Module>builder()
-                .add(new ResourceGroupsDbModule())
-                .addAll(ImmutableList.of());
-
-        Bootstrap app = new Bootstrap(builder.build());
-        Injector injector;
-        try {
-            injector = app.initialize();
-        }
-        catch (Exception e) {
-            throwIfUnchecked(e);
-            throw new RuntimeException(e);
-        }
-
+        Injector injector = CommandInjectors.acquire(configFilename);
         try {
             injector.injectMembers(this);
             LOG.info("Environment to list resource groups for: %s", environment);
-            ResourceGroupsDao dao = injector.getInstance(ResourceGroupsDao.class);
-            ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(dao, environment);
+            ManagerSpec managerSpec = getFutureValue(injector.getInstance(ResourceGroupsClient.class).list(environment, fetchSize));
             LOG.info("loaded %d root groups", managerSpec.getRootGroups().size());
             LOG.info("loaded %d selectors", managerSpec.getSelectors().size());
-            String resourceGroupsJson = ManagerSpecToJson.convert(managerSpec);
-            writeJsonToFile(resourceGroupsJson);
-            LOG.info("Resource groups written to %s successfully", outputJsonFile);
+            writeToFile(managerSpec);
+            LOG.info("Resource groups written to %s as %s successfully", outputJsonFile, format);
         }
         catch (Exception e) {
             throw new RuntimeException(e);
         }
         finally {
-            injector.getInstance(LifeCycleManager.class).stop();
+            CommandInjectors.release(injector);
         }
     }
 
-    private void writeJsonToFile(String json)
+    private void writeToFile(ManagerSpec managerSpec)
             throws IOException
     {
-        File outputFile = new File(outputJsonFile);
-        FileWriter fileWriter = new FileWriter(outputFile, false);
-        fileWriter.write(json);
-        fileWriter.close();
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(Paths.get(outputJsonFile)))) {
+            ManagerSpecBinary.write(managerSpec, Optional.empty(), format, output);
+        }
     }
 }
@@ -0,0 +1,560 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableList;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupIdTemplate;
+import io.trino.plugin.resourcegroups.ResourceGroupNameTemplate;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorResourceEstimate;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Compact binary encoding of a resource groups file in Smile or CBOR. Every
+ * string of the spec, such as group names, memory limits, regexes and
+ * selector groups, is stored once in a dictionary at the start of the file
+ * and referenced by index, and resource groups and selectors are positional
+ * arrays instead of objects with named properties. The encoding carries
+ * exactly the information of the JSON written by {@link ManagerSpecToJson},
+ * plus selector resource estimates, so converting between the formats is
+ * lossless.
+ */
+public final class ManagerSpecBinary
+{
+    private static final String FORMAT_NAME = "trino-resource-groups";
+    private static final int VERSION = 1;
+    private static final byte[] SMILE_HEADER = {':', ')', '\n'};
+    // the self-describe tag, which the CBOR factory writes before the document
+    private static final byte[] CBOR_HEADER = {(byte) 0xd9, (byte) 0xd9, (byte) 0xf7};
+    private static final JsonFactory SMILE_FACTORY = new SmileFactory();
+    private static final JsonFactory CBOR_FACTORY = CBORFactory.builder()
+            .enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)
+            .build();
+    private static final ObjectMapper MAPPER = new ObjectMapperProvider().get();
+
+    private ManagerSpecBinary() {}
+
+    public enum Format
+    {
+        JSON,
+        SMILE,
+        CBOR;
+
+        /**
+         * Returns the format of a resource groups file by its leading bytes.
+         * Anything that is neither Smile nor CBOR is taken to be JSON.
+         */
+        public static Format detect(byte[] content)
+        {
+            if (startsWith(content, SMILE_HEADER)) {
+                return SMILE;
+            }
+            if (startsWith(content, CBOR_HEADER)) {
+                return CBOR;
+            }
+            return JSON;
+        }
+    }
+
+    public static void write(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, Format format, OutputStream output)
+            throws IOException
+    {
+        if (format == Format.JSON) {
+            Writer writer = new OutputStreamWriter(output, UTF_8);
+            ManagerSpecToJson.write(managerSpec, exactMatchSelectors, writer);
+            writer.flush();
+            return;
+        }
+
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        managerSpec.getRootGroups().forEach(group -> collectStrings(group, dictionary));
+        managerSpec.getSelectors().forEach(selector -> collectStrings(selector, dictionary));
+        managerSpec.getCpuQuotaPeriod().ifPresent(period -> add(dictionary, period.toString()));
+        exactMatchSelectors.ifPresent(selectors -> selectors.forEach(selector -> {
+            add(dictionary, selector.getSource());
+            selector.getQueryType().ifPresent(queryType -> add(dictionary, queryType));
+            add(dictionary, selector.getGroup());
+        }));
+
+        JsonFactory factory = format == Format.SMILE ? SMILE_FACTORY : CBOR_FACTORY;
+        try (JsonGenerator generator = factory.createGenerator(output)) {
+            // the caller owns the stream
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            Encoder encoder = new Encoder(generator, dictionary);
+            generator.writeStartObject();
+            generator.writeStringField("format", FORMAT_NAME);
+            generator.writeNumberField("version", VERSION);
+            generator.writeArrayFieldStart("strings");
+            for (String value : dictionary.keySet()) {
+                generator.writeString(value);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("rootGroups");
+            for (ResourceGroupSpec group : managerSpec.getRootGroups()) {
+                encoder.writeGroup(group);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("selectors");
+            for (SelectorSpec selector : managerSpec.getSelectors()) {
+                encoder.writeSelector(selector);
+            }
+            generator.writeEndArray();
+            if (managerSpec.getCpuQuotaPeriod().isPresent()) {
+                generator.writeFieldName("cpuQuotaPeriod");
+                encoder.writeString(managerSpec.getCpuQuotaPeriod().get().toString());
+            }
+            if (exactMatchSelectors.isPresent()) {
+                generator.writeArrayFieldStart("exactMatchSelectors");
+                for (ExactMatchSelectorSpec selector : exactMatchSelectors.get()) {
+                    generator.writeStartArray();
+                    encoder.writeString(selector.getSource());
+                    encoder.writeString(selector.getQueryType());
+                    encoder.writeString(selector.getGroup());
+                    generator.writeEndArray();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Decodes a Smile or CBOR resource groups file. The specs are built with
+     * the same constructors Trino's JSON parser uses, so they are validated
+     * the same way.
+     */
+    public static Snapshot read(byte[] content)
+    {
+        Format format = Format.detect(content);
+        checkArgument(format != Format.JSON, "Resource groups file is neither Smile nor CBOR");
+        JsonFactory factory = format == Format.SMILE ? SMILE_FACTORY : CBOR_FACTORY;
+        try (JsonParser parser = factory.createParser(content)) {
+            return new Decoder(parser).readSnapshot();
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(format("Invalid %s resource groups file: %s", format, e.getOriginalMessage()), e);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void collectStrings(ResourceGroupSpec group, Map<String, Integer> dictionary)
+    {
+        add(dictionary, group.getName().toString());
+        add(dictionary, ResourceGroupRow.getSoftMemoryLimit(group));
+        Optional.ofNullable(ResourceGroupRow.getSchedulingPolicy(group)).ifPresent(policy -> add(dictionary, policy));
+        group.getSoftCpuLimit().ifPresent(limit -> add(dictionary, limit.toString()));
+        group.getHardCpuLimit().ifPresent(limit -> add(dictionary, limit.toString()));
+        group.getSubGroups().forEach(subGroup -> collectStrings(subGroup, dictionary));
+    }
+
+    private static void collectStrings(SelectorSpec selector, Map<String, Integer> dictionary)
+    {
+        selector.getUserRegex().ifPresent(regex -> add(dictionary, regex.pattern()));
+        selector.getUserGroupRegex().ifPresent(regex -> add(dictionary, regex.pattern()));
+        selector.getSourceRegex().ifPresent(regex -> add(dictionary, regex.pattern()));
+        selector.getQueryType().ifPresent(queryType -> add(dictionary, queryType));
+        selector.getClientTags().ifPresent(tags -> tags.forEach(tag -> add(dictionary, tag)));
+        add(dictionary, ManagerSpecRows.groupPath(selector.getGroup()));
+    }
+
+    private static void add(Map<String, Integer> dictionary, String value)
+    {
+        dictionary.putIfAbsent(value, dictionary.size());
+    }
+
+    private static boolean startsWith(byte[] content, byte[] prefix)
+    {
+        if (content.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Snapshot
+    {
+        private final ManagerSpec managerSpec;
+        private final Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors;
+
+        public Snapshot(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors)
+        {
+            this.managerSpec = requireNonNull(managerSpec, "managerSpec is null");
+            this.exactMatchSelectors = requireNonNull(exactMatchSelectors, "exactMatchSelectors is null");
+        }
+
+        public ManagerSpec getManagerSpec()
+        {
+            return managerSpec;
+        }
+
+        public Optional<List<ExactMatchSelectorSpec>> getExactMatchSelectors()
+        {
+            return exactMatchSelectors;
+        }
+    }
+
+    private static class Encoder
+    {
+        private final JsonGenerator generator;
+        private final Map<String, Integer> dictionary;
+
+        public Encoder(JsonGenerator generator, Map<String, Integer> dictionary)
+        {
+            this.generator = requireNonNull(generator, "generator is null");
+            this.dictionary = requireNonNull(dictionary, "dictionary is null");
+        }
+
+        /**
+         * Writes name, soft memory limit, max queued, soft and hard
+         * concurrency limits, scheduling policy and weight, JMX export, soft
+         * and hard CPU limits and sub groups, with null for absent values.
+         */
+        public void writeGroup(ResourceGroupSpec group)
+                throws IOException
+        {
+            generator.writeStartArray();
+            writeString(group.getName().toString());
+            writeString(ResourceGroupRow.getSoftMemoryLimit(group));
+            generator.writeNumber(group.getMaxQueued());
+            writeInteger(group.getSoftConcurrencyLimit());
+            generator.writeNumber(group.getHardConcurrencyLimit());
+            writeString(Optional.ofNullable(ResourceGroupRow.getSchedulingPolicy(group)));
+            writeInteger(group.getSchedulingWeight());
+            if (group.getJmxExport().isPresent()) {
+                generator.writeBoolean(group.getJmxExport().get());
+            }
+            else {
+                generator.writeNull();
+            }
+            writeString(group.getSoftCpuLimit().map(Duration::toString));
+            writeString(group.getHardCpuLimit().map(Duration::toString));
+            generator.writeStartArray();
+            for (ResourceGroupSpec subGroup : group.getSubGroups()) {
+                writeGroup(subGroup);
+            }
+            generator.writeEndArray();
+            generator.writeEndArray();
+        }
+
+        /**
+         * Writes user, user group and source regexes, query type, client
+         * tags, group and resource estimate, with null for absent values.
+         */
+        public void writeSelector(SelectorSpec selector)
+                throws IOException
+        {
+            generator.writeStartArray();
+            writeString(selector.getUserRegex().map(Pattern::pattern));
+            writeString(selector.getUserGroupRegex().map(Pattern::pattern));
+            writeString(selector.getSourceRegex().map(Pattern::pattern));
+            writeString(selector.getQueryType());
+            if (selector.getClientTags().isPresent()) {
+                generator.writeStartArray();
+                for (String tag : selector.getClientTags().get()) {
+                    writeString(tag);
+                }
+                generator.writeEndArray();
+            }
+            else {
+                generator.writeNull();
+            }
+            writeString(ManagerSpecRows.groupPath(selector.getGroup()));
+            if (selector.getSelectorResourceEstimate().isPresent()) {
+                MAPPER.writeValue(generator, selector.getSelectorResourceEstimate().get());
+            }
+            else {
+                generator.writeNull();
+            }
+            generator.writeEndArray();
+        }
+
+        public void writeString(String value)
+                throws IOException
+        {
+            Integer index = dictionary.get(value);
+            checkState(index != null, "String is missing from the dictionary: %s", value);
+            generator.writeNumber(index);
+        }
+
+        public void writeString(Optional<String> value)
+                throws IOException
+        {
+            if (value.isPresent()) {
+                writeString(value.get());
+            }
+            else {
+                generator.writeNull();
+            }
+        }
+
+        private void writeInteger(Optional<Integer> value)
+                throws IOException
+        {
+            if (value.isPresent()) {
+                generator.writeNumber(value.get());
+            }
+            else {
+                generator.writeNull();
+            }
+        }
+    }
+
+    private static class Decoder
+    {
+        private final JsonParser parser;
+        private List<String> strings;
+
+        public Decoder(JsonParser parser)
+        {
+            this.parser = requireNonNull(parser, "parser is null");
+        }
+
+        public Snapshot readSnapshot()
+                throws IOException
+        {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            String formatName = null;
+            List<ResourceGroupSpec> rootGroups = null;
+            List<SelectorSpec> selectors = null;
+            Optional<Duration> cpuQuotaPeriod = Optional.empty();
+            Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors = Optional.empty();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                switch (name) {
+                    case "format":
+                        expect(parser.nextToken(), JsonToken.VALUE_STRING);
+                        formatName = parser.getText();
+                        checkArgument(formatName.equals(FORMAT_NAME), "Not a resource groups file: %s", formatName);
+                        break;
+                    case "version":
+                        expect(parser.nextToken(), JsonToken.VALUE_NUMBER_INT);
+                        checkArgument(parser.getIntValue() == VERSION, "Unsupported resource groups file version: %s", parser.getIntValue());
+                        break;
+                    case "strings":
+                        strings = readStrings();
+                        break;
+                    case "rootGroups":
+                        rootGroups = readGroups();
+                        break;
+                    case "selectors":
+                        selectors = readSelectors();
+                        break;
+                    case "cpuQuotaPeriod":
+                        cpuQuotaPeriod = Optional.of(Duration.valueOf(readString()));
+                        break;
+                    case "exactMatchSelectors":
+                        exactMatchSelectors = Optional.of(readExactMatchSelectors());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown property: " + name);
+                }
+            }
+            expect(parser.currentToken(), JsonToken.END_OBJECT);
+            checkArgument(formatName != null, "Not a resource groups file");
+            checkArgument(rootGroups != null, "Missing required property: rootGroups");
+            checkArgument(selectors != null, "Missing required property: selectors");
+            return new Snapshot(new ManagerSpec(rootGroups, selectors, cpuQuotaPeriod), exactMatchSelectors);
+        }
+
+        private List<String> readStrings()
+                throws IOException
+        {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            ImmutableList.Builder<String> values = ImmutableList.builder();
+            while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                values.add(parser.getText());
+            }
+            expect(parser.currentToken(), JsonToken.END_ARRAY);
+            return values.build();
+        }
+
+        private List<ResourceGroupSpec> readGroups()
+                throws IOException
+        {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            ImmutableList.Builder<ResourceGroupSpec> groups = ImmutableList.builder();
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                groups.add(readGroup());
+            }
+            expect(parser.currentToken(), JsonToken.END_ARRAY);
+            return groups.build();
+        }
+
+        private ResourceGroupSpec readGroup()
+                throws IOException
+        {
+            ResourceGroupNameTemplate name = new ResourceGroupNameTemplate(readString());
+            String softMemoryLimit = readString();
+            int maxQueued = readInteger();
+            Optional<Integer> softConcurrencyLimit = readOptionalInteger();
+            int hardConcurrencyLimit = readInteger();
+            Optional<String> schedulingPolicy = readOptionalString();
+            Optional<Integer> schedulingWeight = readOptionalInteger();
+            Optional<Boolean> jmxExport = readOptionalBoolean();
+            Optional<Duration> softCpuLimit = readOptionalString().map(Duration::valueOf);
+            Optional<Duration> hardCpuLimit = readOptionalString().map(Duration::valueOf);
+            List<ResourceGroupSpec> subGroups = readGroups();
+            expect(parser.nextToken(), JsonToken.END_ARRAY);
+            return new ResourceGroupSpec(
+                    name,
+                    softMemoryLimit,
+                    maxQueued,
+                    softConcurrencyLimit,
+                    Optional.of(hardConcurrencyLimit),
+                    Optional.empty(),
+                    schedulingPolicy,
+                    schedulingWeight,
+                    subGroups.isEmpty() ? Optional.empty() : Optional.of(subGroups),
+                    jmxExport,
+                    softCpuLimit,
+                    hardCpuLimit);
+        }
+
+        private List<SelectorSpec> readSelectors()
+                throws IOException
+        {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            ImmutableList.Builder<SelectorSpec> selectors = ImmutableList.builder();
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                Optional<Pattern> userRegex = readOptionalString().map(Pattern::compile);
+                Optional<Pattern> userGroupRegex = readOptionalString().map(Pattern::compile);
+                Optional<Pattern> sourceRegex = readOptionalString().map(Pattern::compile);
+                Optional<String> queryType = readOptionalString();
+                Optional<List<String>> clientTags = Optional.empty();
+                if (parser.nextToken() != JsonToken.VALUE_NULL) {
+                    expect(parser.currentToken(), JsonToken.START_ARRAY);
+                    ImmutableList.Builder<String> tags = ImmutableList.builder();
+                    while (parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+                        tags.add(lookup(parser.getIntValue()));
+                    }
+                    expect(parser.currentToken(), JsonToken.END_ARRAY);
+                    clientTags = Optional.of(tags.build());
+                }
+                ResourceGroupIdTemplate group = new ResourceGroupIdTemplate(readString());
+                Optional<SelectorResourceEstimate> selectorResourceEstimate = Optional.empty();
+                if (parser.nextToken() != JsonToken.VALUE_NULL) {
+                    expect(parser.currentToken(), JsonToken.START_OBJECT);
+                    selectorResourceEstimate = Optional.of(MAPPER.readValue(parser, SelectorResourceEstimate.class));
+                }
+                expect(parser.nextToken(), JsonToken.END_ARRAY);
+                selectors.add(new SelectorSpec(userRegex, userGroupRegex, sourceRegex, queryType, clientTags, selectorResourceEstimate, group));
+            }
+            expect(parser.currentToken(), JsonToken.END_ARRAY);
+            return selectors.build();
+        }
+
+        private List<ExactMatchSelectorSpec> readExactMatchSelectors()
+                throws IOException
+        {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            ImmutableList.Builder<ExactMatchSelectorSpec> selectors = ImmutableList.builder();
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                selectors.add(new ExactMatchSelectorSpec(readString(), readOptionalString(), readString()));
+                expect(parser.nextToken(), JsonToken.END_ARRAY);
+            }
+            expect(parser.currentToken(), JsonToken.END_ARRAY);
+            return selectors.build();
+        }
+
+        private String readString()
+                throws IOException
+        {
+            return readOptionalString().orElseThrow(() -> new IllegalArgumentException("Unexpected null at " + parser.getTokenLocation()));
+        }
+
+        private Optional<String> readOptionalString()
+                throws IOException
+        {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                return Optional.empty();
+            }
+            expect(parser.currentToken(), JsonToken.VALUE_NUMBER_INT);
+            return Optional.of(lookup(parser.getIntValue()));
+        }
+
+        private int readInteger()
+                throws IOException
+        {
+            return readOptionalInteger().orElseThrow(() -> new IllegalArgumentException("Unexpected null at " + parser.getTokenLocation()));
+        }
+
+        private Optional<Integer> readOptionalInteger()
+                throws IOException
+        {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                return Optional.empty();
+            }
+            expect(parser.currentToken(), JsonToken.VALUE_NUMBER_INT);
+            return Optional.of(parser.getIntValue());
+        }
+
+        private Optional<Boolean> readOptionalBoolean()
+                throws IOException
+        {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return Optional.empty();
+            }
+            checkArgument(token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE, "Expected a boolean but found %s at %s", token, parser.getTokenLocation());
+            return Optional.of(token == JsonToken.VALUE_TRUE);
+        }
+
+        private String lookup(int index)
+        {
+            checkArgument(strings != null, "Strings must precede the resource groups and selectors");
+            checkArgument(index >= 0 && index < strings.size(), "String index %s is out of range at %s", index, parser.getTokenLocation());
+            return strings.get(index);
+        }
+
+        private void expect(JsonToken actual, JsonToken expected)
+        {
+            checkArgument(actual == expected, "Expected %s but found %s at %s", expected, actual, parser.getTokenLocation());
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.lang.String.format;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Structural diff of two {@link ManagerSpec}s. Every resource group subtree is
+ * hashed once, bottom up, and the comparison only descends into subtrees whose
+ * hashes differ, so the cost of comparing two near-identical trees beyond
+ * hashing them is proportional to the number of differences.
+ * <p>
+ * Selectors have no identity other than their content, so they are matched by
+ * hash. Unmatched selectors are reported as added or removed, and matched
+ * selectors that are not part of the longest run kept in the same relative
+ * order are reported as moved.
+ */
+public final class ManagerSpecDiff
+{
+    private ManagerSpecDiff() {}
+
+    public static List<Change> diff(ManagerSpec before, ManagerSpec after)
+    {
+        ImmutableList.Builder<Change> changes = ImmutableList.builder();
+
+        Optional<String> cpuQuotaPeriodBefore = before.getCpuQuotaPeriod().map(Object::toString);
+        Optional<String> cpuQuotaPeriodAfter = after.getCpuQuotaPeriod().map(Object::toString);
+        if (!cpuQuotaPeriodBefore.equals(cpuQuotaPeriodAfter)) {
+            changes.add(new Change(
+                    ChangeType.MODIFIED,
+                    Kind.CPU_QUOTA_PERIOD,
+                    "cpuQuotaPeriod",
+                    singleton("cpuQuotaPeriod", cpuQuotaPeriodBefore.orElse(null)),
+                    singleton("cpuQuotaPeriod", cpuQuotaPeriodAfter.orElse(null))));
+        }
+
+        diffGroups("", hashGroups(before.getRootGroups()), hashGroups(after.getRootGroups()), changes);
+        diffSelectors(before.getSelectors(), after.getSelectors(), changes);
+        return changes.build();
+    }
+
+    private static void diffGroups(String parentPath, SortedMap<String, HashedGroup> before, SortedMap<String, HashedGroup> after, ImmutableList.Builder<Change> changes)
+    {
+        TreeSet<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            String path = parentPath.isEmpty() ? name : parentPath + "." + name;
+            HashedGroup beforeGroup = before.get(name);
+            HashedGroup afterGroup = after.get(name);
+            if (afterGroup == null) {
+                changes.add(new Change(ChangeType.REMOVED, Kind.RESOURCE_GROUP, path, beforeGroup.getProperties(), ImmutableMap.of()));
+            }
+            else if (beforeGroup == null) {
+                changes.add(new Change(ChangeType.ADDED, Kind.RESOURCE_GROUP, path, ImmutableMap.of(), afterGroup.getProperties()));
+                // sub groups of an added group are new as well
+                diffGroups(path, new TreeMap<>(), afterGroup.getSubGroups(), changes);
+            }
+            else if (!beforeGroup.getHash().equals(afterGroup.getHash())) {
+                if (!beforeGroup.getProperties().equals(afterGroup.getProperties())) {
+                    changes.add(modified(Kind.RESOURCE_GROUP, path, beforeGroup.getProperties(), afterGroup.getProperties()));
+                }
+                diffGroups(path, beforeGroup.getSubGroups(), afterGroup.getSubGroups(), changes);
+            }
+        }
+    }
+
+    private static void diffSelectors(List<SelectorSpec> before, List<SelectorSpec> after, ImmutableList.Builder<Change> changes)
+    {
+        Map<HashCode, Deque<Integer>> afterPositions = new HashMap<>();
+        for (int i = 0; i < after.size(); i++) {
+            afterPositions.computeIfAbsent(ManagerSpecFingerprint.hashSelector(after.get(i)), hash -> new ArrayDeque<>()).add(i);
+        }
+
+        boolean[] afterMatched = new boolean[after.size()];
+        List<Integer> matchedBefore = new ArrayList<>();
+        List<Integer> matchedAfter = new ArrayList<>();
+        for (int i = 0; i < before.size(); i++) {
+            Deque<Integer> positions = afterPositions.get(ManagerSpecFingerprint.hashSelector(before.get(i)));
+            if (positions == null || positions.isEmpty()) {
+                changes.add(new Change(ChangeType.REMOVED, Kind.SELECTOR, selectorPath(i), ManagerSpecFingerprint.properties(before.get(i)), ImmutableMap.of()));
+                continue;
+            }
+            int position = positions.removeFirst();
+            afterMatched[position] = true;
+            matchedBefore.add(i);
+            matchedAfter.add(position);
+        }
+
+        for (int i = 0; i < after.size(); i++) {
+            if (!afterMatched[i]) {
+                changes.add(new Change(ChangeType.ADDED, Kind.SELECTOR, selectorPath(i), ImmutableMap.of(), ManagerSpecFingerprint.properties(after.get(i))));
+            }
+        }
+
+        boolean[] inOrder = longestIncreasingSubsequence(matchedAfter);
+        for (int i = 0; i < matchedAfter.size(); i++) {
+            if (!inOrder[i]) {
+                SelectorSpec selector = after.get(matchedAfter.get(i));
+                Map<String, String> properties = new LinkedHashMap<>(ManagerSpecFingerprint.properties(selector));
+                changes.add(new Change(
+                        ChangeType.MOVED,
+                        Kind.SELECTOR,
+                        selectorPath(matchedAfter.get(i)),
+                        withPosition(properties, matchedBefore.get(i)),
+                        withPosition(properties, matchedAfter.get(i))));
+            }
+        }
+    }
+
+    /**
+     * Marks the elements of the longest strictly increasing subsequence, in O(n log n).
+     */
+    private static boolean[] longestIncreasingSubsequence(List<Integer> values)
+    {
+        int[] tails = new int[values.size()];
+        int[] previous = new int[values.size()];
+        int length = 0;
+        for (int i = 0; i < values.size(); i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values.get(tails[middle]) < values.get(i)) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] marked = new boolean[values.size()];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            marked[i] = true;
+        }
+        return marked;
+    }
+
+    private static SortedMap<String, HashedGroup> hashGroups(List<ResourceGroupSpec> groups)
+    {
+        SortedMap<String, HashedGroup> hashedGroups = new TreeMap<>();
+        for (ResourceGroupSpec group : groups) {
+            SortedMap<String, HashedGroup> subGroups = hashGroups(group.getSubGroups());
+            Map<String, String> properties = ManagerSpecFingerprint.properties(group);
+            HashCode hash = ManagerSpecFingerprint.hashResourceGroup(
+                    properties,
+                    subGroups.values().stream()
+                            .map(HashedGroup::getHash)
+                            .collect(toImmutableList()));
+            hashedGroups.put(group.getName().toString(), new HashedGroup(hash, properties, subGroups));
+        }
+        return hashedGroups;
+    }
+
+    private static Change modified(Kind kind, String path, Map<String, String> before, Map<String, String> after)
+    {
+        Map<String, String> changedBefore = new LinkedHashMap<>();
+        Map<String, String> changedAfter = new LinkedHashMap<>();
+        for (String key : after.keySet()) {
+            if (!Objects.equals(before.get(key), after.get(key))) {
+                changedBefore.put(key, before.get(key));
+                changedAfter.put(key, after.get(key));
+            }
+        }
+        return new Change(ChangeType.MODIFIED, kind, path, changedBefore, changedAfter);
+    }
+
+    private static Map<String, String> withPosition(Map<String, String> properties, int position)
+    {
+        Map<String, String> result = new LinkedHashMap<>();
+        result.put("position", String.valueOf(position));
+        result.putAll(properties);
+        return result;
+    }
+
+    private static Map<String, String> singleton(String key, String value)
+    {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put(key, value);
+        return map;
+    }
+
+    private static String selectorPath(int position)
+    {
+        return format("selectors[%s]", position);
+    }
+
+    public enum ChangeType
+    {
+        ADDED("+"),
+        REMOVED("-"),
+        MODIFIED("~"),
+        MOVED(">");
+
+        private final String symbol;
+
+        ChangeType(String symbol)
+        {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol()
+        {
+            return symbol;
+        }
+    }
+
+    public enum Kind
+    {
+        RESOURCE_GROUP,
+        SELECTOR,
+        CPU_QUOTA_PERIOD
+    }
+
+    public static class Change
+    {
+        private final ChangeType type;
+        private final Kind kind;
+        private final String path;
+        private final Map<String, String> before;
+        private final Map<String, String> after;
+
+        public Change(ChangeType type, Kind kind, String path, Map<String, String> before, Map<String, String> after)
+        {
+            this.type = requireNonNull(type, "type is null");
+            this.kind = requireNonNull(kind, "kind is null");
+            this.path = requireNonNull(path, "path is null");
+            // maps may contain null values for unset properties
+            this.before = new LinkedHashMap<>(requireNonNull(before, "before is null"));
+            this.after = new LinkedHashMap<>(requireNonNull(after, "after is null"));
+        }
+
+        @JsonProperty
+        public ChangeType getType()
+        {
+            return type;
+        }
+
+        @JsonProperty
+        public Kind getKind()
+        {
+            return kind;
+        }
+
+        @JsonProperty
+        public String getPath()
+        {
+            return path;
+        }
+
+        @JsonProperty
+        public Map<String, String> getBefore()
+        {
+            return before;
+        }
+
+        @JsonProperty
+        public Map<String, String> getAfter()
+        {
+            return after;
+        }
+
+        @Override
+        public String toString()
+        {
+            String prefix = format("%s %s %s", type.getSymbol(), kind.name().toLowerCase(ENGLISH), path);
+            switch (type) {
+                case ADDED:
+                    return prefix + " " + after;
+                case REMOVED:
+                    return prefix + " " + before;
+                case MOVED:
+                    return format("%s: position %s -> %s", prefix, before.get("position"), after.get("position"));
+                case MODIFIED:
+                    List<String> changed = new ArrayList<>();
+                    for (String key : after.keySet()) {
+                        changed.add(format("%s %s -> %s", key, before.get(key), after.get(key)));
+                    }
+                    return prefix + ": " + String.join(", ", changed);
+            }
+            throw new IllegalStateException("Unknown change type: " + type);
+        }
+    }
+
+    private static class HashedGroup
+    {
+        private final HashCode hash;
+        private final Map<String, String> properties;
+        private final SortedMap<String, HashedGroup> subGroups;
+
+        public HashedGroup(HashCode hash, Map<String, String> properties, SortedMap<String, HashedGroup> subGroups)
+        {
+            this.hash = requireNonNull(hash, "hash is null");
+            this.properties = requireNonNull(properties, "properties is null");
+            this.subGroups = requireNonNull(subGroups, "subGroups is null");
+        }
+
+        public HashCode getHash()
+        {
+            return hash;
+        }
+
+        public Map<String, String> getProperties()
+        {
+            return properties;
+        }
+
+        public SortedMap<String, HashedGroup> getSubGroups()
+        {
+            return subGroups;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Content hashes of a {@link ManagerSpec}. Properties are hashed in the form
+ * they are stored in the database, so a spec parsed from JSON and the same
+ * spec loaded back from the database have the same fingerprint. Sub groups
+ * are hashed in name order, because the database does not preserve their
+ * order, while selectors are hashed in priority order.
+ */
+public final class ManagerSpecFingerprint
+{
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+    private ManagerSpecFingerprint() {}
+
+    public static HashCode fingerprint(ManagerSpec managerSpec)
+    {
+        return HASH_FUNCTION.newHasher()
+                .putBytes(hashRootGroups(managerSpec.getRootGroups()).asBytes())
+                .putBytes(hashSelectors(managerSpec.getSelectors()).asBytes())
+                .putString(managerSpec.getCpuQuotaPeriod().map(Object::toString).orElse(""), UTF_8)
+                .hash();
+    }
+
+    public static HashCode hashRootGroups(List<ResourceGroupSpec> rootGroups)
+    {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        rootGroups.stream()
+                .sorted(Comparator.comparing(resourceGroupSpec -> resourceGroupSpec.getName().toString()))
+                .forEach(resourceGroupSpec -> hasher.putBytes(hashResourceGroup(resourceGroupSpec).asBytes()));
+        return hasher.hash();
+    }
+
+    public static HashCode hashSelectors(List<SelectorSpec> selectors)
+    {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        for (SelectorSpec selector : selectors) {
+            hasher.putBytes(hashSelector(selector).asBytes());
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Hash of a resource group and all of its descendants.
+     */
+    public static HashCode hashResourceGroup(ResourceGroupSpec resourceGroupSpec)
+    {
+        List<HashCode> subGroupHashes = resourceGroupSpec.getSubGroups().stream()
+                .sorted(Comparator.comparing(subGroup -> subGroup.getName().toString()))
+                .map(ManagerSpecFingerprint::hashResourceGroup)
+                .collect(toImmutableList());
+        return hashResourceGroup(properties(resourceGroupSpec), subGroupHashes);
+    }
+
+    /**
+     * Combines the properties of a group with the hashes of its sub groups, which
+     * must be given in name order.
+     */
+    static HashCode hashResourceGroup(Map<String, String> properties, Iterable<HashCode> subGroupHashes)
+    {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        putProperties(hasher, properties);
+        for (HashCode subGroupHash : subGroupHashes) {
+            hasher.putBytes(subGroupHash.asBytes());
+        }
+        return hasher.hash();
+    }
+
+    public static HashCode hashSelector(SelectorSpec selectorSpec)
+    {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        putProperties(hasher, properties(selectorSpec));
+        return hasher.hash();
+    }
+
+    /**
+     * Properties of the group itself, excluding sub groups, as stored in the database.
+     */
+    public static Map<String, String> properties(ResourceGroupSpec resourceGroupSpec)
+    {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("name", resourceGroupSpec.getName().toString());
+        properties.put("softMemoryLimit", ResourceGroupRow.getSoftMemoryLimit(resourceGroupSpec));
+        properties.put("maxQueued", String.valueOf(resourceGroupSpec.getMaxQueued()));
+        properties.put("softConcurrencyLimit", resourceGroupSpec.getSoftConcurrencyLimit().map(String::valueOf).orElse(null));
+        properties.put("hardConcurrencyLimit", String.valueOf(resourceGroupSpec.getHardConcurrencyLimit()));
+        properties.put("schedulingPolicy", ResourceGroupRow.getSchedulingPolicy(resourceGroupSpec));
+        properties.put("schedulingWeight", resourceGroupSpec.getSchedulingWeight().map(String::valueOf).orElse(null));
+        properties.put("jmxExport", String.valueOf(ResourceGroupRow.getJmxExport(resourceGroupSpec)));
+        properties.put("softCpuLimit", ResourceGroupRow.getSoftCpuLimit(resourceGroupSpec));
+        properties.put("hardCpuLimit", ResourceGroupRow.getHardCpuLimit(resourceGroupSpec));
+        return properties;
+    }
+
+    public static Map<String, String> properties(SelectorSpec selectorSpec)
+    {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("user", SelectorRow.getUserRegex(selectorSpec));
+        properties.put("userGroup", SelectorRow.getUserGroupRegex(selectorSpec));
+        properties.put("source", SelectorRow.getSourceRegex(selectorSpec));
+        properties.put("queryType", selectorSpec.getQueryType().orElse(null));
+        properties.put("clientTags", SelectorRow.getClientTags(selectorSpec));
+        properties.put("group", ManagerSpecRows.groupPath(selectorSpec.getGroup()));
+        return properties;
+    }
+
+    private static void putProperties(Hasher hasher, Map<String, String> properties)
+    {
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            hasher.putString(property.getKey(), UTF_8);
+            if (property.getValue() == null) {
+                hasher.putByte((byte) 0);
+            }
+            else {
+                hasher.putByte((byte) 1);
+                hasher.putInt(property.getValue().length());
+                hasher.putString(property.getValue(), UTF_8);
+            }
+        }
+    }
+}
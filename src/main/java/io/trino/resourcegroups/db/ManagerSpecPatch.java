@@ -0,0 +1,426 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+import io.trino.plugin.resourcegroups.db.ResourceGroupGlobalProperties;
+import io.trino.plugin.resourcegroups.db.ResourceGroupSpecBuilder;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.result.ResultIterator;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Changes the rows of an environment into those of a {@link ManagerSpec} by
+ * writing only the rows that differ. Resource groups are matched by their
+ * path, so unchanged groups keep their ids and rows, changed groups are
+ * updated in place, and only missing groups are inserted. Selectors are
+ * matched by group path and content, and the longest sequence of stored
+ * selectors that is in the order of the target keeps its rows.
+ * <p>
+ * New selectors take priorities between those of their neighbours, see
+ * {@link SelectorPriorities}, so inserting or removing a selector usually
+ * writes only that row. Selectors have no key of their own, so the few that
+ * have to move to make room are deleted and inserted again.
+ */
+public final class ManagerSpecPatch
+{
+    private ManagerSpecPatch() {}
+
+    /**
+     * Patches the environment in the transaction, which must hold the lock of
+     * the environment.
+     */
+    public static Result apply(Handle transaction, ManagerSpec target, String environment)
+    {
+        ResourceGroupsDao dao = transaction.attach(ResourceGroupsDao.class);
+        int fetchSize = DbBasedResourceGroups.getDatabaseType(transaction).streamingFetchSize(DbBasedResourceGroups.DEFAULT_FETCH_SIZE);
+
+        // paths of the target groups in pre-order, with their groups and parent paths
+        List<String> targetPaths = new ArrayList<>();
+        Map<String, ResourceGroupSpec> targetGroups = new HashMap<>();
+        Map<String, String> targetParents = new HashMap<>();
+        for (ResourceGroupSpec rootGroup : target.getRootGroups()) {
+            collectGroups(rootGroup, rootGroup.getName().toString(), targetPaths, targetGroups, targetParents);
+        }
+
+        Map<Long, ResourceGroupSpecBuilder> records = new HashMap<>();
+        try (ResultIterator<ResourceGroupSpecBuilder> iterator = dao.streamResourceGroups(transaction, environment, fetchSize).iterator()) {
+            iterator.forEachRemaining(record -> records.put(record.getId(), record));
+        }
+        List<Long> rootIds = new ArrayList<>();
+        Map<Long, List<Long>> subGroupIds = new HashMap<>();
+        records.keySet().stream()
+                .sorted()
+                .forEach(id -> {
+                    Optional<Long> parentId = records.get(id).getParentId();
+                    if (parentId.isPresent()) {
+                        subGroupIds.computeIfAbsent(parentId.get(), key -> new ArrayList<>()).add(id);
+                    }
+                    else {
+                        rootIds.add(id);
+                    }
+                });
+        Map<String, Long> idsByPath = new HashMap<>();
+        List<Long> removedGroups = new ArrayList<>();
+        for (long rootId : rootIds) {
+            matchGroups(rootId, "", false, records, subGroupIds, targetGroups, idsByPath, removedGroups);
+        }
+
+        // stored selectors are matched to the target by group path and content, and
+        // the longest run of them in target order keeps its rows and priorities
+        Map<Long, String> pathsById = new HashMap<>();
+        idsByPath.forEach((path, id) -> pathsById.put(id, path));
+        List<SelectorSpec> selectors = target.getSelectors();
+        Map<List<Object>, Deque<Integer>> targetPositions = new HashMap<>();
+        for (int i = 0; i < selectors.size(); i++) {
+            String path = ManagerSpecRows.groupPath(selectors.get(i).getGroup());
+            if (!targetGroups.containsKey(path)) {
+                throw new IllegalArgumentException(format("Selector group %s does not exist", path));
+            }
+            targetPositions.computeIfAbsent(selectorContent(path, selectors.get(i)), key -> new ArrayDeque<>()).add(i);
+        }
+        List<List<Object>> currentSelectors = new ArrayList<>();
+        try (ResultIterator<List<Object>> iterator = dao.streamSelectors(transaction, environment, fetchSize, SELECTOR_KEY_MAPPER).iterator()) {
+            iterator.forEachRemaining(currentSelectors::add);
+        }
+        int[] matches = new int[currentSelectors.size()];
+        for (int i = 0; i < currentSelectors.size(); i++) {
+            String path = pathsById.get((long) currentSelectors.get(i).get(0));
+            Deque<Integer> positions = path == null ? null : targetPositions.get(selectorContent(path, currentSelectors.get(i)));
+            matches[i] = positions == null || positions.isEmpty() ? -1 : positions.poll();
+        }
+        boolean[] kept = longestIncreasing(matches);
+        long[] priorities = new long[selectors.size()];
+        int[] storedPositions = new int[selectors.size()];
+        Arrays.fill(priorities, SelectorPriorities.UNASSIGNED);
+        Arrays.fill(storedPositions, -1);
+        for (int i = 0; i < currentSelectors.size(); i++) {
+            if (kept[i]) {
+                priorities[matches[i]] = (long) currentSelectors.get(i).get(1);
+                storedPositions[matches[i]] = i;
+            }
+        }
+        SelectorPriorities.allocate(priorities);
+
+        // rows are deleted by group and priority, which also deletes kept rows stored with the same ones
+        Set<List<Object>> deletedPriorities = new HashSet<>();
+        int selectorsRemoved = 0;
+        for (int i = 0; i < currentSelectors.size(); i++) {
+            List<Object> key = currentSelectors.get(i);
+            if (!kept[i]) {
+                deletedPriorities.add(key.subList(0, 2));
+                selectorsRemoved++;
+            }
+            else if (priorities[matches[i]] != (long) key.get(1)) {
+                deletedPriorities.add(key.subList(0, 2));
+            }
+        }
+        deleteSelectors(transaction, deletedPriorities);
+        List<Integer> insertedSelectors = new ArrayList<>();
+        int selectorsAdded = 0;
+        for (int i = 0; i < selectors.size(); i++) {
+            if (storedPositions[i] < 0) {
+                insertedSelectors.add(i);
+                selectorsAdded++;
+            }
+            else if (deletedPriorities.contains(currentSelectors.get(storedPositions[i]).subList(0, 2))) {
+                insertedSelectors.add(i);
+            }
+        }
+
+        // removed groups are in pre-order, so deleting them in reverse deletes sub groups first
+        Collections.reverse(removedGroups);
+        try (PreparedBatch selectorBatch = transaction.prepareBatch("DELETE FROM selectors WHERE resource_group_id = ?");
+                PreparedBatch groupBatch = transaction.prepareBatch("DELETE FROM resource_groups WHERE resource_group_id = ?")) {
+            for (long id : removedGroups) {
+                selectorBatch.bind(0, id).add();
+                groupBatch.bind(0, id).add();
+            }
+            if (!removedGroups.isEmpty()) {
+                selectorBatch.execute();
+                groupBatch.execute();
+            }
+        }
+
+        int resourceGroupsModified = 0;
+        for (Map.Entry<String, Long> group : idsByPath.entrySet()) {
+            ResourceGroupSpec targetGroup = targetGroups.get(group.getKey());
+            if (!ManagerSpecFingerprint.properties(records.get(group.getValue()).build()).equals(ManagerSpecFingerprint.properties(targetGroup))) {
+                dao.updateResourceGroup(group.getValue(), targetGroup);
+                resourceGroupsModified++;
+            }
+        }
+
+        // paths are in pre-order, so parents are inserted before their sub groups
+        int resourceGroupsAdded = 0;
+        for (String path : targetPaths) {
+            if (!idsByPath.containsKey(path)) {
+                Long parentId = targetParents.containsKey(path) ? idsByPath.get(targetParents.get(path)) : null;
+                idsByPath.put(path, dao.insertResourceGroup(targetGroups.get(path), environment, parentId));
+                resourceGroupsAdded++;
+            }
+        }
+
+        for (int position : insertedSelectors) {
+            SelectorSpec selector = selectors.get(position);
+            dao.insertSelector(new SelectorRow(idsByPath.get(ManagerSpecRows.groupPath(selector.getGroup())), priorities[position], selector));
+        }
+
+        boolean cpuQuotaPeriodChanged = false;
+        if (target.getCpuQuotaPeriod().isPresent()) {
+            Optional<String> current = dao.getResourceGroupGlobalProperties().stream()
+                    .findFirst()
+                    .flatMap(ResourceGroupGlobalProperties::getCpuQuotaPeriod)
+                    .map(Object::toString);
+            String cpuQuotaPeriod = target.getCpuQuotaPeriod().get().toString();
+            if (!current.equals(Optional.of(cpuQuotaPeriod))) {
+                dao.setCpuQuotaPeriod(cpuQuotaPeriod);
+                cpuQuotaPeriodChanged = true;
+            }
+        }
+
+        return new Result(resourceGroupsAdded, removedGroups.size(), resourceGroupsModified, selectorsAdded, selectorsRemoved, insertedSelectors.size() - selectorsAdded, cpuQuotaPeriodChanged);
+    }
+
+    static final RowMapper<List<Object>> SELECTOR_KEY_MAPPER = (resultSet, context) -> Arrays.asList(
+            resultSet.getLong("resource_group_id"),
+            resultSet.getLong("priority"),
+            resultSet.getString("user_regex"),
+            resultSet.getString("user_group_regex"),
+            resultSet.getString("source_regex"),
+            resultSet.getString("query_type"),
+            resultSet.getString("client_tags"),
+            resultSet.getString("selector_resource_estimate"));
+
+    static List<Object> selectorKey(SelectorRow row)
+    {
+        return Arrays.asList(
+                row.getResourceGroupId(),
+                row.getPriority(),
+                row.getUserRegex(),
+                row.getUserGroupRegex(),
+                row.getSourceRegex(),
+                row.getQueryType(),
+                row.getClientTags(),
+                row.getSelectorResourceEstimate());
+    }
+
+    /**
+     * Deletes the selectors stored with the given group ids and priorities.
+     */
+    static void deleteSelectors(Handle transaction, Set<List<Object>> priorities)
+    {
+        try (PreparedBatch batch = transaction.prepareBatch("DELETE FROM selectors WHERE resource_group_id = ? AND priority = ?")) {
+            for (List<Object> priority : priorities) {
+                batch.bind(0, (long) priority.get(0))
+                        .bind(1, (long) priority.get(1))
+                        .add();
+            }
+            if (!priorities.isEmpty()) {
+                batch.execute();
+            }
+        }
+    }
+
+    /**
+     * Group path and properties of a selector, which identify it regardless of
+     * the ids and priorities it is stored with.
+     */
+    static List<Object> selectorContent(String path, List<Object> key)
+    {
+        List<Object> content = new ArrayList<>(key.subList(2, key.size()));
+        content.add(path);
+        return content;
+    }
+
+    static List<Object> selectorContent(String path, SelectorSpec selector)
+    {
+        return selectorContent(path, selectorKey(new SelectorRow(0, 0, selector)));
+    }
+
+    /**
+     * Marks a longest subsequence of the matched positions that increases,
+     * skipping those that are negative.
+     */
+    private static boolean[] longestIncreasing(int[] positions)
+    {
+        // tails[k] is the index of the smallest last position of an increasing subsequence of length k + 1
+        int[] tails = new int[positions.length];
+        int[] previous = new int[positions.length];
+        int length = 0;
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] < 0) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (positions[tails[middle]] < positions[i]) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        boolean[] result = new boolean[positions.length];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+        return result;
+    }
+
+    private static void collectGroups(ResourceGroupSpec group, String path, List<String> paths, Map<String, ResourceGroupSpec> groups, Map<String, String> parents)
+    {
+        paths.add(path);
+        groups.put(path, group);
+        for (ResourceGroupSpec subGroup : group.getSubGroups()) {
+            String subGroupPath = path + "." + subGroup.getName();
+            parents.put(subGroupPath, path);
+            collectGroups(subGroup, subGroupPath, paths, groups, parents);
+        }
+    }
+
+    /**
+     * Walks the stored groups from the root, keeping those whose path is in
+     * the target and marking the others, their sub groups and any further
+     * group stored under a path already seen as removed.
+     */
+    private static void matchGroups(
+            long id,
+            String parentPath,
+            boolean parentRemoved,
+            Map<Long, ResourceGroupSpecBuilder> records,
+            Map<Long, List<Long>> subGroupIds,
+            Map<String, ResourceGroupSpec> targetGroups,
+            Map<String, Long> idsByPath,
+            List<Long> removedGroups)
+    {
+        String name = records.get(id).getNameTemplate().toString();
+        String path = parentPath.isEmpty() ? name : parentPath + "." + name;
+        boolean removed = parentRemoved || !targetGroups.containsKey(path) || idsByPath.containsKey(path);
+        if (removed) {
+            removedGroups.add(id);
+        }
+        else {
+            idsByPath.put(path, id);
+        }
+        for (long subGroupId : subGroupIds.getOrDefault(id, ImmutableList.of())) {
+            matchGroups(subGroupId, path, removed, records, subGroupIds, targetGroups, idsByPath, removedGroups);
+        }
+    }
+
+    public static class Result
+    {
+        private final int resourceGroupsAdded;
+        private final int resourceGroupsRemoved;
+        private final int resourceGroupsModified;
+        private final int selectorsAdded;
+        private final int selectorsRemoved;
+        private final int selectorsMoved;
+        private final boolean cpuQuotaPeriodChanged;
+
+        public Result(int resourceGroupsAdded, int resourceGroupsRemoved, int resourceGroupsModified, int selectorsAdded, int selectorsRemoved, int selectorsMoved, boolean cpuQuotaPeriodChanged)
+        {
+            this.resourceGroupsAdded = resourceGroupsAdded;
+            this.resourceGroupsRemoved = resourceGroupsRemoved;
+            this.resourceGroupsModified = resourceGroupsModified;
+            this.selectorsAdded = selectorsAdded;
+            this.selectorsRemoved = selectorsRemoved;
+            this.selectorsMoved = selectorsMoved;
+            this.cpuQuotaPeriodChanged = cpuQuotaPeriodChanged;
+        }
+
+        public int getResourceGroupsAdded()
+        {
+            return resourceGroupsAdded;
+        }
+
+        public int getResourceGroupsRemoved()
+        {
+            return resourceGroupsRemoved;
+        }
+
+        public int getResourceGroupsModified()
+        {
+            return resourceGroupsModified;
+        }
+
+        public int getSelectorsAdded()
+        {
+            return selectorsAdded;
+        }
+
+        public int getSelectorsRemoved()
+        {
+            return selectorsRemoved;
+        }
+
+        /**
+         * Selectors rewritten with a new priority to make room for added ones.
+         */
+        public int getSelectorsMoved()
+        {
+            return selectorsMoved;
+        }
+
+        public boolean isCpuQuotaPeriodChanged()
+        {
+            return cpuQuotaPeriodChanged;
+        }
+
+        public boolean isEmpty()
+        {
+            return resourceGroupsAdded == 0 && resourceGroupsRemoved == 0 && resourceGroupsModified == 0 && selectorsAdded == 0 && selectorsRemoved == 0 && selectorsMoved == 0 && !cpuQuotaPeriodChanged;
+        }
+
+        @Override
+        public String toString()
+        {
+            return format("added %s, removed %s and modified %s resource groups, added %s, removed %s and moved %s selectors%s",
+                    resourceGroupsAdded,
+                    resourceGroupsRemoved,
+                    resourceGroupsModified,
+                    selectorsAdded,
+                    selectorsRemoved,
+                    selectorsMoved,
+                    cpuQuotaPeriodChanged ? ", changed cpuQuotaPeriod" : "");
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupIdTemplate;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Flattens a {@link ManagerSpec} into the rows of the resource_groups and
+ * selectors tables. Resource groups are listed parent first, and selectors
+ * are resolved against the allocated ids locally instead of looking up
+ * each group in the database.
+ */
+public class ManagerSpecRows
+{
+    private final List<ResourceGroupRow> resourceGroups;
+    private final List<SelectorRow> selectors;
+
+    ManagerSpecRows(List<ResourceGroupRow> resourceGroups, List<SelectorRow> selectors)
+    {
+        this.resourceGroups = ImmutableList.copyOf(requireNonNull(resourceGroups, "resourceGroups is null"));
+        this.selectors = ImmutableList.copyOf(requireNonNull(selectors, "selectors is null"));
+    }
+
+    public List<ResourceGroupRow> getResourceGroups()
+    {
+        return resourceGroups;
+    }
+
+    public List<SelectorRow> getSelectors()
+    {
+        return selectors;
+    }
+
+    public static ManagerSpecRows flatten(ManagerSpec managerSpec, String environment, long[] resourceGroupIds)
+    {
+        int resourceGroupCount = countResourceGroups(managerSpec.getRootGroups());
+        checkArgument(resourceGroupIds.length == resourceGroupCount, "Expected %s resource group ids but got %s", resourceGroupCount, resourceGroupIds.length);
+
+        ImmutableList.Builder<ResourceGroupRow> resourceGroups = ImmutableList.builderWithExpectedSize(resourceGroupCount);
+        Map<String, Long> idsByPath = new HashMap<>();
+        int next = 0;
+        for (ResourceGroupSpec rootGroup : managerSpec.getRootGroups()) {
+            next = flatten(rootGroup, null, null, environment, resourceGroupIds, next, resourceGroups, idsByPath);
+        }
+
+        // highest priority first, matching the order selectors are defined in
+        ImmutableList.Builder<SelectorRow> selectors = ImmutableList.builderWithExpectedSize(managerSpec.getSelectors().size());
+        List<SelectorSpec> selectorSpecs = managerSpec.getSelectors();
+        for (int i = 0; i < selectorSpecs.size(); i++) {
+            String path = groupPath(selectorSpecs.get(i).getGroup());
+            Long resourceGroupId = idsByPath.get(path);
+            if (resourceGroupId == null) {
+                throw new IllegalArgumentException(format("Selector group %s does not exist", path));
+            }
+            selectors.add(new SelectorRow(resourceGroupId, SelectorPriorities.initial(i, selectorSpecs.size()), selectorSpecs.get(i)));
+        }
+        return new ManagerSpecRows(resourceGroups.build(), selectors.build());
+    }
+
+    public static int countResourceGroups(List<ResourceGroupSpec> resourceGroups)
+    {
+        int total = 0;
+        for (ResourceGroupSpec resourceGroupSpec : resourceGroups) {
+            total++;
+            total += countResourceGroups(resourceGroupSpec.getSubGroups());
+        }
+        return total;
+    }
+
+    public static String groupPath(ResourceGroupIdTemplate resourceGroupIdTemplate)
+    {
+        return resourceGroupIdTemplate.getSegments()
+                .stream()
+                .map(Object::toString)
+                .collect(Collectors.joining("."));
+    }
+
+    /**
+     * Resource groups in the order {@link #flatten} lists them, each with the
+     * position of its parent, and selectors with the position of their group.
+     * Rows can then be produced in chunks, as ids are allocated chunk by chunk.
+     * Since parents come first, the ids a chunk refers to are always known.
+     */
+    public static class Layout
+    {
+        private final List<ResourceGroupSpec> resourceGroups;
+        private final int[] parents;
+        // position after the last descendant of each group
+        private final int[] ends;
+        private final List<SelectorSpec> selectors;
+        private final int[] selectorGroups;
+
+        public Layout(ManagerSpec managerSpec)
+        {
+            int resourceGroupCount = countResourceGroups(managerSpec.getRootGroups());
+            ImmutableList.Builder<ResourceGroupSpec> resourceGroups = ImmutableList.builderWithExpectedSize(resourceGroupCount);
+            this.parents = new int[resourceGroupCount];
+            this.ends = new int[resourceGroupCount];
+            Map<String, Integer> positionsByPath = new HashMap<>();
+            int next = 0;
+            for (ResourceGroupSpec rootGroup : managerSpec.getRootGroups()) {
+                next = add(rootGroup, null, -1, next, resourceGroups, positionsByPath);
+            }
+            this.resourceGroups = resourceGroups.build();
+
+            this.selectors = ImmutableList.copyOf(managerSpec.getSelectors());
+            this.selectorGroups = new int[selectors.size()];
+            for (int i = 0; i < selectors.size(); i++) {
+                String path = groupPath(selectors.get(i).getGroup());
+                Integer position = positionsByPath.get(path);
+                if (position == null) {
+                    throw new IllegalArgumentException(format("Selector group %s does not exist", path));
+                }
+                selectorGroups[i] = position;
+            }
+        }
+
+        private int add(ResourceGroupSpec resourceGroupSpec, String parentPath, int parent, int next, ImmutableList.Builder<ResourceGroupSpec> resourceGroups, Map<String, Integer> positionsByPath)
+        {
+            String path = (parentPath == null) ? resourceGroupSpec.getName().toString() : parentPath + "." + resourceGroupSpec.getName();
+            int position = next;
+            resourceGroups.add(resourceGroupSpec);
+            parents[position] = parent;
+            positionsByPath.put(path, position);
+            next++;
+            for (ResourceGroupSpec subGroup : resourceGroupSpec.getSubGroups()) {
+                next = add(subGroup, path, position, next, resourceGroups, positionsByPath);
+            }
+            ends[position] = next;
+            return next;
+        }
+
+        public int getResourceGroupCount()
+        {
+            return resourceGroups.size();
+        }
+
+        public int getSelectorCount()
+        {
+            return selectors.size();
+        }
+
+        public String getResourceGroupName(int position)
+        {
+            return resourceGroups.get(position).getName().toString();
+        }
+
+        /**
+         * Rows of the resource groups at positions [start, end). The ids of
+         * these groups and of all their ancestors must be set in {@code ids}.
+         */
+        public ManagerSpecRows resourceGroupRows(int start, int end, long[] ids, String environment)
+        {
+            ImmutableList.Builder<ResourceGroupRow> rows = ImmutableList.builderWithExpectedSize(end - start);
+            for (int position = start; position < end; position++) {
+                rows.add(resourceGroupRow(position, ids, environment));
+            }
+            return new ManagerSpecRows(rows.build(), ImmutableList.of());
+        }
+
+        /**
+         * Rows of the resource groups at the given positions, which must list
+         * parents before their children.
+         */
+        public ManagerSpecRows resourceGroupRows(int[] positions, long[] ids, String environment)
+        {
+            ImmutableList.Builder<ResourceGroupRow> rows = ImmutableList.builderWithExpectedSize(positions.length);
+            for (int position : positions) {
+                rows.add(resourceGroupRow(position, ids, environment));
+            }
+            return new ManagerSpecRows(rows.build(), ImmutableList.of());
+        }
+
+        private ResourceGroupRow resourceGroupRow(int position, long[] ids, String environment)
+        {
+            Long parentId = (parents[position] < 0) ? null : ids[parents[position]];
+            return new ResourceGroupRow(ids[position], parentId, resourceGroups.get(position), environment);
+        }
+
+        /**
+         * Splits the resource groups into ranges of positions that can be
+         * written independently of each other, each of at most
+         * {@code maxRows} groups. A subtree that is too large is split into
+         * the subtrees of its children, and so on down the tree, and the
+         * groups split this way form the spine, which must be written before
+         * the ranges. Adjacent small subtrees are merged into one range, so
+         * wide groups do not produce a range per child.
+         */
+        public Partitioning partition(int maxRows)
+        {
+            checkArgument(maxRows > 0, "maxRows must be positive");
+            List<Integer> spine = new ArrayList<>();
+            List<int[]> ranges = new ArrayList<>();
+            for (int position = 0; position < resourceGroups.size(); position = ends[position]) {
+                partition(position, maxRows, spine, ranges);
+            }
+            return new Partitioning(spine.stream().mapToInt(Integer::intValue).toArray(), ranges);
+        }
+
+        private void partition(int position, int maxRows, List<Integer> spine, List<int[]> ranges)
+        {
+            int end = ends[position];
+            if (end - position > maxRows && end - position > 1) {
+                spine.add(position);
+                for (int child = position + 1; child < end; child = ends[child]) {
+                    partition(child, maxRows, spine, ranges);
+                }
+                return;
+            }
+            if (!ranges.isEmpty()) {
+                int[] last = ranges.get(ranges.size() - 1);
+                if (last[1] == position && end - last[0] <= maxRows) {
+                    last[1] = end;
+                    return;
+                }
+            }
+            ranges.add(new int[] {position, end});
+        }
+
+        /**
+         * Rows of the selectors at positions [start, end), with the same
+         * priorities {@link #flatten} assigns.
+         */
+        public ManagerSpecRows selectorRows(int start, int end, long[] ids)
+        {
+            ImmutableList.Builder<SelectorRow> rows = ImmutableList.builderWithExpectedSize(end - start);
+            for (int position = start; position < end; position++) {
+                rows.add(new SelectorRow(ids[selectorGroups[position]], SelectorPriorities.initial(position, selectors.size()), selectors.get(position)));
+            }
+            return new ManagerSpecRows(ImmutableList.of(), rows.build());
+        }
+    }
+
+    private static int flatten(
+            ResourceGroupSpec resourceGroupSpec,
+            String parentPath,
+            Long parentId,
+            String environment,
+            long[] resourceGroupIds,
+            int next,
+            ImmutableList.Builder<ResourceGroupRow> resourceGroups,
+            Map<String, Long> idsByPath)
+    {
+        long id = resourceGroupIds[next];
+        String path = (parentPath == null) ? resourceGroupSpec.getName().toString() : parentPath + "." + resourceGroupSpec.getName();
+        resourceGroups.add(new ResourceGroupRow(id, parentId, resourceGroupSpec, environment));
+        idsByPath.put(path, id);
+        next++;
+        for (ResourceGroupSpec subGroup : resourceGroupSpec.getSubGroups()) {
+            next = flatten(subGroup, path, id, environment, resourceGroupIds, next, resourceGroups, idsByPath);
+        }
+        return next;
+    }
+
+    /**
+     * Result of {@link Layout#partition}: the positions of the spine, parents
+     * first, and the ranges of positions [start, end) hanging off it.
+     */
+    public static class Partitioning
+    {
+        private final int[] spine;
+        private final List<int[]> ranges;
+
+        private Partitioning(int[] spine, List<int[]> ranges)
+        {
+            this.spine = requireNonNull(spine, "spine is null");
+            this.ranges = ImmutableList.copyOf(requireNonNull(ranges, "ranges is null"));
+        }
+
+        public int[] getSpine()
+        {
+            return spine;
+        }
+
+        public int getRangeCount()
+        {
+            return ranges.size();
+        }
+
+        public int getStart(int range)
+        {
+            return ranges.get(range)[0];
+        }
+
+        public int getEnd(int range)
+        {
+            return ranges.get(range)[1];
+        }
+    }
+}
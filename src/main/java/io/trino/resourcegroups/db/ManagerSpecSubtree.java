@@ -0,0 +1,343 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+import io.trino.plugin.resourcegroups.db.ResourceGroupSpecBuilder;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.result.ResultIterator;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.lang.String.format;
+
+/**
+ * Replaces the resource groups under one path of an environment, and the
+ * selectors that target them, with those of a {@link ManagerSpec}. Every
+ * other row of the environment is left alone, except for the priorities of
+ * selectors that have to make room for the new ones.
+ * <p>
+ * The selectors of the subtree are written as one block, in the order of the
+ * file, next to the nearest selector before them in the file that is stored
+ * in the environment. If there is none, the block goes above the nearest one
+ * after them, else where the selectors of the subtree were, else above all
+ * other selectors. Their priorities are allocated by
+ * {@link SelectorPriorities}, which only moves other selectors when the gap
+ * between the neighbours of the block is too small. Moving them, or placing
+ * the block anywhere but where it was, requires the lock of the environment
+ * in exclusive mode, as it touches priorities other subtrees may be using.
+ */
+public final class ManagerSpecSubtree
+{
+    private ManagerSpecSubtree() {}
+
+    /**
+     * Paths of the groups above {@code path}, from the root down.
+     */
+    public static List<String> ancestors(String path)
+    {
+        List<String> names = Splitter.on('.').splitToList(path);
+        ImmutableList.Builder<String> ancestors = ImmutableList.builder();
+        for (int i = 1; i < names.size(); i++) {
+            ancestors.add(String.join(".", names.subList(0, i)));
+        }
+        return ancestors.build();
+    }
+
+    public static boolean contains(String subtree, String path)
+    {
+        return path.equals(subtree) || path.startsWith(subtree + ".");
+    }
+
+    /**
+     * Replaces the subtree in the transaction, which must hold the lock of the
+     * subtree, and that of the environment exclusively if
+     * {@code environmentLocked}. Otherwise the selectors of the subtree may
+     * only take priorities of the range it owns (see {@link #allocateOwned}),
+     * as applies to other subtrees run concurrently, and nothing is written
+     * and empty is returned if they do not fit there.
+     */
+    public static Optional<ManagerSpecPatch.Result> apply(Handle transaction, ManagerSpec managerSpec, String environment, String subtree, boolean environmentLocked)
+    {
+        ResourceGroupsDao dao = transaction.attach(ResourceGroupsDao.class);
+        int fetchSize = DbBasedResourceGroups.getDatabaseType(transaction).streamingFetchSize(DbBasedResourceGroups.DEFAULT_FETCH_SIZE);
+        ResourceGroupSpec group = findGroup(managerSpec.getRootGroups(), Splitter.on('.').splitToList(subtree))
+                .orElseThrow(() -> new IllegalArgumentException(format("Resource group %s is not in the resource groups file", subtree)));
+
+        Map<Long, ResourceGroupSpecBuilder> records = new HashMap<>();
+        try (ResultIterator<ResourceGroupSpecBuilder> iterator = dao.streamResourceGroups(transaction, environment, fetchSize).iterator()) {
+            iterator.forEachRemaining(record -> records.put(record.getId(), record));
+        }
+        Map<Long, String> paths = new HashMap<>();
+        records.keySet().forEach(id -> resolvePath(id, records, paths));
+
+        List<String> ancestors = ancestors(subtree);
+        Long parentId = null;
+        if (!ancestors.isEmpty()) {
+            String parentPath = ancestors.get(ancestors.size() - 1);
+            // the first of groups stored under the same path is the one kept by a patch
+            parentId = paths.entrySet().stream()
+                    .filter(entry -> entry.getValue().equals(parentPath))
+                    .map(Map.Entry::getKey)
+                    .min(Long::compare)
+                    .orElseThrow(() -> new IllegalArgumentException(format("Resource group %s does not exist in environment %s", parentPath, environment)));
+        }
+        // sub groups are deeper than their parents, so deleting the deepest first deletes sub groups first
+        List<Long> removedGroups = new ArrayList<>();
+        paths.forEach((id, path) -> {
+            if (contains(subtree, path)) {
+                removedGroups.add(id);
+            }
+        });
+        removedGroups.sort(Comparator.comparingInt((Long id) -> depth(paths.get(id))).reversed());
+        Set<Long> removedIds = new HashSet<>(removedGroups);
+
+        List<List<Object>> otherSelectors = new ArrayList<>();
+        List<Long> removedPriorities = new ArrayList<>();
+        try (ResultIterator<List<Object>> iterator = dao.streamSelectors(transaction, environment, fetchSize, ManagerSpecPatch.SELECTOR_KEY_MAPPER).iterator()) {
+            iterator.forEachRemaining(key -> {
+                if (removedIds.contains((long) key.get(0))) {
+                    removedPriorities.add((long) key.get(1));
+                }
+                else {
+                    otherSelectors.add(key);
+                }
+            });
+        }
+
+        List<SelectorSpec> selectors = managerSpec.getSelectors();
+        List<SelectorSpec> subtreeSelectors = new ArrayList<>();
+        int first = -1;
+        for (int i = 0; i < selectors.size(); i++) {
+            if (contains(subtree, ManagerSpecRows.groupPath(selectors.get(i).getGroup()))) {
+                subtreeSelectors.add(selectors.get(i));
+                if (first < 0) {
+                    first = i;
+                }
+            }
+        }
+
+        // priorities are allocated before anything is written, so that an apply which has to
+        // run again holding the lock of the environment exclusively leaves no trace
+        int position = 0;
+        long[] priorities = new long[otherSelectors.size()];
+        if (!subtreeSelectors.isEmpty()) {
+            // the block is placed among the other selectors, which are in descending priority order
+            position = placeBlock(selectors, first, subtree, otherSelectors, paths, removedPriorities);
+            if (environmentLocked) {
+                priorities = new long[otherSelectors.size() + subtreeSelectors.size()];
+                Arrays.fill(priorities, SelectorPriorities.UNASSIGNED);
+                for (int i = 0; i < otherSelectors.size(); i++) {
+                    priorities[i < position ? i : i + subtreeSelectors.size()] = (long) otherSelectors.get(i).get(1);
+                }
+                SelectorPriorities.allocate(priorities);
+            }
+            else {
+                Optional<long[]> owned = allocateOwned(otherSelectors, position, removedPriorities, subtreeSelectors.size());
+                if (owned.isEmpty()) {
+                    return Optional.empty();
+                }
+                priorities = owned.get();
+            }
+        }
+
+        try (PreparedBatch selectorBatch = transaction.prepareBatch("DELETE FROM selectors WHERE resource_group_id = ?");
+                PreparedBatch groupBatch = transaction.prepareBatch("DELETE FROM resource_groups WHERE resource_group_id = ?")) {
+            for (long id : removedGroups) {
+                selectorBatch.bind(0, id).add();
+                groupBatch.bind(0, id).add();
+            }
+            if (!removedGroups.isEmpty()) {
+                selectorBatch.execute();
+                groupBatch.execute();
+            }
+        }
+
+        Map<String, Long> idsByPath = new HashMap<>();
+        insertResourceGroup(dao, group, subtree, parentId, environment, idsByPath);
+
+        int selectorsMoved = 0;
+        if (!subtreeSelectors.isEmpty()) {
+            // other selectors that make room are deleted and inserted again with their new priority
+            Set<List<Object>> deletedPriorities = new HashSet<>();
+            for (int i = 0; i < otherSelectors.size(); i++) {
+                List<Object> key = otherSelectors.get(i);
+                if (priorities[i < position ? i : i + subtreeSelectors.size()] != (long) key.get(1)) {
+                    deletedPriorities.add(key.subList(0, 2));
+                }
+            }
+            ManagerSpecPatch.deleteSelectors(transaction, deletedPriorities);
+            for (int i = 0; i < otherSelectors.size(); i++) {
+                List<Object> key = otherSelectors.get(i);
+                if (deletedPriorities.contains(key.subList(0, 2))) {
+                    dao.insertSelector(
+                            (long) key.get(0),
+                            priorities[i < position ? i : i + subtreeSelectors.size()],
+                            (String) key.get(2),
+                            (String) key.get(3),
+                            (String) key.get(4),
+                            (String) key.get(5),
+                            (String) key.get(6),
+                            (String) key.get(7));
+                    selectorsMoved++;
+                }
+            }
+            for (int i = 0; i < subtreeSelectors.size(); i++) {
+                SelectorSpec selector = subtreeSelectors.get(i);
+                dao.insertSelector(new SelectorRow(idsByPath.get(ManagerSpecRows.groupPath(selector.getGroup())), priorities[position + i], selector));
+            }
+        }
+
+        return Optional.of(new ManagerSpecPatch.Result(idsByPath.size(), removedGroups.size(), 0, subtreeSelectors.size(), removedPriorities.size(), selectorsMoved, false));
+    }
+
+    /**
+     * Priorities of the other selectors and of {@code count} selectors of the
+     * subtree at {@code position}, which only take priorities of the range
+     * the subtree owns: the priorities of the selectors it had, which must be
+     * next to each other at {@code position}, and those up to the middle of
+     * the gaps to the selectors above and below them. Applies to other
+     * subtrees own disjoint ranges, so neither takes a priority of the other
+     * nor moves its selectors. Empty if the subtree had no selectors, or the
+     * range is too small.
+     */
+    private static Optional<long[]> allocateOwned(List<List<Object>> otherSelectors, int position, List<Long> removedPriorities, int count)
+    {
+        if (removedPriorities.isEmpty()) {
+            return Optional.empty();
+        }
+        long highest = removedPriorities.stream().max(Long::compare).get();
+        long lowest = removedPriorities.stream().min(Long::compare).get();
+        for (int i = 0; i < otherSelectors.size(); i++) {
+            long priority = (long) otherSelectors.get(i).get(1);
+            if (i < position ? priority <= highest : priority >= lowest) {
+                return Optional.empty();
+            }
+        }
+        // the middle of a gap belongs to the range below it, which is how the selectors on
+        // either side of the gap split it, whichever subtree they belong to
+        long upper = highest + SelectorPriorities.STEP;
+        if (position > 0) {
+            long above = (long) otherSelectors.get(position - 1).get(1);
+            upper = highest + (above - highest) / 2;
+        }
+        long lower = lowest - SelectorPriorities.STEP;
+        if (position < otherSelectors.size()) {
+            long below = (long) otherSelectors.get(position).get(1);
+            lower = below + (lowest - below) / 2 + 1;
+        }
+        long gap = (upper - lower + 2) / (count + 1);
+        if (gap < 1) {
+            return Optional.empty();
+        }
+        long[] priorities = new long[otherSelectors.size() + count];
+        for (int i = 0; i < otherSelectors.size(); i++) {
+            priorities[i < position ? i : i + count] = (long) otherSelectors.get(i).get(1);
+        }
+        for (int i = 0; i < count; i++) {
+            priorities[position + i] = upper + 1 - gap * (i + 1);
+        }
+        return Optional.of(priorities);
+    }
+
+    /**
+     * Position of the block of selectors of the subtree among the other
+     * selectors.
+     */
+    private static int placeBlock(List<SelectorSpec> selectors, int first, String subtree, List<List<Object>> otherSelectors, Map<Long, String> paths, List<Long> removedPriorities)
+    {
+        Map<List<Object>, Integer> stored = new HashMap<>();
+        for (int i = 0; i < otherSelectors.size(); i++) {
+            List<Object> key = otherSelectors.get(i);
+            stored.putIfAbsent(ManagerSpecPatch.selectorContent(paths.get((long) key.get(0)), key), i);
+        }
+        for (int i = first - 1; i >= 0; i--) {
+            Integer position = stored.get(content(selectors.get(i)));
+            if (position != null) {
+                return position + 1;
+            }
+        }
+        for (int i = first + 1; i < selectors.size(); i++) {
+            Integer position = contains(subtree, ManagerSpecRows.groupPath(selectors.get(i).getGroup())) ? null : stored.get(content(selectors.get(i)));
+            if (position != null) {
+                return position;
+            }
+        }
+        if (!removedPriorities.isEmpty()) {
+            long top = removedPriorities.stream().max(Long::compare).get();
+            int position = 0;
+            while (position < otherSelectors.size() && (long) otherSelectors.get(position).get(1) > top) {
+                position++;
+            }
+            return position;
+        }
+        return 0;
+    }
+
+    private static List<Object> content(SelectorSpec selector)
+    {
+        return ManagerSpecPatch.selectorContent(ManagerSpecRows.groupPath(selector.getGroup()), selector);
+    }
+
+    private static Optional<ResourceGroupSpec> findGroup(List<ResourceGroupSpec> groups, List<String> names)
+    {
+        for (ResourceGroupSpec group : groups) {
+            if (group.getName().toString().equals(names.get(0))) {
+                return names.size() == 1 ? Optional.of(group) : findGroup(group.getSubGroups(), names.subList(1, names.size()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static String resolvePath(long id, Map<Long, ResourceGroupSpecBuilder> records, Map<Long, String> paths)
+    {
+        String path = paths.get(id);
+        if (path == null) {
+            ResourceGroupSpecBuilder record = records.get(id);
+            String name = record.getNameTemplate().toString();
+            path = record.getParentId()
+                    .map(parentId -> resolvePath(parentId, records, paths) + "." + name)
+                    .orElse(name);
+            paths.put(id, path);
+        }
+        return path;
+    }
+
+    private static int depth(String path)
+    {
+        return Splitter.on('.').splitToList(path).size();
+    }
+
+    private static void insertResourceGroup(ResourceGroupsDao dao, ResourceGroupSpec resourceGroupSpec, String path, Long parentId, String environment, Map<String, Long> idsByPath)
+    {
+        long resourceGroupId = dao.insertResourceGroup(resourceGroupSpec, environment, parentId);
+        idsByPath.put(path, resourceGroupId);
+        for (ResourceGroupSpec subGroup : resourceGroupSpec.getSubGroups()) {
+            insertResourceGroup(dao, subGroup, path + "." + subGroup.getName(), resourceGroupId, environment, idsByPath);
+        }
+    }
+}
@@ -14,13 +14,18 @@
 package io.trino.resourcegroups.db;
 
 import io.trino.plugin.resourcegroups.ManagerSpec;
-import io.trino.plugin.resourcegroups.ResourceGroupIdTemplate;
 import io.trino.plugin.resourcegroups.ResourceGroupNameTemplate;
 import io.trino.plugin.resourcegroups.ResourceGroupSpec;
 import io.trino.plugin.resourcegroups.SelectorSpec;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ManagerSpecToJson
 {
@@ -29,93 +34,118 @@ public class ManagerSpecToJson
     public static String convert(ManagerSpec managerSpec)
             throws Exception
     {
-        return "{\n" +
-                INDENT +
-                resourceGroups(managerSpec.getRootGroups()) +
-                ",\n" +
-                INDENT +
-                selectors(managerSpec.getSelectors()) +
-                ",\n" +
-                INDENT +
-                cpuQuotaPeriod(managerSpec.getCpuQuotaPeriod().get().toString()) +
-                "\n}\n";
+        StringWriter writer = new StringWriter();
+        write(managerSpec, writer);
+        return writer.toString();
     }
 
-    private static String resourceGroups(List<ResourceGroupSpec> rootGroups)
+    /**
+     * Writes the same JSON as {@link #convert(ManagerSpec)} one resource group
+     * and selector at a time, so the whole document is never held in memory.
+     */
+    public static void write(ManagerSpec managerSpec, Writer writer)
+            throws IOException
     {
-        return "\"rootGroups\": [\n" +
-                allResourceGroups(rootGroups, 2) +
-                "\n" +
-                indent(1) +
-                "]";
+        write(managerSpec, Optional.empty(), writer);
     }
 
-    private static String allResourceGroups(List<ResourceGroupSpec> resourceGroupSpecs, int indentationLevel)
+    /**
+     * Like {@link #write(ManagerSpec, Writer)}, and if exact match selectors
+     * are given, also writes them as the {@code exactMatchSelectors} property.
+     */
+    public static void write(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, Writer writer)
+            throws IOException
     {
-        return String.join(
-                ",\n",
-                resourceGroupSpecs
-                        .stream()
-                        .map(resourceGroupSpec -> resourceGroup(resourceGroupSpec, indentationLevel))
-                        .collect(Collectors.toList())
-        );
+        writer.write("{\n" + INDENT + "\"rootGroups\": [\n");
+        writeAll(writer, managerSpec.getRootGroups(), resourceGroupSpec -> resourceGroup(resourceGroupSpec, 2));
+        writer.write("\n" + indent(1) + "],\n" + INDENT + "\"selectors\": [\n");
+        writeAll(writer, managerSpec.getSelectors(), ManagerSpecToJson::selector);
+        writer.write("\n" + indent(1) + "]");
+        if (managerSpec.getCpuQuotaPeriod().isPresent()) {
+            writer.write(",\n" + INDENT + cpuQuotaPeriod(managerSpec.getCpuQuotaPeriod().get().toString()));
+        }
+        if (exactMatchSelectors.isPresent()) {
+            writer.write(",\n" + INDENT + "\"exactMatchSelectors\": [\n");
+            writeAll(writer, exactMatchSelectors.get(), ManagerSpecToJson::exactMatchSelector);
+            writer.write("\n" + indent(1) + "]");
+        }
+        writer.write("\n}\n");
+    }
+
+    private static <T> void writeAll(Writer writer, List<T> elements, Function<T, String> formatter)
+            throws IOException
+    {
+        boolean first = true;
+        for (T element : elements) {
+            if (!first) {
+                writer.write(",\n");
+            }
+            writer.write(formatter.apply(element));
+            first = false;
+        }
     }
 
     private static String resourceGroup(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
     {
         return indent(indentationLevel) +
                 "{\n" +
-                groupName(resourceGroupSpec, indentationLevel + 1) +
-                softMemoryLimit(resourceGroupSpec, indentationLevel + 1) +
-                hardConcurrencyLimit(resourceGroupSpec, indentationLevel + 1) +
-                maxQueued(resourceGroupSpec, indentationLevel + 1) +
-                schedulingPolicy(resourceGroupSpec, indentationLevel + 1) +
-                schedulingWeight(resourceGroupSpec, indentationLevel + 1) +
-                jmxExport(resourceGroupSpec, indentationLevel + 1) +
-                softCpuLimit(resourceGroupSpec, indentationLevel + 1) +
-                hardCpuLimit(resourceGroupSpec, indentationLevel + 1) +
-                subGroups(resourceGroupSpec, indentationLevel + 1) +
+                properties(indentationLevel + 1,
+                        groupName(resourceGroupSpec),
+                        softMemoryLimit(resourceGroupSpec),
+                        softConcurrencyLimit(resourceGroupSpec),
+                        hardConcurrencyLimit(resourceGroupSpec),
+                        maxQueued(resourceGroupSpec),
+                        schedulingPolicy(resourceGroupSpec),
+                        schedulingWeight(resourceGroupSpec),
+                        jmxExport(resourceGroupSpec),
+                        softCpuLimit(resourceGroupSpec),
+                        hardCpuLimit(resourceGroupSpec),
+                        subGroups(resourceGroupSpec, indentationLevel + 1)) +
                 indent(indentationLevel) +
                 "}";
     }
 
-    private static String selectors(List<SelectorSpec> selectorSpecList)
-    {
-        return "\"selectors\": [\n" +
-                allSelectors(selectorSpecList) +
-                "\n" +
-                indent(1) +
-               "]";
-    }
-
-    private static String allSelectors(List<SelectorSpec> selectorSpecList)
+    private static String selector(SelectorSpec selectorSpec)
     {
-        return String.join(
-                ",\n",
-                selectorSpecList
-                        .stream()
-                        .map(selectorSpec -> selector(selectorSpec))
-                        .collect(Collectors.toList())
-        );
+        return indent(2) +
+                "{\n" +
+                properties(3,
+                        userRegex(selectorSpec),
+                        userGroupRegex(selectorSpec),
+                        sourceRegex(selectorSpec),
+                        queryType(selectorSpec),
+                        clientTags(selectorSpec),
+                        groupRegex(selectorSpec)) +
+                indent(2) +
+                "}";
     }
 
-    private static String selector(SelectorSpec selectorSpec)
+    private static String exactMatchSelector(ExactMatchSelectorSpec exactMatchSelector)
     {
         return indent(2) +
                 "{\n" +
-                userRegex(selectorSpec) +
-                userGroupRegex(selectorSpec) +
-                sourceRegex(selectorSpec) +
-                queryType(selectorSpec) +
-                clientTags(selectorSpec) +
-                groupRegex(selectorSpec) +
+                properties(3,
+                        "\"source\": " + quote(exactMatchSelector.getSource()),
+                        exactMatchSelector.getQueryType().map(queryType -> "\"queryType\": " + quote(queryType)).orElse(""),
+                        "\"group\": " + quote(exactMatchSelector.getGroup())) +
                 indent(2) +
                 "}";
     }
 
+    /**
+     * Joins the present properties with commas, one per line.
+     */
+    private static String properties(int indentationLevel, String... properties)
+    {
+        return Stream.of(properties)
+                .filter(property -> !property.isEmpty())
+                .map(property -> indent(indentationLevel) + property)
+                .collect(Collectors.joining(",\n", "", "\n"));
+    }
+
     private static String cpuQuotaPeriod(String cpuQuotaPeriod)
     {
-        return "\"cpuQuotaPeriod\": \"" + cpuQuotaPeriod + "\"";
+        return "\"cpuQuotaPeriod\": " + quote(cpuQuotaPeriod);
     }
 
     private static String indent(int count)
@@ -123,134 +153,146 @@ public class ManagerSpecToJson
         return INDENT.repeat(count);
     }
 
-    private static String userRegex(SelectorSpec selectorSpec)
+    static String quote(String value)
     {
-        if (selectorSpec.getUserRegex().isPresent()) {
-            return indent(3) + "\"user\": \"" + selectorSpec.getUserRegex().get().toString() + "\",\n";
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        builder.append(c);
+                    }
+            }
         }
-        return "";
+        return builder.append('"').toString();
+    }
+
+    private static String userRegex(SelectorSpec selectorSpec)
+    {
+        return selectorSpec.getUserRegex()
+                .map(regex -> "\"user\": " + quote(regex.pattern()))
+                .orElse("");
     }
 
     private static String userGroupRegex(SelectorSpec selectorSpec)
     {
-        if (selectorSpec.getUserGroupRegex().isPresent()) {
-            return indent(3) + "\"userGroup\": \"" + selectorSpec.getUserGroupRegex().get().toString() + "\",\n";
-        }
-        return "";
+        return selectorSpec.getUserGroupRegex()
+                .map(regex -> "\"userGroup\": " + quote(regex.pattern()))
+                .orElse("");
     }
 
     private static String sourceRegex(SelectorSpec selectorSpec)
     {
-        if (selectorSpec.getSourceRegex().isPresent()) {
-            return indent(3) + "\"source\": \"" + selectorSpec.getSourceRegex().get().toString() + "\",\n";
-        }
-        return "";
+        return selectorSpec.getSourceRegex()
+                .map(regex -> "\"source\": " + quote(regex.pattern()))
+                .orElse("");
     }
 
     private static String queryType(SelectorSpec selectorSpec)
     {
-        if (selectorSpec.getQueryType().isPresent()) {
-            return indent(3) + "\"queryType\": \"" + selectorSpec.getQueryType().get() + "\",\n";
-        }
-        return "";
+        return selectorSpec.getQueryType()
+                .map(queryType -> "\"queryType\": " + quote(queryType))
+                .orElse("");
     }
 
     private static String clientTags(SelectorSpec selectorSpec)
     {
-        if (selectorSpec.getClientTags().isPresent()) {
-            if (selectorSpec.getClientTags().get().isEmpty()) {
-                return "";
-            }
-            List<String> clientTags = selectorSpec.getClientTags().get();
-            String tagsList = String.join(
-                    ",",
-                    clientTags
-                            .stream()
-                            .map(clientTag -> ("\"" + clientTag + "\""))
-                            .collect(Collectors.toList())
-            );
-            return indent(3) + "\"clientTags\": [" + tagsList + "],\n";
+        if (selectorSpec.getClientTags().isEmpty() || selectorSpec.getClientTags().get().isEmpty()) {
+            return "";
         }
-        return "";
+        String tagsList = selectorSpec.getClientTags().get()
+                .stream()
+                .map(ManagerSpecToJson::quote)
+                .collect(Collectors.joining(","));
+        return "\"clientTags\": [" + tagsList + "]";
     }
 
     private static String groupRegex(SelectorSpec selectorSpec)
     {
-        ResourceGroupIdTemplate resourceGroupIdTemplate = selectorSpec.getGroup();
-        String resourceGroupName = String.join(
-                ".",
-                resourceGroupIdTemplate.getSegments()
-                        .stream()
-                        .map(resourceGroupNameTemplate -> resourceGroupNameTemplate.toString())
-                        .collect(Collectors.toList())
-        );
-        return indent(3) + "\"group\": \"" + resourceGroupName + "\"\n";
+        return "\"group\": " + quote(ManagerSpecRows.groupPath(selectorSpec.getGroup()));
     }
 
-    private static String groupName(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String groupName(ResourceGroupSpec resourceGroupSpec)
     {
         ResourceGroupNameTemplate resourceGroupNameTemplate = resourceGroupSpec.getName();
-        return indent(indentationLevel) + "\"name\": \"" + resourceGroupNameTemplate.toString() + "\",\n";
+        return "\"name\": " + quote(resourceGroupNameTemplate.toString());
     }
 
-    private static String softMemoryLimit(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String softMemoryLimit(ResourceGroupSpec resourceGroupSpec)
     {
-        if (resourceGroupSpec.getSoftMemoryLimitFraction().isPresent()) {
-            return indent(indentationLevel) + "\"softMemoryLimit\": \"" + (int)(resourceGroupSpec.getSoftMemoryLimitFraction().get() * 100) + "%\",\n";
-        } else if (resourceGroupSpec.getSoftMemoryLimit().isPresent()) {
-            return resourceGroupSpec.getSoftMemoryLimit().get().toString();
-        }
-        return "";
+        return "\"softMemoryLimit\": " + quote(ResourceGroupRow.getSoftMemoryLimit(resourceGroupSpec));
     }
 
-    private static String hardConcurrencyLimit(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String softConcurrencyLimit(ResourceGroupSpec resourceGroupSpec)
     {
-        return indent(indentationLevel) + "\"hardConcurrencyLimit\": " + resourceGroupSpec.getHardConcurrencyLimit() + ",\n";
+        return resourceGroupSpec.getSoftConcurrencyLimit()
+                .map(limit -> "\"softConcurrencyLimit\": " + limit)
+                .orElse("");
     }
 
-    private static String maxQueued(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String hardConcurrencyLimit(ResourceGroupSpec resourceGroupSpec)
     {
-        return indent(indentationLevel) + "\"maxQueued\": " + resourceGroupSpec.getMaxQueued() + ",\n";
+        return "\"hardConcurrencyLimit\": " + resourceGroupSpec.getHardConcurrencyLimit();
     }
 
-    private static String schedulingPolicy(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String maxQueued(ResourceGroupSpec resourceGroupSpec)
     {
-        if (resourceGroupSpec.getSchedulingPolicy().isPresent()) {
-            return indent(indentationLevel) + "\"schedulingPolicy\": \"" + resourceGroupSpec.getSchedulingPolicy() + "\",\n";
-        }
-        return "";
+        return "\"maxQueued\": " + resourceGroupSpec.getMaxQueued();
     }
 
-    private static String schedulingWeight(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String schedulingPolicy(ResourceGroupSpec resourceGroupSpec)
     {
-        if (resourceGroupSpec.getSchedulingWeight().isPresent()) {
-            return indent(indentationLevel) + "\"schedulingWeight\": " + resourceGroupSpec.getSchedulingWeight().get() + ",\n";
+        String schedulingPolicy = ResourceGroupRow.getSchedulingPolicy(resourceGroupSpec);
+        if (schedulingPolicy == null) {
+            return "";
         }
-        return "";
+        return "\"schedulingPolicy\": " + quote(schedulingPolicy);
     }
 
-    private static String jmxExport(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String schedulingWeight(ResourceGroupSpec resourceGroupSpec)
     {
-        if (resourceGroupSpec.getJmxExport().isPresent()) {
-            return indent(indentationLevel) + "\"jmxExport\": " + resourceGroupSpec.getJmxExport().get() + ",\n";
-        }
-        return "";
+        return resourceGroupSpec.getSchedulingWeight()
+                .map(weight -> "\"schedulingWeight\": " + weight)
+                .orElse("");
     }
 
-    private static String softCpuLimit(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String jmxExport(ResourceGroupSpec resourceGroupSpec)
     {
-        if (resourceGroupSpec.getSoftCpuLimit().isPresent()) {
-            return indent(indentationLevel) + "\"softCpuLimit\": \"" + resourceGroupSpec.getSoftCpuLimit().get().toString() + "\",\n";
-        }
-        return "";
+        return resourceGroupSpec.getJmxExport()
+                .map(jmxExport -> "\"jmxExport\": " + jmxExport)
+                .orElse("");
     }
 
-    private static String hardCpuLimit(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
+    private static String softCpuLimit(ResourceGroupSpec resourceGroupSpec)
     {
-        if (resourceGroupSpec.getHardCpuLimit().isPresent()) {
-            return indent(indentationLevel) + "\"hardCpuLimit\": \"" + resourceGroupSpec.getHardCpuLimit().get().toString() + "\",\n";
-        }
-        return "";
+        return resourceGroupSpec.getSoftCpuLimit()
+                .map(limit -> "\"softCpuLimit\": " + quote(limit.toString()))
+                .orElse("");
+    }
+
+    private static String hardCpuLimit(ResourceGroupSpec resourceGroupSpec)
+    {
+        return resourceGroupSpec.getHardCpuLimit()
+                .map(limit -> "\"hardCpuLimit\": " + quote(limit.toString()))
+                .orElse("");
     }
 
     private static String subGroups(ResourceGroupSpec resourceGroupSpec, int indentationLevel)
@@ -258,13 +300,10 @@ public class ManagerSpecToJson
         if (resourceGroupSpec.getSubGroups().isEmpty()) {
             return "";
         }
-        String subGroupString = String.join(
-                ",\n",
-                resourceGroupSpec.getSubGroups()
-                        .stream()
-                        .map(subGroupSpec -> resourceGroup(subGroupSpec, indentationLevel + 1))
-                        .collect(Collectors.toList())
-        );
-        return indent(indentationLevel) + "\"subGroups\": [\n" + subGroupString + "]\n";
+        String subGroupString = resourceGroupSpec.getSubGroups()
+                .stream()
+                .map(subGroupSpec -> resourceGroup(subGroupSpec, indentationLevel + 1))
+                .collect(Collectors.joining(",\n"));
+        return "\"subGroups\": [\n" + subGroupString + "\n" + indent(indentationLevel) + "]";
     }
 }
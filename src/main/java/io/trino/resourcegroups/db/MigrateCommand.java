@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.inject.Injector;
+import io.airlift.log.Logger;
+import picocli.CommandLine;
+
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+@CommandLine.Command(
+        name = "migrate",
+        usageHelpAutoWidth = true
+)
+public class MigrateCommand
+        implements Runnable
+{
+    private static final Logger LOG = Logger.get(MigrateCommand.class);
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--from-db-config", required = true, description = "Properties file with the config of the database to copy from")
+    public String fromConfigFilename;
+
+    @CommandLine.Option(names = "--to-db-config", required = true, description = "Properties file with the config of the database to copy to")
+    public String toConfigFilename;
+
+    @CommandLine.Option(names = "--environment", description = "Environment to copy (default: every environment of the source database)")
+    public String environment;
+
+    @CommandLine.Option(names = "--chunk-size", defaultValue = "10000", description = "Number of rows written to the target database at a time (default: ${DEFAULT-VALUE})")
+    public int chunkSize;
+
+    @CommandLine.Option(names = "--fetch-size", defaultValue = "1000", description = "Number of rows fetched from the source database at a time while streaming resource groups and selectors")
+    public int fetchSize;
+
+    private MigrateCommand() {}
+
+    @Override
+    public void run()
+    {
+        checkArgument(!Paths.get(fromConfigFilename).toAbsolutePath().normalize().equals(Paths.get(toConfigFilename).toAbsolutePath().normalize()),
+                "--from-db-config and --to-db-config must be different databases");
+        Injector from = CommandInjectors.acquire(fromConfigFilename);
+        Injector to = null;
+        try {
+            to = CommandInjectors.acquire(toConfigFilename);
+            ResourceGroupsMigrator migrator = new ResourceGroupsMigrator(
+                    from.getInstance(ResourceGroupsDao.class),
+                    to.getInstance(ResourceGroupsDao.class),
+                    to.getInstance(DatabaseType.class),
+                    to.getInstance(BulkLoader.class),
+                    chunkSize,
+                    fetchSize);
+            LOG.info("Migrating %s from %s to %s", (environment == null) ? "all environments" : "environment " + environment, fromConfigFilename, toConfigFilename);
+            List<ResourceGroupsMigrator.Result> results = migrator.migrate(Optional.ofNullable(environment));
+            PrintWriter out = spec.commandLine().getOut();
+            results.forEach(out::println);
+            out.flush();
+        }
+        finally {
+            if (to != null) {
+                CommandInjectors.release(to);
+            }
+            CommandInjectors.release(from);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Streaming quantile sketch with logarithmic buckets. Every positive value
+ * falls in the bucket {@code ceil(log(value) / log(gamma))}, so quantiles are
+ * returned within the configured relative error using memory proportional to
+ * the logarithm of the value range, independently of the number of values.
+ * Zero and negative values are counted in a separate bucket and reported as
+ * zero.
+ */
+public class QuantileSketch
+{
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final double gamma;
+    private final double logGamma;
+
+    private long[] counts = new long[INITIAL_BUCKETS];
+    // bucket index of counts[0]
+    private int offset;
+    private boolean empty = true;
+    private long zeroCount;
+    private long count;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch()
+    {
+        this(0.01);
+    }
+
+    public QuantileSketch(double relativeError)
+    {
+        checkArgument(relativeError > 0 && relativeError < 1, "relativeError must be between 0 and 1");
+        this.gamma = (1 + relativeError) / (1 - relativeError);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value)
+    {
+        add(value, 1);
+    }
+
+    public void add(double value, long weight)
+    {
+        checkArgument(weight > 0, "weight must be positive");
+        count += weight;
+        max = Math.max(max, value);
+        if (value <= 0) {
+            zeroCount += weight;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        if (empty) {
+            offset = index - INITIAL_BUCKETS / 2;
+            empty = false;
+        }
+        ensureCapacity(index);
+        counts[index - offset] += weight;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getMax()
+    {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Returns the value at the quantile, or NaN if the sketch is empty.
+     */
+    public double getQuantile(double quantile)
+    {
+        checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between 0 and 1");
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = zeroCount;
+        if (seen >= rank) {
+            return 0;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // middle of the bucket in relative terms, never above the exact maximum
+                return Math.min(2 * Math.pow(gamma, i + offset) / (gamma + 1), max);
+            }
+        }
+        return max;
+    }
+
+    private void ensureCapacity(int index)
+    {
+        if (index < offset) {
+            int grow = Math.max(offset - index, counts.length / 2);
+            long[] grown = new long[counts.length + grow];
+            System.arraycopy(counts, 0, grown, grow, counts.length);
+            counts = grown;
+            offset -= grow;
+        }
+        else if (index - offset >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index - offset + 1, counts.length + counts.length / 2));
+        }
+    }
+}
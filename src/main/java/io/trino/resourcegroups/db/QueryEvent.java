@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The fields of a Trino query completed event needed to route the query to
+ * a resource group and to place it on a timeline. Times are epoch millis.
+ */
+public class QueryEvent
+{
+    private final String user;
+    private final List<String> groups;
+    private final Optional<String> source;
+    private final List<String> clientTags;
+    private final Optional<String> queryType;
+    private final long createTime;
+    private final long executionStartTime;
+    private final long endTime;
+    private final long peakMemoryBytes;
+
+    public QueryEvent(
+            String user,
+            List<String> groups,
+            Optional<String> source,
+            List<String> clientTags,
+            Optional<String> queryType,
+            long createTime,
+            long executionStartTime,
+            long endTime,
+            long peakMemoryBytes)
+    {
+        this.user = requireNonNull(user, "user is null");
+        this.groups = ImmutableList.copyOf(requireNonNull(groups, "groups is null"));
+        this.source = requireNonNull(source, "source is null");
+        this.clientTags = ImmutableList.copyOf(requireNonNull(clientTags, "clientTags is null"));
+        this.queryType = requireNonNull(queryType, "queryType is null");
+        this.createTime = createTime;
+        this.executionStartTime = executionStartTime;
+        this.endTime = endTime;
+        this.peakMemoryBytes = peakMemoryBytes;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    public List<String> getGroups()
+    {
+        return groups;
+    }
+
+    public Optional<String> getSource()
+    {
+        return source;
+    }
+
+    public List<String> getClientTags()
+    {
+        return clientTags;
+    }
+
+    public Optional<String> getQueryType()
+    {
+        return queryType;
+    }
+
+    public long getCreateTime()
+    {
+        return createTime;
+    }
+
+    public long getExecutionStartTime()
+    {
+        return executionStartTime;
+    }
+
+    public long getEndTime()
+    {
+        return endTime;
+    }
+
+    public long getQueuedMillis()
+    {
+        return executionStartTime - createTime;
+    }
+
+    public long getPeakMemoryBytes()
+    {
+        return peakMemoryBytes;
+    }
+}
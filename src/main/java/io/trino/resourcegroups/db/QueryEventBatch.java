@@ -0,0 +1,248 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Query events stored column by column. String fields are dictionary encoded:
+ * user, source and query type are ids into {@link #getString(int)}, and user
+ * groups and client tags are ids into {@link #getList(int)}, as most queries
+ * share the same few lists. Absent values have id {@code -1}. Times are epoch
+ * millis.
+ */
+public class QueryEventBatch
+{
+    private final int positionCount;
+    private final int[] users;
+    private final int[] groups;
+    private final int[] sources;
+    private final int[] clientTags;
+    private final int[] queryTypes;
+    private final long[] createTimes;
+    private final long[] executionStartTimes;
+    private final long[] endTimes;
+    private final long[] peakMemoryBytes;
+    private final List<String> strings;
+    private final List<List<String>> lists;
+    private final long skippedLines;
+
+    private QueryEventBatch(Builder builder)
+    {
+        this.positionCount = builder.positionCount;
+        this.users = Arrays.copyOf(builder.users, positionCount);
+        this.groups = Arrays.copyOf(builder.groups, positionCount);
+        this.sources = Arrays.copyOf(builder.sources, positionCount);
+        this.clientTags = Arrays.copyOf(builder.clientTags, positionCount);
+        this.queryTypes = Arrays.copyOf(builder.queryTypes, positionCount);
+        this.createTimes = Arrays.copyOf(builder.createTimes, positionCount);
+        this.executionStartTimes = Arrays.copyOf(builder.executionStartTimes, positionCount);
+        this.endTimes = Arrays.copyOf(builder.endTimes, positionCount);
+        this.peakMemoryBytes = Arrays.copyOf(builder.peakMemoryBytes, positionCount);
+        this.strings = ImmutableList.copyOf(builder.strings);
+        this.lists = ImmutableList.copyOf(builder.lists);
+        this.skippedLines = builder.skippedLines;
+    }
+
+    public int getPositionCount()
+    {
+        return positionCount;
+    }
+
+    /**
+     * Lines of the input that did not hold a query completed event.
+     */
+    public long getSkippedLines()
+    {
+        return skippedLines;
+    }
+
+    public int getUser(int position)
+    {
+        return users[position];
+    }
+
+    public int getGroups(int position)
+    {
+        return groups[position];
+    }
+
+    public int getSource(int position)
+    {
+        return sources[position];
+    }
+
+    public int getClientTags(int position)
+    {
+        return clientTags[position];
+    }
+
+    public int getQueryType(int position)
+    {
+        return queryTypes[position];
+    }
+
+    public long getCreateTime(int position)
+    {
+        return createTimes[position];
+    }
+
+    public long getExecutionStartTime(int position)
+    {
+        return executionStartTimes[position];
+    }
+
+    public long getEndTime(int position)
+    {
+        return endTimes[position];
+    }
+
+    public long getPeakMemoryBytes(int position)
+    {
+        return peakMemoryBytes[position];
+    }
+
+    public String getString(int id)
+    {
+        return strings.get(id);
+    }
+
+    public Optional<String> getOptionalString(int id)
+    {
+        return id < 0 ? Optional.empty() : Optional.of(strings.get(id));
+    }
+
+    public List<String> getList(int id)
+    {
+        return lists.get(id);
+    }
+
+    public int getDictionarySize()
+    {
+        return strings.size();
+    }
+
+    public QueryEvent getEvent(int position)
+    {
+        checkElementIndex(position, positionCount);
+        return new QueryEvent(
+                strings.get(users[position]),
+                lists.get(groups[position]),
+                getOptionalString(sources[position]),
+                lists.get(clientTags[position]),
+                getOptionalString(queryTypes[position]),
+                createTimes[position],
+                executionStartTimes[position],
+                endTimes[position],
+                peakMemoryBytes[position]);
+    }
+
+    public static class Builder
+    {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private int positionCount;
+        private int[] users = new int[INITIAL_CAPACITY];
+        private int[] groups = new int[INITIAL_CAPACITY];
+        private int[] sources = new int[INITIAL_CAPACITY];
+        private int[] clientTags = new int[INITIAL_CAPACITY];
+        private int[] queryTypes = new int[INITIAL_CAPACITY];
+        private long[] createTimes = new long[INITIAL_CAPACITY];
+        private long[] executionStartTimes = new long[INITIAL_CAPACITY];
+        private long[] endTimes = new long[INITIAL_CAPACITY];
+        private long[] peakMemoryBytes = new long[INITIAL_CAPACITY];
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Map<List<String>, Integer> listIds = new HashMap<>();
+        private final List<List<String>> lists = new ArrayList<>();
+        private long skippedLines;
+
+        public Builder append(String user, List<String> userGroups, String source, List<String> tags, String queryType, long createTime, long executionStartTime, long endTime, long memoryBytes)
+        {
+            requireNonNull(user, "user is null");
+            if (positionCount == users.length) {
+                grow();
+            }
+            users[positionCount] = stringId(user);
+            groups[positionCount] = listId(userGroups);
+            sources[positionCount] = source == null ? -1 : stringId(source);
+            clientTags[positionCount] = listId(tags);
+            queryTypes[positionCount] = queryType == null ? -1 : stringId(queryType);
+            createTimes[positionCount] = createTime;
+            executionStartTimes[positionCount] = executionStartTime;
+            endTimes[positionCount] = endTime;
+            peakMemoryBytes[positionCount] = memoryBytes;
+            positionCount++;
+            return this;
+        }
+
+        public Builder skipLine()
+        {
+            skippedLines++;
+            return this;
+        }
+
+        public QueryEventBatch build()
+        {
+            return new QueryEventBatch(this);
+        }
+
+        private int stringId(String value)
+        {
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = strings.size();
+                strings.add(value);
+                stringIds.put(value, id);
+            }
+            return id;
+        }
+
+        private int listId(List<String> values)
+        {
+            Integer id = listIds.get(values);
+            if (id == null) {
+                List<String> list = ImmutableList.copyOf(values);
+                id = lists.size();
+                lists.add(list);
+                listIds.put(list, id);
+            }
+            return id;
+        }
+
+        private void grow()
+        {
+            int capacity = users.length * 2;
+            users = Arrays.copyOf(users, capacity);
+            groups = Arrays.copyOf(groups, capacity);
+            sources = Arrays.copyOf(sources, capacity);
+            clientTags = Arrays.copyOf(clientTags, capacity);
+            queryTypes = Arrays.copyOf(queryTypes, capacity);
+            createTimes = Arrays.copyOf(createTimes, capacity);
+            executionStartTimes = Arrays.copyOf(executionStartTimes, capacity);
+            endTimes = Arrays.copyOf(endTimes, capacity);
+            peakMemoryBytes = Arrays.copyOf(peakMemoryBytes, capacity);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.airlift.units.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static io.trino.resourcegroups.db.ResourceGroupsClient.getFutureValue;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/**
+ * Reads query event logs into {@link QueryEventBatch}es in parallel. Files
+ * are memory mapped and split into chunks that end on line boundaries, and
+ * every chunk is parsed into its own batch on the executor. Batches are
+ * passed to the consumer in file order, and at most two chunks per thread
+ * are in flight, so memory use does not depend on the size of the logs.
+ * Gzip compressed files cannot be mapped, so they are decompressed on the
+ * calling thread and only parsed in parallel.
+ */
+public class QueryLogIngester
+{
+    public static final DataSize DEFAULT_CHUNK_SIZE = DataSize.of(32, MEGABYTE);
+    private static final DataSize MAX_CHUNK_SIZE = DataSize.of(1, GIGABYTE);
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int chunkSize;
+
+    public QueryLogIngester(Executor executor, int parallelism)
+    {
+        this(executor, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    public QueryLogIngester(Executor executor, int parallelism, DataSize chunkSize)
+    {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        checkArgument(chunkSize.toBytes() > 0 && chunkSize.compareTo(MAX_CHUNK_SIZE) <= 0, "chunkSize must be between 1B and %s", MAX_CHUNK_SIZE);
+        this.executor = requireNonNull(executor, "executor is null");
+        this.parallelism = parallelism;
+        this.chunkSize = (int) chunkSize.toBytes();
+    }
+
+    /**
+     * Passes the events of the files to the consumer, one batch per chunk, in
+     * file order. The consumer is called on the calling thread.
+     */
+    public void ingest(List<Path> paths, Consumer<QueryEventBatch> consumer)
+    {
+        Deque<CompletableFuture<QueryEventBatch>> pending = new ArrayDeque<>();
+        Consumer<CompletableFuture<QueryEventBatch>> submit = future -> {
+            pending.addLast(future);
+            while (pending.size() >= parallelism * 2) {
+                consumer.accept(getFutureValue(pending.removeFirst()));
+            }
+        };
+        try {
+            for (Path path : paths) {
+                if (path.getFileName().toString().endsWith(".gz")) {
+                    splitCompressed(path, submit);
+                }
+                else {
+                    splitMapped(path, submit);
+                }
+            }
+            while (!pending.isEmpty()) {
+                consumer.accept(getFutureValue(pending.removeFirst()));
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            pending.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private void splitMapped(Path path, Consumer<CompletableFuture<QueryEventBatch>> submit)
+            throws IOException
+    {
+        // mappings stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                long end = start + chunkSize >= size ? size : findLineEnd(channel, start + chunkSize);
+                MappedByteBuffer chunk = channel.map(READ_ONLY, start, end - start);
+                submit.accept(supplyAsync(() -> parse(chunk), executor));
+                start = end;
+            }
+        }
+    }
+
+    private void splitCompressed(Path path, Consumer<CompletableFuture<QueryEventBatch>> submit)
+            throws IOException
+    {
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(path), 1 << 16)) {
+            byte[] chunk = new byte[chunkSize];
+            int length = 0;
+            while (true) {
+                int read = input.readNBytes(chunk, length, chunk.length - length);
+                length += read;
+                if (length < chunk.length) {
+                    // end of the file
+                    byte[] last = chunk;
+                    int lastLength = length;
+                    submit.accept(supplyAsync(() -> parse(ByteBuffer.wrap(last, 0, lastLength)), executor));
+                    return;
+                }
+                int lineEnd = lastLineEnd(chunk, length);
+                if (lineEnd < 0) {
+                    // a single line longer than the chunk
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    continue;
+                }
+                byte[] full = chunk;
+                submit.accept(supplyAsync(() -> parse(ByteBuffer.wrap(full, 0, lineEnd)), executor));
+                length -= lineEnd;
+                // after a long line, the rest of the chunk may not fit a chunk of the usual size
+                chunk = new byte[Math.max(chunkSize, length * 2)];
+                System.arraycopy(full, lineEnd, chunk, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Parses the lines between the position and the limit of the buffer. A
+     * mapped chunk is parsed in place, without being copied to the heap.
+     */
+    static QueryEventBatch parse(ByteBuffer buffer)
+    {
+        QueryEventBatch.Builder batch = new QueryEventBatch.Builder();
+        QueryLogParser.EventBuilder event = new QueryLogParser.EventBuilder();
+        int length = buffer.limit();
+        int lineStart = buffer.position();
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            if (contentEnd > lineStart) {
+                QueryLogParser.parse(buffer, lineStart, contentEnd - lineStart, event, batch);
+            }
+            lineStart = lineEnd + 1;
+        }
+        return batch.build();
+    }
+
+    /**
+     * Returns the position after the first line break at or after the position,
+     * or the size of the file if there is none.
+     */
+    private static long findLineEnd(FileChannel channel, long position)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the position after the last line break, or -1 if there is none.
+     */
+    private static int lastLineEnd(byte[] buffer, int length)
+    {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parses lines of Trino query completed events, as written by the HTTP or
+ * file based event listeners. Only the routing fields, the timestamps and the
+ * peak memory are read, everything else is skipped by the streaming parser.
+ * Files are read by {@link QueryLogIngester}.
+ */
+public final class QueryLogParser
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // epoch values above this are millis, below are seconds
+    private static final long MIN_EPOCH_MILLIS = 100_000_000_000L;
+
+    private QueryLogParser() {}
+
+    /**
+     * Parses one line. Returns empty for blank lines, invalid JSON and events
+     * that are not query completed events.
+     */
+    public static Optional<QueryEvent> parse(String line)
+    {
+        if (line.isBlank()) {
+            return Optional.empty();
+        }
+        EventBuilder event = new EventBuilder();
+        try (JsonParser parser = JSON_FACTORY.createParser(line)) {
+            parse(parser, event);
+        }
+        catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+        return event.build();
+    }
+
+    /**
+     * Parses the line at {@code [offset, offset + length)} of the buffer and
+     * appends it to the batch, or counts it as skipped. The event builder is
+     * scratch space reused across lines.
+     */
+    static void parse(ByteBuffer buffer, int offset, int length, EventBuilder event, QueryEventBatch.Builder batch)
+    {
+        event.reset();
+        try (JsonParser parser = createParser(buffer, offset, length)) {
+            parse(parser, event);
+        }
+        catch (IOException | RuntimeException e) {
+            batch.skipLine();
+            return;
+        }
+        if (!event.appendTo(batch)) {
+            batch.skipLine();
+        }
+    }
+
+    private static JsonParser createParser(ByteBuffer buffer, int offset, int length)
+            throws IOException
+    {
+        if (buffer.hasArray()) {
+            return JSON_FACTORY.createParser(buffer.array(), buffer.arrayOffset() + offset, length);
+        }
+        // a mapped buffer is streamed through the parser's own small input buffer
+        return JSON_FACTORY.createParser(new ByteBufferInputStream(buffer.duplicate().position(offset).limit(offset + length)));
+    }
+
+    private static void parse(JsonParser parser, EventBuilder event)
+            throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "createTime":
+                    event.createTime = timestamp(parser, value);
+                    break;
+                case "executionStartTime":
+                    event.executionStartTime = timestamp(parser, value);
+                    break;
+                case "endTime":
+                    event.endTime = timestamp(parser, value);
+                    break;
+                case "context":
+                    parseContext(parser, value, event);
+                    break;
+                case "statistics":
+                    parseStatistics(parser, value, event);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseContext(JsonParser parser, JsonToken token, EventBuilder event)
+            throws IOException
+    {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "user":
+                    event.user = text(parser, value);
+                    break;
+                case "groups":
+                    event.groups = strings(parser, value);
+                    break;
+                case "source":
+                    event.source = text(parser, value);
+                    break;
+                case "clientTags":
+                    event.clientTags = strings(parser, value);
+                    break;
+                case "queryType":
+                    event.queryType = text(parser, value);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseStatistics(JsonParser parser, JsonToken token, EventBuilder event)
+            throws IOException
+    {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "queuedTime":
+                    event.queuedMillis = duration(parser, value);
+                    break;
+                case "peakUserMemoryBytes":
+                    event.peakMemoryBytes = value.isNumeric() ? parser.getLongValue() : event.peakMemoryBytes;
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private static String text(JsonParser parser, JsonToken token)
+            throws IOException
+    {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isScalarValue()) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static List<String> strings(JsonParser parser, JsonToken token)
+            throws IOException
+    {
+        if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<String> values = ImmutableList.builder();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.getText());
+        }
+        return values.build();
+    }
+
+    static OptionalLong timestamp(JsonParser parser, JsonToken token)
+            throws IOException
+    {
+        if (token == JsonToken.VALUE_STRING) {
+            return OptionalLong.of(Instant.parse(parser.getText()).toEpochMilli());
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            long value = parser.getLongValue();
+            return OptionalLong.of(value >= MIN_EPOCH_MILLIS ? value : value * 1000);
+        }
+        if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return OptionalLong.of((long) (parser.getDoubleValue() * 1000));
+        }
+        parser.skipChildren();
+        return OptionalLong.empty();
+    }
+
+    static OptionalLong duration(JsonParser parser, JsonToken token)
+            throws IOException
+    {
+        if (token == JsonToken.VALUE_STRING) {
+            String text = parser.getText();
+            if (text.startsWith("P")) {
+                return OptionalLong.of(Duration.parse(text).toMillis());
+            }
+            return OptionalLong.of(io.airlift.units.Duration.valueOf(text).toMillis());
+        }
+        if (token.isNumeric()) {
+            // java.time.Duration is written as decimal seconds
+            return OptionalLong.of((long) (parser.getDoubleValue() * 1000));
+        }
+        parser.skipChildren();
+        return OptionalLong.empty();
+    }
+
+    static class EventBuilder
+    {
+        private String user;
+        private List<String> groups;
+        private String source;
+        private List<String> clientTags;
+        private String queryType;
+        private OptionalLong createTime;
+        private OptionalLong executionStartTime;
+        private OptionalLong endTime;
+        private OptionalLong queuedMillis;
+        private long peakMemoryBytes;
+
+        public EventBuilder()
+        {
+            reset();
+        }
+
+        public void reset()
+        {
+            user = null;
+            groups = ImmutableList.of();
+            source = null;
+            clientTags = ImmutableList.of();
+            queryType = null;
+            createTime = OptionalLong.empty();
+            executionStartTime = OptionalLong.empty();
+            endTime = OptionalLong.empty();
+            queuedMillis = OptionalLong.empty();
+            peakMemoryBytes = 0;
+        }
+
+        private boolean isComplete()
+        {
+            return user != null && createTime.isPresent() && endTime.isPresent();
+        }
+
+        private long getExecutionStartTime()
+        {
+            long create = createTime.getAsLong();
+            long start = executionStartTime.orElse(create + queuedMillis.orElse(0));
+            return Math.min(Math.max(start, create), endTime.getAsLong());
+        }
+
+        private boolean appendTo(QueryEventBatch.Builder batch)
+        {
+            if (!isComplete()) {
+                return false;
+            }
+            batch.append(user, groups, source, clientTags, queryType, createTime.getAsLong(), getExecutionStartTime(), endTime.getAsLong(), peakMemoryBytes);
+            return true;
+        }
+
+        private Optional<QueryEvent> build()
+        {
+            if (!isComplete()) {
+                return Optional.empty();
+            }
+            return Optional.of(new QueryEvent(
+                    user,
+                    groups,
+                    Optional.ofNullable(source),
+                    clientTags,
+                    Optional.ofNullable(queryType),
+                    createTime.getAsLong(),
+                    getExecutionStartTime(),
+                    endTime.getAsLong(),
+                    peakMemoryBytes));
+        }
+    }
+
+    private static class ByteBufferInputStream
+            extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = requireNonNull(buffer, "buffer is null");
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.configuration.ConfigSecuritySensitive;
+
+/**
+ * Optional read replica of the resource groups database, named like the
+ * properties of {@code DbResourceGroupConfig}. The user and password of the
+ * primary are used when the replica has none of its own.
+ */
+public class ReadReplicaConfig
+{
+    private String readReplicaDbUrl;
+    private String readReplicaDbUser;
+    private String readReplicaDbPassword;
+    private boolean lagCheckEnabled;
+
+    public String getReadReplicaDbUrl()
+    {
+        return readReplicaDbUrl;
+    }
+
+    @Config("resource-groups.read-replica-db-url")
+    @ConfigDescription("JDBC URL of a read replica used by operations that only read resource groups")
+    public ReadReplicaConfig setReadReplicaDbUrl(String readReplicaDbUrl)
+    {
+        this.readReplicaDbUrl = readReplicaDbUrl;
+        return this;
+    }
+
+    public String getReadReplicaDbUser()
+    {
+        return readReplicaDbUser;
+    }
+
+    @Config("resource-groups.read-replica-db-user")
+    public ReadReplicaConfig setReadReplicaDbUser(String readReplicaDbUser)
+    {
+        this.readReplicaDbUser = readReplicaDbUser;
+        return this;
+    }
+
+    public String getReadReplicaDbPassword()
+    {
+        return readReplicaDbPassword;
+    }
+
+    @Config("resource-groups.read-replica-db-password")
+    @ConfigSecuritySensitive
+    public ReadReplicaConfig setReadReplicaDbPassword(String readReplicaDbPassword)
+    {
+        this.readReplicaDbPassword = readReplicaDbPassword;
+        return this;
+    }
+
+    public boolean isLagCheckEnabled()
+    {
+        return lagCheckEnabled;
+    }
+
+    @Config("resource-groups.read-replica-lag-check")
+    @ConfigDescription("Compare the fingerprint of what is read from the replica with the primary, and read the primary when they differ")
+    public ReadReplicaConfig setLagCheckEnabled(boolean lagCheckEnabled)
+    {
+        this.lagCheckEnabled = lagCheckEnabled;
+        return this;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.airlift.log.Logger;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+@CommandLine.Command(
+        name = "recommend_limits",
+        usageHelpAutoWidth = true
+)
+public class RecommendLimitsCommand
+        implements Runnable
+{
+    private static final Logger LOG = Logger.get(RecommendLimitsCommand.class);
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--resource-groups-json", required = true, description = "JSON file with the current resource groups")
+    public String resourceGroupsSchema;
+
+    @CommandLine.Option(names = "--query-log", required = true, arity = "1..*", description = "JSON lines files with Trino query completed events, optionally gzip compressed")
+    public List<String> queryLogs;
+
+    @CommandLine.Option(names = "--output-json-file", required = true, description = "Path to write the resource groups with recommended limits")
+    public String outputJsonFile;
+
+    @CommandLine.Option(names = "--quantile", defaultValue = "0.99", description = "Quantile of the observed values the limits are sized for (default: ${DEFAULT-VALUE})")
+    public double quantile;
+
+    @CommandLine.Option(names = "--headroom", defaultValue = "1.2", description = "Factor applied on top of the quantile (default: ${DEFAULT-VALUE})")
+    public double headroom;
+
+    @CommandLine.Option(names = "--cluster-memory", description = "Total query memory of the cluster, to express memory limits as percentages, e.g. 2TB")
+    public String clusterMemory;
+
+    @CommandLine.Option(names = "--window", defaultValue = "10m", description = "How far out of completion order events can be and still be placed exactly on the timeline (default: ${DEFAULT-VALUE})")
+    public String window;
+
+    @CommandLine.Option(names = "--threads", description = "Number of threads parsing the query logs (default: number of processors)")
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    private RecommendLimitsCommand() {}
+
+    @Override
+    public void run()
+    {
+        ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsSchema);
+        LimitRecommender recommender = new LimitRecommender(managerSpec, Duration.valueOf(window));
+        LOG.info("Reading query events from %s with %d threads", queryLogs, threads);
+        AtomicLong skipped = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            new QueryLogIngester(executor, threads).ingest(
+                    queryLogs.stream().map(Paths::get).collect(toImmutableList()),
+                    batch -> {
+                        skipped.addAndGet(batch.getSkippedLines());
+                        recommender.add(batch);
+                    });
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        LOG.info("Routed %d queries, %d queries matched no selector, skipped %d lines without a query completed event",
+                recommender.getRoutedQueries(), recommender.getUnroutedQueries(), skipped.get());
+
+        Map<String, LimitRecommender.GroupStatistics> statistics = new TreeMap<>(recommender.finish());
+        ManagerSpec recommended = recommender.recommend(managerSpec, quantile, headroom, Optional.ofNullable(clusterMemory).map(DataSize::valueOf));
+        try (Writer writer = Files.newBufferedWriter(Paths.get(outputJsonFile), UTF_8)) {
+            ManagerSpecToJson.write(recommended, writer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        PrintWriter out = spec.commandLine().getOut();
+        out.println(format("%-40s %10s %12s %12s %12s %14s", "group", "queries", "running", "queued", "memory", "queued time"));
+        for (LimitRecommender.GroupStatistics groupStatistics : statistics.values()) {
+            out.println(format("%-40s %10d %12.0f %12.0f %12s %14s",
+                    groupStatistics.getPath(),
+                    groupStatistics.getQueries(),
+                    groupStatistics.getConcurrency().getQuantile(quantile),
+                    groupStatistics.getQueued().getQuantile(quantile),
+                    DataSize.succinctBytes((long) groupStatistics.getMemory().getQuantile(quantile)),
+                    Duration.succinctDuration(groupStatistics.getQueuedMillis().getQuantile(quantile), MILLISECONDS)));
+        }
+        ManagerSpecDiff.diff(managerSpec, recommended).forEach(out::println);
+        out.flush();
+        LOG.info("Resource groups with recommended limits written to %s", outputJsonFile);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A single row of the resource_groups table, with the database id
+ * already allocated on the client side.
+ */
+public class ResourceGroupRow
+{
+    private final long id;
+    private final String name;
+    private final String softMemoryLimit;
+    private final int maxQueued;
+    private final Integer softConcurrencyLimit;
+    private final int hardConcurrencyLimit;
+    private final String schedulingPolicy;
+    private final Integer schedulingWeight;
+    private final boolean jmxExport;
+    private final String softCpuLimit;
+    private final String hardCpuLimit;
+    private final Long parentId;
+    private final String environment;
+
+    public ResourceGroupRow(long id, Long parentId, ResourceGroupSpec resourceGroupSpec, String environment)
+    {
+        requireNonNull(resourceGroupSpec, "resourceGroupSpec is null");
+        this.id = id;
+        this.name = resourceGroupSpec.getName().toString();
+        this.softMemoryLimit = getSoftMemoryLimit(resourceGroupSpec);
+        this.maxQueued = resourceGroupSpec.getMaxQueued();
+        this.softConcurrencyLimit = resourceGroupSpec.getSoftConcurrencyLimit().orElse(null);
+        this.hardConcurrencyLimit = resourceGroupSpec.getHardConcurrencyLimit();
+        this.schedulingPolicy = getSchedulingPolicy(resourceGroupSpec);
+        this.schedulingWeight = resourceGroupSpec.getSchedulingWeight().orElse(null);
+        this.jmxExport = getJmxExport(resourceGroupSpec);
+        this.softCpuLimit = getSoftCpuLimit(resourceGroupSpec);
+        this.hardCpuLimit = getHardCpuLimit(resourceGroupSpec);
+        this.parentId = parentId;
+        this.environment = requireNonNull(environment, "environment is null");
+    }
+
+    public ResourceGroupRow(
+            long id,
+            String name,
+            String softMemoryLimit,
+            int maxQueued,
+            Integer softConcurrencyLimit,
+            int hardConcurrencyLimit,
+            String schedulingPolicy,
+            Integer schedulingWeight,
+            boolean jmxExport,
+            String softCpuLimit,
+            String hardCpuLimit,
+            Long parentId,
+            String environment)
+    {
+        this.id = id;
+        this.name = requireNonNull(name, "name is null");
+        this.softMemoryLimit = requireNonNull(softMemoryLimit, "softMemoryLimit is null");
+        this.maxQueued = maxQueued;
+        this.softConcurrencyLimit = softConcurrencyLimit;
+        this.hardConcurrencyLimit = hardConcurrencyLimit;
+        this.schedulingPolicy = schedulingPolicy;
+        this.schedulingWeight = schedulingWeight;
+        this.jmxExport = jmxExport;
+        this.softCpuLimit = softCpuLimit;
+        this.hardCpuLimit = hardCpuLimit;
+        this.parentId = parentId;
+        this.environment = requireNonNull(environment, "environment is null");
+    }
+
+    /**
+     * The same row with other ids, as when it is copied to another database.
+     */
+    public ResourceGroupRow withIds(long id, Long parentId)
+    {
+        return new ResourceGroupRow(id, name, softMemoryLimit, maxQueued, softConcurrencyLimit, hardConcurrencyLimit, schedulingPolicy, schedulingWeight, jmxExport, softCpuLimit, hardCpuLimit, parentId, environment);
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getSoftMemoryLimit()
+    {
+        return softMemoryLimit;
+    }
+
+    public int getMaxQueued()
+    {
+        return maxQueued;
+    }
+
+    public Integer getSoftConcurrencyLimit()
+    {
+        return softConcurrencyLimit;
+    }
+
+    public int getHardConcurrencyLimit()
+    {
+        return hardConcurrencyLimit;
+    }
+
+    public String getSchedulingPolicy()
+    {
+        return schedulingPolicy;
+    }
+
+    public Integer getSchedulingWeight()
+    {
+        return schedulingWeight;
+    }
+
+    public boolean getJmxExport()
+    {
+        return jmxExport;
+    }
+
+    public String getSoftCpuLimit()
+    {
+        return softCpuLimit;
+    }
+
+    public String getHardCpuLimit()
+    {
+        return hardCpuLimit;
+    }
+
+    public Optional<Long> getParentId()
+    {
+        return Optional.ofNullable(parentId);
+    }
+
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    static String getSoftMemoryLimit(ResourceGroupSpec resourceGroupSpec)
+    {
+        if (resourceGroupSpec.getSoftMemoryLimitFraction().isPresent()) {
+            // format the percentage exactly so that reading it back yields the same fraction
+            BigDecimal percentage = BigDecimal.valueOf(resourceGroupSpec.getSoftMemoryLimitFraction().get()).movePointRight(2);
+            return percentage.stripTrailingZeros().toPlainString() + "%";
+        }
+        else if (resourceGroupSpec.getSoftMemoryLimit().isPresent()) {
+            return resourceGroupSpec.getSoftMemoryLimit().get().toString();
+        }
+        return "invalid";
+    }
+
+    static String getSoftCpuLimit(ResourceGroupSpec resourceGroupSpec)
+    {
+        if (resourceGroupSpec.getSoftCpuLimit().isPresent()) {
+            return resourceGroupSpec.getSoftCpuLimit().get().toString();
+        }
+        return null;
+    }
+
+    static String getHardCpuLimit(ResourceGroupSpec resourceGroupSpec)
+    {
+        if (resourceGroupSpec.getHardCpuLimit().isPresent()) {
+            return resourceGroupSpec.getHardCpuLimit().get().toString();
+        }
+        return null;
+    }
+
+    static String getSchedulingPolicy(ResourceGroupSpec resourceGroupSpec)
+    {
+        if (resourceGroupSpec.getSchedulingPolicy().isPresent()) {
+            return resourceGroupSpec.getSchedulingPolicy().get().toString();
+        }
+        return null;
+    }
+
+    static boolean getJmxExport(ResourceGroupSpec resourceGroupSpec)
+    {
+        if (resourceGroupSpec.getJmxExport().isPresent()) {
+            return resourceGroupSpec.getJmxExport().get();
+        }
+        return false;
+    }
+
+    /**
+     * Maps the {@link BulkLoader#RESOURCE_GROUP_COLUMNS} of a row as stored.
+     */
+    public static class Mapper
+            implements RowMapper<ResourceGroupRow>
+    {
+        @Override
+        public ResourceGroupRow map(ResultSet resultSet, StatementContext context)
+                throws SQLException
+        {
+            return new ResourceGroupRow(
+                    resultSet.getLong("resource_group_id"),
+                    resultSet.getString("name"),
+                    resultSet.getString("soft_memory_limit"),
+                    resultSet.getInt("max_queued"),
+                    getNullable(resultSet, resultSet.getInt("soft_concurrency_limit")),
+                    resultSet.getInt("hard_concurrency_limit"),
+                    resultSet.getString("scheduling_policy"),
+                    getNullable(resultSet, resultSet.getInt("scheduling_weight")),
+                    resultSet.getBoolean("jmx_export"),
+                    resultSet.getString("soft_cpu_limit"),
+                    resultSet.getString("hard_cpu_limit"),
+                    getNullable(resultSet, resultSet.getLong("parent")),
+                    resultSet.getString("environment"));
+        }
+
+        private static <T> T getNullable(ResultSet resultSet, T value)
+                throws SQLException
+        {
+            return resultSet.wasNull() ? null : value;
+        }
+    }
+}
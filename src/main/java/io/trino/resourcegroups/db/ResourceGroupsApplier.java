@@ -0,0 +1,673 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import io.airlift.log.Logger;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+import org.jdbi.v3.core.Handle;
+
+import javax.inject.Inject;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Replaces the resource groups and selectors of one environment. Each apply
+ * runs in a single transaction holding an advisory lock named after the
+ * environment, and only deletes rows of that environment, so applies to
+ * different environments do not contend with each other. When exact match
+ * selectors are given, they replace those of the environment in the same
+ * transaction that makes the new selectors live; otherwise the
+ * exact_match_source_selectors table is left untouched.
+ * <p>
+ * The transaction that makes a configuration live also records a compressed
+ * snapshot of it in the resource_groups_history table, from which
+ * {@link #rollback} restores earlier versions.
+ */
+public class ResourceGroupsApplier
+{
+    private static final Logger LOG = Logger.get(ResourceGroupsApplier.class);
+    private static final String RETIRED_SUFFIX = "_retired";
+    private static final String RESERVED_SUFFIX = "_reserved";
+    // more ranges than connections, so that a connection done with a small range takes the next one
+    private static final int RANGES_PER_CONNECTION = 4;
+
+    private final ResourceGroupsDao dao;
+    private final DatabaseType databaseType;
+    private final BulkLoader bulkLoader;
+
+    @Inject
+    public ResourceGroupsApplier(ResourceGroupsDao dao, DatabaseType databaseType, BulkLoader bulkLoader)
+    {
+        this.dao = requireNonNull(dao, "dao is null");
+        this.databaseType = requireNonNull(databaseType, "databaseType is null");
+        this.bulkLoader = requireNonNull(bulkLoader, "bulkLoader is null");
+    }
+
+    public void apply(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, String environment, boolean bulkLoad)
+    {
+        ConfigSnapshot snapshot = ConfigSnapshot.create(managerSpec, exactMatchSelectors);
+        initializeExactMatchSelectorsTable(exactMatchSelectors);
+        initializeHistoryTable();
+        replaceEnvironment(managerSpec, exactMatchSelectors, Optional.of(snapshot), environment, bulkLoad);
+        managerSpec.getCpuQuotaPeriod().ifPresent(cpuQuotaPeriod -> dao.setCpuQuotaPeriod(cpuQuotaPeriod.toString()));
+    }
+
+    /**
+     * Writes the configuration to a staging environment without touching the
+     * live rows, and then, in a short transaction holding the locks of both
+     * environments, verifies it by loading it back and swaps it in with two
+     * UPDATE statements. The previous rows are deleted after the swap has
+     * committed.
+     */
+    public void applyStaged(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, String environment, String stagingEnvironment, boolean bulkLoad)
+    {
+        checkArgument(!environment.equals(stagingEnvironment), "Staging environment must differ from the target environment");
+
+        ConfigSnapshot snapshot = ConfigSnapshot.create(managerSpec, exactMatchSelectors);
+        initializeExactMatchSelectorsTable(exactMatchSelectors);
+        initializeHistoryTable();
+        LOG.info("Writing resource groups to staging environment %s", stagingEnvironment);
+        replaceEnvironment(managerSpec, Optional.empty(), Optional.empty(), stagingEnvironment, bulkLoad);
+        inLockedTransaction(transaction -> {
+            verifyStaged(transaction, managerSpec, stagingEnvironment);
+            swap(transaction, environment, stagingEnvironment, exactMatchSelectors, snapshot);
+            return null;
+        }, environment, stagingEnvironment);
+        finishSwap(managerSpec, stagingEnvironment);
+    }
+
+    /**
+     * Like {@link #applyStaged}, but writes the staging environment in chunks
+     * of {@code chunkSize} rows, each committed together with its progress in
+     * the apply journal. Transient failures are retried according to the retry
+     * policy, and if the apply still fails, running it again with the same
+     * configuration resumes after the last committed chunk. Rows are always
+     * written with the {@link BulkLoader}, whose ids increase from chunk to
+     * chunk, so the ids of committed rows can be read back in order on resume.
+     * The swap deletes the journal entry in the same transaction, so it
+     * happens exactly once even if its commit is retried.
+     */
+    public void applyResumable(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, String environment, String stagingEnvironment, int chunkSize, RetryPolicy retryPolicy)
+    {
+        checkArgument(!environment.equals(stagingEnvironment), "Staging environment must differ from the target environment");
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        String fingerprint = ManagerSpecFingerprint.fingerprint(managerSpec).toString();
+        ManagerSpecRows.Layout layout = new ManagerSpecRows.Layout(managerSpec);
+        long[] ids = new long[layout.getResourceGroupCount()];
+        ConfigSnapshot snapshot = ConfigSnapshot.create(managerSpec, exactMatchSelectors);
+
+        retryPolicy.run("create the apply journal", () -> dao.useHandle(handle -> ResourceGroupsSchema.initializeTable(handle, databaseType, ResourceGroupsSchema.APPLY_JOURNAL_TABLE)));
+        retryPolicy.run("create the exact match selectors table", () -> initializeExactMatchSelectorsTable(exactMatchSelectors));
+        retryPolicy.run("create the history table", this::initializeHistoryTable);
+        ApplyJournalEntry entry = retryPolicy.run("start the apply", () -> inLockedTransaction(
+                transaction -> startOrResume(transaction, layout, ids, environment, fingerprint, stagingEnvironment),
+                environment,
+                stagingEnvironment));
+
+        int resourceGroupsLoaded = entry.getResourceGroupsLoaded();
+        while (resourceGroupsLoaded < layout.getResourceGroupCount()) {
+            int start = resourceGroupsLoaded;
+            int end = Math.min(start + chunkSize, layout.getResourceGroupCount());
+            retryPolicy.run(format("write resource groups %s to %s", start, end), () -> inLockedTransaction(transaction -> {
+                if (isChunkCommitted(transaction, environment, fingerprint, start, 0, end, 0)) {
+                    return null;
+                }
+                long[] chunkIds = bulkLoader.allocateResourceGroupIds(transaction, end - start);
+                Arrays.sort(chunkIds);
+                System.arraycopy(chunkIds, 0, ids, start, chunkIds.length);
+                bulkLoader.load(transaction, layout.resourceGroupRows(start, end, ids, stagingEnvironment));
+                recordChunk(transaction, environment, fingerprint, start, 0, end, 0);
+                return null;
+            }, stagingEnvironment));
+            resourceGroupsLoaded = end;
+            LOG.debug("Wrote %s of %s resource groups", resourceGroupsLoaded, layout.getResourceGroupCount());
+        }
+
+        int selectorsLoaded = entry.getSelectorsLoaded();
+        while (selectorsLoaded < layout.getSelectorCount()) {
+            int start = selectorsLoaded;
+            int end = Math.min(start + chunkSize, layout.getSelectorCount());
+            int resourceGroupCount = layout.getResourceGroupCount();
+            retryPolicy.run(format("write selectors %s to %s", start, end), () -> inLockedTransaction(transaction -> {
+                if (isChunkCommitted(transaction, environment, fingerprint, resourceGroupCount, start, resourceGroupCount, end)) {
+                    return null;
+                }
+                bulkLoader.load(transaction, layout.selectorRows(start, end, ids));
+                recordChunk(transaction, environment, fingerprint, resourceGroupCount, start, resourceGroupCount, end);
+                return null;
+            }, stagingEnvironment));
+            selectorsLoaded = end;
+            LOG.debug("Wrote %s of %s selectors", selectorsLoaded, layout.getSelectorCount());
+        }
+
+        retryPolicy.run("swap in the staging environment", () -> inLockedTransaction(transaction -> {
+            ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+            if (transactionDao.deleteApplyJournal(environment, fingerprint) == 0) {
+                // an earlier attempt committed the swap before failing
+                LOG.info("Staging environment %s was already swapped into %s", stagingEnvironment, environment);
+                return null;
+            }
+            verifyStaged(transaction, managerSpec, stagingEnvironment);
+            swap(transaction, environment, stagingEnvironment, exactMatchSelectors, snapshot);
+            return null;
+        }, environment, stagingEnvironment));
+        retryPolicy.run("delete the previous resource groups", () -> finishSwap(managerSpec, stagingEnvironment));
+    }
+
+    /**
+     * Like {@link #applyStaged}, but writes the staging environment over
+     * {@code parallelism} connections at once. The resource group tree is
+     * split into independent subtrees (see {@link ManagerSpecRows.Layout#partition}),
+     * and ids for all groups are allocated up front, in the transaction that
+     * writes the groups above the subtrees, which commits first. The subtrees
+     * are then written concurrently, each in a transaction of its own
+     * connection, and the selectors once all of them have committed and every
+     * id is known. The lock of the staging environment is held throughout on
+     * yet another connection, which writes nothing, so {@code parallelism + 1}
+     * connections are used at most. The
+     * live environment only changes with the swap, so it never sees a part
+     * of the new configuration, and a failure leaves it untouched.
+     * <p>
+     * While the subtrees are written, a row in a separate environment holds
+     * the highest allocated id, so that loaders allocating ids above the
+     * current maximum do not hand out ids of rows not written yet.
+     */
+    public void applyParallel(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, String environment, String stagingEnvironment, int parallelism)
+    {
+        checkArgument(!environment.equals(stagingEnvironment), "Staging environment must differ from the target environment");
+        checkArgument(parallelism > 0, "parallelism must be positive");
+
+        ConfigSnapshot snapshot = ConfigSnapshot.create(managerSpec, exactMatchSelectors);
+        initializeExactMatchSelectorsTable(exactMatchSelectors);
+        initializeHistoryTable();
+        ManagerSpecRows.Layout layout = new ManagerSpecRows.Layout(managerSpec);
+        int ranges = parallelism * RANGES_PER_CONNECTION;
+        ManagerSpecRows.Partitioning partitioning = layout.partition(Math.max(1, (layout.getResourceGroupCount() + ranges - 1) / ranges));
+        String lockName = AdvisoryLocks.lockName(stagingEnvironment);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            // this handle only holds the lock: every write runs on a thread of the executor, so that it gets a
+            // connection of its own and commits independently of the transaction holding the lock
+            dao.useHandle(handle -> {
+                try {
+                    handle.useTransaction(transaction -> {
+                        AdvisoryLocks.lock(transaction, databaseType, lockName);
+                        writeParallel(layout, partitioning, stagingEnvironment, executor);
+                    });
+                }
+                finally {
+                    AdvisoryLocks.unlock(handle, databaseType, lockName);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            try {
+                deleteEnvironment(stagingEnvironment);
+                deleteEnvironment(stagingEnvironment + RESERVED_SUFFIX);
+            }
+            catch (RuntimeException cleanupFailure) {
+                e.addSuppressed(cleanupFailure);
+            }
+            throw e;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        LOG.info("Wrote %s resource groups in %s ranges over %s connections and %s selectors to staging environment %s in %s",
+                layout.getResourceGroupCount(),
+                partitioning.getRangeCount(),
+                parallelism,
+                layout.getSelectorCount(),
+                stagingEnvironment,
+                stopwatch.stop());
+
+        inLockedTransaction(transaction -> {
+            verifyStaged(transaction, managerSpec, stagingEnvironment);
+            swap(transaction, environment, stagingEnvironment, exactMatchSelectors, snapshot);
+            return null;
+        }, environment, stagingEnvironment);
+        finishSwap(managerSpec, stagingEnvironment);
+    }
+
+    /**
+     * Replaces the resource groups of the environment with those of the
+     * template expanded for every tenant in the parameters file, in a single
+     * transaction. Rows are written with the {@link BulkLoader} in batches as
+     * tenants are read, so neither the expanded configuration nor its JSON is
+     * ever held in memory, and no snapshot is recorded in the history.
+     */
+    public void applyTemplate(TenantTemplate template, Path tenantParameters, String environment)
+    {
+        long tenantCount = TenantParameters.count(tenantParameters);
+        inLockedTransaction(transaction -> {
+            ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+            transactionDao.deleteSelectors(environment);
+            transactionDao.deleteResourceGroups(environment);
+            TenantExpander expander = new TenantExpander(
+                    template,
+                    environment,
+                    count -> bulkLoader.allocateResourceGroupIds(transaction, count),
+                    rows -> bulkLoader.load(transaction, rows));
+            try (TenantParameters tenants = TenantParameters.open(tenantParameters)) {
+                expander.expand(tenants, tenantCount);
+            }
+            template.getCpuQuotaPeriod().ifPresent(cpuQuotaPeriod -> transactionDao.setCpuQuotaPeriod(cpuQuotaPeriod.toString()));
+            LOG.info("Wrote %s resource groups and %s selectors for %s tenants", expander.getResourceGroups(), expander.getSelectors(), tenantCount);
+            return null;
+        }, environment);
+    }
+
+    /**
+     * Replaces the resource groups under {@code subtree} and the selectors
+     * that target them with those of the spec, leaving the other rows of the
+     * environment alone. The transaction holds the lock of the subtree, and
+     * those of the environment and of the groups above the subtree in shared
+     * mode, so applies to disjoint subtrees of the environment run
+     * concurrently. If the selectors of the subtree do not fit in the range of
+     * priorities it owns, because it had none, they moved, or other selectors
+     * have to make room, the apply runs again holding the lock of the
+     * environment exclusively. On MySQL, which has no shared locks, subtree
+     * applies to the same environment are serialized. The exact match
+     * selectors and the cpuQuotaPeriod are not changed, and no snapshot is
+     * recorded in the history.
+     */
+    public ManagerSpecPatch.Result applySubtree(ManagerSpec managerSpec, String environment, String subtree)
+    {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        ManagerSpecPatch.Result result = applySubtree(managerSpec, environment, subtree, false)
+                .orElseGet(() -> {
+                    LOG.info("Selectors of %s do not fit in its priorities, applying again with the lock of %s held exclusively", subtree, environment);
+                    return applySubtree(managerSpec, environment, subtree, true).orElseThrow();
+                });
+        LOG.info("Replaced %s in %s in %s: %s", subtree, environment, stopwatch.stop(), result);
+        return result;
+    }
+
+    private Optional<ManagerSpecPatch.Result> applySubtree(ManagerSpec managerSpec, String environment, String subtree, boolean environmentLocked)
+    {
+        String environmentLock = AdvisoryLocks.lockName(environment);
+        List<String> ancestorLocks = ManagerSpecSubtree.ancestors(subtree).stream()
+                .map(path -> AdvisoryLocks.subtreeLockName(environment, path))
+                .collect(toImmutableList());
+        String lockName = AdvisoryLocks.subtreeLockName(environment, subtree);
+        return dao.withHandle(handle -> {
+            try {
+                return handle.inTransaction(transaction -> {
+                    // locks are taken from the environment down, so that no two applies wait on each other in a cycle
+                    if (environmentLocked) {
+                        AdvisoryLocks.lock(transaction, databaseType, environmentLock);
+                    }
+                    else {
+                        AdvisoryLocks.lockShared(transaction, databaseType, environmentLock);
+                    }
+                    for (String ancestorLock : ancestorLocks) {
+                        AdvisoryLocks.lockShared(transaction, databaseType, ancestorLock);
+                    }
+                    AdvisoryLocks.lock(transaction, databaseType, lockName);
+                    return ManagerSpecSubtree.apply(transaction, managerSpec, environment, subtree, environmentLocked);
+                });
+            }
+            finally {
+                AdvisoryLocks.unlock(handle, databaseType, lockName);
+                for (int i = ancestorLocks.size() - 1; i >= 0; i--) {
+                    AdvisoryLocks.unlock(handle, databaseType, ancestorLocks.get(i));
+                }
+                AdvisoryLocks.unlock(handle, databaseType, environmentLock);
+            }
+        });
+    }
+
+    /**
+     * Restores the configuration recorded as {@code version} in the history of
+     * the environment. The stored rows are compared with the snapshot and only
+     * those that differ are written, in a single transaction, which records
+     * the rollback in the history as a new version.
+     */
+    public ManagerSpecPatch.Result rollback(String environment, long version)
+    {
+        initializeHistoryTable();
+        byte[] compressed = dao.getHistorySnapshot(environment, version)
+                .orElseThrow(() -> new IllegalArgumentException(format("Version %s is not in the history of environment %s", version, environment)));
+        ConfigSnapshot snapshot = ConfigSnapshot.decode(compressed);
+        initializeExactMatchSelectorsTable(snapshot.getExactMatchSelectors());
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        ManagerSpecPatch.Result result = inLockedTransaction(transaction -> {
+            ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+            ManagerSpecPatch.Result patched = ManagerSpecPatch.apply(transaction, snapshot.getManagerSpec(), environment);
+            snapshot.getExactMatchSelectors().ifPresent(selectors -> replaceExactMatchSelectors(transactionDao, environment, selectors));
+            recordHistory(transactionDao, environment, snapshot);
+            return patched;
+        }, environment);
+        LOG.info("Rolled back %s to version %s in %s: %s", environment, version, stopwatch.stop(), result);
+        return result;
+    }
+
+    public List<ConfigHistoryEntry> getHistory(String environment)
+    {
+        initializeHistoryTable();
+        return dao.getHistory(environment);
+    }
+
+    private ApplyJournalEntry startOrResume(Handle transaction, ManagerSpecRows.Layout layout, long[] ids, String environment, String fingerprint, String stagingEnvironment)
+    {
+        ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+        for (ApplyJournalEntry entry : transactionDao.getApplyJournal(environment)) {
+            if (entry.getFingerprint().equals(fingerprint) && entry.getStagingEnvironment().equals(stagingEnvironment)) {
+                List<Long> committedIds = transactionDao.getResourceGroupIds(stagingEnvironment);
+                List<String> committedNames = transactionDao.getResourceGroupNames(stagingEnvironment);
+                if (isPrefix(layout, committedIds, committedNames, entry.getResourceGroupsLoaded())) {
+                    for (int i = 0; i < committedIds.size(); i++) {
+                        ids[i] = committedIds.get(i);
+                    }
+                    LOG.info("Resuming apply to %s after %s of %s resource groups and %s of %s selectors",
+                            environment,
+                            entry.getResourceGroupsLoaded(),
+                            layout.getResourceGroupCount(),
+                            entry.getSelectorsLoaded(),
+                            layout.getSelectorCount());
+                    return entry;
+                }
+                LOG.warn("Staging environment %s does not match the apply journal, starting over", stagingEnvironment);
+            }
+            else {
+                LOG.info("Discarding unfinished apply of configuration %s to %s", entry.getFingerprint(), environment);
+            }
+            transactionDao.deleteSelectors(entry.getStagingEnvironment());
+            transactionDao.deleteResourceGroups(entry.getStagingEnvironment());
+            transactionDao.deleteApplyJournal(environment, entry.getFingerprint());
+        }
+
+        LOG.info("Writing resource groups to staging environment %s", stagingEnvironment);
+        transactionDao.deleteSelectors(stagingEnvironment);
+        transactionDao.deleteResourceGroups(stagingEnvironment);
+        transactionDao.insertApplyJournal(environment, fingerprint, stagingEnvironment);
+        return new ApplyJournalEntry(environment, fingerprint, stagingEnvironment, 0, 0);
+    }
+
+    private void writeParallel(ManagerSpecRows.Layout layout, ManagerSpecRows.Partitioning partitioning, String stagingEnvironment, ExecutorService executor)
+    {
+        String reservedEnvironment = stagingEnvironment + RESERVED_SUFFIX;
+        long[] ids = new long[layout.getResourceGroupCount()];
+        // the spine and the reserved row commit before any range is written, as the ranges reference the spine
+        awaitAll(ImmutableList.of(executor.submit(() -> dao.useHandle(handle -> handle.useTransaction(transaction -> {
+            ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+            transactionDao.deleteSelectors(stagingEnvironment);
+            transactionDao.deleteResourceGroups(stagingEnvironment);
+            transactionDao.deleteResourceGroups(reservedEnvironment);
+            long[] allocated = bulkLoader.allocateResourceGroupIds(transaction, ids.length + 1);
+            Arrays.sort(allocated);
+            System.arraycopy(allocated, 0, ids, 0, ids.length);
+            bulkLoader.load(transaction, new ManagerSpecRows(ImmutableList.of(reservedRow(allocated[ids.length], reservedEnvironment)), ImmutableList.of()));
+            bulkLoader.load(transaction, layout.resourceGroupRows(partitioning.getSpine(), ids, stagingEnvironment));
+        })))));
+
+        List<Future<?>> writes = new ArrayList<>(partitioning.getRangeCount());
+        for (int range = 0; range < partitioning.getRangeCount(); range++) {
+            ManagerSpecRows rows = layout.resourceGroupRows(partitioning.getStart(range), partitioning.getEnd(range), ids, stagingEnvironment);
+            writes.add(executor.submit(() -> dao.useHandle(handle -> handle.useTransaction(transaction -> bulkLoader.load(transaction, rows)))));
+        }
+        awaitAll(writes);
+
+        // selectors may point at groups of any range, so they are written once all ranges have committed
+        awaitAll(ImmutableList.of(executor.submit(() -> dao.useHandle(handle -> handle.useTransaction(transaction -> {
+            bulkLoader.load(transaction, layout.selectorRows(0, layout.getSelectorCount(), ids));
+            // every id up to the highest allocated one is now taken by a committed row
+            transaction.attach(ResourceGroupsDao.class).deleteResourceGroups(reservedEnvironment);
+        })))));
+    }
+
+    private static ResourceGroupRow reservedRow(long id, String environment)
+    {
+        return new ResourceGroupRow(id, "reserved", "0%", 0, null, 0, null, null, false, null, null, null, environment);
+    }
+
+    /**
+     * Waits for all writes, even after one of them failed, so that none is
+     * still running when the caller cleans up, and rethrows the first failure.
+     */
+    private static void awaitAll(List<? extends Future<?>> writes)
+    {
+        RuntimeException failure = null;
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            catch (CancellationException e) {
+                // cancelled after an earlier failure
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                    // writes that have not started yet are skipped
+                    writes.forEach(pending -> pending.cancel(false));
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static boolean isPrefix(ManagerSpecRows.Layout layout, List<Long> committedIds, List<String> committedNames, int resourceGroupsLoaded)
+    {
+        if (committedIds.size() != resourceGroupsLoaded || committedNames.size() != resourceGroupsLoaded || resourceGroupsLoaded > layout.getResourceGroupCount()) {
+            return false;
+        }
+        for (int i = 0; i < resourceGroupsLoaded; i++) {
+            if (!committedNames.get(i).equals(layout.getResourceGroupName(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the chunk was committed by an earlier attempt whose
+     * commit succeeded but was not acknowledged, and fails if the journal
+     * holds any other progress.
+     */
+    private static boolean isChunkCommitted(Handle transaction, String environment, String fingerprint, int resourceGroupsStart, int selectorsStart, int resourceGroupsEnd, int selectorsEnd)
+    {
+        ApplyJournalEntry entry = transaction.attach(ResourceGroupsDao.class).getApplyJournal(environment).stream()
+                .filter(candidate -> candidate.getFingerprint().equals(fingerprint))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException(format("Apply journal entry for %s was removed by another apply", environment)));
+        if (entry.getResourceGroupsLoaded() == resourceGroupsEnd && entry.getSelectorsLoaded() == selectorsEnd) {
+            return true;
+        }
+        if (entry.getResourceGroupsLoaded() != resourceGroupsStart || entry.getSelectorsLoaded() != selectorsStart) {
+            throw new IllegalStateException(format("Apply journal entry for %s was advanced by another apply", environment));
+        }
+        return false;
+    }
+
+    private static void recordChunk(Handle transaction, String environment, String fingerprint, int resourceGroupsStart, int selectorsStart, int resourceGroupsEnd, int selectorsEnd)
+    {
+        int updated = transaction.attach(ResourceGroupsDao.class)
+                .updateApplyJournal(environment, fingerprint, resourceGroupsStart, selectorsStart, resourceGroupsEnd, selectorsEnd);
+        if (updated != 1) {
+            throw new IllegalStateException(format("Apply journal entry for %s was changed by another apply", environment));
+        }
+    }
+
+    /**
+     * Loads the staging environment back in the swap transaction, which holds
+     * its lock, so that another apply writing the same staging environment
+     * after this one cannot get its rows swapped in under this snapshot. The
+     * rows are left alone on a mismatch, as they may be the other apply's.
+     */
+    private static void verifyStaged(Handle transaction, ManagerSpec managerSpec, String stagingEnvironment)
+    {
+        ManagerSpec staged = DbBasedResourceGroups.loadResourceGroupsFromDb(transaction.attach(ResourceGroupsDao.class), transaction, stagingEnvironment, DbBasedResourceGroups.DEFAULT_FETCH_SIZE);
+        if (!ManagerSpecFingerprint.hashRootGroups(staged.getRootGroups()).equals(ManagerSpecFingerprint.hashRootGroups(managerSpec.getRootGroups())) ||
+                !ManagerSpecFingerprint.hashSelectors(staged.getSelectors()).equals(ManagerSpecFingerprint.hashSelectors(managerSpec.getSelectors()))) {
+            throw new IllegalStateException(format("Resource groups loaded from staging environment %s do not match the input, it may have been overwritten by another apply", stagingEnvironment));
+        }
+    }
+
+    private static void swap(Handle transaction, String environment, String stagingEnvironment, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, ConfigSnapshot snapshot)
+    {
+        String retiredEnvironment = stagingEnvironment + RETIRED_SUFFIX;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+        transactionDao.deleteSelectors(retiredEnvironment);
+        transactionDao.deleteResourceGroups(retiredEnvironment);
+        transactionDao.renameEnvironment(environment, retiredEnvironment);
+        transactionDao.renameEnvironment(stagingEnvironment, environment);
+        exactMatchSelectors.ifPresent(selectors -> replaceExactMatchSelectors(transactionDao, environment, selectors));
+        recordHistory(transactionDao, environment, snapshot);
+        LOG.info("Swapped staging environment %s into %s in %s", stagingEnvironment, environment, stopwatch.stop());
+    }
+
+    private void finishSwap(ManagerSpec managerSpec, String stagingEnvironment)
+    {
+        deleteEnvironment(stagingEnvironment + RETIRED_SUFFIX);
+        managerSpec.getCpuQuotaPeriod().ifPresent(cpuQuotaPeriod -> dao.setCpuQuotaPeriod(cpuQuotaPeriod.toString()));
+    }
+
+    /**
+     * Runs the callback in a transaction holding the advisory locks of the
+     * environments, which are released once the transaction has ended.
+     */
+    private <T> T inLockedTransaction(Function<Handle, T> callback, String... environments)
+    {
+        return dao.withHandle(handle -> {
+            try {
+                return handle.inTransaction(transaction -> {
+                    for (String environment : environments) {
+                        AdvisoryLocks.lock(transaction, databaseType, AdvisoryLocks.lockName(environment));
+                    }
+                    return callback.apply(transaction);
+                });
+            }
+            finally {
+                for (int i = environments.length - 1; i >= 0; i--) {
+                    AdvisoryLocks.unlock(handle, databaseType, AdvisoryLocks.lockName(environments[i]));
+                }
+            }
+        });
+    }
+
+    private void deleteEnvironment(String environment)
+    {
+        replaceEnvironment(new ManagerSpec(ImmutableList.of(), ImmutableList.of(), Optional.empty()), Optional.empty(), Optional.empty(), environment, false);
+    }
+
+    private void replaceEnvironment(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, Optional<ConfigSnapshot> snapshot, String environment, boolean bulkLoad)
+    {
+        String lockName = AdvisoryLocks.lockName(environment);
+        dao.useHandle(handle -> {
+            try {
+                handle.useTransaction(transaction -> {
+                    AdvisoryLocks.lock(transaction, databaseType, lockName);
+                    LOG.debug("Acquired lock %s", lockName);
+                    ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+                    // only the rows of this environment are replaced
+                    transactionDao.deleteSelectors(environment);
+                    transactionDao.deleteResourceGroups(environment);
+                    if (bulkLoad) {
+                        transactionDao.bulkInsert(bulkLoader, managerSpec, environment);
+                    }
+                    else {
+                        insertRowByRow(transactionDao, managerSpec, environment);
+                    }
+                    exactMatchSelectors.ifPresent(selectors -> replaceExactMatchSelectors(transactionDao, environment, selectors));
+                    snapshot.ifPresent(value -> recordHistory(transactionDao, environment, value));
+                });
+            }
+            finally {
+                AdvisoryLocks.unlock(handle, databaseType, lockName);
+            }
+        });
+    }
+
+    private void initializeExactMatchSelectorsTable(Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors)
+    {
+        if (exactMatchSelectors.isPresent()) {
+            dao.useHandle(handle -> ResourceGroupsSchema.initializeTable(handle, databaseType, ResourceGroupsSchema.EXACT_MATCH_SELECTORS_TABLE));
+        }
+    }
+
+    private void initializeHistoryTable()
+    {
+        dao.useHandle(handle -> ResourceGroupsSchema.initializeTable(handle, databaseType, ResourceGroupsSchema.HISTORY_TABLE));
+    }
+
+    private static void recordHistory(ResourceGroupsDao transactionDao, String environment, ConfigSnapshot snapshot)
+    {
+        transactionDao.insertHistory(environment, snapshot.getFingerprint(), snapshot.getResourceGroupCount(), snapshot.getSelectorCount(), snapshot.getCompressed());
+        LOG.debug("Recorded configuration %s of %s in the history", snapshot.getFingerprint(), environment);
+    }
+
+    private static void replaceExactMatchSelectors(ResourceGroupsDao transactionDao, String environment, List<ExactMatchSelectorSpec> exactMatchSelectors)
+    {
+        transactionDao.deleteExactMatchSelectors(environment);
+        transactionDao.insertExactMatchSelectors(environment, exactMatchSelectors);
+        LOG.debug("Wrote %s exact match selectors to %s", exactMatchSelectors.size(), environment);
+    }
+
+    private static void insertRowByRow(ResourceGroupsDao dao, ManagerSpec managerSpec, String environment)
+    {
+        Map<String, Long> idsByPath = new HashMap<>();
+        // insert root groups and all children
+        for (ResourceGroupSpec rootGroup : managerSpec.getRootGroups()) {
+            insertResourceGroup(dao, rootGroup, rootGroup.getName().toString(), null, environment, idsByPath);
+        }
+        // selectors are resolved against the ids inserted above
+        List<SelectorSpec> selectors = managerSpec.getSelectors();
+        for (int i = 0; i < selectors.size(); i++) {
+            String path = ManagerSpecRows.groupPath(selectors.get(i).getGroup());
+            Long resourceGroupId = idsByPath.get(path);
+            if (resourceGroupId == null) {
+                throw new IllegalArgumentException(format("Selector group %s does not exist", path));
+            }
+            dao.insertSelector(new SelectorRow(resourceGroupId, SelectorPriorities.initial(i, selectors.size()), selectors.get(i)));
+        }
+    }
+
+    private static void insertResourceGroup(ResourceGroupsDao dao, ResourceGroupSpec resourceGroupSpec, String path, Long parentId, String environment, Map<String, Long> idsByPath)
+    {
+        long resourceGroupId = dao.insertResourceGroup(resourceGroupSpec, environment, parentId);
+        idsByPath.put(path, resourceGroupId);
+        for (ResourceGroupSpec subGroup : resourceGroupSpec.getSubGroups()) {
+            insertResourceGroup(dao, subGroup, path + "." + subGroup.getName(), resourceGroupId, environment, idsByPath);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.db.DbResourceGroupConfig;
+import org.jdbi.v3.core.Jdbi;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/**
+ * Programmatic access to the operations of the CLI commands. Every operation
+ * runs on the executor given at construction and completes the returned
+ * future with its result, or exceptionally with the same exception the
+ * command would fail with. All operations share the connections of one
+ * {@link Jdbi}, so callers can run many operations without a JVM per call.
+ * The commands back it with a connection pool of {@link ConnectionPools};
+ * callers of {@link #create(Jdbi, Executor)} should do likewise.
+ */
+public class ResourceGroupsClient
+{
+    private final ResourceGroupsReader reader;
+    private final ResourceGroupsApplier applier;
+    private final Executor executor;
+
+    public ResourceGroupsClient(ResourceGroupsDao dao, ResourceGroupsApplier applier, Executor executor)
+    {
+        this(new ResourceGroupsReader(dao, Optional.empty(), false), applier, executor);
+    }
+
+    /**
+     * Creates a client whose read-only operations go through the reader,
+     * which may route them to a read replica.
+     */
+    public ResourceGroupsClient(ResourceGroupsReader reader, ResourceGroupsApplier applier, Executor executor)
+    {
+        this.reader = requireNonNull(reader, "reader is null");
+        this.applier = requireNonNull(applier, "applier is null");
+        this.executor = requireNonNull(executor, "executor is null");
+    }
+
+    /**
+     * Creates a client for an existing {@link Jdbi}, for example one backed by
+     * the caller's connection pool. The database type is detected from the
+     * JDBC URL of a connection.
+     */
+    public static ResourceGroupsClient create(Jdbi jdbi, Executor executor)
+    {
+        ResourceGroupsDao dao = new DaoProvider(new DbResourceGroupConfig(), jdbi).get();
+        DatabaseType databaseType = jdbi.withHandle(DbBasedResourceGroups::getDatabaseType);
+        ResourceGroupsApplier applier = new ResourceGroupsApplier(dao, databaseType, BulkLoader.forDatabaseType(databaseType));
+        return new ResourceGroupsClient(dao, applier, executor);
+    }
+
+    /**
+     * Like {@link #create(Jdbi, Executor)}, with the read-only operations
+     * routed to a read replica, optionally checking its replication lag.
+     */
+    public static ResourceGroupsClient create(Jdbi jdbi, Jdbi readReplicaJdbi, boolean lagCheckEnabled, Executor executor)
+    {
+        ResourceGroupsDao dao = new DaoProvider(new DbResourceGroupConfig(), jdbi).get();
+        ResourceGroupsDao replicaDao = new DaoProvider(new DbResourceGroupConfig(), readReplicaJdbi).get();
+        DatabaseType databaseType = jdbi.withHandle(DbBasedResourceGroups::getDatabaseType);
+        ResourceGroupsApplier applier = new ResourceGroupsApplier(dao, databaseType, BulkLoader.forDatabaseType(databaseType));
+        return new ResourceGroupsClient(new ResourceGroupsReader(dao, Optional.of(replicaDao), lagCheckEnabled), applier, executor);
+    }
+
+    /**
+     * Replaces the resource groups and selectors of the environment.
+     */
+    public CompletableFuture<Void> apply(ManagerSpec managerSpec, String environment, ApplyOptions options)
+    {
+        requireNonNull(managerSpec, "managerSpec is null");
+        requireNonNull(environment, "environment is null");
+        requireNonNull(options, "options is null");
+        checkArgument(!options.getSubtree().isPresent() || !(options.isStaged() || options.isResumable() || options.isBulkLoad() || options.getExactMatchSelectors().isPresent()),
+                "A subtree apply cannot be staged, resumable, bulk loaded or replace exact match selectors");
+        checkArgument(options.getParallelism() == 1 || !(options.getSubtree().isPresent() || options.isResumable()),
+                "A subtree or resumable apply cannot be parallel");
+        return supplyAsync(() -> {
+            if (options.getSubtree().isPresent()) {
+                applier.applySubtree(managerSpec, environment, options.getSubtree().get());
+            }
+            else if (options.isResumable()) {
+                applier.applyResumable(managerSpec, options.getExactMatchSelectors(), environment, options.getStagingEnvironment(environment), options.getChunkSize(), options.getRetryPolicy());
+            }
+            else if (options.getParallelism() > 1) {
+                applier.applyParallel(managerSpec, options.getExactMatchSelectors(), environment, options.getStagingEnvironment(environment), options.getParallelism());
+            }
+            else if (options.isStaged()) {
+                applier.applyStaged(managerSpec, options.getExactMatchSelectors(), environment, options.getStagingEnvironment(environment), options.isBulkLoad());
+            }
+            else {
+                applier.apply(managerSpec, options.getExactMatchSelectors(), environment, options.isBulkLoad());
+            }
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Replaces the resource groups and selectors of the environment with the
+     * template expanded for every tenant of the parameters file, streaming
+     * the rows to the database as tenants are read.
+     */
+    public CompletableFuture<Void> applyTemplate(TenantTemplate template, Path tenantParameters, String environment)
+    {
+        requireNonNull(template, "template is null");
+        requireNonNull(tenantParameters, "tenantParameters is null");
+        requireNonNull(environment, "environment is null");
+        return supplyAsync(() -> {
+            applier.applyTemplate(template, tenantParameters, environment);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Restores a version from the history of the environment, writing only
+     * the rows that differ from it.
+     */
+    public CompletableFuture<ManagerSpecPatch.Result> rollback(String environment, long version)
+    {
+        requireNonNull(environment, "environment is null");
+        return supplyAsync(() -> applier.rollback(environment, version), executor);
+    }
+
+    /**
+     * Lists the versions in the history of the environment, newest first.
+     */
+    public CompletableFuture<List<ConfigHistoryEntry>> history(String environment)
+    {
+        requireNonNull(environment, "environment is null");
+        return supplyAsync(() -> applier.getHistory(environment), executor);
+    }
+
+    /**
+     * Loads the resource groups and selectors of the environment, from the
+     * read replica if the client has one.
+     */
+    public CompletableFuture<ManagerSpec> list(String environment)
+    {
+        return list(environment, DbBasedResourceGroups.DEFAULT_FETCH_SIZE);
+    }
+
+    public CompletableFuture<ManagerSpec> list(String environment, int fetchSize)
+    {
+        requireNonNull(environment, "environment is null");
+        return supplyAsync(() -> reader.load(environment, fetchSize), executor);
+    }
+
+    /**
+     * Parses and validates a resource groups JSON file. The future fails with
+     * an {@link IllegalArgumentException} describing the problem if the file
+     * is not valid.
+     */
+    public CompletableFuture<ManagerSpec> validate(String resourceGroupsJson)
+    {
+        requireNonNull(resourceGroupsJson, "resourceGroupsJson is null");
+        return supplyAsync(() -> FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsJson), executor);
+    }
+
+    public CompletableFuture<List<ManagerSpecDiff.Change>> diff(ManagerSpec before, ManagerSpec after)
+    {
+        requireNonNull(before, "before is null");
+        requireNonNull(after, "after is null");
+        return supplyAsync(() -> ManagerSpecDiff.diff(before, after), executor);
+    }
+
+    /**
+     * Compares the configuration stored for the environment with the given one.
+     */
+    public CompletableFuture<List<ManagerSpecDiff.Change>> diff(String environment, ManagerSpec after)
+    {
+        return list(environment).thenApplyAsync(before -> ManagerSpecDiff.diff(before, after), executor);
+    }
+
+    /**
+     * Waits for the future and rethrows its failure unwrapped, for callers
+     * that run operations synchronously.
+     */
+    public static <T> T getFutureValue(CompletableFuture<T> future)
+    {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -13,13 +13,15 @@
  */
 package io.trino.resourcegroups.db;
 
-import io.trino.plugin.resourcegroups.ResourceGroupIdTemplate;
-import io.trino.plugin.resourcegroups.ResourceGroupNameTemplate;
+import io.trino.plugin.resourcegroups.ManagerSpec;
 import io.trino.plugin.resourcegroups.ResourceGroupSpec;
-import io.trino.plugin.resourcegroups.SelectorSpec;
 import io.trino.plugin.resourcegroups.db.ResourceGroupGlobalProperties;
 import io.trino.plugin.resourcegroups.db.ResourceGroupSpecBuilder;
 import io.trino.plugin.resourcegroups.db.SelectorRecord;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.result.ResultIterable;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.sqlobject.SqlObject;
 import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
@@ -28,196 +30,273 @@ import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 import org.jdbi.v3.sqlobject.statement.UseRowMapper;
 
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 public interface ResourceGroupsDao
         extends SqlObject
 {
-    default void truncateTable(String tableName)
-    {
-        useHandle(handle -> {
-            handle.createUpdate("DELETE FROM <tableName>")
-                    .define("tableName", tableName)
-                    .execute();
-        });
-    }
+    String RESOURCE_GROUPS_QUERY = "SELECT resource_group_id, name, soft_memory_limit, max_queued, soft_concurrency_limit, " +
+            "  hard_concurrency_limit, scheduling_policy, scheduling_weight, jmx_export, soft_cpu_limit, " +
+            "  hard_cpu_limit, parent\n" +
+            "FROM resource_groups\n" +
+            "WHERE environment = :environment\n";
+
+    String SELECTORS_QUERY = "SELECT S.resource_group_id, S.priority, S.user_regex, S.source_regex, S.query_type, S.client_tags, S.selector_resource_estimate, S.user_group_regex\n" +
+            "FROM selectors S\n" +
+            "JOIN resource_groups R ON (S.resource_group_id = R.resource_group_id)\n" +
+            "WHERE R.environment = :environment\n" +
+            "ORDER by priority DESC";
 
     default void setCpuQuotaPeriod(String cpuQuotaPeriod)
     {
-        // will be the same across all environments
-        truncateTable("resource_groups_global_properties");
-        useHandle(handle -> {
-            handle.createUpdate("INSERT INTO resource_groups_global_properties (name, value) VALUES (:name, :value)")
-                    .bind("name", "cpu_quota_period")
-                    .bind("value", cpuQuotaPeriod)
-                    .execute();
-        });
+        // will be the same across all environments, so the row is updated in
+        // place rather than deleted out from under concurrent applies
+        if (updateCpuQuotaPeriod(cpuQuotaPeriod) == 0) {
+            insertCpuQuotaPeriod(cpuQuotaPeriod);
+        }
     }
 
-    default void insertSelector(SelectorSpec selectorSpec, int priority)
+    @SqlUpdate("UPDATE resource_groups_global_properties SET value = :value WHERE name = 'cpu_quota_period'")
+    int updateCpuQuotaPeriod(@Bind("value") String cpuQuotaPeriod);
+
+    @SqlUpdate("INSERT INTO resource_groups_global_properties (name, value) VALUES ('cpu_quota_period', :value)")
+    void insertCpuQuotaPeriod(@Bind("value") String cpuQuotaPeriod);
+
+    @SqlUpdate("DELETE FROM selectors WHERE resource_group_id IN (SELECT resource_group_id FROM resource_groups WHERE environment = :environment)")
+    void deleteSelectors(@Bind("environment") String environment);
+
+    @SqlUpdate("DELETE FROM resource_groups WHERE environment = :environment")
+    void deleteResourceGroups(@Bind("environment") String environment);
+
+    @SqlUpdate("UPDATE resource_groups SET environment = :target WHERE environment = :source")
+    int renameEnvironment(@Bind("source") String source, @Bind("target") String target);
+
+    @SqlQuery("SELECT COALESCE(MAX(resource_group_id), 0) FROM resource_groups")
+    long getMaxResourceGroupId();
+
+    @SqlQuery("SELECT resource_group_id FROM resource_groups WHERE environment = :environment ORDER BY resource_group_id")
+    List<Long> getResourceGroupIds(@Bind("environment") String environment);
+
+    @SqlQuery("SELECT name FROM resource_groups WHERE environment = :environment ORDER BY resource_group_id")
+    List<String> getResourceGroupNames(@Bind("environment") String environment);
+
+    @SqlQuery("SELECT DISTINCT environment FROM resource_groups WHERE environment IS NOT NULL ORDER BY environment")
+    List<String> getEnvironments();
+
+    @SqlQuery("SELECT COUNT(*) FROM resource_groups WHERE environment = :environment")
+    int countResourceGroups(@Bind("environment") String environment);
+
+    @SqlQuery("SELECT environment, fingerprint, staging_environment, resource_groups_loaded, selectors_loaded FROM resource_groups_apply_journal WHERE environment = :environment")
+    @UseRowMapper(ApplyJournalEntry.Mapper.class)
+    List<ApplyJournalEntry> getApplyJournal(@Bind("environment") String environment);
+
+    @SqlUpdate("INSERT INTO resource_groups_apply_journal (environment, fingerprint, staging_environment, resource_groups_loaded, selectors_loaded, update_time) " +
+            "VALUES (:environment, :fingerprint, :stagingEnvironment, 0, 0, CURRENT_TIMESTAMP)")
+    void insertApplyJournal(@Bind("environment") String environment, @Bind("fingerprint") String fingerprint, @Bind("stagingEnvironment") String stagingEnvironment);
+
+    /**
+     * Records a committed chunk. Returns 0 if the journal no longer holds the
+     * expected progress, because another apply moved it on or discarded it.
+     */
+    @SqlUpdate("UPDATE resource_groups_apply_journal SET resource_groups_loaded = :resourceGroupsLoaded, selectors_loaded = :selectorsLoaded, update_time = CURRENT_TIMESTAMP " +
+            "WHERE environment = :environment AND fingerprint = :fingerprint AND resource_groups_loaded = :expectedResourceGroupsLoaded AND selectors_loaded = :expectedSelectorsLoaded")
+    int updateApplyJournal(
+            @Bind("environment") String environment,
+            @Bind("fingerprint") String fingerprint,
+            @Bind("expectedResourceGroupsLoaded") int expectedResourceGroupsLoaded,
+            @Bind("expectedSelectorsLoaded") int expectedSelectorsLoaded,
+            @Bind("resourceGroupsLoaded") int resourceGroupsLoaded,
+            @Bind("selectorsLoaded") int selectorsLoaded);
+
+    @SqlUpdate("DELETE FROM resource_groups_apply_journal WHERE environment = :environment AND fingerprint = :fingerprint")
+    int deleteApplyJournal(@Bind("environment") String environment, @Bind("fingerprint") String fingerprint);
+
+    @SqlUpdate("DELETE FROM exact_match_source_selectors WHERE environment = :environment")
+    void deleteExactMatchSelectors(@Bind("environment") String environment);
+
+    /**
+     * Writes the rows of the exact match selectors, one for each of their
+     * query types.
+     */
+    default void insertExactMatchSelectors(String environment, List<ExactMatchSelectorSpec> exactMatchSelectors)
     {
-        int resourceGroupId = getResourceGroupId(selectorSpec.getGroup());
-        if (resourceGroupId < 0) {
-            // exception should be thrown by getResourceGroupId
+        if (exactMatchSelectors.isEmpty()) {
+            return;
+        }
+        try (PreparedBatch batch = getHandle().prepareBatch("INSERT INTO exact_match_source_selectors (environment, source, query_type, update_time, resource_group_id) " +
+                "VALUES (?, ?, ?, CURRENT_TIMESTAMP, ?)")) {
+            for (ExactMatchSelectorSpec exactMatchSelector : exactMatchSelectors) {
+                for (String queryType : exactMatchSelector.getQueryTypes()) {
+                    batch.bind(0, environment)
+                            .bind(1, exactMatchSelector.getSource())
+                            .bind(2, queryType)
+                            .bind(3, exactMatchSelector.getResourceGroupId())
+                            .add();
+                }
+            }
+            batch.execute();
         }
-        insertSelector(
-                resourceGroupId,
-                priority,
-                getUserRegex(selectorSpec),
-                getUserGroupRegex(selectorSpec),
-                getSourceRegex(selectorSpec),
-                selectorSpec.getQueryType().orElse(null),
-                getClientTags(selectorSpec),
-                null
-        );
     }
 
-    @SqlUpdate("INSERT INTO selectors (resource_group_id, priority, user_regex, user_group_regex, source_regex, query_type, client_tags, selector_resource_estimate) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")
-    void insertSelector(int resourceGroupId, int priority, String userRegex, String userGroupRegex, String sourceRegex, String queryType, String clientTags, String selectorResourceEstimate);
+    @SqlQuery("SELECT source, query_type, resource_group_id FROM exact_match_source_selectors WHERE environment = :environment ORDER BY source, query_type")
+    @UseRowMapper(ExactMatchSelectorSpec.Mapper.class)
+    List<ExactMatchSelectorSpec> getExactMatchSelectors(@Bind("environment") String environment);
+
+    @SqlUpdate("INSERT INTO resource_groups_history (environment, fingerprint, resource_groups, selectors, snapshot, create_time) " +
+            "VALUES (:environment, :fingerprint, :resourceGroups, :selectors, :snapshot, CURRENT_TIMESTAMP)")
+    void insertHistory(
+            @Bind("environment") String environment,
+            @Bind("fingerprint") String fingerprint,
+            @Bind("resourceGroups") int resourceGroups,
+            @Bind("selectors") int selectors,
+            @Bind("snapshot") byte[] snapshot);
+
+    @SqlQuery("SELECT version, environment, fingerprint, resource_groups, selectors, create_time FROM resource_groups_history " +
+            "WHERE environment = :environment ORDER BY create_time DESC, version DESC")
+    @UseRowMapper(ConfigHistoryEntry.Mapper.class)
+    List<ConfigHistoryEntry> getHistory(@Bind("environment") String environment);
 
-    default int getResourceGroupId(ResourceGroupIdTemplate resourceGroupIdTemplate)
+    @SqlQuery("SELECT snapshot FROM resource_groups_history WHERE environment = :environment AND version = :version")
+    Optional<byte[]> getHistorySnapshot(@Bind("environment") String environment, @Bind("version") long version);
+
+    default void insertSelector(SelectorRow selectorRow)
     {
-        if (resourceGroupIdTemplate.getSegments().isEmpty()) {
-            return -1; // TODO throw exception
-        }
-        // we need to find the resource group that matches the last segment
-        // of the resource group name template.
-        ResourceGroupNameTemplate resourceGroupName = resourceGroupIdTemplate.getSegments().get(resourceGroupIdTemplate.getSegments().size() - 1);
-        return getResourceGroupId(resourceGroupName.toString());
+        insertSelector(
+                selectorRow.getResourceGroupId(),
+                selectorRow.getPriority(),
+                selectorRow.getUserRegex(),
+                selectorRow.getUserGroupRegex(),
+                selectorRow.getSourceRegex(),
+                selectorRow.getQueryType(),
+                selectorRow.getClientTags(),
+                selectorRow.getSelectorResourceEstimate());
     }
 
-    @SqlQuery("SELECT resource_group_id\n" +
-            "FROM resource_groups\n" +
-            "WHERE name = :name\n" +
-            "LIMIT 1")
-    int getResourceGroupId(@Bind("name") String name);
+    @SqlUpdate("INSERT INTO selectors (resource_group_id, priority, user_regex, user_group_regex, source_regex, query_type, client_tags, selector_resource_estimate) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")
+    void insertSelector(long resourceGroupId, long priority, String userRegex, String userGroupRegex, String sourceRegex, String queryType, String clientTags, String selectorResourceEstimate);
 
-    default void insertResourceGroup(ResourceGroupSpec resourceGroupSpec, String environment, Integer parentId)
+    default long insertResourceGroup(ResourceGroupSpec resourceGroupSpec, String environment, Long parentId)
     {
-        int resourceGroupId = insertResourceGroup(
+        return insertResourceGroup(
                 resourceGroupSpec.getName().toString(),
-                getSoftMemoryLimit(resourceGroupSpec),
+                ResourceGroupRow.getSoftMemoryLimit(resourceGroupSpec),
                 resourceGroupSpec.getMaxQueued(),
                 resourceGroupSpec.getSoftConcurrencyLimit().orElse(null),
                 resourceGroupSpec.getHardConcurrencyLimit(),
-                getSchedulingPolicy(resourceGroupSpec),
+                ResourceGroupRow.getSchedulingPolicy(resourceGroupSpec),
                 resourceGroupSpec.getSchedulingWeight().orElse(null),
-                getJmxExport(resourceGroupSpec),
-                getSoftCpuLimit(resourceGroupSpec),
-                getHardCpuLimit(resourceGroupSpec),
+                ResourceGroupRow.getJmxExport(resourceGroupSpec),
+                ResourceGroupRow.getSoftCpuLimit(resourceGroupSpec),
+                ResourceGroupRow.getHardCpuLimit(resourceGroupSpec),
                 parentId,
                 environment);
-        for (ResourceGroupSpec subGroup : resourceGroupSpec.getSubGroups()) {
-            insertResourceGroup(subGroup, environment, Integer.valueOf(resourceGroupId));
-        }
+    }
+
+    /**
+     * Overwrites the properties of an existing resource group, leaving its
+     * name, parent and environment as they are.
+     */
+    default int updateResourceGroup(long resourceGroupId, ResourceGroupSpec resourceGroupSpec)
+    {
+        return updateResourceGroup(
+                ResourceGroupRow.getSoftMemoryLimit(resourceGroupSpec),
+                resourceGroupSpec.getMaxQueued(),
+                resourceGroupSpec.getSoftConcurrencyLimit().orElse(null),
+                resourceGroupSpec.getHardConcurrencyLimit(),
+                ResourceGroupRow.getSchedulingPolicy(resourceGroupSpec),
+                resourceGroupSpec.getSchedulingWeight().orElse(null),
+                ResourceGroupRow.getJmxExport(resourceGroupSpec),
+                ResourceGroupRow.getSoftCpuLimit(resourceGroupSpec),
+                ResourceGroupRow.getHardCpuLimit(resourceGroupSpec),
+                resourceGroupId);
+    }
+
+    @SqlUpdate("UPDATE resource_groups SET soft_memory_limit = ?, max_queued = ?, soft_concurrency_limit = ?, hard_concurrency_limit = ?, scheduling_policy = ?, " +
+            "scheduling_weight = ?, jmx_export = ?, soft_cpu_limit = ?, hard_cpu_limit = ? WHERE resource_group_id = ?")
+    int updateResourceGroup(String softMemoryLimit, int maxQueued, Integer softConcurrencyLimit, int hardConcurrencyLimit, String schedulingPolicy, Integer schedulingWeight, boolean jmxExport, String softCpuLimit, String hardCpuLimit, long resourceGroupId);
+
+    default void bulkInsert(BulkLoader bulkLoader, ManagerSpec managerSpec, String environment)
+    {
+        useHandle(handle -> handle.useTransaction(transaction -> {
+            long[] resourceGroupIds = bulkLoader.allocateResourceGroupIds(transaction, ManagerSpecRows.countResourceGroups(managerSpec.getRootGroups()));
+            bulkLoader.load(transaction, ManagerSpecRows.flatten(managerSpec, environment, resourceGroupIds));
+        }));
     }
 
     @SqlUpdate("INSERT INTO resource_groups (name, soft_memory_limit, max_queued, soft_concurrency_limit, hard_concurrency_limit, scheduling_policy, scheduling_weight, jmx_export, soft_cpu_limit, hard_cpu_limit, parent, environment) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
     @GetGeneratedKeys("resource_group_id")
-    int insertResourceGroup(String name, String softMemoryLimit, int maxQueued, Integer softConcurrencyLimit, int hardConcurrencyLimit, String schedulingPolicy, Integer schedulingWeight, boolean jmxExport, String softCpuLimit, String hardCpuLimit, Integer parent, String environment);
+    long insertResourceGroup(String name, String softMemoryLimit, int maxQueued, Integer softConcurrencyLimit, int hardConcurrencyLimit, String schedulingPolicy, Integer schedulingWeight, boolean jmxExport, String softCpuLimit, String hardCpuLimit, Long parent, String environment);
 
-    @SqlQuery("SELECT resource_group_id, name, soft_memory_limit, max_queued, soft_concurrency_limit, " +
-            "  hard_concurrency_limit, scheduling_policy, scheduling_weight, jmx_export, soft_cpu_limit, " +
-            "  hard_cpu_limit, parent\n" +
-            "FROM resource_groups\n" +
-            "WHERE environment = :environment\n")
+    @SqlQuery(RESOURCE_GROUPS_QUERY)
     @UseRowMapper(ResourceGroupSpecBuilder.Mapper.class)
     List<ResourceGroupSpecBuilder> getResourceGroups(@Bind("environment") String environment);
 
-    @SqlQuery("SELECT S.resource_group_id, S.priority, S.user_regex, S.source_regex, S.query_type, S.client_tags, S.selector_resource_estimate, S.user_group_regex\n" +
-            "FROM selectors S\n" +
-            "JOIN resource_groups R ON (S.resource_group_id = R.resource_group_id)\n" +
-            "WHERE R.environment = :environment\n" +
-            "ORDER by priority DESC")
-    @UseRowMapper(SelectorRecord.Mapper.class)
-    List<SelectorRecord> getSelectors(@Bind("environment") String environment);
-
-    @SqlQuery("SELECT value FROM resource_groups_global_properties WHERE name = 'cpu_quota_period'")
-    @UseRowMapper(ResourceGroupGlobalProperties.Mapper.class)
-    List<ResourceGroupGlobalProperties> getResourceGroupGlobalProperties();
-
-    private String getSoftMemoryLimit(ResourceGroupSpec resourceGroupSpec)
-    {
-        if (resourceGroupSpec.getSoftMemoryLimitFraction().isPresent()) {
-            return resourceGroupSpec.getSoftMemoryLimitFraction().get() * 100 + "%";
-        } else if (resourceGroupSpec.getSoftMemoryLimit().isPresent()) {
-            return resourceGroupSpec.getSoftMemoryLimit().get().toString();
-        }
-        return "invalid";
-    }
-
-    private String getSoftCpuLimit(ResourceGroupSpec resourceGroupSpec)
+    /**
+     * Streaming variant of {@link #getResourceGroups(String)}. Rows are fetched
+     * from the server in batches of {@code fetchSize} while the result is iterated,
+     * so the handle must stay open (and for PostgreSQL, be in a transaction) until
+     * the iteration is complete.
+     */
+    default ResultIterable<ResourceGroupSpecBuilder> streamResourceGroups(Handle handle, String environment, int fetchSize)
     {
-        if (resourceGroupSpec.getSoftCpuLimit().isPresent()) {
-            return resourceGroupSpec.getSoftCpuLimit().get().toString();
-        }
-        return null;
+        return handle.createQuery(RESOURCE_GROUPS_QUERY)
+                .bind("environment", environment)
+                .setFetchSize(fetchSize)
+                .map(new ResourceGroupSpecBuilder.Mapper());
     }
 
-    private String getHardCpuLimit(ResourceGroupSpec resourceGroupSpec)
-    {
-        if (resourceGroupSpec.getHardCpuLimit().isPresent()) {
-            return resourceGroupSpec.getHardCpuLimit().get().toString();
-        }
-        return null;
-    }
+    @SqlQuery(SELECTORS_QUERY)
+    @UseRowMapper(SelectorRecord.Mapper.class)
+    List<SelectorRecord> getSelectors(@Bind("environment") String environment);
 
-    private String getSchedulingPolicy(ResourceGroupSpec resourceGroupSpec)
+    /**
+     * Streaming variant of {@link #getSelectors(String)}, with the same
+     * requirements as {@link #streamResourceGroups(Handle, String, int)}.
+     */
+    default ResultIterable<SelectorRecord> streamSelectors(Handle handle, String environment, int fetchSize)
     {
-        if (resourceGroupSpec.getSchedulingPolicy().isPresent()) {
-            return resourceGroupSpec.getSchedulingPolicy().get().toString();
-        }
-        return null;
+        return streamSelectors(handle, environment, fetchSize, new SelectorRecord.Mapper());
     }
 
-    private boolean getJmxExport(ResourceGroupSpec resourceGroupSpec)
+    default <T> ResultIterable<T> streamSelectors(Handle handle, String environment, int fetchSize, RowMapper<T> mapper)
     {
-        if (resourceGroupSpec.getJmxExport().isPresent()) {
-            return resourceGroupSpec.getJmxExport().get();
-        }
-        return false;
+        return handle.createQuery(SELECTORS_QUERY)
+                .bind("environment", environment)
+                .setFetchSize(fetchSize)
+                .map(mapper);
     }
 
-    private String getUserRegex(SelectorSpec selectorSpec)
+    /**
+     * Streams the resource groups of the environment as stored, in the order
+     * of their ids, with the same requirements as
+     * {@link #streamResourceGroups(Handle, String, int)}.
+     */
+    default ResultIterable<ResourceGroupRow> streamResourceGroupRows(Handle handle, String environment, int fetchSize)
     {
-        if (selectorSpec.getUserRegex().isPresent()) {
-            return selectorSpec.getUserRegex().get().toString();
-        }
-        return null;
+        return handle.createQuery("SELECT " + BulkLoader.RESOURCE_GROUP_COLUMNS + " FROM resource_groups WHERE environment = :environment ORDER BY resource_group_id")
+                .bind("environment", environment)
+                .setFetchSize(fetchSize)
+                .map(new ResourceGroupRow.Mapper());
     }
 
-    private String getUserGroupRegex(SelectorSpec selectorSpec)
+    /**
+     * Streams the selectors of the environment as stored, highest priority
+     * first, with the same requirements as
+     * {@link #streamResourceGroups(Handle, String, int)}.
+     */
+    default ResultIterable<SelectorRow> streamSelectorRows(Handle handle, String environment, int fetchSize)
     {
-        if (selectorSpec.getUserGroupRegex().isPresent()) {
-            return selectorSpec.getUserGroupRegex().get().toString();
-        }
-        return null;
+        return handle.createQuery("SELECT " + BulkLoader.SELECTOR_COLUMNS + " FROM selectors " +
+                        "WHERE resource_group_id IN (SELECT resource_group_id FROM resource_groups WHERE environment = :environment) ORDER BY priority DESC")
+                .bind("environment", environment)
+                .setFetchSize(fetchSize)
+                .map(new SelectorRow.Mapper());
     }
 
-    private String getSourceRegex(SelectorSpec selectorSpec)
-    {
-        if (selectorSpec.getSourceRegex().isPresent()) {
-            return selectorSpec.getSourceRegex().get().toString();
-        }
-        return null;
-    }
+    @SqlUpdate("DELETE FROM resource_groups_global_properties WHERE name = 'cpu_quota_period'")
+    void deleteCpuQuotaPeriod();
 
-    private String getClientTags(SelectorSpec selectorSpec)
-    {
-        if (selectorSpec.getClientTags().isPresent()) {
-            if (selectorSpec.getClientTags().get().isEmpty()) {
-                return null;
-            }
-            List<String> clientTags = selectorSpec.getClientTags().get();
-            String tagsList = String.join(
-                    ",",
-                    clientTags
-                            .stream()
-                            .map(clientTag -> ("\"" + clientTag + "\""))
-                            .collect(Collectors.toList())
-            );
-            return "[" + tagsList + "]";
-        }
-        return null;
-    }
+    @SqlQuery("SELECT value FROM resource_groups_global_properties WHERE name = 'cpu_quota_period'")
+    @UseRowMapper(ResourceGroupGlobalProperties.Mapper.class)
+    List<ResourceGroupGlobalProperties> getResourceGroupGlobalProperties();
 }
@@ -21,8 +21,10 @@ import io.airlift.configuration.AbstractConfigurationAwareModule;
 import io.trino.plugin.resourcegroups.db.DbResourceGroupConfig;
 import org.jdbi.v3.core.Jdbi;
 
+import java.util.Optional;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static io.airlift.configuration.ConfigBinder.configBinder;
-import static java.lang.String.format;
 
 public class ResourceGroupsDbModule
         extends AbstractConfigurationAwareModule
@@ -31,47 +33,67 @@ public class ResourceGroupsDbModule
     protected void setup(Binder binder)
     {
         configBinder(binder).bindConfig(DbResourceGroupConfig.class);
+        configBinder(binder).bindConfig(ReadReplicaConfig.class);
+        configBinder(binder).bindConfig(ConnectionPoolConfig.class);
+        binder.bind(ConnectionPools.class).in(Scopes.SINGLETON);
         binder.bind(ResourceGroupsDao.class).toProvider(DaoProvider.class).in(Scopes.SINGLETON);
+        binder.bind(ResourceGroupsApplier.class).in(Scopes.SINGLETON);
+    }
+
+    @Singleton
+    @Provides
+    public Jdbi jdbi(ConnectionPools connectionPools)
+    {
+        return connectionPools.getPrimary();
     }
 
     @Singleton
     @Provides
-    public Jdbi jdbi(DbResourceGroupConfig config)
+    public DatabaseType databaseType(DbResourceGroupConfig config)
     {
-        loadJdbcDriver(config.getConfigDbUrl());
-        return Jdbi.create(config.getConfigDbUrl(), config.getConfigDbUser(), config.getConfigDbPassword());
+        return loadJdbcDriver(config.getConfigDbUrl());
+    }
+
+    @Singleton
+    @Provides
+    public BulkLoader bulkLoader(DatabaseType databaseType)
+    {
+        return BulkLoader.forDatabaseType(databaseType);
+    }
+
+    /**
+     * Reads from the read replica when one is configured, with the user and
+     * password of the primary unless the replica has its own.
+     */
+    @Singleton
+    @Provides
+    public ResourceGroupsReader resourceGroupsReader(ResourceGroupsDao dao, DbResourceGroupConfig config, ReadReplicaConfig replicaConfig, ConnectionPools connectionPools)
+    {
+        Optional<ResourceGroupsDao> replica = connectionPools.getReadReplica().map(jdbi -> new DaoProvider(config, jdbi).get());
+        return new ResourceGroupsReader(dao, replica, replica.isPresent() && replicaConfig.isLagCheckEnabled());
+    }
+
+    /**
+     * Client used by the commands, which run every operation on the calling thread.
+     */
+    @Singleton
+    @Provides
+    public ResourceGroupsClient resourceGroupsClient(ResourceGroupsReader reader, ResourceGroupsApplier applier)
+    {
+        return new ResourceGroupsClient(reader, applier, directExecutor());
     }
 
     // TODO - this seems to be required to guarantee JDBC drivers
     // are loaded. Figure out how to remove  this hack.
-    private static void loadJdbcDriver(String configDbUrl)
+    private static DatabaseType loadJdbcDriver(String configDbUrl)
     {
-        if (configDbUrl.startsWith("jdbc:postgresql")) {
-            try {
-                Class.forName("org.postgresql.Driver");
-            }
-            catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        else if (configDbUrl.startsWith("jdbc:oracle")) {
-            try {
-                Class.forName("oracle.jdbc.driver.Driver");
-            }
-            catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        else if (configDbUrl.startsWith("jdbc:mysql")) {
-            try {
-                Class.forName("com.mysql.cj.jdbc.Driver");
-            }
-            catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
+        DatabaseType databaseType = DatabaseType.fromJdbcUrl(configDbUrl);
+        try {
+            Class.forName(databaseType.getDriverClassName());
         }
-        else {
-            throw new IllegalArgumentException(format("Invalid JDBC URL: %s. Only PostgreSQL, MySQL, and Oracle are supported.", configDbUrl));
+        catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
         }
+        return databaseType;
     }
 }
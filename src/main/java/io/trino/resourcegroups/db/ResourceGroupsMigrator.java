@@ -0,0 +1,311 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import io.airlift.log.Logger;
+import io.trino.plugin.resourcegroups.db.ResourceGroupGlobalProperties;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.result.ResultIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Copies the resource groups and selectors of one or all environments, and
+ * the cpu_quota_period, from one database to another, which may be of a
+ * different type. Rows are streamed from the source in the order of their
+ * ids and written to the target with its {@link BulkLoader} in chunks, with
+ * new ids allocated in the target. The whole copy runs in one transaction
+ * of the target, holding the advisory locks of the migrated environments,
+ * and is rolled back unless the fingerprint of every environment read back
+ * from the target matches that of the source. Each environment is read in a
+ * transaction of the source holding its lock, so that no apply changes it
+ * while it is copied.
+ * <p>
+ * Exact match selectors and the history of the environments are not copied.
+ */
+public class ResourceGroupsMigrator
+{
+    private static final Logger LOG = Logger.get(ResourceGroupsMigrator.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    private final ResourceGroupsDao source;
+    private final ResourceGroupsDao target;
+    private final DatabaseType targetDatabaseType;
+    private final BulkLoader bulkLoader;
+    private final int chunkSize;
+    private final int fetchSize;
+
+    public ResourceGroupsMigrator(ResourceGroupsDao source, ResourceGroupsDao target, DatabaseType targetDatabaseType, BulkLoader bulkLoader, int chunkSize, int fetchSize)
+    {
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        checkArgument(fetchSize > 0, "fetchSize must be positive");
+        this.source = requireNonNull(source, "source is null");
+        this.target = requireNonNull(target, "target is null");
+        this.targetDatabaseType = requireNonNull(targetDatabaseType, "targetDatabaseType is null");
+        this.bulkLoader = requireNonNull(bulkLoader, "bulkLoader is null");
+        this.chunkSize = chunkSize;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Replaces the environment in the target with the one in the source, or
+     * every environment of the source when none is given. Environments of the
+     * target that are not in the source are left alone.
+     */
+    public List<Result> migrate(Optional<String> environment)
+    {
+        List<String> environments = environment.map(ImmutableList::of).orElseGet(source::getEnvironments);
+        // locks are taken in the same order by every migration, so that two of them never wait on each other
+        List<String> lockNames = environments.stream()
+                .map(AdvisoryLocks::lockName)
+                .sorted()
+                .distinct()
+                .collect(toImmutableList());
+        target.useHandle(handle -> ResourceGroupsSchema.initialize(handle, targetDatabaseType));
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<Result> results = target.withHandle(handle -> {
+            try {
+                return handle.inTransaction(transaction -> {
+                    for (String lockName : lockNames) {
+                        AdvisoryLocks.lock(transaction, targetDatabaseType, lockName);
+                    }
+                    ResourceGroupsDao transactionDao = transaction.attach(ResourceGroupsDao.class);
+                    copyCpuQuotaPeriod(transactionDao);
+                    ImmutableList.Builder<Result> migrated = ImmutableList.builder();
+                    for (String name : environments) {
+                        migrated.add(migrateEnvironment(transaction, transactionDao, name));
+                    }
+                    return migrated.build();
+                });
+            }
+            finally {
+                for (int i = lockNames.size() - 1; i >= 0; i--) {
+                    AdvisoryLocks.unlock(handle, targetDatabaseType, lockNames.get(i));
+                }
+            }
+        });
+        LOG.info("Migrated %s environments in %s", results.size(), stopwatch.stop());
+        return results;
+    }
+
+    private void copyCpuQuotaPeriod(ResourceGroupsDao transactionDao)
+    {
+        List<ResourceGroupGlobalProperties> globalProperties = source.getResourceGroupGlobalProperties();
+        checkState(globalProperties.size() <= 1, "There is more than one cpu_quota_period");
+        Optional<String> cpuQuotaPeriod = globalProperties.stream()
+                .findFirst()
+                .flatMap(ResourceGroupGlobalProperties::getCpuQuotaPeriod)
+                .map(Object::toString);
+        if (cpuQuotaPeriod.isPresent()) {
+            transactionDao.setCpuQuotaPeriod(cpuQuotaPeriod.get());
+        }
+        else {
+            transactionDao.deleteCpuQuotaPeriod();
+        }
+    }
+
+    private Result migrateEnvironment(Handle transaction, ResourceGroupsDao transactionDao, String environment)
+    {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        transactionDao.deleteSelectors(environment);
+        transactionDao.deleteResourceGroups(environment);
+        String lockName = AdvisoryLocks.lockName(environment);
+        Result result = source.withHandle(handle -> {
+            DatabaseType sourceDatabaseType = DbBasedResourceGroups.getDatabaseType(handle);
+            try {
+                // rows are streamed, PostgreSQL only honors the fetch size inside a transaction
+                return handle.inTransaction(sourceTransaction -> {
+                    AdvisoryLocks.lock(sourceTransaction, sourceDatabaseType, lockName);
+                    return copyEnvironment(sourceTransaction, sourceDatabaseType, transaction, environment);
+                });
+            }
+            finally {
+                AdvisoryLocks.unlock(handle, sourceDatabaseType, lockName);
+            }
+        });
+
+        String fingerprint = ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(transactionDao, transaction, environment, fetchSize)).toString();
+        if (!fingerprint.equals(result.getFingerprint())) {
+            throw new IllegalStateException(format("Resource groups of environment %s read back from the target (%s) do not match the source (%s)", environment, fingerprint, result.getFingerprint()));
+        }
+        LOG.info("Copied %s in %s", result, stopwatch.stop());
+        return result;
+    }
+
+    private Result copyEnvironment(Handle sourceTransaction, DatabaseType sourceDatabaseType, Handle transaction, String environment)
+    {
+        ResourceGroupsDao sourceDao = sourceTransaction.attach(ResourceGroupsDao.class);
+        int streamingFetchSize = sourceDatabaseType.streamingFetchSize(fetchSize);
+        int resourceGroupCount = sourceDao.countResourceGroups(environment);
+        checkArgument(resourceGroupCount > 0, "Environment %s has no resource groups in the source database", environment);
+
+        IdMap ids = new IdMap(resourceGroupCount);
+        List<ResourceGroupRow> resourceGroups = new ArrayList<>(Math.min(chunkSize, resourceGroupCount));
+        try (ResultIterator<ResourceGroupRow> rows = sourceDao.streamResourceGroupRows(sourceTransaction, environment, streamingFetchSize).iterator()) {
+            while (rows.hasNext()) {
+                resourceGroups.add(rows.next());
+                if (resourceGroups.size() == chunkSize || !rows.hasNext()) {
+                    loadResourceGroups(transaction, resourceGroups, ids);
+                    resourceGroups.clear();
+                }
+            }
+        }
+
+        int selectorCount = 0;
+        List<SelectorRow> selectors = new ArrayList<>();
+        try (ResultIterator<SelectorRow> rows = sourceDao.streamSelectorRows(sourceTransaction, environment, streamingFetchSize).iterator()) {
+            while (rows.hasNext()) {
+                SelectorRow row = rows.next();
+                long resourceGroupId = ids.get(row.getResourceGroupId())
+                        .orElseThrow(() -> new IllegalStateException(format("Selector of environment %s points at unknown resource group id %s", environment, row.getResourceGroupId())));
+                // priorities are copied as they are, so the gaps between them are kept as well
+                selectors.add(row.withResourceGroupId(resourceGroupId));
+                if (selectors.size() == chunkSize || !rows.hasNext()) {
+                    bulkLoader.load(transaction, new ManagerSpecRows(ImmutableList.of(), selectors));
+                    selectorCount += selectors.size();
+                    selectors.clear();
+                }
+            }
+        }
+
+        // read after the rows, in the same transaction, so that it describes exactly what was copied
+        String fingerprint = ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(sourceDao, sourceTransaction, environment, fetchSize)).toString();
+        return new Result(environment, ids.size(), selectorCount, fingerprint);
+    }
+
+    private void loadResourceGroups(Handle transaction, List<ResourceGroupRow> chunk, IdMap ids)
+    {
+        long[] chunkIds = bulkLoader.allocateResourceGroupIds(transaction, chunk.size());
+        // ids are handed out in the order of the source ids, so parents keep lower ids than their children
+        Arrays.sort(chunkIds);
+        ImmutableList.Builder<ResourceGroupRow> rows = ImmutableList.builderWithExpectedSize(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            ResourceGroupRow row = chunk.get(i);
+            Long parentId = null;
+            if (row.getParentId().isPresent()) {
+                long sourceParentId = row.getParentId().get();
+                parentId = ids.get(sourceParentId)
+                        .orElseThrow(() -> new IllegalStateException(format(
+                                "Resource group %s (id %s) of environment %s has parent id %s, which is not a resource group of the environment with a lower id",
+                                row.getName(),
+                                row.getId(),
+                                row.getEnvironment(),
+                                sourceParentId)));
+            }
+            ids.put(row.getId(), chunkIds[i]);
+            rows.add(row.withIds(chunkIds[i], parentId));
+        }
+        bulkLoader.load(transaction, new ManagerSpecRows(rows.build(), ImmutableList.of()));
+    }
+
+    /**
+     * Maps the resource group ids of the source to those allocated in the
+     * target. Source ids are added in increasing order, so they are kept in
+     * two sorted arrays and looked up by binary search, which takes 16 bytes
+     * per resource group instead of a map entry with two boxed longs.
+     */
+    private static class IdMap
+    {
+        private long[] sourceIds;
+        private long[] targetIds;
+        private int size;
+
+        public IdMap(int expectedSize)
+        {
+            this.sourceIds = new long[expectedSize];
+            this.targetIds = new long[expectedSize];
+        }
+
+        public void put(long sourceId, long targetId)
+        {
+            if (size > 0 && sourceId <= sourceIds[size - 1]) {
+                throw new IllegalStateException(format("Resource group ids are not increasing: %s after %s", sourceId, sourceIds[size - 1]));
+            }
+            if (size == sourceIds.length) {
+                // rows were added since they were counted
+                sourceIds = Arrays.copyOf(sourceIds, Math.max(1, size * 2));
+                targetIds = Arrays.copyOf(targetIds, sourceIds.length);
+            }
+            sourceIds[size] = sourceId;
+            targetIds[size] = targetId;
+            size++;
+        }
+
+        public OptionalLong get(long sourceId)
+        {
+            int index = Arrays.binarySearch(sourceIds, 0, size, sourceId);
+            return (index < 0) ? OptionalLong.empty() : OptionalLong.of(targetIds[index]);
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    public static class Result
+    {
+        private final String environment;
+        private final int resourceGroups;
+        private final int selectors;
+        private final String fingerprint;
+
+        public Result(String environment, int resourceGroups, int selectors, String fingerprint)
+        {
+            this.environment = requireNonNull(environment, "environment is null");
+            this.resourceGroups = resourceGroups;
+            this.selectors = selectors;
+            this.fingerprint = requireNonNull(fingerprint, "fingerprint is null");
+        }
+
+        public String getEnvironment()
+        {
+            return environment;
+        }
+
+        public int getResourceGroups()
+        {
+            return resourceGroups;
+        }
+
+        public int getSelectors()
+        {
+            return selectors;
+        }
+
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        @Override
+        public String toString()
+        {
+            return format("%s\t%s\t%s resource groups, %s selectors", environment, fingerprint, resourceGroups, selectors);
+        }
+    }
+}
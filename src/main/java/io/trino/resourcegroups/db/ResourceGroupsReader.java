@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.hash.HashCode;
+import io.airlift.log.Logger;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Routes operations that only read resource groups, such as listing and
+ * diffing, to a read replica when one is configured, so that they do not
+ * add to the load of the primary the Trino coordinators poll. Applies
+ * always go to the primary through {@link ResourceGroupsApplier}.
+ * <p>
+ * With the lag check, what is read from the replica is only returned if its
+ * fingerprint matches that of the primary, and the primary is read instead
+ * when the replica is behind. The check reads the environment from both,
+ * so it is meant for jobs that must not act on stale data, like a diff
+ * before an apply, rather than for periodic exports.
+ */
+public class ResourceGroupsReader
+{
+    private static final Logger LOG = Logger.get(ResourceGroupsReader.class);
+
+    private final ResourceGroupsDao primary;
+    private final Optional<ResourceGroupsDao> replica;
+    private final boolean lagCheckEnabled;
+
+    public ResourceGroupsReader(ResourceGroupsDao primary, Optional<ResourceGroupsDao> replica, boolean lagCheckEnabled)
+    {
+        this.primary = requireNonNull(primary, "primary is null");
+        this.replica = requireNonNull(replica, "replica is null");
+        this.lagCheckEnabled = lagCheckEnabled;
+    }
+
+    /**
+     * The dao of the replica if there is one, and of the primary otherwise,
+     * for reads that do not need the lag check.
+     */
+    public ResourceGroupsDao getDao()
+    {
+        return replica.orElse(primary);
+    }
+
+    public ManagerSpec load(String environment, int fetchSize)
+    {
+        if (!replica.isPresent()) {
+            return DbBasedResourceGroups.loadResourceGroupsFromDb(primary, environment, fetchSize);
+        }
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(replica.get(), environment, fetchSize);
+        if (!lagCheckEnabled) {
+            return managerSpec;
+        }
+        ManagerSpec primarySpec = DbBasedResourceGroups.loadResourceGroupsFromDb(primary, environment, fetchSize);
+        HashCode fingerprint = ManagerSpecFingerprint.fingerprint(managerSpec);
+        HashCode primaryFingerprint = ManagerSpecFingerprint.fingerprint(primarySpec);
+        if (!fingerprint.equals(primaryFingerprint)) {
+            LOG.warn("Read replica is behind the primary for environment %s (fingerprint %s, primary %s), using the primary", environment, fingerprint, primaryFingerprint);
+            return primarySpec;
+        }
+        return managerSpec;
+    }
+}
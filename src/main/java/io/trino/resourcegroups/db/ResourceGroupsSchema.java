@@ -0,0 +1,333 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.log.Logger;
+import org.jdbi.v3.core.Handle;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tables read by Trino's database backed resource group manager, the apply
+ * journal and configuration history used by the CLI, and the indexes needed
+ * by the lookups the CLI and Trino run against them.
+ */
+public final class ResourceGroupsSchema
+{
+    private static final Logger LOG = Logger.get(ResourceGroupsSchema.class);
+
+    public static final String EXACT_MATCH_SELECTORS_TABLE = "exact_match_source_selectors";
+    public static final String APPLY_JOURNAL_TABLE = "resource_groups_apply_journal";
+    public static final String HISTORY_TABLE = "resource_groups_history";
+
+    public static final List<Index> INDEXES = ImmutableList.of(
+            new Index("resource_groups_environment_name_idx", "resource_groups", ImmutableList.of("environment", "name"),
+                    "Trino loads every group of an environment on each refresh, which will scan the whole table"),
+            new Index("resource_groups_parent_idx", "resource_groups", ImmutableList.of("parent"),
+                    "parent links are followed when building the tree and on cascading deletes, which will scan the whole table"),
+            new Index("selectors_resource_group_id_idx", "selectors", ImmutableList.of("resource_group_id"),
+                    "Trino joins selectors to resource_groups by resource_group_id on each refresh, which will scan the whole table"),
+            new Index("resource_groups_history_environment_idx", HISTORY_TABLE, ImmutableList.of("environment", "create_time"),
+                    "rollback lists the history of an environment by time, which will scan the whole history table"));
+
+    private ResourceGroupsSchema() {}
+
+    public static Map<String, String> tableDefinitions(DatabaseType databaseType)
+    {
+        return ImmutableMap.of(
+                "resource_groups_global_properties", "CREATE TABLE resource_groups_global_properties (\n" +
+                        "    name " + varchar(databaseType, 128) + " NOT NULL PRIMARY KEY,\n" +
+                        "    value " + varchar(databaseType, 512) + " NULL,\n" +
+                        "    CHECK (name in ('cpu_quota_period'))\n" +
+                        ")",
+                "resource_groups", "CREATE TABLE resource_groups (\n" +
+                        "    resource_group_id " + generatedKey(databaseType) + ",\n" +
+                        "    name " + varchar(databaseType, 250) + " NOT NULL,\n" +
+                        "    soft_memory_limit " + varchar(databaseType, 128) + " NOT NULL,\n" +
+                        "    max_queued INT NOT NULL,\n" +
+                        "    soft_concurrency_limit INT NULL,\n" +
+                        "    hard_concurrency_limit INT NOT NULL,\n" +
+                        "    scheduling_policy " + varchar(databaseType, 128) + " NULL,\n" +
+                        "    scheduling_weight INT NULL,\n" +
+                        "    jmx_export " + booleanType(databaseType) + " NULL,\n" +
+                        "    soft_cpu_limit " + varchar(databaseType, 128) + " NULL,\n" +
+                        "    hard_cpu_limit " + varchar(databaseType, 128) + " NULL,\n" +
+                        "    parent " + bigint(databaseType) + " NULL,\n" +
+                        "    environment " + varchar(databaseType, 128) + " NULL,\n" +
+                        "    FOREIGN KEY (parent) REFERENCES resource_groups (resource_group_id) ON DELETE CASCADE\n" +
+                        ")",
+                "selectors", "CREATE TABLE selectors (\n" +
+                        "    resource_group_id " + bigint(databaseType) + " NOT NULL,\n" +
+                        "    priority " + bigint(databaseType) + " NOT NULL,\n" +
+                        "    user_regex " + varchar(databaseType, 512) + ",\n" +
+                        "    source_regex " + varchar(databaseType, 512) + ",\n" +
+                        "    query_type " + varchar(databaseType, 512) + ",\n" +
+                        "    client_tags " + varchar(databaseType, 512) + ",\n" +
+                        "    selector_resource_estimate " + varchar(databaseType, 1024) + ",\n" +
+                        "    user_group_regex " + varchar(databaseType, 2048) + ",\n" +
+                        "    FOREIGN KEY (resource_group_id) REFERENCES resource_groups (resource_group_id) ON DELETE CASCADE\n" +
+                        ")",
+                EXACT_MATCH_SELECTORS_TABLE, "CREATE TABLE " + EXACT_MATCH_SELECTORS_TABLE + " (\n" +
+                        "    environment " + varchar(databaseType, 128) + ",\n" +
+                        "    source " + varchar(databaseType, 512) + " NOT NULL,\n" +
+                        "    query_type " + varchar(databaseType, 512) + ",\n" +
+                        "    update_time TIMESTAMP NOT NULL,\n" +
+                        "    resource_group_id " + varchar(databaseType, 256) + " NOT NULL,\n" +
+                        "    PRIMARY KEY (environment, source, query_type),\n" +
+                        "    UNIQUE (source, environment, query_type, resource_group_id)\n" +
+                        ")",
+                APPLY_JOURNAL_TABLE, "CREATE TABLE " + APPLY_JOURNAL_TABLE + " (\n" +
+                        "    environment " + varchar(databaseType, 128) + " NOT NULL,\n" +
+                        "    fingerprint " + varchar(databaseType, 64) + " NOT NULL,\n" +
+                        "    staging_environment " + varchar(databaseType, 128) + " NOT NULL,\n" +
+                        "    resource_groups_loaded INT NOT NULL,\n" +
+                        "    selectors_loaded INT NOT NULL,\n" +
+                        "    update_time TIMESTAMP NOT NULL,\n" +
+                        "    PRIMARY KEY (environment, fingerprint)\n" +
+                        ")",
+                HISTORY_TABLE, "CREATE TABLE " + HISTORY_TABLE + " (\n" +
+                        "    version " + generatedKey(databaseType) + ",\n" +
+                        "    environment " + varchar(databaseType, 128) + " NOT NULL,\n" +
+                        "    fingerprint " + varchar(databaseType, 64) + " NOT NULL,\n" +
+                        "    resource_groups INT NOT NULL,\n" +
+                        "    selectors INT NOT NULL,\n" +
+                        "    snapshot " + blob(databaseType) + " NOT NULL,\n" +
+                        "    create_time TIMESTAMP NOT NULL\n" +
+                        ")");
+    }
+
+    /**
+     * Creates the tables and indexes that do not exist yet. Existing tables
+     * are left untouched, only missing indexes are added to them.
+     */
+    public static void initialize(Handle handle, DatabaseType databaseType)
+    {
+        Connection connection = handle.getConnection();
+        for (Map.Entry<String, String> table : tableDefinitions(databaseType).entrySet()) {
+            if (tableExists(connection, table.getKey())) {
+                LOG.info("Table %s already exists", table.getKey());
+            }
+            else {
+                LOG.info("Creating table %s", table.getKey());
+                handle.execute(table.getValue());
+            }
+        }
+        for (Index index : findMissingIndexes(handle)) {
+            createIndex(handle, index);
+        }
+    }
+
+    /**
+     * Creates a single table of {@link #tableDefinitions} and its indexes if
+     * it does not exist.
+     */
+    public static void initializeTable(Handle handle, DatabaseType databaseType, String table)
+    {
+        String definition = tableDefinitions(databaseType).get(table);
+        checkArgument(definition != null, "Unknown table: %s", table);
+        if (!tableExists(handle.getConnection(), table)) {
+            LOG.info("Creating table %s", table);
+            handle.execute(definition);
+            for (Index index : INDEXES) {
+                if (index.getTable().equals(table)) {
+                    createIndex(handle, index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the indexes in {@link #INDEXES} whose columns are not a prefix
+     * of any existing index, primary key or foreign key index. Indexes of
+     * tables that do not exist are not missing, as they are created with the
+     * table.
+     */
+    public static List<Index> findMissingIndexes(Handle handle)
+    {
+        Connection connection = handle.getConnection();
+        List<Index> missing = new ArrayList<>();
+        Map<String, List<List<String>>> existingIndexes = new HashMap<>();
+        for (Index index : INDEXES) {
+            if (!existingIndexes.containsKey(index.getTable()) && !tableExists(connection, index.getTable())) {
+                continue;
+            }
+            List<List<String>> tableIndexes = existingIndexes.computeIfAbsent(index.getTable(), table -> getIndexColumns(connection, table));
+            boolean covered = tableIndexes.stream()
+                    .anyMatch(columns -> columns.size() >= index.getColumns().size() &&
+                            columns.subList(0, index.getColumns().size()).equals(index.getColumns()));
+            if (!covered) {
+                missing.add(index);
+            }
+        }
+        return missing;
+    }
+
+    private static void createIndex(Handle handle, Index index)
+    {
+        LOG.info("Creating index %s", index);
+        handle.execute(format("CREATE INDEX %s ON %s (%s)", index.getName(), index.getTable(), String.join(", ", index.getColumns())));
+    }
+
+    private static boolean tableExists(Connection connection, String table)
+    {
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet tables = metaData.getTables(connection.getCatalog(), connection.getSchema(), identifier(metaData, table), new String[] {"TABLE"})) {
+                return tables.next();
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<List<String>> getIndexColumns(Connection connection, String table)
+    {
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            // index name -> column position -> column name
+            Map<String, Map<Integer, String>> indexes = new HashMap<>();
+            try (ResultSet resultSet = metaData.getIndexInfo(connection.getCatalog(), connection.getSchema(), identifier(metaData, table), false, true)) {
+                while (resultSet.next()) {
+                    String indexName = resultSet.getString("INDEX_NAME");
+                    String columnName = resultSet.getString("COLUMN_NAME");
+                    if (indexName == null || columnName == null) {
+                        // table statistics rows carry no index
+                        continue;
+                    }
+                    indexes.computeIfAbsent(indexName, name -> new TreeMap<>())
+                            .put((int) resultSet.getShort("ORDINAL_POSITION"), columnName.toLowerCase(ENGLISH));
+                }
+            }
+            List<List<String>> indexColumns = new ArrayList<>();
+            for (Map<Integer, String> columns : indexes.values()) {
+                indexColumns.add(ImmutableList.copyOf(columns.values()));
+            }
+            return indexColumns;
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String identifier(DatabaseMetaData metaData, String name)
+            throws SQLException
+    {
+        if (metaData.storesUpperCaseIdentifiers()) {
+            return name.toUpperCase(ENGLISH);
+        }
+        return name;
+    }
+
+    private static String generatedKey(DatabaseType databaseType)
+    {
+        switch (databaseType) {
+            case POSTGRESQL:
+                return "BIGSERIAL PRIMARY KEY";
+            case MYSQL:
+                return "BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY";
+            case ORACLE:
+                return "NUMBER(19) GENERATED BY DEFAULT ON NULL AS IDENTITY PRIMARY KEY";
+            case H2:
+                return "BIGINT AUTO_INCREMENT PRIMARY KEY";
+        }
+        throw new IllegalArgumentException("Unsupported database type: " + databaseType);
+    }
+
+    private static String bigint(DatabaseType databaseType)
+    {
+        return databaseType == DatabaseType.ORACLE ? "NUMBER(19)" : "BIGINT";
+    }
+
+    private static String varchar(DatabaseType databaseType, int length)
+    {
+        return (databaseType == DatabaseType.ORACLE ? "VARCHAR2(" : "VARCHAR(") + length + ")";
+    }
+
+    private static String blob(DatabaseType databaseType)
+    {
+        switch (databaseType) {
+            case POSTGRESQL:
+                return "BYTEA";
+            case MYSQL:
+                return "LONGBLOB";
+            case ORACLE:
+            case H2:
+                return "BLOB";
+        }
+        throw new IllegalArgumentException("Unsupported database type: " + databaseType);
+    }
+
+    private static String booleanType(DatabaseType databaseType)
+    {
+        return databaseType == DatabaseType.ORACLE ? "NUMBER(1)" : "BOOLEAN";
+    }
+
+    public static class Index
+    {
+        private final String name;
+        private final String table;
+        private final List<String> columns;
+        private final String reason;
+
+        public Index(String name, String table, List<String> columns, String reason)
+        {
+            this.name = requireNonNull(name, "name is null");
+            this.table = requireNonNull(table, "table is null");
+            this.columns = ImmutableList.copyOf(requireNonNull(columns, "columns is null"));
+            this.reason = requireNonNull(reason, "reason is null");
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getTable()
+        {
+            return table;
+        }
+
+        public List<String> getColumns()
+        {
+            return columns;
+        }
+
+        public String getReason()
+        {
+            return reason;
+        }
+
+        @Override
+        public String toString()
+        {
+            return format("%s on %s (%s)", name, table, String.join(", ", columns));
+        }
+    }
+}
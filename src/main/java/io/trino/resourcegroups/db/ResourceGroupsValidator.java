@@ -0,0 +1,662 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.trino.spi.resourcegroups.QueryType;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Validates a resource groups JSON file in one pass and reports every
+ * problem instead of only the first one. Besides the checks Trino runs when
+ * parsing the file, it reports unknown and duplicate properties, selectors
+ * of groups that do not exist, and variables a selector cannot provide.
+ * Every error carries the JSON pointer and the line and column of the value
+ * it refers to. Smile and CBOR files are validated in their JSON form.
+ */
+public final class ResourceGroupsValidator
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Set<String> ROOT_PROPERTIES = ImmutableSet.of("rootGroups", "selectors", "cpuQuotaPeriod", "exactMatchSelectors");
+    private static final Set<String> GROUP_PROPERTIES = ImmutableSet.of("name", "softMemoryLimit", "maxQueued", "softConcurrencyLimit", "hardConcurrencyLimit",
+            "maxRunning", "schedulingPolicy", "schedulingWeight", "subGroups", "jmxExport", "softCpuLimit", "hardCpuLimit");
+    private static final Set<String> SELECTOR_PROPERTIES = ImmutableSet.of("user", "userGroup", "source", "queryType", "clientTags", "selectorResourceEstimate", "group");
+    private static final Set<String> EXACT_MATCH_SELECTOR_PROPERTIES = ImmutableSet.of("source", "queryType", "group");
+    private static final Set<String> ESTIMATE_PROPERTIES = ImmutableSet.of("executionTime", "cpuTime", "peakMemory");
+    private static final Set<String> RANGE_PROPERTIES = ImmutableSet.of("min", "max");
+    private static final Set<String> SCHEDULING_POLICIES = ImmutableSet.of("fair", "weighted", "weighted_fair", "query_priority");
+    private static final Set<String> QUERY_TYPES = Arrays.stream(QueryType.values()).map(Enum::name).collect(toImmutableSet());
+    private static final Set<String> BUILT_IN_VARIABLES = ImmutableSet.of("USER", "SOURCE");
+    private static final Pattern PERCENT = Pattern.compile("(\\d{1,3}(\\.\\d+)?)%");
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([^}]*)}");
+    private static final Pattern VARIABLE_NAME = Pattern.compile("[a-zA-Z][a-zA-Z0-9]*");
+    private static final Pattern NAMED_GROUP = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+
+    private final Map<String, JsonLocation> locations = new HashMap<>();
+    private final List<Error> errors = new ArrayList<>();
+    private final Set<String> groupPaths = new HashSet<>();
+    private boolean hasCpuQuotaPeriod;
+
+    private ResourceGroupsValidator() {}
+
+    public static Report validate(Path path)
+    {
+        try {
+            byte[] content = Files.readAllBytes(path);
+            if (ManagerSpecBinary.Format.detect(content) != ManagerSpecBinary.Format.JSON) {
+                return new Report(path.toString(), validateBinary(content));
+            }
+            return new Report(path.toString(), validate(content));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static List<Error> validate(byte[] json)
+    {
+        ResourceGroupsValidator validator = new ResourceGroupsValidator();
+        JsonNode root;
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() == null) {
+                return ImmutableList.of(new Error("", 1, 1, "Document is empty"));
+            }
+            root = validator.read(parser, "");
+        }
+        catch (JsonProcessingException e) {
+            // nothing can be validated past a syntax error
+            JsonLocation location = e.getLocation();
+            return ImmutableList.of(new Error("", location.getLineNr(), location.getColumnNr(), e.getOriginalMessage()));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        validator.validateRoot(root);
+        return ImmutableList.copyOf(validator.errors);
+    }
+
+    /**
+     * Validates a Smile or CBOR file written by {@link ManagerSpecBinary}.
+     * Decoding builds the specs, and the JSON they convert to is validated
+     * like any other file, so errors have a pointer but no line or column.
+     */
+    static List<Error> validateBinary(byte[] content)
+    {
+        ManagerSpecBinary.Snapshot snapshot;
+        try {
+            snapshot = ManagerSpecBinary.read(content);
+        }
+        catch (IllegalArgumentException e) {
+            return ImmutableList.of(new Error("", 0, 0, e.getMessage()));
+        }
+        StringWriter json = new StringWriter();
+        try {
+            ManagerSpecToJson.write(snapshot.getManagerSpec(), snapshot.getExactMatchSelectors(), json);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return validate(json.toString().getBytes(UTF_8)).stream()
+                .map(error -> new Error(error.getPointer(), 0, 0, error.getMessage()))
+                .collect(toImmutableList());
+    }
+
+    private JsonNode read(JsonParser parser, String pointer)
+            throws IOException
+    {
+        locations.put(pointer, parser.getTokenLocation());
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                ObjectNode object = factory.objectNode();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    String fieldPointer = pointer + "/" + name.replace("~", "~0").replace("/", "~1");
+                    JsonLocation nameLocation = parser.getTokenLocation();
+                    parser.nextToken();
+                    JsonNode value = read(parser, fieldPointer);
+                    if (object.has(name)) {
+                        locations.put(fieldPointer, nameLocation);
+                        error(fieldPointer, "Duplicate property: %s", name);
+                    }
+                    object.set(name, value);
+                }
+                return object;
+            case START_ARRAY:
+                ArrayNode array = factory.arrayNode();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(read(parser, pointer + "/" + array.size()));
+                }
+                return array;
+            case VALUE_STRING:
+                return factory.textNode(parser.getText());
+            case VALUE_NUMBER_INT:
+                return factory.numberNode(parser.getBigIntegerValue());
+            case VALUE_NUMBER_FLOAT:
+                return factory.numberNode(parser.getDecimalValue());
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return factory.booleanNode(parser.getBooleanValue());
+            default:
+                return factory.nullNode();
+        }
+    }
+
+    private void validateRoot(JsonNode root)
+    {
+        if (!isObject(root, "")) {
+            return;
+        }
+        checkProperties(root, "", ROOT_PROPERTIES);
+        hasCpuQuotaPeriod = duration(root, "", "cpuQuotaPeriod").isPresent();
+
+        JsonNode rootGroups = root.get("rootGroups");
+        if (rootGroups == null || rootGroups.isNull()) {
+            error("", "Missing required property: rootGroups");
+        }
+        else if (isArray(rootGroups, "/rootGroups")) {
+            validateGroups(rootGroups, "/rootGroups", null, "root");
+        }
+
+        JsonNode selectors = root.get("selectors");
+        if (selectors == null || selectors.isNull()) {
+            error("", "Missing required property: selectors");
+        }
+        else if (isArray(selectors, "/selectors")) {
+            for (int i = 0; i < selectors.size(); i++) {
+                validateSelector(selectors.get(i), "/selectors/" + i);
+            }
+        }
+
+        JsonNode exactMatchSelectors = root.get("exactMatchSelectors");
+        if (exactMatchSelectors != null && !exactMatchSelectors.isNull() && isArray(exactMatchSelectors, "/exactMatchSelectors")) {
+            Set<String> keys = new HashSet<>();
+            for (int i = 0; i < exactMatchSelectors.size(); i++) {
+                validateExactMatchSelector(exactMatchSelectors.get(i), "/exactMatchSelectors/" + i, keys);
+            }
+        }
+    }
+
+    private void validateGroups(JsonNode groups, String pointer, String parentPath, String kind)
+    {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < groups.size(); i++) {
+            String groupPointer = pointer + "/" + i;
+            Optional<String> name = validateGroup(groups.get(i), groupPointer, parentPath);
+            if (name.isPresent() && !names.add(name.get())) {
+                error(groupPointer + "/name", "Duplicated %s group: %s", kind, name.get());
+            }
+        }
+    }
+
+    private Optional<String> validateGroup(JsonNode group, String pointer, String parentPath)
+    {
+        if (!isObject(group, pointer)) {
+            return Optional.empty();
+        }
+        checkProperties(group, pointer, GROUP_PROPERTIES);
+
+        Optional<String> name = string(group, pointer, "name");
+        if (group.get("name") == null) {
+            error(pointer, "Missing required property: name");
+        }
+        name.ifPresent(value -> {
+            if (value.contains(".")) {
+                error(pointer + "/name", "Resource group name cannot contain '.': %s", value);
+            }
+            checkVariables(value, pointer + "/name");
+        });
+        String path = name.map(value -> parentPath == null ? value : parentPath + "." + value).orElse(null);
+        if (path != null) {
+            groupPaths.add(path);
+        }
+
+        Optional<String> softMemoryLimit = string(group, pointer, "softMemoryLimit");
+        if (group.get("softMemoryLimit") == null) {
+            error(pointer, "Missing required property: softMemoryLimit");
+        }
+        softMemoryLimit.ifPresent(value -> {
+            Matcher matcher = PERCENT.matcher(value);
+            if (matcher.matches()) {
+                if (Double.parseDouble(matcher.group(1)) > 100) {
+                    error(pointer + "/softMemoryLimit", "softMemoryLimit cannot exceed 100%%: %s", value);
+                }
+            }
+            else {
+                try {
+                    DataSize.valueOf(value);
+                }
+                catch (IllegalArgumentException e) {
+                    error(pointer + "/softMemoryLimit", "softMemoryLimit is neither a percentage nor a data size: %s", value);
+                }
+            }
+        });
+
+        nonNegativeInteger(group, pointer, "maxQueued");
+        if (group.get("maxQueued") == null) {
+            error(pointer, "Missing required property: maxQueued");
+        }
+        Optional<Long> softConcurrencyLimit = nonNegativeInteger(group, pointer, "softConcurrencyLimit");
+        Optional<Long> hardConcurrencyLimit = nonNegativeInteger(group, pointer, "hardConcurrencyLimit");
+        Optional<Long> maxRunning = nonNegativeInteger(group, pointer, "maxRunning");
+        if (group.get("hardConcurrencyLimit") == null && group.get("maxRunning") == null) {
+            error(pointer, "Missing required property: hardConcurrencyLimit");
+        }
+        Optional<Long> hardLimit = hardConcurrencyLimit.or(() -> maxRunning);
+        if (softConcurrencyLimit.isPresent() && hardLimit.isPresent() && softConcurrencyLimit.get() > hardLimit.get()) {
+            error(pointer + "/softConcurrencyLimit", "hardConcurrencyLimit must be greater than or equal to softConcurrencyLimit");
+        }
+
+        string(group, pointer, "schedulingPolicy").ifPresent(value -> {
+            if (!SCHEDULING_POLICIES.contains(value.toLowerCase(ENGLISH))) {
+                error(pointer + "/schedulingPolicy", "Unknown scheduling policy %s, expected one of %s", value, SCHEDULING_POLICIES);
+            }
+        });
+        integer(group, pointer, "schedulingWeight").ifPresent(value -> {
+            if (value <= 0) {
+                error(pointer + "/schedulingWeight", "schedulingWeight must be positive");
+            }
+        });
+        JsonNode jmxExport = group.get("jmxExport");
+        if (jmxExport != null && !jmxExport.isNull() && !jmxExport.isBoolean()) {
+            error(pointer + "/jmxExport", "Expected a boolean");
+        }
+
+        Optional<Duration> softCpuLimit = duration(group, pointer, "softCpuLimit");
+        Optional<Duration> hardCpuLimit = duration(group, pointer, "hardCpuLimit");
+        if ((softCpuLimit.isPresent() || hardCpuLimit.isPresent()) && !hasCpuQuotaPeriod) {
+            error(pointer, "cpuQuotaPeriod must be specified to use cpu limits on group: %s", path);
+        }
+        if (softCpuLimit.isPresent()) {
+            if (hardCpuLimit.isEmpty()) {
+                error(pointer + "/softCpuLimit", "Must specify hard CPU limit in addition to soft limit");
+            }
+            else if (softCpuLimit.get().compareTo(hardCpuLimit.get()) > 0) {
+                error(pointer + "/softCpuLimit", "Soft CPU limit cannot be greater than hard CPU limit");
+            }
+        }
+
+        JsonNode subGroups = group.get("subGroups");
+        if (subGroups != null && !subGroups.isNull() && isArray(subGroups, pointer + "/subGroups")) {
+            // without a name, the paths of sub groups are unknown
+            validateGroups(subGroups, pointer + "/subGroups", path == null ? "?" : path, "sub");
+        }
+        return name;
+    }
+
+    private void validateSelector(JsonNode selector, String pointer)
+    {
+        if (!isObject(selector, pointer)) {
+            return;
+        }
+        checkProperties(selector, pointer, SELECTOR_PROPERTIES);
+
+        Set<String> variables = new HashSet<>(BUILT_IN_VARIABLES);
+        for (String property : ImmutableList.of("user", "userGroup", "source")) {
+            string(selector, pointer, property).ifPresent(regex -> {
+                try {
+                    Pattern.compile(regex);
+                    Matcher matcher = NAMED_GROUP.matcher(regex);
+                    while (matcher.find()) {
+                        variables.add(matcher.group(1));
+                    }
+                }
+                catch (PatternSyntaxException e) {
+                    error(pointer + "/" + property, "Invalid regular expression: %s", e.getDescription());
+                }
+            });
+        }
+        string(selector, pointer, "queryType").ifPresent(queryType -> {
+            if (!QUERY_TYPES.contains(queryType.toUpperCase(ENGLISH))) {
+                error(pointer + "/queryType", "Unknown query type %s, expected one of %s", queryType, QUERY_TYPES);
+            }
+        });
+        JsonNode clientTags = selector.get("clientTags");
+        if (clientTags != null && !clientTags.isNull() && isArray(clientTags, pointer + "/clientTags")) {
+            for (int i = 0; i < clientTags.size(); i++) {
+                if (!clientTags.get(i).isTextual()) {
+                    error(pointer + "/clientTags/" + i, "Expected a string");
+                }
+            }
+        }
+        JsonNode estimate = selector.get("selectorResourceEstimate");
+        if (estimate != null && !estimate.isNull() && isObject(estimate, pointer + "/selectorResourceEstimate")) {
+            validateResourceEstimate(estimate, pointer + "/selectorResourceEstimate");
+        }
+
+        Optional<String> group = string(selector, pointer, "group");
+        if (selector.get("group") == null) {
+            error(pointer, "Missing required property: group");
+        }
+        group.ifPresent(value -> {
+            for (String variable : checkVariables(value, pointer + "/group")) {
+                if (!variables.contains(variable)) {
+                    error(pointer + "/group", "Variable %s is not USER, SOURCE or a named group of the selector's regular expressions", variable);
+                }
+            }
+            if (!groupPaths.contains(value)) {
+                error(pointer + "/group", "Selector refers to nonexistent group: %s", value);
+            }
+        });
+    }
+
+    private void validateExactMatchSelector(JsonNode selector, String pointer, Set<String> keys)
+    {
+        if (!isObject(selector, pointer)) {
+            return;
+        }
+        checkProperties(selector, pointer, EXACT_MATCH_SELECTOR_PROPERTIES);
+
+        Optional<String> source = string(selector, pointer, "source");
+        if (selector.get("source") == null) {
+            error(pointer, "Missing required property: source");
+        }
+        Optional<String> queryType = string(selector, pointer, "queryType");
+        queryType.ifPresent(value -> {
+            if (!QUERY_TYPES.contains(value.toUpperCase(ENGLISH))) {
+                error(pointer + "/queryType", "Unknown query type %s, expected one of %s", value, QUERY_TYPES);
+            }
+        });
+        source.ifPresent(value -> {
+            Set<String> queryTypes = queryType.map(type -> (Set<String>) ImmutableSet.of(type.toUpperCase(ENGLISH))).orElse(QUERY_TYPES);
+            if (queryTypes.stream().anyMatch(type -> !keys.add(value + '\0' + type))) {
+                error(pointer, "Duplicate exact match selector for source %s", value);
+            }
+        });
+
+        Optional<String> group = string(selector, pointer, "group");
+        if (selector.get("group") == null) {
+            error(pointer, "Missing required property: group");
+        }
+        group.ifPresent(value -> {
+            if (value.contains("${")) {
+                error(pointer + "/group", "Group of an exact match selector cannot contain variables: %s", value);
+            }
+            else if (groupPaths.stream().noneMatch(path -> matchesTemplate(path, value))) {
+                error(pointer + "/group", "Exact match selector refers to nonexistent group: %s", value);
+            }
+        });
+    }
+
+    /**
+     * Returns whether a group of the given name is an instance of the group
+     * template, whose variables may match any segment.
+     */
+    private static boolean matchesTemplate(String template, String name)
+    {
+        StringBuilder regex = new StringBuilder();
+        Matcher matcher = VARIABLE.matcher(template);
+        int end = 0;
+        while (matcher.find()) {
+            regex.append(Pattern.quote(template.substring(end, matcher.start()))).append("[^.]+");
+            end = matcher.end();
+        }
+        regex.append(Pattern.quote(template.substring(end)));
+        return name.matches(regex.toString());
+    }
+
+    private void validateResourceEstimate(JsonNode estimate, String pointer)
+    {
+        checkProperties(estimate, pointer, ESTIMATE_PROPERTIES);
+        for (String property : ESTIMATE_PROPERTIES) {
+            JsonNode range = estimate.get(property);
+            String rangePointer = pointer + "/" + property;
+            if (range == null || range.isNull() || !isObject(range, rangePointer)) {
+                continue;
+            }
+            checkProperties(range, rangePointer, RANGE_PROPERTIES);
+            for (String bound : RANGE_PROPERTIES) {
+                string(range, rangePointer, bound).ifPresent(value -> {
+                    try {
+                        if (property.equals("peakMemory")) {
+                            DataSize.valueOf(value);
+                        }
+                        else {
+                            Duration.valueOf(value);
+                        }
+                    }
+                    catch (IllegalArgumentException e) {
+                        error(rangePointer + "/" + bound, "Invalid %s: %s", property.equals("peakMemory") ? "data size" : "duration", value);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Reports malformed variables of a name template and returns the names of
+     * the well formed ones.
+     */
+    private List<String> checkVariables(String template, String pointer)
+    {
+        List<String> names = new ArrayList<>();
+        Matcher matcher = VARIABLE.matcher(template);
+        while (matcher.find()) {
+            if (VARIABLE_NAME.matcher(matcher.group(1)).matches()) {
+                names.add(matcher.group(1));
+            }
+            else {
+                error(pointer, "Invalid variable name: %s", matcher.group(1));
+            }
+        }
+        if (VARIABLE.matcher(template).replaceAll("").contains("${")) {
+            error(pointer, "Unterminated variable in: %s", template);
+        }
+        return names;
+    }
+
+    private void checkProperties(JsonNode node, String pointer, Set<String> known)
+    {
+        Iterator<String> fieldNames = node.fieldNames();
+        while (fieldNames.hasNext()) {
+            String fieldName = fieldNames.next();
+            if (!known.contains(fieldName)) {
+                error(pointer + "/" + fieldName.replace("~", "~0").replace("/", "~1"), "Unknown property: %s", fieldName);
+            }
+        }
+    }
+
+    private Optional<String> string(JsonNode node, String pointer, String property)
+    {
+        JsonNode value = node.get(property);
+        if (value == null || value.isNull()) {
+            return Optional.empty();
+        }
+        if (!value.isTextual()) {
+            error(pointer + "/" + property, "Expected a string");
+            return Optional.empty();
+        }
+        return Optional.of(value.textValue());
+    }
+
+    private Optional<Long> integer(JsonNode node, String pointer, String property)
+    {
+        JsonNode value = node.get(property);
+        if (value == null || value.isNull()) {
+            return Optional.empty();
+        }
+        if (!value.isIntegralNumber() || !value.canConvertToInt()) {
+            error(pointer + "/" + property, "Expected an integer");
+            return Optional.empty();
+        }
+        return Optional.of(value.longValue());
+    }
+
+    private Optional<Long> nonNegativeInteger(JsonNode node, String pointer, String property)
+    {
+        Optional<Long> value = integer(node, pointer, property);
+        if (value.isPresent() && value.get() < 0) {
+            error(pointer + "/" + property, "%s is negative", property);
+        }
+        return value;
+    }
+
+    private Optional<Duration> duration(JsonNode node, String pointer, String property)
+    {
+        return string(node, pointer, property).flatMap(value -> {
+            try {
+                return Optional.of(Duration.valueOf(value));
+            }
+            catch (IllegalArgumentException e) {
+                error(pointer + "/" + property, "Invalid duration: %s", value);
+                return Optional.empty();
+            }
+        });
+    }
+
+    private boolean isObject(JsonNode node, String pointer)
+    {
+        if (!node.isObject()) {
+            error(pointer, "Expected an object");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isArray(JsonNode node, String pointer)
+    {
+        if (!node.isArray()) {
+            error(pointer, "Expected an array");
+            return false;
+        }
+        return true;
+    }
+
+    private void error(String pointer, String message, Object... arguments)
+    {
+        JsonLocation location = locations.get(pointer);
+        errors.add(new Error(
+                pointer,
+                location == null ? 0 : location.getLineNr(),
+                location == null ? 0 : location.getColumnNr(),
+                format(message, arguments)));
+    }
+
+    public static class Error
+    {
+        private final String pointer;
+        private final int line;
+        private final int column;
+        private final String message;
+
+        public Error(String pointer, int line, int column, String message)
+        {
+            this.pointer = requireNonNull(pointer, "pointer is null");
+            this.line = line;
+            this.column = column;
+            this.message = requireNonNull(message, "message is null");
+        }
+
+        /**
+         * JSON pointer (RFC 6901) of the value the error refers to, which is
+         * empty for the whole document.
+         */
+        @JsonProperty
+        public String getPointer()
+        {
+            return pointer;
+        }
+
+        @JsonProperty
+        public int getLine()
+        {
+            return line;
+        }
+
+        @JsonProperty
+        public int getColumn()
+        {
+            return column;
+        }
+
+        @JsonProperty
+        public String getMessage()
+        {
+            return message;
+        }
+
+        @Override
+        public String toString()
+        {
+            return format("%s:%s %s: %s", line, column, pointer.isEmpty() ? "/" : pointer, message);
+        }
+    }
+
+    public static class Report
+    {
+        private final String file;
+        private final List<Error> errors;
+
+        public Report(String file, List<Error> errors)
+        {
+            this.file = requireNonNull(file, "file is null");
+            this.errors = ImmutableList.copyOf(requireNonNull(errors, "errors is null"));
+        }
+
+        @JsonProperty
+        public String getFile()
+        {
+            return file;
+        }
+
+        @JsonProperty
+        public boolean isValid()
+        {
+            return errors.isEmpty();
+        }
+
+        @JsonProperty
+        public List<Error> getErrors()
+        {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Retries operations that failed with a transient database error, such as a
+ * reset connection, a failover or a deadlock, with exponential backoff.
+ * Each retry waits between half and all of the current delay, which doubles
+ * after every attempt up to the maximum delay.
+ */
+public class RetryPolicy
+{
+    private static final Logger LOG = Logger.get(RetryPolicy.class);
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, new Duration(1, SECONDS), new Duration(1, MINUTES));
+
+    private final int maxAttempts;
+    private final Duration initialDelay;
+    private final Duration maxDelay;
+
+    public RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay)
+    {
+        checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = requireNonNull(initialDelay, "initialDelay is null");
+        this.maxDelay = requireNonNull(maxDelay, "maxDelay is null");
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public void run(String operation, Runnable task)
+    {
+        run(operation, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public <T> T run(String operation, Supplier<T> task)
+    {
+        long delayMillis = initialDelay.toMillis();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return task.get();
+            }
+            catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !isTransient(e)) {
+                    throw e;
+                }
+                long sleepMillis = delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+                LOG.warn("Attempt %s of %s to %s failed, retrying in %s: %s", attempt, maxAttempts, operation, new Duration(sleepMillis, MILLISECONDS), e.getMessage());
+                try {
+                    Thread.sleep(sleepMillis);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    e.addSuppressed(interrupted);
+                    throw e;
+                }
+                delayMillis = Math.min(delayMillis * 2, maxDelay.toMillis());
+            }
+        }
+    }
+
+    /**
+     * Connection failures (SQL state class 08), transaction rollbacks such as
+     * serialization failures and deadlocks (class 40), and errors the driver
+     * reports as transient or recoverable are worth retrying.
+     */
+    public static boolean isTransient(Throwable throwable)
+    {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && (sqlState.startsWith("08") || sqlState.startsWith("40"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
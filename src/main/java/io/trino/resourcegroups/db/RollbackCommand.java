@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.inject.Injector;
+import io.airlift.log.Logger;
+import picocli.CommandLine;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+import static io.trino.resourcegroups.db.ResourceGroupsClient.getFutureValue;
+
+@CommandLine.Command(
+        name = "rollback",
+        usageHelpAutoWidth = true
+)
+public class RollbackCommand
+        implements Runnable
+{
+    private static final Logger LOG = Logger.get(RollbackCommand.class);
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
+    public boolean usageHelpRequested;
+
+    @CommandLine.Option(names = "--db-config", required = true, description = "Properties file with resource groups database config")
+    public String configFilename;
+
+    @CommandLine.Option(names = "--environment", required = true, description = "Environment to roll back")
+    public String environment;
+
+    @CommandLine.ArgGroup(exclusive = true, multiplicity = "1")
+    public Action action;
+
+    public static class Action
+    {
+        @CommandLine.Option(names = "--to", required = true, description = "Version from the history of the environment to restore")
+        public Long version;
+
+        @CommandLine.Option(names = "--list", required = true, description = "List the versions in the history of the environment, newest first")
+        public boolean list;
+    }
+
+    private RollbackCommand() {}
+
+    @Override
+    public void run()
+    {
+        Injector injector = CommandInjectors.acquire(configFilename);
+        try {
+            injector.injectMembers(this);
+            ResourceGroupsClient client = injector.getInstance(ResourceGroupsClient.class);
+            if (action.list) {
+                List<ConfigHistoryEntry> history = getFutureValue(client.history(environment));
+                PrintWriter out = spec.commandLine().getOut();
+                history.forEach(out::println);
+                out.flush();
+                LOG.info("Found %d versions of environment %s", history.size(), environment);
+                return;
+            }
+            ManagerSpecPatch.Result result = getFutureValue(client.rollback(environment, action.version));
+            if (result.isEmpty()) {
+                LOG.info("Environment %s already matches version %s", environment, action.version);
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            CommandInjectors.release(injector);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ResourceGroupNameTemplate;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Routes queries with a list of selectors the way Trino's static selectors
+ * do: the first selector whose user, user group, source, client tags and
+ * query type conditions all match wins, and variables in the group template
+ * are expanded with USER, SOURCE and the named groups of the user and source
+ * regexes. Selector resource estimates are not known from query events and
+ * are ignored.
+ */
+public class SelectorMatcher
+{
+    private static final Pattern NAMED_GROUP = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([a-zA-Z][a-zA-Z0-9]*)}");
+
+    private final List<SelectorSpec> selectors;
+    private final List<List<String>> userRegexGroups;
+    private final List<List<String>> sourceRegexGroups;
+    private final List<List<String>> groupTemplates;
+
+    public SelectorMatcher(List<SelectorSpec> selectors)
+    {
+        this.selectors = ImmutableList.copyOf(requireNonNull(selectors, "selectors is null"));
+        this.userRegexGroups = this.selectors.stream()
+                .map(selector -> namedGroups(selector.getUserRegex()))
+                .collect(toImmutableList());
+        this.sourceRegexGroups = this.selectors.stream()
+                .map(selector -> namedGroups(selector.getSourceRegex()))
+                .collect(toImmutableList());
+        this.groupTemplates = this.selectors.stream()
+                .map(selector -> selector.getGroup().getSegments().stream()
+                        .map(ResourceGroupNameTemplate::toString)
+                        .collect(toImmutableList()))
+                .collect(toImmutableList());
+    }
+
+    public Optional<Route> route(String user, List<String> userGroups, Optional<String> source, List<String> clientTags, Optional<String> queryType)
+    {
+        String sourceValue = source.orElse("");
+        for (int i = 0; i < selectors.size(); i++) {
+            SelectorSpec selector = selectors.get(i);
+            Map<String, String> variables = new HashMap<>();
+
+            if (selector.getUserRegex().isPresent()) {
+                Matcher matcher = selector.getUserRegex().get().matcher(user);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                addNamedGroups(matcher, userRegexGroups.get(i), variables);
+            }
+            if (selector.getUserGroupRegex().isPresent()) {
+                Pattern userGroupRegex = selector.getUserGroupRegex().get();
+                if (userGroups.stream().noneMatch(group -> userGroupRegex.matcher(group).matches())) {
+                    continue;
+                }
+            }
+            if (selector.getSourceRegex().isPresent()) {
+                Matcher matcher = selector.getSourceRegex().get().matcher(sourceValue);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                addNamedGroups(matcher, sourceRegexGroups.get(i), variables);
+            }
+            if (selector.getClientTags().isPresent() && !clientTags.containsAll(selector.getClientTags().get())) {
+                continue;
+            }
+            if (selector.getQueryType().isPresent() && !selector.getQueryType().get().equalsIgnoreCase(queryType.orElse(""))) {
+                continue;
+            }
+
+            variables.put("USER", user);
+            variables.put("SOURCE", sourceValue);
+            List<String> template = groupTemplates.get(i);
+            return Optional.of(new Route(i, template, template.stream()
+                    .map(segment -> expand(segment, variables))
+                    .collect(toImmutableList())));
+        }
+        return Optional.empty();
+    }
+
+    private static List<String> namedGroups(Optional<Pattern> pattern)
+    {
+        if (pattern.isEmpty()) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<String> groups = ImmutableList.builder();
+        Matcher matcher = NAMED_GROUP.matcher(pattern.get().pattern());
+        while (matcher.find()) {
+            groups.add(matcher.group(1));
+        }
+        return groups.build();
+    }
+
+    private static void addNamedGroups(Matcher matcher, List<String> names, Map<String, String> variables)
+    {
+        for (String name : names) {
+            String value = matcher.group(name);
+            if (value != null) {
+                variables.put(name, value);
+            }
+        }
+    }
+
+    private static String expand(String segment, Map<String, String> variables)
+    {
+        if (segment.indexOf('$') < 0) {
+            return segment;
+        }
+        Matcher matcher = VARIABLE.matcher(segment);
+        StringBuilder expanded = new StringBuilder();
+        while (matcher.find()) {
+            matcher.appendReplacement(expanded, Matcher.quoteReplacement(variables.getOrDefault(matcher.group(1), "")));
+        }
+        matcher.appendTail(expanded);
+        return expanded.toString();
+    }
+
+    public static class Route
+    {
+        private final int selector;
+        private final List<String> template;
+        private final List<String> group;
+
+        public Route(int selector, List<String> template, List<String> group)
+        {
+            this.selector = selector;
+            this.template = requireNonNull(template, "template is null");
+            this.group = requireNonNull(group, "group is null");
+        }
+
+        /**
+         * Position of the matching selector.
+         */
+        public int getSelector()
+        {
+            return selector;
+        }
+
+        /**
+         * Segments of the group template, as named in the configuration.
+         */
+        public List<String> getTemplate()
+        {
+            return template;
+        }
+
+        /**
+         * Segments of the group the query runs in, with variables expanded.
+         */
+        public List<String> getGroup()
+        {
+            return group;
+        }
+    }
+}
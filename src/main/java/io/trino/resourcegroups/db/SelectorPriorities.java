@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sparse selector priorities. Selectors are matched in descending priority
+ * order, and a full apply spaces their priorities {@link #STEP} apart, so
+ * that selectors added later by incremental applies fit between existing
+ * ones without renumbering them.
+ * <p>
+ * New selectors take evenly spaced priorities in the gap between their
+ * neighbours, which touches no other selector. Only when the gap is too
+ * small, the window of selectors around them is doubled until it leaves at
+ * least one free priority between every two of its selectors, and the
+ * selectors in the window are spread out evenly, as in list labeling for
+ * order maintenance. A window that reaches the highest or lowest selector is
+ * spread {@link #STEP} apart again, so gaps stay wide and rebalancing rare.
+ */
+public final class SelectorPriorities
+{
+    // a million selectors spaced this far apart still leave room for 2^43 more
+    public static final long STEP = 1L << 20;
+    public static final long UNASSIGNED = Long.MIN_VALUE;
+
+    private SelectorPriorities() {}
+
+    /**
+     * Priority of the selector at {@code position} of {@code count} selectors
+     * written by a full apply.
+     */
+    public static long initial(int position, int count)
+    {
+        checkArgument(position >= 0 && position < count, "position %s is not below %s", position, count);
+        return (count - position) * STEP;
+    }
+
+    /**
+     * Assigns priorities to the {@link #UNASSIGNED} entries of the priorities
+     * of selectors in matching order, highest first, changing as few other
+     * entries as possible. Assigned entries must not increase.
+     *
+     * @return the number of entries that were assigned before and changed
+     */
+    public static int allocate(long[] priorities)
+    {
+        int changed = 0;
+        int start = 0;
+        while (start < priorities.length) {
+            if (priorities[start] != UNASSIGNED) {
+                start++;
+                continue;
+            }
+            int end = start;
+            while (end + 1 < priorities.length && priorities[end + 1] == UNASSIGNED) {
+                end++;
+            }
+            changed += allocateRun(priorities, start, end);
+            start = end + 1;
+        }
+        return changed;
+    }
+
+    private static int allocateRun(long[] priorities, int runStart, int runEnd)
+    {
+        int start = runStart;
+        int end = runEnd;
+        boolean expanded = false;
+        while (true) {
+            // everything above the window is assigned, so is the entry below it
+            boolean top = start == 0;
+            boolean bottom = end == priorities.length - 1;
+            int count = end - start + 1;
+            if (top || bottom) {
+                return assign(priorities, start, end, top ? Long.MAX_VALUE : priorities[start - 1], bottom ? Long.MIN_VALUE : priorities[end + 1], STEP);
+            }
+            long gap = (priorities[start - 1] - priorities[end + 1]) / (count + 1);
+            // the run only needs distinct priorities, a wider window also room for more
+            if (gap >= (expanded ? 2 : 1)) {
+                return assign(priorities, start, end, priorities[start - 1], priorities[end + 1], gap);
+            }
+            expanded = true;
+            start = Math.max(0, start - count);
+            end = Math.min(priorities.length - 1, end + count);
+            while (end + 1 < priorities.length && priorities[end + 1] == UNASSIGNED) {
+                end++;
+            }
+        }
+    }
+
+    private static int assign(long[] priorities, int start, int end, long above, long below, long gap)
+    {
+        int count = end - start + 1;
+        int changed = 0;
+        for (int i = start; i <= end; i++) {
+            long priority;
+            if (below != Long.MIN_VALUE) {
+                priority = below + gap * (end - i + 1);
+            }
+            else if (above != Long.MAX_VALUE) {
+                priority = above - gap * (i - start + 1);
+            }
+            else {
+                priority = gap * (count - (i - start));
+            }
+            if (priorities[i] != UNASSIGNED && priorities[i] != priority) {
+                changed++;
+            }
+            priorities[i] = priority;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.trino.plugin.resourcegroups.SelectorSpec;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A single row of the selectors table, pointing at an already allocated
+ * resource group id.
+ */
+public class SelectorRow
+{
+    private final long resourceGroupId;
+    private final long priority;
+    private final String userRegex;
+    private final String userGroupRegex;
+    private final String sourceRegex;
+    private final String queryType;
+    private final String clientTags;
+    private final String selectorResourceEstimate;
+
+    public SelectorRow(long resourceGroupId, long priority, SelectorSpec selectorSpec)
+    {
+        requireNonNull(selectorSpec, "selectorSpec is null");
+        this.resourceGroupId = resourceGroupId;
+        this.priority = priority;
+        this.userRegex = getUserRegex(selectorSpec);
+        this.userGroupRegex = getUserGroupRegex(selectorSpec);
+        this.sourceRegex = getSourceRegex(selectorSpec);
+        this.queryType = selectorSpec.getQueryType().orElse(null);
+        this.clientTags = getClientTags(selectorSpec);
+        this.selectorResourceEstimate = null;
+    }
+
+    public SelectorRow(
+            long resourceGroupId,
+            long priority,
+            String userRegex,
+            String userGroupRegex,
+            String sourceRegex,
+            String queryType,
+            String clientTags,
+            String selectorResourceEstimate)
+    {
+        this.resourceGroupId = resourceGroupId;
+        this.priority = priority;
+        this.userRegex = userRegex;
+        this.userGroupRegex = userGroupRegex;
+        this.sourceRegex = sourceRegex;
+        this.queryType = queryType;
+        this.clientTags = clientTags;
+        this.selectorResourceEstimate = selectorResourceEstimate;
+    }
+
+    /**
+     * The same row pointing at another resource group id, as when it is
+     * copied to another database.
+     */
+    public SelectorRow withResourceGroupId(long resourceGroupId)
+    {
+        return new SelectorRow(resourceGroupId, priority, userRegex, userGroupRegex, sourceRegex, queryType, clientTags, selectorResourceEstimate);
+    }
+
+    public long getResourceGroupId()
+    {
+        return resourceGroupId;
+    }
+
+    public long getPriority()
+    {
+        return priority;
+    }
+
+    public String getUserRegex()
+    {
+        return userRegex;
+    }
+
+    public String getUserGroupRegex()
+    {
+        return userGroupRegex;
+    }
+
+    public String getSourceRegex()
+    {
+        return sourceRegex;
+    }
+
+    public String getQueryType()
+    {
+        return queryType;
+    }
+
+    public String getClientTags()
+    {
+        return clientTags;
+    }
+
+    public String getSelectorResourceEstimate()
+    {
+        return selectorResourceEstimate;
+    }
+
+    static String getUserRegex(SelectorSpec selectorSpec)
+    {
+        if (selectorSpec.getUserRegex().isPresent()) {
+            return selectorSpec.getUserRegex().get().toString();
+        }
+        return null;
+    }
+
+    static String getUserGroupRegex(SelectorSpec selectorSpec)
+    {
+        if (selectorSpec.getUserGroupRegex().isPresent()) {
+            return selectorSpec.getUserGroupRegex().get().toString();
+        }
+        return null;
+    }
+
+    static String getSourceRegex(SelectorSpec selectorSpec)
+    {
+        if (selectorSpec.getSourceRegex().isPresent()) {
+            return selectorSpec.getSourceRegex().get().toString();
+        }
+        return null;
+    }
+
+    static String getClientTags(SelectorSpec selectorSpec)
+    {
+        if (selectorSpec.getClientTags().isPresent()) {
+            if (selectorSpec.getClientTags().get().isEmpty()) {
+                return null;
+            }
+            List<String> clientTags = selectorSpec.getClientTags().get();
+            String tagsList = String.join(
+                    ",",
+                    clientTags
+                            .stream()
+                            .map(clientTag -> ("\"" + clientTag + "\""))
+                            .collect(Collectors.toList())
+            );
+            return "[" + tagsList + "]";
+        }
+        return null;
+    }
+
+    /**
+     * Maps the {@link BulkLoader#SELECTOR_COLUMNS} of a row as stored.
+     */
+    public static class Mapper
+            implements RowMapper<SelectorRow>
+    {
+        @Override
+        public SelectorRow map(ResultSet resultSet, StatementContext context)
+                throws SQLException
+        {
+            return new SelectorRow(
+                    resultSet.getLong("resource_group_id"),
+                    resultSet.getLong("priority"),
+                    resultSet.getString("user_regex"),
+                    resultSet.getString("user_group_regex"),
+                    resultSet.getString("source_regex"),
+                    resultSet.getString("query_type"),
+                    resultSet.getString("client_tags"),
+                    resultSet.getString("selector_resource_estimate"));
+        }
+    }
+}
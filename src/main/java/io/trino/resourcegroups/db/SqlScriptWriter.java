@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.stream.LongStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes the statements that replace the resource groups of an environment
+ * as a SQL script, to be reviewed and run with {@code psql}, {@code mysql},
+ * {@code sqlplus} or H2's {@code RunScript} instead of by the CLI. Resource group ids are assigned
+ * consecutively from a given first id, parent links and selectors are
+ * resolved locally, and rows are packed into multi-row inserts. Rows are
+ * written to the writer one at a time, so the script is never held in
+ * memory as a whole.
+ */
+public class SqlScriptWriter
+{
+    private static final int ROWS_PER_STATEMENT = 1000;
+    // Oracle parses INSERT ALL statements slowly as they grow
+    private static final int ORACLE_ROWS_PER_STATEMENT = 100;
+
+    private final DatabaseType databaseType;
+    private final Writer writer;
+
+    public SqlScriptWriter(DatabaseType databaseType, Writer writer)
+    {
+        this.databaseType = requireNonNull(databaseType, "databaseType is null");
+        this.writer = requireNonNull(writer, "writer is null");
+    }
+
+    public void write(ManagerSpec managerSpec, String environment, long firstResourceGroupId)
+            throws IOException
+    {
+        write(managerSpec, Optional.empty(), environment, firstResourceGroupId);
+    }
+
+    /**
+     * Like {@link #write(ManagerSpec, String, long)}, and if exact match
+     * selectors are given, also replaces those of the environment.
+     */
+    public void write(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, String environment, long firstResourceGroupId)
+            throws IOException
+    {
+        checkArgument(firstResourceGroupId > 0, "firstResourceGroupId must be positive");
+        int resourceGroupCount = ManagerSpecRows.countResourceGroups(managerSpec.getRootGroups());
+        long[] resourceGroupIds = LongStream.range(firstResourceGroupId, firstResourceGroupId + resourceGroupCount).toArray();
+        ManagerSpecRows rows = ManagerSpecRows.flatten(managerSpec, environment, resourceGroupIds);
+
+        writer.write("-- Replaces the resource groups of environment " + environment + "\n");
+        writer.write("-- Resource group ids " + firstResourceGroupId + " to " + (firstResourceGroupId + resourceGroupCount - 1) + " must be unused\n");
+        switch (databaseType) {
+            case POSTGRESQL:
+            case H2:
+                writer.write("BEGIN;\n");
+                break;
+            case MYSQL:
+                writer.write("START TRANSACTION;\n");
+                break;
+            default:
+                // Oracle starts a transaction with the first statement
+        }
+        writer.write("DELETE FROM selectors WHERE resource_group_id IN (SELECT resource_group_id FROM resource_groups WHERE environment = " + string(environment) + ");\n");
+        writer.write("DELETE FROM resource_groups WHERE environment = " + string(environment) + ";\n");
+        insert("resource_groups", BulkLoader.RESOURCE_GROUP_COLUMNS, rows.getResourceGroups(), this::appendResourceGroup);
+        insert("selectors", BulkLoader.SELECTOR_COLUMNS, rows.getSelectors(), this::appendSelector);
+        if (exactMatchSelectors.isPresent()) {
+            writer.write("DELETE FROM exact_match_source_selectors WHERE environment = " + string(environment) + ";\n");
+            ImmutableList.Builder<List<String>> exactMatchRows = ImmutableList.builder();
+            for (ExactMatchSelectorSpec exactMatchSelector : exactMatchSelectors.get()) {
+                for (String queryType : exactMatchSelector.getQueryTypes()) {
+                    exactMatchRows.add(ImmutableList.of(environment, exactMatchSelector.getSource(), queryType, exactMatchSelector.getResourceGroupId()));
+                }
+            }
+            insert("exact_match_source_selectors", "environment, source, query_type, resource_group_id, update_time", exactMatchRows.build(), this::appendExactMatchSelector);
+        }
+        if (managerSpec.getCpuQuotaPeriod().isPresent()) {
+            String cpuQuotaPeriod = string(managerSpec.getCpuQuotaPeriod().get().toString());
+            writer.write("UPDATE resource_groups_global_properties SET value = " + cpuQuotaPeriod + " WHERE name = 'cpu_quota_period';\n");
+            writer.write("INSERT INTO resource_groups_global_properties (name, value) SELECT 'cpu_quota_period', " + cpuQuotaPeriod +
+                    (databaseType == DatabaseType.POSTGRESQL ? "" : " FROM DUAL") +
+                    " WHERE NOT EXISTS (SELECT 1 FROM resource_groups_global_properties WHERE name = 'cpu_quota_period');\n");
+        }
+        // explicit ids do not advance generated keys, so later inserts without an id must start above them;
+        // H2 and MySQL move their counters past explicit ids by themselves
+        if (databaseType == DatabaseType.POSTGRESQL) {
+            writer.write("SELECT setval(pg_get_serial_sequence('resource_groups', 'resource_group_id'), " +
+                    "GREATEST(MAX(resource_group_id), nextval(pg_get_serial_sequence('resource_groups', 'resource_group_id')))) FROM resource_groups;\n");
+        }
+        writer.write("COMMIT;\n");
+        if (databaseType == DatabaseType.ORACLE) {
+            // DDL commits implicitly, so it must come after the transaction
+            writer.write("ALTER TABLE resource_groups MODIFY resource_group_id GENERATED BY DEFAULT ON NULL AS IDENTITY (START WITH LIMIT VALUE);\n");
+        }
+        writer.flush();
+    }
+
+    private <T> void insert(String table, String columns, List<T> rows, BiConsumer<StringBuilder, T> formatter)
+            throws IOException
+    {
+        int rowsPerStatement = databaseType == DatabaseType.ORACLE ? ORACLE_ROWS_PER_STATEMENT : ROWS_PER_STATEMENT;
+        StringBuilder buffer = new StringBuilder();
+        for (List<T> partition : Lists.partition(rows, rowsPerStatement)) {
+            if (databaseType == DatabaseType.ORACLE) {
+                writer.write("INSERT ALL\n");
+                for (T row : partition) {
+                    buffer.setLength(0);
+                    buffer.append("  INTO ").append(table).append(" (").append(columns).append(") VALUES (");
+                    formatter.accept(buffer, row);
+                    writer.append(buffer).append(")\n");
+                }
+                writer.write("SELECT 1 FROM DUAL;\n");
+            }
+            else {
+                writer.write("INSERT INTO " + table + " (" + columns + ") VALUES\n");
+                for (int i = 0; i < partition.size(); i++) {
+                    buffer.setLength(0);
+                    buffer.append('(');
+                    formatter.accept(buffer, partition.get(i));
+                    buffer.append(i == partition.size() - 1 ? ");\n" : "),\n");
+                    writer.append(buffer);
+                }
+            }
+        }
+    }
+
+    private void appendResourceGroup(StringBuilder buffer, ResourceGroupRow row)
+    {
+        buffer.append(row.getId()).append(", ")
+                .append(string(row.getName())).append(", ")
+                .append(string(row.getSoftMemoryLimit())).append(", ")
+                .append(row.getMaxQueued()).append(", ")
+                .append(row.getSoftConcurrencyLimit() == null ? "NULL" : row.getSoftConcurrencyLimit()).append(", ")
+                .append(row.getHardConcurrencyLimit()).append(", ")
+                .append(string(row.getSchedulingPolicy())).append(", ")
+                .append(row.getSchedulingWeight() == null ? "NULL" : row.getSchedulingWeight()).append(", ")
+                .append(bool(row.getJmxExport())).append(", ")
+                .append(string(row.getSoftCpuLimit())).append(", ")
+                .append(string(row.getHardCpuLimit())).append(", ")
+                .append(row.getParentId().map(String::valueOf).orElse("NULL")).append(", ")
+                .append(string(row.getEnvironment()));
+    }
+
+    private void appendSelector(StringBuilder buffer, SelectorRow row)
+    {
+        buffer.append(row.getResourceGroupId()).append(", ")
+                .append(row.getPriority()).append(", ")
+                .append(string(row.getUserRegex())).append(", ")
+                .append(string(row.getUserGroupRegex())).append(", ")
+                .append(string(row.getSourceRegex())).append(", ")
+                .append(string(row.getQueryType())).append(", ")
+                .append(string(row.getClientTags())).append(", ")
+                .append(string(row.getSelectorResourceEstimate()));
+    }
+
+    private void appendExactMatchSelector(StringBuilder buffer, List<String> row)
+    {
+        for (String value : row) {
+            buffer.append(string(value)).append(", ");
+        }
+        buffer.append("CURRENT_TIMESTAMP");
+    }
+
+    private String bool(boolean value)
+    {
+        if (databaseType == DatabaseType.ORACLE) {
+            return value ? "1" : "0";
+        }
+        return value ? "TRUE" : "FALSE";
+    }
+
+    /**
+     * Quotes a string literal. MySQL also treats backslashes in literals as
+     * escape characters, which regular expressions are full of.
+     */
+    String string(String value)
+    {
+        if (value == null) {
+            return "NULL";
+        }
+        String escaped = value.replace("'", "''");
+        if (databaseType == DatabaseType.MYSQL) {
+            escaped = escaped.replace("\\", "\\\\");
+        }
+        return "'" + escaped + "'";
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Expands a {@link TenantTemplate} tenant by tenant into the rows of the
+ * resource_groups and selectors tables, and passes them to a loader in
+ * batches. Only the static groups and the rows of the current batch are
+ * held in memory, besides one id and the name of each tenant. Ids are
+ * allocated once for all groups, which is possible because every tenant
+ * has the same number of groups, and selector priorities are assigned
+ * from the number of tenants, which is known before expanding.
+ */
+public class TenantExpander
+{
+    private static final int ROWS_PER_LOAD = 1000;
+
+    private final TenantTemplate template;
+    private final String environment;
+    private final IntFunction<long[]> idAllocator;
+    private final Consumer<ManagerSpecRows> loader;
+
+    private final Map<String, Long> staticIdsByPath = new HashMap<>();
+    private final Set<String> tenantPaths = new HashSet<>();
+    private final List<ResourceGroupRow> resourceGroupRows = new ArrayList<>();
+    private final List<SelectorRow> selectorRows = new ArrayList<>();
+    private long[] ids;
+    private int nextId;
+    private long nextPriority;
+    private int resourceGroups;
+    private int selectors;
+
+    public TenantExpander(TenantTemplate template, String environment, IntFunction<long[]> idAllocator, Consumer<ManagerSpecRows> loader)
+    {
+        this.template = requireNonNull(template, "template is null");
+        this.environment = requireNonNull(environment, "environment is null");
+        this.idAllocator = requireNonNull(idAllocator, "idAllocator is null");
+        this.loader = requireNonNull(loader, "loader is null");
+    }
+
+    /**
+     * Loads the static groups and selectors, those of every tenant, and the
+     * fallback selectors. Returns the number of tenants.
+     */
+    public long expand(Iterator<Map<String, String>> tenants, long tenantCount)
+    {
+        checkState(ids == null, "expand can only be called once");
+        int staticGroups = ManagerSpecRows.countResourceGroups(template.getRootGroups());
+        long totalGroups = staticGroups + tenantCount * template.getResourceGroupsPerTenant();
+        checkArgument(totalGroups <= Integer.MAX_VALUE, "Too many resource groups: %s", totalGroups);
+        ids = idAllocator.apply((int) totalGroups);
+        nextPriority = template.getSelectors().size() + tenantCount * template.getSelectorsPerTenant() + template.getFallbackSelectors().size();
+
+        for (ResourceGroupSpec rootGroup : template.getRootGroups()) {
+            addResourceGroup(rootGroup, null, null, staticIdsByPath);
+        }
+        addSelectors(template.getSelectors(), staticIdsByPath);
+        flush();
+
+        Long tenantParentId = null;
+        if (template.getTenantParent().isPresent()) {
+            tenantParentId = staticIdsByPath.get(template.getTenantParent().get());
+            checkArgument(tenantParentId != null, "Tenant parent group %s does not exist", template.getTenantParent().get());
+        }
+        long expanded = 0;
+        while (tenants.hasNext()) {
+            Map<String, String> tenant = tenants.next();
+            expanded++;
+            checkArgument(expanded <= tenantCount, "Expected %s tenants but found more", tenantCount);
+            Map<String, Long> idsByPath = new HashMap<>();
+            try {
+                for (ResourceGroupSpec group : template.expandGroups(tenant)) {
+                    String path = template.getTenantParent().map(parent -> parent + "." + group.getName()).orElse(group.getName().toString());
+                    checkArgument(!staticIdsByPath.containsKey(path) && tenantPaths.add(path), "Duplicate resource group %s", path);
+                    addResourceGroup(group, template.getTenantParent().orElse(null), tenantParentId, idsByPath);
+                }
+                addSelectors(template.expandSelectors(tenant), idsByPath);
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(format("Invalid tenant %s %s: %s", expanded, tenant, e.getMessage()), e);
+            }
+            if (resourceGroupRows.size() + selectorRows.size() >= ROWS_PER_LOAD) {
+                flush();
+            }
+        }
+        checkArgument(expanded == tenantCount, "Expected %s tenants but found %s", tenantCount, expanded);
+
+        addSelectors(template.getFallbackSelectors(), staticIdsByPath);
+        flush();
+        checkState(nextId == ids.length && nextPriority == 0, "Not all ids or priorities were assigned");
+        return expanded;
+    }
+
+    public int getResourceGroups()
+    {
+        return resourceGroups;
+    }
+
+    public int getSelectors()
+    {
+        return selectors;
+    }
+
+    private void addResourceGroup(ResourceGroupSpec group, String parentPath, Long parentId, Map<String, Long> idsByPath)
+    {
+        long id = ids[nextId++];
+        String path = (parentPath == null) ? group.getName().toString() : parentPath + "." + group.getName();
+        resourceGroupRows.add(new ResourceGroupRow(id, parentId, group, environment));
+        idsByPath.put(path, id);
+        for (ResourceGroupSpec subGroup : group.getSubGroups()) {
+            addResourceGroup(subGroup, path, id, idsByPath);
+        }
+    }
+
+    private void addSelectors(List<SelectorSpec> selectorSpecs, Map<String, Long> idsByPath)
+    {
+        for (SelectorSpec selector : selectorSpecs) {
+            String path = ManagerSpecRows.groupPath(selector.getGroup());
+            Long resourceGroupId = idsByPath.getOrDefault(path, staticIdsByPath.get(path));
+            if (resourceGroupId == null) {
+                throw new IllegalArgumentException(format("Selector group %s does not exist", path));
+            }
+            selectorRows.add(new SelectorRow(resourceGroupId, SelectorPriorities.STEP * nextPriority--, selector));
+        }
+    }
+
+    private void flush()
+    {
+        if (resourceGroupRows.isEmpty() && selectorRows.isEmpty()) {
+            return;
+        }
+        // groups are written before the selectors that refer to them
+        loader.accept(new ManagerSpecRows(resourceGroupRows, selectorRows));
+        resourceGroups += resourceGroupRows.size();
+        selectors += selectorRows.size();
+        resourceGroupRows.clear();
+        selectorRows.clear();
+    }
+}
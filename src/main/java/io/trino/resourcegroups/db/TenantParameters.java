@@ -0,0 +1,228 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.json.ObjectMapperProvider;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads the parameters of one tenant at a time from a CSV file, whose
+ * header names the parameters, or from a JSON lines file with one object
+ * per tenant. Files ending in {@code .csv} are read as CSV. CSV fields may
+ * be quoted, with {@code ""} for a quote, but may not span lines.
+ */
+public class TenantParameters
+        implements Iterator<Map<String, String>>, Closeable
+{
+    private static final ObjectMapper MAPPER = new ObjectMapperProvider().get();
+
+    private final Path path;
+    private final BufferedReader reader;
+    private final boolean csv;
+    private final List<String> header;
+    private int lineNumber;
+    private Map<String, String> next;
+
+    private TenantParameters(Path path)
+            throws IOException
+    {
+        this.path = requireNonNull(path, "path is null");
+        this.csv = isCsv(path);
+        this.reader = Files.newBufferedReader(path, UTF_8);
+        if (csv) {
+            String headerLine = readLine();
+            checkArgument(headerLine != null, "CSV file %s has no header", path);
+            this.header = parseCsvLine(headerLine);
+        }
+        else {
+            this.header = ImmutableList.of();
+        }
+    }
+
+    public static TenantParameters open(Path path)
+    {
+        try {
+            return new TenantParameters(path);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Counts the tenants of the file without parsing them.
+     */
+    public static long count(Path path)
+    {
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.isBlank()) {
+                    lines++;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // the header is not a tenant
+        return isCsv(path) ? Math.max(lines - 1, 0) : lines;
+    }
+
+    public int getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (next == null) {
+            String line = readLine();
+            if (line != null) {
+                next = csv ? parseCsv(line) : parseJson(line);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Map<String, String> next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map<String, String> tenant = next;
+        next = null;
+        return tenant;
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            reader.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String readLine()
+    {
+        try {
+            String line;
+            do {
+                line = reader.readLine();
+                lineNumber++;
+            }
+            while (line != null && line.isBlank());
+            return line;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Map<String, String> parseCsv(String line)
+    {
+        List<String> fields = parseCsvLine(line);
+        checkArgument(fields.size() == header.size(), "Expected %s fields but found %s at %s:%s", header.size(), fields.size(), path, lineNumber);
+        ImmutableMap.Builder<String, String> tenant = ImmutableMap.builderWithExpectedSize(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            tenant.put(header.get(i), fields.get(i));
+        }
+        return tenant.build();
+    }
+
+    private Map<String, String> parseJson(String line)
+    {
+        JsonNode node;
+        try {
+            node = MAPPER.readTree(line);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(format("Invalid JSON at %s:%s: %s", path, lineNumber, e.getOriginalMessage()), e);
+        }
+        checkArgument(node.isObject(), "Expected a JSON object at %s:%s", path, lineNumber);
+        ImmutableMap.Builder<String, String> tenant = ImmutableMap.builder();
+        node.fields().forEachRemaining(field -> {
+            checkArgument(field.getValue().isValueNode(), "Parameter %s is not a string or number at %s:%s", field.getKey(), path, lineNumber);
+            tenant.put(field.getKey(), field.getValue().asText());
+        });
+        return tenant.build();
+    }
+
+    private List<String> parseCsvLine(String line)
+    {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                }
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                }
+                else {
+                    quoted = false;
+                }
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else {
+                field.append(c);
+            }
+        }
+        checkArgument(!quoted, "Unterminated quoted field at %s:%s", path, lineNumber);
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static boolean isCsv(Path path)
+    {
+        return path.getFileName().toString().toLowerCase(ENGLISH).endsWith(".csv");
+    }
+}
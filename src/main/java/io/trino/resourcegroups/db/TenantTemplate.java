@@ -0,0 +1,278 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A resource groups configuration in which one subtree of groups and its
+ * selectors are repeated for every tenant. The template looks like a
+ * resource groups JSON file with these additional properties:
+ * <ul>
+ * <li>{@code tenantGroups}: the groups created for each tenant, in which
+ * string values may refer to tenant parameters as {@code {{name}}}</li>
+ * <li>{@code tenantParent}: the path of the group the tenant groups are
+ * added to, or absent to add them as root groups</li>
+ * <li>{@code tenantSelectors}: the selectors of each tenant, with the same
+ * parameters, matched after {@code selectors}</li>
+ * <li>{@code fallbackSelectors}: selectors matched after those of all
+ * tenants</li>
+ * </ul>
+ * Parameters use double braces, so they do not clash with the
+ * {@code ${USER}} style variables Trino expands in group names.
+ */
+public class TenantTemplate
+{
+    private static final ObjectMapper MAPPER = new ObjectMapperProvider().get().enable(FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final Pattern PARAMETER = Pattern.compile("\\{\\{\\s*([A-Za-z0-9_]+)\\s*}}");
+    private static final Set<String> PROPERTIES = ImmutableSet.of("rootGroups", "selectors", "cpuQuotaPeriod", "tenantParent", "tenantGroups", "tenantSelectors", "fallbackSelectors");
+
+    private final List<ResourceGroupSpec> rootGroups;
+    private final List<SelectorSpec> selectors;
+    private final Optional<Duration> cpuQuotaPeriod;
+    private final Optional<String> tenantParent;
+    private final List<JsonNode> tenantGroups;
+    private final List<JsonNode> tenantSelectors;
+    private final List<SelectorSpec> fallbackSelectors;
+    private final Set<String> parameters;
+    private final int resourceGroupsPerTenant;
+
+    private TenantTemplate(
+            List<ResourceGroupSpec> rootGroups,
+            List<SelectorSpec> selectors,
+            Optional<Duration> cpuQuotaPeriod,
+            Optional<String> tenantParent,
+            List<JsonNode> tenantGroups,
+            List<JsonNode> tenantSelectors,
+            List<SelectorSpec> fallbackSelectors)
+    {
+        this.rootGroups = ImmutableList.copyOf(requireNonNull(rootGroups, "rootGroups is null"));
+        this.selectors = ImmutableList.copyOf(requireNonNull(selectors, "selectors is null"));
+        this.cpuQuotaPeriod = requireNonNull(cpuQuotaPeriod, "cpuQuotaPeriod is null");
+        this.tenantParent = requireNonNull(tenantParent, "tenantParent is null");
+        this.tenantGroups = ImmutableList.copyOf(requireNonNull(tenantGroups, "tenantGroups is null"));
+        this.tenantSelectors = ImmutableList.copyOf(requireNonNull(tenantSelectors, "tenantSelectors is null"));
+        this.fallbackSelectors = ImmutableList.copyOf(requireNonNull(fallbackSelectors, "fallbackSelectors is null"));
+        checkArgument(!tenantGroups.isEmpty(), "Template has no tenantGroups");
+
+        ImmutableSet.Builder<String> parameters = ImmutableSet.builder();
+        for (JsonNode node : tenantGroups) {
+            collectParameters(node, parameters);
+        }
+        for (JsonNode node : tenantSelectors) {
+            collectParameters(node, parameters);
+        }
+        this.parameters = parameters.build();
+        int resourceGroupsPerTenant = 0;
+        for (JsonNode node : tenantGroups) {
+            resourceGroupsPerTenant += countGroups(node);
+        }
+        this.resourceGroupsPerTenant = resourceGroupsPerTenant;
+    }
+
+    public static TenantTemplate parse(Path path)
+    {
+        try {
+            JsonNode root = MAPPER.readTree(Files.readAllBytes(path));
+            checkArgument(root != null && root.isObject(), "Template must be a JSON object");
+            Iterator<String> fieldNames = root.fieldNames();
+            while (fieldNames.hasNext()) {
+                String fieldName = fieldNames.next();
+                checkArgument(PROPERTIES.contains(fieldName), "Unknown template property: %s", fieldName);
+            }
+            return new TenantTemplate(
+                    convert(root.get("rootGroups"), new TypeReference<List<ResourceGroupSpec>>() {}).orElse(ImmutableList.of()),
+                    convert(root.get("selectors"), new TypeReference<List<SelectorSpec>>() {}).orElse(ImmutableList.of()),
+                    convert(root.get("cpuQuotaPeriod"), new TypeReference<Duration>() {}),
+                    convert(root.get("tenantParent"), new TypeReference<String>() {}),
+                    elements(root.get("tenantGroups")),
+                    elements(root.get("tenantSelectors")),
+                    convert(root.get("fallbackSelectors"), new TypeReference<List<SelectorSpec>>() {}).orElse(ImmutableList.of()));
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(format("Invalid template %s: %s", path, e.getOriginalMessage()), e);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public List<ResourceGroupSpec> getRootGroups()
+    {
+        return rootGroups;
+    }
+
+    public List<SelectorSpec> getSelectors()
+    {
+        return selectors;
+    }
+
+    public Optional<Duration> getCpuQuotaPeriod()
+    {
+        return cpuQuotaPeriod;
+    }
+
+    public Optional<String> getTenantParent()
+    {
+        return tenantParent;
+    }
+
+    public List<SelectorSpec> getFallbackSelectors()
+    {
+        return fallbackSelectors;
+    }
+
+    /**
+     * Names of the parameters the template refers to, which every tenant must
+     * define.
+     */
+    public Set<String> getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * Number of groups in each tenant subtree, which is the same for every
+     * tenant as parameters only appear in values.
+     */
+    public int getResourceGroupsPerTenant()
+    {
+        return resourceGroupsPerTenant;
+    }
+
+    public int getSelectorsPerTenant()
+    {
+        return tenantSelectors.size();
+    }
+
+    public List<ResourceGroupSpec> expandGroups(Map<String, String> tenant)
+    {
+        return expand(tenantGroups, tenant, ResourceGroupSpec.class);
+    }
+
+    public List<SelectorSpec> expandSelectors(Map<String, String> tenant)
+    {
+        return expand(tenantSelectors, tenant, SelectorSpec.class);
+    }
+
+    private static <T> List<T> expand(List<JsonNode> nodes, Map<String, String> tenant, Class<T> type)
+    {
+        ImmutableList.Builder<T> expanded = ImmutableList.builderWithExpectedSize(nodes.size());
+        for (JsonNode node : nodes) {
+            try {
+                expanded.add(MAPPER.treeToValue(substitute(node, tenant), type));
+            }
+            catch (JsonProcessingException e) {
+                throw new IllegalArgumentException(e.getOriginalMessage(), e);
+            }
+        }
+        return expanded.build();
+    }
+
+    private static JsonNode substitute(JsonNode node, Map<String, String> tenant)
+    {
+        if (node.isTextual()) {
+            Matcher matcher = PARAMETER.matcher(node.textValue());
+            StringBuilder value = new StringBuilder();
+            while (matcher.find()) {
+                String parameter = tenant.get(matcher.group(1));
+                checkArgument(parameter != null, "Missing tenant parameter: %s", matcher.group(1));
+                matcher.appendReplacement(value, Matcher.quoteReplacement(parameter));
+            }
+            matcher.appendTail(value);
+            return TextNode.valueOf(value.toString());
+        }
+        if (node.isObject()) {
+            ObjectNode copy = MAPPER.createObjectNode();
+            node.fields().forEachRemaining(field -> copy.set(field.getKey(), substitute(field.getValue(), tenant)));
+            return copy;
+        }
+        if (node.isArray()) {
+            ArrayNode copy = MAPPER.createArrayNode();
+            node.forEach(element -> copy.add(substitute(element, tenant)));
+            return copy;
+        }
+        return node;
+    }
+
+    private static void collectParameters(JsonNode node, ImmutableSet.Builder<String> parameters)
+    {
+        if (node.isTextual()) {
+            Matcher matcher = PARAMETER.matcher(node.textValue());
+            while (matcher.find()) {
+                parameters.add(matcher.group(1));
+            }
+        }
+        node.forEach(child -> collectParameters(child, parameters));
+    }
+
+    private static int countGroups(JsonNode group)
+    {
+        int count = 1;
+        JsonNode subGroups = group.get("subGroups");
+        if (subGroups != null) {
+            for (JsonNode subGroup : subGroups) {
+                count += countGroups(subGroup);
+            }
+        }
+        return count;
+    }
+
+    private static <T> Optional<T> convert(JsonNode node, TypeReference<T> type)
+            throws JsonProcessingException
+    {
+        if (node == null || node.isNull()) {
+            return Optional.empty();
+        }
+        return Optional.of(MAPPER.readerFor(type).readValue(node));
+    }
+
+    private static List<JsonNode> elements(JsonNode node)
+    {
+        if (node == null || node.isNull()) {
+            return ImmutableList.of();
+        }
+        checkArgument(node.isArray(), "Expected an array but got: %s", node);
+        return ImmutableList.copyOf(node);
+    }
+}
@@ -13,42 +13,80 @@
  */
 package io.trino.resourcegroups.db;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.ImmutableList;
+import io.airlift.json.ObjectMapperProvider;
 import io.airlift.log.Logger;
 import picocli.CommandLine;
 
-import static com.google.common.base.Throwables.throwIfUnchecked;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
 
 @CommandLine.Command(
         name = "validate_resource_groups_json",
         usageHelpAutoWidth = true
 )
 public class ValidateResourceGroupsJsonCommand
-        implements Runnable
+        implements Callable<Integer>
 {
-    private static final Logger LOG = Logger.get(CreateResourceGroupsCommand.class);
+    private static final Logger LOG = Logger.get(ValidateResourceGroupsJsonCommand.class);
+
+    @CommandLine.Spec
+    public CommandLine.Model.CommandSpec spec;
 
     @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit")
     public boolean usageHelpRequested;
 
-    @CommandLine.Option(names = "--resource-groups-json", required = true, description = "JSON file with resource groups schema to validate")
+    @CommandLine.Option(names = "--resource-groups-json", required = true, description = "JSON, Smile or CBOR file with resource groups schema to validate")
     public String resourceGroupsSchema;
 
+    @CommandLine.Option(names = "--output-format", defaultValue = "TEXT", description = "Format of the error report: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})")
+    public OutputFormat outputFormat;
+
+    public enum OutputFormat
+    {
+        TEXT,
+        JSON
+    }
+
     private ValidateResourceGroupsJsonCommand() {}
 
     @Override
-    public void run()
+    public Integer call()
     {
-        try {
-            LOG.info("JSON file to validate: %s", resourceGroupsSchema);
-            FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsSchema);
-            LOG.info("Resource groups JSON file is valid!");
+        LOG.info("JSON file to validate: %s", resourceGroupsSchema);
+        ResourceGroupsValidator.Report report = ResourceGroupsValidator.validate(Paths.get(resourceGroupsSchema));
+        if (report.isValid()) {
+            // the validator mirrors the checks of Trino's parser, which stays the final word
+            try {
+                FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsSchema);
+            }
+            catch (IllegalArgumentException e) {
+                report = new ResourceGroupsValidator.Report(report.getFile(), ImmutableList.of(new ResourceGroupsValidator.Error("", 0, 0, e.getMessage())));
+            }
+        }
+
+        if (outputFormat == OutputFormat.JSON) {
+            PrintWriter out = spec.commandLine().getOut();
+            try {
+                out.println(new ObjectMapperProvider().get().writerWithDefaultPrettyPrinter().writeValueAsString(report));
+            }
+            catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            out.flush();
         }
-        catch (IllegalArgumentException iae) {
-            LOG.error(iae.getMessage());
-            throw new RuntimeException(iae.getMessage());
+        else {
+            report.getErrors().forEach(error -> LOG.error("%s", error));
         }
-        catch (Exception e) {
-            throw new RuntimeException(e);
+
+        if (!report.isValid()) {
+            LOG.error("Resource groups JSON file has %s error(s)", report.getErrors().size());
+            return 1;
         }
+        LOG.info("Resource groups JSON file is valid!");
+        return 0;
     }
 }
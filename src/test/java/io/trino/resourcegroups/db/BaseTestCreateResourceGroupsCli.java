@@ -14,11 +14,14 @@
 package io.trino.resourcegroups.db;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import io.airlift.units.Duration;
 import io.trino.plugin.resourcegroups.ManagerSpec;
 import io.trino.plugin.resourcegroups.ResourceGroupSpec;
 import io.trino.plugin.resourcegroups.db.DbResourceGroupConfig;
+import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
-import org.testcontainers.containers.JdbcDatabaseContainer;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
@@ -28,13 +31,28 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.collect.MoreCollectors.onlyElement;
 import static com.google.common.io.Resources.getResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Files.createTempFile;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
@@ -42,7 +60,6 @@ import static org.testng.Assert.assertTrue;
 public abstract class BaseTestCreateResourceGroupsCli
 {
     private static final String ENVIRONMENT = "test";
-    protected JdbcDatabaseContainer<?> container;
     protected Jdbi jdbi;
     protected String dbPropertiesFile;
 
@@ -50,17 +67,25 @@ public abstract class BaseTestCreateResourceGroupsCli
     public final void setup()
             throws IOException
     {
-        container = startContainer();
-        jdbi = Jdbi.create(container.getJdbcUrl(), container.getUsername(), container.getPassword());
-        dbPropertiesFile = createPropertiesFile();
+        startDatabase();
+        jdbi = Jdbi.create(getJdbcUrl(), getUser(), getPassword());
+        dbPropertiesFile = createDbPropertiesFile();
     }
 
-    protected abstract JdbcDatabaseContainer<?> startContainer();
+    protected abstract void startDatabase();
+
+    protected abstract void stopDatabase();
+
+    protected abstract String getJdbcUrl();
+
+    protected abstract String getUser();
+
+    protected abstract String getPassword();
 
     @AfterClass(alwaysRun = true)
     public final void close()
     {
-        container.close();
+        stopDatabase();
     }
 
     @BeforeMethod(alwaysRun = true)
@@ -101,12 +126,7 @@ public abstract class BaseTestCreateResourceGroupsCli
                 "--resource-groups-json=" + getResource("simple_resource_groups.json").getPath()
         );
         // now verify we have 2 root groups and 2 selectors
-        DbResourceGroupConfig config = new DbResourceGroupConfig()
-                .setConfigDbUrl(container.getJdbcUrl())
-                .setConfigDbUser(container.getUsername())
-                .setConfigDbPassword(container.getPassword());
-        DaoProvider daoProvider = new DaoProvider(config, jdbi);
-        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(daoProvider.get(), ENVIRONMENT);
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(createDao(), ENVIRONMENT);
         assertEquals(managerSpec.getRootGroups().size(), 2);
         assertEquals(managerSpec.getSelectors().size(), 2);
     }
@@ -121,17 +141,500 @@ public abstract class BaseTestCreateResourceGroupsCli
                 "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
         );
         // now verify we have 2 root groups and 4 selectors
-        DbResourceGroupConfig config = new DbResourceGroupConfig()
-                .setConfigDbUrl(container.getJdbcUrl())
-                .setConfigDbUser(container.getUsername())
-                .setConfigDbPassword(container.getPassword());
-        DaoProvider daoProvider = new DaoProvider(config, jdbi);
-        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(daoProvider.get(), ENVIRONMENT);
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(createDao(), ENVIRONMENT);
+        assertEquals(managerSpec.getRootGroups().size(), 2);
+        assertEquals(getTotalResourceGroupCount(managerSpec.getRootGroups()), 6);
+        assertEquals(managerSpec.getSelectors().size(), 4);
+    }
+
+    @Test
+    public void testBulkLoadWithSubgroups()
+    {
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath(),
+                "--bulk-load"
+        );
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(createDao(), ENVIRONMENT);
         assertEquals(managerSpec.getRootGroups().size(), 2);
         assertEquals(getTotalResourceGroupCount(managerSpec.getRootGroups()), 6);
         assertEquals(managerSpec.getSelectors().size(), 4);
     }
 
+    @Test
+    public void testStagedApplyReplacesLiveEnvironment()
+    {
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
+        );
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_user_group_regex.json").getPath(),
+                "--staged"
+        );
+        ResourceGroupsDao dao = createDao();
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT);
+        assertEquals(getTotalResourceGroupCount(managerSpec.getRootGroups()), 10);
+        assertEquals(managerSpec.getSelectors().size(), 6);
+        assertEquals(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT + "_staging").getRootGroups().size(), 0);
+        assertEquals(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT + "_staging_retired").getRootGroups().size(), 0);
+    }
+
+    @Test
+    public void testParallelApply()
+    {
+        TestCli.cli("create_resource_groups", "--environment=" + ENVIRONMENT, "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath());
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_user_group_regex.json").getPath(),
+                "--parallelism=3"
+        );
+        ResourceGroupsDao dao = createDao();
+        ManagerSpec expected = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_user_group_regex.json").getPath());
+        assertTrue(ManagerSpecDiff.diff(expected, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT)).isEmpty());
+        assertEquals(dao.getEnvironments(), ImmutableList.of(ENVIRONMENT));
+        assertEquals(dao.getHistory(ENVIRONMENT).size(), 2);
+
+        // a range that fails to commit leaves the live environment as it was
+        DatabaseType databaseType = jdbi.withHandle(DbBasedResourceGroups::getDatabaseType);
+        FailingBulkLoader bulkLoader = new FailingBulkLoader(BulkLoader.forDatabaseType(databaseType), load -> load == 3, false);
+        ResourceGroupsApplier applier = new ResourceGroupsApplier(dao, databaseType, bulkLoader);
+        ManagerSpec other = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+        assertThatThrownBy(() -> applier.applyParallel(other, Optional.empty(), ENVIRONMENT, ENVIRONMENT + "_staging", 1))
+                .hasRootCauseMessage("load 3 failed");
+        assertTrue(ManagerSpecDiff.diff(expected, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT)).isEmpty());
+        assertEquals(dao.getEnvironments(), ImmutableList.of(ENVIRONMENT));
+
+        String err = TestCli.cli("create_resource_groups", "--environment=" + ENVIRONMENT, "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath(), "--parallelism=2", "--resumable").err();
+        assertTrue(err.contains("--parallelism cannot be combined with --template, --emit-sql, --resumable or --subtree"), err);
+    }
+
+    @Test
+    public void testParallelApplyDeepTree()
+            throws IOException
+    {
+        // 104 groups over four levels: with 12 ranges of at most 9 groups, the spine holds the first two levels,
+        // so every range references a parent that only the spine transaction writes
+        StringBuilder json = new StringBuilder("{\"rootGroups\": ");
+        appendGroups(json, ImmutableList.of(2, 3, 4, 3));
+        json.append(", \"selectors\": [{\"user\": \"bob\", \"group\": \"g1.g2.g3.g2\"}]}");
+        Path resourceGroupsJson = createTempFile("resource-groups", ".json");
+        Files.writeString(resourceGroupsJson, json, UTF_8);
+
+        // one connection holds the lock of the staging environment, so the three writers share the other one
+        String propertiesFile = createDbPropertiesFile("resource-groups.max-connections=2");
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + propertiesFile,
+                "--resource-groups-json=" + resourceGroupsJson,
+                "--parallelism=3"
+        );
+        ResourceGroupsDao dao = createDao();
+        ManagerSpec expected = FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsJson.toString());
+        ManagerSpec loaded = DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT);
+        assertEquals(getTotalResourceGroupCount(loaded.getRootGroups()), 104);
+        assertTrue(ManagerSpecDiff.diff(expected, loaded).isEmpty());
+        // the reserved row is gone once the selectors have committed
+        assertEquals(dao.getEnvironments(), ImmutableList.of(ENVIRONMENT));
+    }
+
+    @Test
+    public void testResumableApply()
+    {
+        ResourceGroupsDao dao = createDao();
+        DatabaseType databaseType = jdbi.withHandle(DbBasedResourceGroups::getDatabaseType);
+        ManagerSpec input = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_user_group_regex.json").getPath());
+        RetryPolicy retryPolicy = new RetryPolicy(3, new Duration(1, MILLISECONDS), new Duration(10, MILLISECONDS));
+
+        // every other chunk fails with a transient error and is retried
+        FailingBulkLoader flaky = new FailingBulkLoader(BulkLoader.forDatabaseType(databaseType), load -> load % 2 == 0, true);
+        new ResourceGroupsApplier(dao, databaseType, flaky).applyResumable(input, Optional.empty(), ENVIRONMENT, ENVIRONMENT + "_staging", 2, retryPolicy);
+        assertTrue(ManagerSpecDiff.diff(input, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT)).isEmpty());
+        assertTrue(dao.getApplyJournal(ENVIRONMENT).isEmpty());
+
+        // the third chunk fails for good, and a rerun continues after the second
+        ManagerSpec previous = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+        new ResourceGroupsApplier(dao, databaseType, BulkLoader.forDatabaseType(databaseType)).apply(previous, Optional.empty(), ENVIRONMENT, true);
+        FailingBulkLoader broken = new FailingBulkLoader(BulkLoader.forDatabaseType(databaseType), load -> load == 3, false);
+        assertThatThrownBy(() -> new ResourceGroupsApplier(dao, databaseType, broken).applyResumable(input, Optional.empty(), ENVIRONMENT, ENVIRONMENT + "_staging", 2, retryPolicy))
+                .hasMessageContaining("load 3 failed");
+        assertEquals(getOnlyElement(dao.getApplyJournal(ENVIRONMENT)).getResourceGroupsLoaded(), 4);
+        assertTrue(ManagerSpecDiff.diff(previous, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT)).isEmpty());
+
+        FailingBulkLoader resumed = new FailingBulkLoader(BulkLoader.forDatabaseType(databaseType), load -> false, false);
+        new ResourceGroupsApplier(dao, databaseType, resumed).applyResumable(input, Optional.empty(), ENVIRONMENT, ENVIRONMENT + "_staging", 2, retryPolicy);
+        // 10 resource groups and 6 selectors in chunks of 2, less the 2 chunks already written
+        assertEquals(resumed.getLoads(), 6);
+        assertTrue(ManagerSpecDiff.diff(input, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT)).isEmpty());
+        assertTrue(dao.getApplyJournal(ENVIRONMENT).isEmpty());
+        assertEquals(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT + "_staging").getRootGroups().size(), 0);
+    }
+
+    @Test
+    public void testEmitSql()
+            throws IOException
+    {
+        // rows of another environment must keep their ids
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=other",
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
+        );
+        Path script = createTempFile("resource-groups", ".sql");
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_user_group_regex.json").getPath(),
+                "--emit-sql=" + script
+        );
+        ResourceGroupsDao dao = createDao();
+        assertEquals(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT).getRootGroups().size(), 0);
+
+        jdbi.useHandle(handle -> handle.createScript(new String(Files.readAllBytes(script), UTF_8)).executeAsSeparateStatements());
+        ManagerSpec input = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_user_group_regex.json").getPath());
+        assertTrue(ManagerSpecDiff.diff(input, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT)).isEmpty());
+        ManagerSpec other = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+        assertTrue(ManagerSpecDiff.diff(other, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, "other")).isEmpty());
+
+        // generated keys continue above the ids of the script
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=third",
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
+        );
+        assertTrue(ManagerSpecDiff.diff(other, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, "third")).isEmpty());
+        Files.delete(script);
+    }
+
+    @Test
+    public void testTemplate()
+    {
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--template=" + getResource("tenant_template.json").getPath(),
+                "--tenants=" + getResource("tenants.csv").getPath()
+        );
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(createDao(), ENVIRONMENT);
+        assertEquals(getTotalResourceGroupCount(managerSpec.getRootGroups()), 12);
+        assertEquals(managerSpec.getSelectors().size(), 8);
+        assertEquals(ManagerSpecRows.groupPath(managerSpec.getSelectors().get(1).getGroup()), "global.tenants.acme.etl");
+        assertEquals(ManagerSpecRows.groupPath(managerSpec.getSelectors().get(7).getGroup()), "global.adhoc");
+    }
+
+    @Test
+    public void testExactMatchSelectors()
+    {
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("exact_match_selectors.json").getPath(),
+                "--promote-exact-match-selectors",
+                "--staged"
+        );
+        ResourceGroupsDao dao = createDao();
+        assertEquals(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT).getSelectors().size(), 5);
+        List<ExactMatchSelectorSpec> exactMatchSelectors = dao.getExactMatchSelectors(ENVIRONMENT);
+        // airflow is stored for every query type
+        assertEquals(exactMatchSelectors.size(), 10);
+        assertTrue(exactMatchSelectors.contains(new ExactMatchSelectorSpec("dbt", Optional.of("INSERT"), "global.pipeline")));
+        assertTrue(exactMatchSelectors.contains(new ExactMatchSelectorSpec("superset", Optional.of("SELECT"), "global.adhoc")));
+
+        // files without exact match selectors leave the table alone
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
+        );
+        assertEquals(dao.getExactMatchSelectors(ENVIRONMENT).size(), 10);
+        assertEquals(dao.getExactMatchSelectors("other").size(), 0);
+    }
+
+    @Test
+    public void testRollback()
+    {
+        ResourceGroupsDao dao = createDao();
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
+        );
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups_modified.json").getPath(),
+                "--staged"
+        );
+        List<ConfigHistoryEntry> history = dao.getHistory(ENVIRONMENT);
+        assertEquals(history.size(), 2);
+        long original = history.get(1).getVersion();
+        String out = TestCli.cli("rollback", "--db-config=" + dbPropertiesFile, "--environment=" + ENVIRONMENT, "--list").out();
+        assertTrue(out.startsWith(history.get(0).getVersion() + "\t"), out);
+
+        Set<Long> idsBefore = ImmutableSet.copyOf(dao.getResourceGroupIds(ENVIRONMENT));
+        TestCli.cli("rollback", "--db-config=" + dbPropertiesFile, "--environment=" + ENVIRONMENT, "--to=" + original).out();
+        ManagerSpec expected = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+        assertTrue(ManagerSpecDiff.diff(expected, DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT)).isEmpty());
+        // only the group added by the second apply was replaced, all others kept their rows
+        Set<Long> idsAfter = ImmutableSet.copyOf(dao.getResourceGroupIds(ENVIRONMENT));
+        assertEquals(Sets.intersection(idsBefore, idsAfter).size(), idsBefore.size() - 1);
+        assertEquals(dao.getHistory(ENVIRONMENT).size(), 3);
+        assertEquals(dao.getHistory(ENVIRONMENT).get(0).getFingerprint(), history.get(1).getFingerprint());
+
+        DatabaseType databaseType = jdbi.withHandle(DbBasedResourceGroups::getDatabaseType);
+        ResourceGroupsApplier applier = new ResourceGroupsApplier(dao, databaseType, BulkLoader.forDatabaseType(databaseType));
+        assertTrue(applier.rollback(ENVIRONMENT, original).isEmpty());
+        // moving one selector to the top writes only that selector
+        ManagerSpecPatch.Result result = applier.rollback(ENVIRONMENT, history.get(0).getVersion());
+        assertEquals(result.getSelectorsAdded(), 1);
+        assertEquals(result.getSelectorsRemoved(), 1);
+        assertEquals(result.getSelectorsMoved(), 0);
+        assertThatThrownBy(() -> applier.rollback("other", original))
+                .hasMessage("Version " + original + " is not in the history of environment other");
+    }
+
+    @Test
+    public void testMigrate()
+            throws IOException
+    {
+        TestCli.cli("create_resource_groups", "--environment=first", "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath());
+        TestCli.cli("create_resource_groups", "--environment=second", "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + getResource("simple_resource_groups.json").getPath());
+        ResourceGroupsDao source = createDao();
+
+        // the target is always an embedded database, whatever the source
+        String targetUrl = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        Jdbi targetJdbi = Jdbi.create(targetUrl, "test", "test");
+        try {
+            String targetPropertiesFile = createPropertiesFile(targetUrl, "test", "test");
+            String out = TestCli.cli("migrate", "--from-db-config=" + dbPropertiesFile, "--to-db-config=" + targetPropertiesFile, "--chunk-size=2").out();
+            assertTrue(out.contains("first\t"), out);
+            assertTrue(out.contains("second\t"), out);
+            ResourceGroupsDao target = new DaoProvider(new DbResourceGroupConfig().setConfigDbUrl(targetUrl).setConfigDbUser("test").setConfigDbPassword("test"), targetJdbi).get();
+            assertEquals(target.getEnvironments(), ImmutableList.of("first", "second"));
+            for (String environment : ImmutableList.of("first", "second")) {
+                assertEquals(
+                        ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(target, environment)),
+                        ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(source, environment)));
+            }
+
+            // migrating one environment again replaces only its rows
+            List<Long> secondIds = target.getResourceGroupIds("second");
+            TestCli.cli("create_resource_groups", "--environment=first", "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + getResource("resource_group_with_subgroups_modified.json").getPath());
+            TestCli.cli("migrate", "--from-db-config=" + dbPropertiesFile, "--to-db-config=" + targetPropertiesFile, "--environment=first");
+            assertEquals(
+                    ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(target, "first")),
+                    ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(source, "first")));
+            assertEquals(target.getResourceGroupIds("second"), secondIds);
+
+            String err = TestCli.cli("migrate", "--from-db-config=" + dbPropertiesFile, "--to-db-config=" + targetPropertiesFile, "--environment=missing").err();
+            assertTrue(err.contains("Environment missing has no resource groups in the source database"), err);
+        }
+        finally {
+            targetJdbi.useHandle(handle -> handle.execute("SHUTDOWN"));
+        }
+    }
+
+    @Test
+    public void testReadReplica()
+            throws IOException
+    {
+        TestCli.cli("create_resource_groups", "--environment=" + ENVIRONMENT, "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath());
+        String replicaUrl = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        Jdbi replicaJdbi = Jdbi.create(replicaUrl, "test", "test");
+        try {
+            // the replica is seeded once and then falls behind the primary
+            TestCli.cli("migrate", "--from-db-config=" + dbPropertiesFile, "--to-db-config=" + createPropertiesFile(replicaUrl, "test", "test"), "--environment=" + ENVIRONMENT).out();
+            TestCli.cli("create_resource_groups", "--environment=" + ENVIRONMENT, "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + getResource("resource_group_with_subgroups_modified.json").getPath());
+            ManagerSpec original = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+            ManagerSpec modified = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups_modified.json").getPath());
+
+            Path output = createTempFile("resource-groups", ".json");
+            String replicaPropertiesFile = createDbPropertiesFile("resource-groups.read-replica-db-url=" + replicaUrl, "resource-groups.read-replica-db-user=test", "resource-groups.read-replica-db-password=test");
+            TestCli.cli("list_resource_groups", "--db-config=" + replicaPropertiesFile, "--environment=" + ENVIRONMENT, "--output-json-file=" + output).out();
+            assertTrue(ManagerSpecDiff.diff(original, FileBasedResourceGroups.parseResourceGroupsSchema(output.toString())).isEmpty());
+
+            String lagCheckPropertiesFile = createDbPropertiesFile("resource-groups.read-replica-db-url=" + replicaUrl, "resource-groups.read-replica-db-user=test", "resource-groups.read-replica-db-password=test", "resource-groups.read-replica-lag-check=true");
+            TestCli.cli("list_resource_groups", "--db-config=" + lagCheckPropertiesFile, "--environment=" + ENVIRONMENT, "--output-json-file=" + output).out();
+            assertTrue(ManagerSpecDiff.diff(modified, FileBasedResourceGroups.parseResourceGroupsSchema(output.toString())).isEmpty());
+        }
+        finally {
+            replicaJdbi.useHandle(handle -> handle.execute("SHUTDOWN"));
+        }
+    }
+
+    @Test
+    public void testBinaryFormats()
+            throws IOException
+    {
+        TestCli.cli("create_resource_groups", "--environment=first", "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath());
+        ResourceGroupsDao dao = createDao();
+        for (String format : ImmutableList.of("smile", "cbor")) {
+            Path output = createTempFile("resource-groups", "." + format);
+            TestCli.cli("list_resource_groups", "--db-config=" + dbPropertiesFile, "--environment=first", "--format=" + format, "--output-file=" + output).out();
+            TestCli.cli("validate_resource_groups_json", "--resource-groups-json=" + output).out();
+            TestCli.cli("create_resource_groups", "--environment=" + format, "--db-config=" + dbPropertiesFile, "--resource-groups-json=" + output);
+            assertEquals(
+                    ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, format)),
+                    ManagerSpecFingerprint.fingerprint(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, "first")));
+        }
+    }
+
+    @Test
+    public void testSubtreeApply()
+            throws Exception
+    {
+        ResourceGroupsDao dao = createDao();
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
+        );
+        Set<Long> idsBefore = ImmutableSet.copyOf(dao.getResourceGroupIds(ENVIRONMENT));
+
+        // applies to disjoint subtrees of the same environment do not wait on each other
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<TestCli>> applies = ImmutableList.of("global.adhoc", "global.tableau").stream()
+                    .map(subtree -> executor.submit(() -> TestCli.cli(
+                            "create_resource_groups",
+                            "--environment=" + ENVIRONMENT,
+                            "--db-config=" + dbPropertiesFile,
+                            "--resource-groups-json=" + getResource("resource_group_with_subgroups_modified.json").getPath(),
+                            "--subtree=" + subtree)))
+                    .collect(toImmutableList());
+            for (Future<TestCli> apply : applies) {
+                apply.get().out();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT);
+        // tableau lost its sub group, global.etl is outside both subtrees
+        assertEquals(getTotalResourceGroupCount(managerSpec.getRootGroups()), 5);
+        ResourceGroupSpec global = managerSpec.getRootGroups().stream()
+                .filter(group -> group.getName().toString().equals("global"))
+                .collect(onlyElement());
+        assertEquals(global.getSubGroups().stream()
+                .filter(group -> group.getName().toString().equals("adhoc"))
+                .collect(onlyElement())
+                .getHardConcurrencyLimit(), 60);
+        assertEquals(managerSpec.getCpuQuotaPeriod(), Optional.of(Duration.valueOf("1h")));
+        // the selectors of global.adhoc come before the selector of admin, as in the file
+        assertEquals(managerSpec.getSelectors().stream()
+                        .map(selector -> ManagerSpecRows.groupPath(selector.getGroup()))
+                        .collect(toImmutableList()),
+                ImmutableList.of("global.adhoc", "global.adhoc.adhoc-${USER}", "global.adhoc.adhoc-${USER}", "admin"));
+        // global, tableau and admin kept their rows
+        assertEquals(Sets.intersection(idsBefore, ImmutableSet.copyOf(dao.getResourceGroupIds(ENVIRONMENT))).size(), 3);
+
+        TestCli cli = TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups_modified.json").getPath(),
+                "--subtree=global.missing");
+        assertTrue(cli.err().contains("Resource group global.missing is not in the resource groups file"), cli.err());
+
+        cli = TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups_modified.json").getPath(),
+                "--subtree=global.adhoc",
+                "--bulk-load");
+        assertTrue(cli.err().contains("--subtree cannot be combined with"), cli.err());
+    }
+
+    @Test
+    public void testSubtreeApplyMovesSelectors()
+            throws IOException
+    {
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()
+        );
+        // with priorities one apart, global.adhoc owns the priorities 1 to 3, which leave no room for four selectors
+        jdbi.useHandle(handle -> {
+            handle.execute("UPDATE selectors SET priority = priority / ?", SelectorPriorities.STEP);
+            handle.execute("INSERT INTO selectors (resource_group_id, priority, user_regex) " +
+                    "SELECT resource_group_id, 0, 'tableau' FROM resource_groups WHERE name = 'tableau' AND environment = ?", ENVIRONMENT);
+        });
+        String json = "{\"rootGroups\": [" +
+                "{\"name\": \"global\", \"softMemoryLimit\": \"80%\", \"hardConcurrencyLimit\": 100, \"maxQueued\": 1000, \"subGroups\": [" +
+                "{\"name\": \"adhoc\", \"softMemoryLimit\": \"10%\", \"hardConcurrencyLimit\": 10, \"maxQueued\": 10}]}, " +
+                "{\"name\": \"admin\", \"softMemoryLimit\": \"100%\", \"hardConcurrencyLimit\": 50, \"maxQueued\": 100}], " +
+                "\"selectors\": [{\"user\": \"bob\", \"group\": \"admin\"}, {\"user\": \"alice\", \"group\": \"global.adhoc\"}, " +
+                "{\"user\": \"verifier\", \"group\": \"global.adhoc\"}, {\"user\": \"carol\", \"group\": \"global.adhoc\"}, " +
+                "{\"user\": \"dave\", \"group\": \"global.adhoc\"}]}";
+        Path resourceGroupsJson = createTempFile("resource-groups", ".json");
+        Files.writeString(resourceGroupsJson, json, UTF_8);
+        ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(resourceGroupsJson.toString());
+
+        ResourceGroupsDao dao = createDao();
+        DatabaseType databaseType = jdbi.withHandle(DbBasedResourceGroups::getDatabaseType);
+        ResourceGroupsApplier applier = new ResourceGroupsApplier(dao, databaseType, BulkLoader.forDatabaseType(databaseType));
+        // the selectors of admin and global.tableau around the block make room, under the lock of the environment
+        ManagerSpecPatch.Result result = applier.applySubtree(managerSpec, ENVIRONMENT, "global.adhoc");
+        assertEquals(result.getSelectorsAdded(), 4);
+        assertEquals(result.getSelectorsMoved(), 2);
+        List<String> expectedOrder = ImmutableList.of("admin", "global.adhoc", "global.adhoc", "global.adhoc", "global.adhoc", "global.tableau");
+        assertEquals(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT).getSelectors().stream()
+                        .map(selector -> ManagerSpecRows.groupPath(selector.getGroup()))
+                        .collect(toImmutableList()),
+                expectedOrder);
+
+        // once spread out, the same selectors fit in the priorities the subtree owns
+        result = applier.applySubtree(managerSpec, ENVIRONMENT, "global.adhoc");
+        assertEquals(result.getSelectorsMoved(), 0);
+        assertEquals(DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT).getSelectors().stream()
+                        .map(selector -> ManagerSpecRows.groupPath(selector.getGroup()))
+                        .collect(toImmutableList()),
+                expectedOrder);
+    }
+
+    @Test
+    public void testClient()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ResourceGroupsClient client = ResourceGroupsClient.create(jdbi, executor);
+            ManagerSpec input = client.validate(getResource("resource_group_with_subgroups.json").getPath()).get();
+            ManagerSpec loaded = client.apply(input, ENVIRONMENT, new ApplyOptions().setBulkLoad(true))
+                    .thenCompose(ignored -> client.list(ENVIRONMENT))
+                    .get();
+            assertEquals(getTotalResourceGroupCount(loaded.getRootGroups()), 6);
+            assertTrue(client.diff(ENVIRONMENT, input).get().isEmpty());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void testCreateWithUserGroupRegex()
     {
@@ -142,30 +645,145 @@ public abstract class BaseTestCreateResourceGroupsCli
                 "--resource-groups-json=" + getResource("resource_group_with_user_group_regex.json").getPath()
         );
         // now verify we have 2 root groups and 6 selectors
-        DbResourceGroupConfig config = new DbResourceGroupConfig()
-                .setConfigDbUrl(container.getJdbcUrl())
-                .setConfigDbUser(container.getUsername())
-                .setConfigDbPassword(container.getPassword());
-        DaoProvider daoProvider = new DaoProvider(config, jdbi);
-        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(daoProvider.get(), ENVIRONMENT);
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(createDao(), ENVIRONMENT);
         assertEquals(managerSpec.getRootGroups().size(), 2);
         assertEquals(getTotalResourceGroupCount(managerSpec.getRootGroups()), 10);
         assertEquals(managerSpec.getSelectors().size(), 6);
     }
 
-    private String createPropertiesFile()
-            throws IOException
+    @Test
+    public void testInitSchema()
     {
-        List<String> properties = ImmutableList.of(
-                "resource-groups.config-db-url=" + container.getJdbcUrl(),
-                "resource-groups.config-db-user=" + container.getUsername(),
-                "resource-groups.config-db-password=" + container.getPassword()
+        dropAllTables();
+        TestCli.cli(
+                "init_schema",
+                "--db-config=" + dbPropertiesFile
+        );
+        assertTrue(jdbi.withHandle(ResourceGroupsSchema::findMissingIndexes).isEmpty());
+        // the indexes of a table that does not exist are not missing
+        jdbi.useHandle(handle -> handle.execute("DROP TABLE " + ResourceGroupsSchema.HISTORY_TABLE));
+        assertTrue(jdbi.withHandle(ResourceGroupsSchema::findMissingIndexes).isEmpty());
+        // running it again leaves the existing tables alone
+        TestCli.cli(
+                "init_schema",
+                "--db-config=" + dbPropertiesFile
+        );
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=" + ENVIRONMENT,
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("simple_resource_groups.json").getPath()
         );
+        ManagerSpec managerSpec = DbBasedResourceGroups.loadResourceGroupsFromDb(createDao(), ENVIRONMENT);
+        assertEquals(managerSpec.getRootGroups().size(), 2);
+        assertEquals(managerSpec.getSelectors().size(), 2);
+    }
+
+    @Test
+    public void testApplyOnlyReplacesTargetEnvironment()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // concurrent applies to different environments must not interfere
+            Future<TestCli> first = executor.submit(() -> TestCli.cli(
+                    "create_resource_groups",
+                    "--environment=first",
+                    "--db-config=" + dbPropertiesFile,
+                    "--resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath()));
+            Future<TestCli> second = executor.submit(() -> TestCli.cli(
+                    "create_resource_groups",
+                    "--environment=second",
+                    "--db-config=" + dbPropertiesFile,
+                    "--resource-groups-json=" + getResource("simple_resource_groups.json").getPath()));
+            first.get().out();
+            second.get().out();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        TestCli.cli(
+                "create_resource_groups",
+                "--environment=second",
+                "--db-config=" + dbPropertiesFile,
+                "--resource-groups-json=" + getResource("resource_group_with_user_group_regex.json").getPath()
+        ).out();
+        ResourceGroupsDao dao = createDao();
+        ManagerSpec first = DbBasedResourceGroups.loadResourceGroupsFromDb(dao, "first");
+        assertEquals(getTotalResourceGroupCount(first.getRootGroups()), 6);
+        assertEquals(first.getSelectors().size(), 4);
+        ManagerSpec second = DbBasedResourceGroups.loadResourceGroupsFromDb(dao, "second");
+        assertEquals(getTotalResourceGroupCount(second.getRootGroups()), 10);
+        assertEquals(second.getSelectors().size(), 6);
+    }
+
+    @Test
+    public void testBatch()
+            throws IOException
+    {
+        Path output = createTempFile("resource-groups", ".json");
+        Path script = createTempFile("resource-groups", ".script");
+        Files.write(script, ImmutableList.of(
+                "# create both environments, then list one of them",
+                "create_resource_groups --db-config=" + dbPropertiesFile + " --environment=first --resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath(),
+                "{\"command\": \"create_resource_groups\", \"options\": {\"db-config\": \"" + dbPropertiesFile + "\", \"environment\": \"second\", " +
+                        "\"resource-groups-json\": \"" + getResource("simple_resource_groups.json").getPath() + "\", \"bulk-load\": true}}",
+                "wait",
+                "list_resource_groups --db-config=" + dbPropertiesFile + " --environment=first --output-json-file=" + output),
+                TRUNCATE_EXISTING, CREATE, WRITE);
+
+        String out = TestCli.cli("batch", "--script=" + script, "--parallelism=2").out();
+        assertTrue(out.contains("3 commands, 0 failed"), out);
+        ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(output.toString());
+        assertEquals(getTotalResourceGroupCount(managerSpec.getRootGroups()), 6);
+    }
+
+    protected ResourceGroupsDao createDao()
+    {
+        DbResourceGroupConfig config = new DbResourceGroupConfig()
+                .setConfigDbUrl(getJdbcUrl())
+                .setConfigDbUser(getUser())
+                .setConfigDbPassword(getPassword());
+        return new DaoProvider(config, jdbi).get();
+    }
+
+    protected String createDbPropertiesFile(String... extraProperties)
+            throws IOException
+    {
+        return createPropertiesFile(getJdbcUrl(), getUser(), getPassword(), extraProperties);
+    }
+
+    private static String createPropertiesFile(String jdbcUrl, String user, String password, String... extraProperties)
+            throws IOException
+    {
+        List<String> properties = ImmutableList.<String>builder()
+                .add("resource-groups.config-db-url=" + jdbcUrl)
+                .add("resource-groups.config-db-user=" + user)
+                .add("resource-groups.config-db-password=" + password)
+                .add(extraProperties)
+                .build();
         Path tmpPath = createTempFile("resource-group-db", ".properties");
         Files.write(tmpPath, properties, TRUNCATE_EXISTING, CREATE, WRITE);
         return tmpPath.toFile().getAbsolutePath();
     }
 
+    private static void appendGroups(StringBuilder json, List<Integer> fanOut)
+    {
+        json.append('[');
+        for (int i = 0; i < fanOut.get(0); i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"name\": \"g").append(i).append("\", \"softMemoryLimit\": \"10%\", \"hardConcurrencyLimit\": 10, \"maxQueued\": 10");
+            if (fanOut.size() > 1) {
+                json.append(", \"subGroups\": ");
+                appendGroups(json, fanOut.subList(1, fanOut.size()));
+            }
+            json.append('}');
+        }
+        json.append(']');
+    }
+
     private int getTotalResourceGroupCount(List<ResourceGroupSpec> resourceGroups)
     {
         int total = 0;
@@ -175,4 +793,42 @@ public abstract class BaseTestCreateResourceGroupsCli
         }
         return total;
     }
+
+    private static class FailingBulkLoader
+            implements BulkLoader
+    {
+        private final BulkLoader delegate;
+        private final IntPredicate failLoad;
+        private final boolean transientFailure;
+        private int loads;
+
+        public FailingBulkLoader(BulkLoader delegate, IntPredicate failLoad, boolean transientFailure)
+        {
+            this.delegate = delegate;
+            this.failLoad = failLoad;
+            this.transientFailure = transientFailure;
+        }
+
+        public int getLoads()
+        {
+            return loads;
+        }
+
+        @Override
+        public long[] allocateResourceGroupIds(Handle handle, int count)
+        {
+            return delegate.allocateResourceGroupIds(handle, count);
+        }
+
+        @Override
+        public void load(Handle handle, ManagerSpecRows rows)
+        {
+            loads++;
+            delegate.load(handle, rows);
+            if (failLoad.test(loads)) {
+                String message = "load " + loads + " failed";
+                throw new RuntimeException(transientFailure ? new SQLTransientConnectionException(message) : new SQLException(message));
+            }
+        }
+    }
 }
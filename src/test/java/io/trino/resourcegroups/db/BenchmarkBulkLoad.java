@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.db.DbResourceGroupConfig;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.util.Locale.ENGLISH;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Measures load throughput of the bulk loaders against an apply that
+ * inserts one row at a time. By default this writes 1,000 root groups with
+ * 999 sub groups each, for one million resource group rows, to an embedded
+ * H2 database. PostgreSQL and MySQL, started
+ * with Testcontainers, are measured when named in the third argument,
+ * such as {@code h2,postgresql,mysql}.
+ */
+public final class BenchmarkBulkLoad
+{
+    private static final String ENVIRONMENT = "benchmark";
+
+    private BenchmarkBulkLoad() {}
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        int rootGroups = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int subGroups = args.length > 1 ? Integer.parseInt(args[1]) : 999;
+        ManagerSpec managerSpec = generateManagerSpec(rootGroups, subGroups);
+        List<String> databases = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(args.length > 2 ? args[2] : "h2");
+        int rows = ManagerSpecRows.countResourceGroups(managerSpec.getRootGroups()) + managerSpec.getSelectors().size();
+
+        for (String database : databases) {
+            switch (database.toLowerCase(ENGLISH)) {
+                case "h2":
+                    benchmark(new TestH2CreateResourceGroupsCli(), managerSpec, rows, ImmutableList.of(new BatchedInsertBulkLoader(DatabaseType.H2)));
+                    break;
+                case "postgresql":
+                    benchmark(new TestPostgresqlCreateResourceGroupsCli(), managerSpec, rows, ImmutableList.of(new CopyBulkLoader(), new BatchedInsertBulkLoader(DatabaseType.POSTGRESQL)));
+                    break;
+                case "mysql":
+                    benchmark(new TestMysqlCreateResourceGroupsCli(), managerSpec, rows, ImmutableList.of(new BatchedInsertBulkLoader(DatabaseType.MYSQL)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown database: " + database);
+            }
+        }
+    }
+
+    private static void benchmark(BaseTestCreateResourceGroupsCli database, ManagerSpec managerSpec, int rows, List<BulkLoader> bulkLoaders)
+            throws IOException
+    {
+        database.setup();
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("user", database.getUser());
+            properties.setProperty("password", database.getPassword());
+            properties.setProperty("rewriteBatchedStatements", "true");
+            Jdbi jdbi = Jdbi.create(database.getJdbcUrl(), properties);
+            DatabaseType databaseType = jdbi.withHandle(DbBasedResourceGroups::getDatabaseType);
+            ResourceGroupsDao dao = new DaoProvider(new DbResourceGroupConfig(), jdbi).get();
+            // the baseline: an apply without --bulk-load, one insert per row
+            database.tableSetup();
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            new ResourceGroupsApplier(dao, databaseType, bulkLoaders.get(0)).apply(managerSpec, Optional.empty(), ENVIRONMENT, false);
+            double baseline = report(databaseType, "row by row", rows, stopwatch);
+            database.tableCleanup();
+            for (BulkLoader bulkLoader : bulkLoaders) {
+                database.tableSetup();
+                stopwatch = Stopwatch.createStarted();
+                dao.bulkInsert(bulkLoader, managerSpec, ENVIRONMENT);
+                double rowsPerSecond = report(databaseType, bulkLoader.getClass().getSimpleName(), rows, stopwatch);
+                System.out.printf("%s %s: %.1fx row by row%n", databaseType, bulkLoader.getClass().getSimpleName(), rowsPerSecond / baseline);
+                database.tableCleanup();
+            }
+        }
+        finally {
+            database.close();
+        }
+    }
+
+    private static double report(DatabaseType databaseType, String loader, int rows, Stopwatch stopwatch)
+    {
+        long millis = Math.max(stopwatch.elapsed(MILLISECONDS), 1);
+        double rowsPerSecond = rows * 1000.0 / millis;
+        System.out.printf("%s %s: %d rows in %d ms (%.0f rows/s)%n", databaseType, loader, rows, millis, rowsPerSecond);
+        return rowsPerSecond;
+    }
+
+    static ManagerSpec generateManagerSpec(int rootGroups, int subGroups)
+            throws IOException
+    {
+        return generateManagerSpec(rootGroups, subGroups, 1);
+    }
+
+    static ManagerSpec generateManagerSpec(int rootGroups, int subGroups, int subGroupConcurrencyLimit)
+            throws IOException
+    {
+        Path path = createTempFile("resource-groups-benchmark", ".json");
+        try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8)) {
+            writer.write("{\"rootGroups\": [");
+            for (int root = 0; root < rootGroups; root++) {
+                if (root > 0) {
+                    writer.write(",");
+                }
+                writer.write("{\"name\": \"root_" + root + "\", \"softMemoryLimit\": \"10%\", \"hardConcurrencyLimit\": 10, \"maxQueued\": 100, \"subGroups\": [");
+                for (int sub = 0; sub < subGroups; sub++) {
+                    if (sub > 0) {
+                        writer.write(",");
+                    }
+                    writer.write("{\"name\": \"sub_" + sub + "\", \"softMemoryLimit\": \"1%\", \"hardConcurrencyLimit\": " + subGroupConcurrencyLimit + ", \"maxQueued\": 10}");
+                }
+                writer.write("]}");
+            }
+            writer.write("], \"selectors\": [");
+            for (int root = 0; root < rootGroups; root++) {
+                if (root > 0) {
+                    writer.write(",");
+                }
+                writer.write("{\"user\": \"user_" + root + "\", \"group\": \"root_" + root + "\"}");
+            }
+            writer.write("], \"cpuQuotaPeriod\": \"1h\"}");
+        }
+        try {
+            return FileBasedResourceGroups.parseResourceGroupsSchema(path.toString());
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures how fast {@link QueryLogIngester} turns a query event log into
+ * batches. The log is generated once per trial, about 1GB by default, so
+ * the throughput in bytes per second is the file size divided by the score.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BenchmarkQueryLogIngestion
+{
+    @Param("2000000")
+    public int events;
+
+    @Param({"1", "4", "16"})
+    public int threads;
+
+    private Path queryLog;
+    private ExecutorService executor;
+    private QueryLogIngester ingester;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        queryLog = createTempFile("query-log", ".json");
+        try (BufferedWriter writer = Files.newBufferedWriter(queryLog, UTF_8)) {
+            for (int i = 0; i < events; i++) {
+                writer.write(format("{\"metadata\": {\"queryId\": \"20220301_100000_%05d_abcde\", \"query\": \"SELECT * FROM hive.web.page_views WHERE day = DATE '2022-03-01'\", " +
+                                "\"tables\": [{\"catalog\": \"hive\", \"schema\": \"web\", \"table\": \"page_views\"}]}, " +
+                                "\"statistics\": {\"cpuTime\": \"PT12.5S\", \"queuedTime\": \"PT0.%03dS\", \"peakUserMemoryBytes\": %d, \"totalRows\": 1000000}, " +
+                                "\"context\": {\"user\": \"user_%d\", \"groups\": [\"group_%d\"], \"source\": \"%s\", \"clientTags\": [\"tag_%d\"], \"queryType\": \"SELECT\"}, " +
+                                "\"createTime\": \"2022-03-01T10:%02d:%02dZ\", \"executionStartTime\": \"2022-03-01T10:%02d:%02dZ\", \"endTime\": \"2022-03-01T11:%02d:%02dZ\"}%n",
+                        i % 100_000,
+                        i % 1000,
+                        i * 1024L,
+                        i % 1000,
+                        i % 50,
+                        i % 2 == 0 ? "jdbc" : "trino-cli",
+                        i % 10,
+                        i / 60 % 60,
+                        i % 60,
+                        i / 60 % 60,
+                        i % 60,
+                        i / 60 % 60,
+                        i % 60));
+            }
+        }
+        executor = Executors.newFixedThreadPool(threads);
+        ingester = new QueryLogIngester(executor, threads);
+    }
+
+    @TearDown
+    public void tearDown()
+            throws IOException
+    {
+        executor.shutdownNow();
+        Files.delete(queryLog);
+    }
+
+    @Benchmark
+    public long ingest()
+    {
+        AtomicLong positions = new AtomicLong();
+        ingester.ingest(ImmutableList.of(queryLog), batch -> positions.addAndGet(batch.getPositionCount()));
+        return positions.get();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(".*" + BenchmarkQueryLogIngestion.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.db.DbResourceGroupConfig;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures how applies affect Trino coordinators, which reload the resource
+ * groups of their environment from the database every second. Reader threads
+ * load the configuration on that schedule with
+ * {@link DbBasedResourceGroups#loadResourceGroupsFromDb} while a writer keeps
+ * applying two alternating configurations to an embedded H2 database.
+ * <p>
+ * A snapshot is inconsistent when its fingerprint matches neither of the
+ * applied configurations, which happens when a reader sees the rows of an
+ * apply that has only partially committed or mixes rows from two applies.
+ * <p>
+ * Arguments, all optional: readers (8), duration in seconds (30), poll
+ * interval in milliseconds (1000), root groups (100), sub groups per root
+ * group (99), and {@code staged} to apply through a staging environment.
+ */
+public final class BenchmarkReloadUnderLoad
+{
+    private static final String ENVIRONMENT = "benchmark";
+
+    private BenchmarkReloadUnderLoad() {}
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int durationSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        long pollIntervalMillis = args.length > 2 ? Long.parseLong(args[2]) : 1_000;
+        int rootGroups = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int subGroups = args.length > 4 ? Integer.parseInt(args[4]) : 99;
+        boolean staged = args.length > 5 && args[5].equals("staged");
+
+        List<ManagerSpec> versions = ImmutableList.of(
+                BenchmarkBulkLoad.generateManagerSpec(rootGroups, subGroups, 1),
+                BenchmarkBulkLoad.generateManagerSpec(rootGroups, subGroups, 2));
+        Set<HashCode> expectedFingerprints = versions.stream()
+                .map(BenchmarkReloadUnderLoad::fingerprint)
+                .collect(ImmutableSet.toImmutableSet());
+        int rowsPerApply = ManagerSpecRows.countResourceGroups(versions.get(0).getRootGroups()) + versions.get(0).getSelectors().size();
+
+        Jdbi jdbi = Jdbi.create("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        ResourceGroupsDao dao = new DaoProvider(new DbResourceGroupConfig(), jdbi).get();
+        jdbi.useHandle(handle -> ResourceGroupsSchema.initialize(handle, DatabaseType.H2));
+        ResourceGroupsApplier applier = new ResourceGroupsApplier(dao, DatabaseType.H2, BulkLoader.forDatabaseType(DatabaseType.H2));
+        applier.apply(versions.get(0), Optional.empty(), ENVIRONMENT, true);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong inconsistent = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        try {
+            List<Future<List<Long>>> readerLatencies = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                readerLatencies.add(executor.submit(() -> {
+                    List<Long> latencies = new ArrayList<>();
+                    while (!done.get()) {
+                        long start = System.nanoTime();
+                        try {
+                            ManagerSpec snapshot = DbBasedResourceGroups.loadResourceGroupsFromDb(dao, ENVIRONMENT);
+                            if (!expectedFingerprints.contains(fingerprint(snapshot))) {
+                                inconsistent.incrementAndGet();
+                            }
+                        }
+                        catch (RuntimeException e) {
+                            // a snapshot that cannot even be built, e.g. a selector without its group
+                            failed.incrementAndGet();
+                        }
+                        long elapsed = System.nanoTime() - start;
+                        latencies.add(elapsed);
+                        MILLISECONDS.sleep(Math.max(0, pollIntervalMillis - NANOSECONDS.toMillis(elapsed)));
+                    }
+                    return latencies;
+                }));
+            }
+
+            Future<List<Long>> applyLatencies = executor.submit(() -> {
+                List<Long> latencies = new ArrayList<>();
+                long deadline = System.nanoTime() + SECONDS.toNanos(durationSeconds);
+                while (System.nanoTime() < deadline) {
+                    ManagerSpec managerSpec = versions.get((latencies.size() + 1) % versions.size());
+                    long start = System.nanoTime();
+                    if (staged) {
+                        applier.applyStaged(managerSpec, Optional.empty(), ENVIRONMENT, ENVIRONMENT + "_staging", true);
+                    }
+                    else {
+                        applier.apply(managerSpec, Optional.empty(), ENVIRONMENT, true);
+                    }
+                    latencies.add(System.nanoTime() - start);
+                }
+                done.set(true);
+                return latencies;
+            });
+
+            List<Long> applies = applyLatencies.get();
+            List<Long> reads = new ArrayList<>();
+            for (Future<List<Long>> future : readerLatencies) {
+                reads.addAll(future.get());
+            }
+
+            System.out.printf("%d readers polling every %d ms for %d s, %d rows per apply%s%n",
+                    readers, pollIntervalMillis, durationSeconds, rowsPerApply, staged ? ", staged" : "");
+            System.out.printf("reads: %d, inconsistent snapshots: %d, failed snapshots: %d%n", reads.size(), inconsistent.get(), failed.get());
+            printPercentiles("read latency", reads);
+            System.out.printf("applies: %d (%.2f applies/s, %.0f rows/s)%n",
+                    applies.size(),
+                    applies.size() / (double) durationSeconds,
+                    applies.size() * (double) rowsPerApply / durationSeconds);
+            printPercentiles("apply latency", applies);
+        }
+        finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    private static HashCode fingerprint(ManagerSpec managerSpec)
+    {
+        // the cpu quota period is shared by all environments and not part of a snapshot
+        return Hashing.combineOrdered(ImmutableList.of(
+                ManagerSpecFingerprint.hashRootGroups(managerSpec.getRootGroups()),
+                ManagerSpecFingerprint.hashSelectors(managerSpec.getSelectors())));
+    }
+
+    private static void printPercentiles(String name, List<Long> nanos)
+    {
+        if (nanos.isEmpty()) {
+            System.out.printf("%s: no samples%n", name);
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        System.out.printf("%s ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                name,
+                percentile(sorted, 0.50),
+                percentile(sorted, 0.90),
+                percentile(sorted, 0.99),
+                sorted.get(sorted.size() - 1) / 1_000_000.0);
+    }
+
+    private static double percentile(List<Long> sorted, double percentile)
+    {
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0)) / 1_000_000.0;
+    }
+}
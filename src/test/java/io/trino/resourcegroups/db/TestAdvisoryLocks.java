@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import static io.trino.resourcegroups.db.DatabaseType.H2;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestAdvisoryLocks
+{
+    @Test
+    public void testH2Locks()
+            throws Exception
+    {
+        Jdbi jdbi = Jdbi.create("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "test", "test");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (Handle handle = jdbi.open(); Handle other = jdbi.open(); Handle third = jdbi.open()) {
+            // shared locks of the same name are held together
+            AdvisoryLocks.lockShared(handle, H2, "first");
+            executor.submit(() -> {
+                AdvisoryLocks.lockShared(other, H2, "first");
+                AdvisoryLocks.unlock(other, H2, "first");
+            }).get(10, SECONDS);
+
+            // but exclude the exclusive lock
+            Future<?> exclusive = executor.submit(() -> {
+                AdvisoryLocks.lock(other, H2, "first");
+                AdvisoryLocks.unlock(other, H2, "first");
+            });
+            assertThatThrownBy(() -> exclusive.get(500, MILLISECONDS)).isInstanceOf(TimeoutException.class);
+
+            // locks of other names do not wait
+            executor.submit(() -> {
+                AdvisoryLocks.lock(third, H2, "second");
+                AdvisoryLocks.unlock(third, H2, "second");
+            }).get(10, SECONDS);
+
+            // every lock is released by its own unlock
+            AdvisoryLocks.lockShared(handle, H2, "first");
+            AdvisoryLocks.unlock(handle, H2, "first");
+            assertThatThrownBy(() -> exclusive.get(500, MILLISECONDS)).isInstanceOf(TimeoutException.class);
+            AdvisoryLocks.unlock(handle, H2, "first");
+            exclusive.get(10, SECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+            jdbi.useHandle(handle -> handle.execute("SHUTDOWN"));
+        }
+    }
+}
@@ -58,5 +58,14 @@ public final class TestCli
         assertThat(exitCode).isNotEqualTo(0);
         return stderr;
     }
+
+    /**
+     * Output of a command that is expected to fail.
+     */
+    public String failedOut()
+    {
+        assertThat(exitCode).isNotEqualTo(0);
+        return stdout;
+    }
 }
 
@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.google.common.io.Resources.getResource;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestCostReport
+{
+    @Test
+    public void testCosts()
+    {
+        ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+        List<QueryEvent> contexts = CostReport.generateContexts(managerSpec, 1000, 1);
+        assertEquals(contexts.size(), 1000);
+
+        CostReport report = CostReport.measure(managerSpec, contexts, new Duration(20, MILLISECONDS));
+        assertEquals(report.getCost(CostReport.RESOURCE_GROUPS), 6.0);
+        assertEquals(report.getCost(CostReport.SELECTORS), 4.0);
+        assertEquals(report.getCost(CostReport.TREE_DEPTH), 3.0);
+        // user regexes of two selectors and the source regex of a third
+        assertEquals(report.getCost(CostReport.REGEXES), 3.0);
+        double selectorsPerQuery = report.getCost(CostReport.SELECTORS_PER_QUERY);
+        assertTrue(selectorsPerQuery >= 1 && selectorsPerQuery <= 4, "selectors per query " + selectorsPerQuery);
+        assertTrue(report.getCost(CostReport.NANOS_PER_QUERY) > 0);
+        // the last selector matches every query
+        assertEquals(report.getUnroutedQueries(), 0.0);
+    }
+
+    @Test
+    public void testBudgets()
+    {
+        String resourceGroups = "--resource-groups-json=" + getResource("resource_group_with_subgroups_modified.json").getPath();
+        String baseline = "--baseline-resource-groups-json=" + getResource("resource_group_with_subgroups.json").getPath();
+        String output = TestCli.cli("cost_report", resourceGroups, baseline, "--benchmark-time=20ms", "--max-resource-groups=10", "--max-regexes=3").out();
+        assertFalse(output.contains("OVER BUDGET"), output);
+
+        output = TestCli.cli("cost_report", resourceGroups, "--benchmark-time=20ms", "--max-regexes=2").failedOut();
+        assertTrue(output.matches("(?s).*regexes +3 +- +2  OVER BUDGET.*"), output);
+
+        // six resource groups before, six after, but only five allowed by the growth budget
+        output = TestCli.cli("cost_report", resourceGroups, baseline, "--benchmark-time=20ms", "--max-resource-groups=5", "--max-growth=1.5").failedOut();
+        assertTrue(output.matches("(?s).*resource_groups +6 +6 +5  OVER BUDGET.*"), output);
+    }
+}
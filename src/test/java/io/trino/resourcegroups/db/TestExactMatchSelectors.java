@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.io.Resources.getResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.testng.Assert.assertEquals;
+
+public class TestExactMatchSelectors
+{
+    @Test
+    public void testLiteral()
+    {
+        assertEquals(ExactMatchSelectors.literal("airflow"), Optional.of("airflow"));
+        assertEquals(ExactMatchSelectors.literal("^dbt$"), Optional.of("dbt"));
+        assertEquals(ExactMatchSelectors.literal("trino\\.cli"), Optional.of("trino.cli"));
+        assertEquals(ExactMatchSelectors.literal("cost\\$"), Optional.of("cost$"));
+        assertEquals(ExactMatchSelectors.literal("jdbc#.*"), Optional.empty());
+        assertEquals(ExactMatchSelectors.literal("a|b"), Optional.empty());
+        assertEquals(ExactMatchSelectors.literal("\\d+"), Optional.empty());
+        assertEquals(ExactMatchSelectors.literal("^$"), Optional.empty());
+    }
+
+    @Test
+    public void testParse()
+    {
+        String spec = "\"rootGroups\": [{\"name\": \"global\", \"softMemoryLimit\": \"80%\", \"hardConcurrencyLimit\": 100, \"maxQueued\": 1000}], " +
+                "\"selectors\": [{\"group\": \"global\"}]";
+        assertEquals(FileBasedResourceGroups.parseResourceGroupsFile(("{" + spec + "}").getBytes(UTF_8)).getExactMatchSelectors(), Optional.empty());
+        assertEquals(FileBasedResourceGroups.parseResourceGroupsFile(("{\"exactMatchSelectors\": null, " + spec + "}").getBytes(UTF_8)).getExactMatchSelectors(), Optional.empty());
+        ManagerSpecBinary.Snapshot parsed = FileBasedResourceGroups.parseResourceGroupsFile(("{\"exactMatchSelectors\": [{\"source\": \"airflow\", \"group\": \"global\"}], " + spec + "}").getBytes(UTF_8));
+        assertEquals(parsed.getManagerSpec().getRootGroups().size(), 1);
+        assertEquals(parsed.getExactMatchSelectors().orElseThrow().get(0).toString(), "airflow -> global");
+        assertThatThrownBy(() -> FileBasedResourceGroups.parseResourceGroupsFile(("{" + spec + ", \"exactMatchSelectors\": [{\"group\": \"global\"}]}").getBytes(UTF_8)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid exactMatchSelectors: source is null");
+        // only the top level property is read
+        assertThatThrownBy(() -> FileBasedResourceGroups.parseResourceGroupsFile(("{" + spec.replace("\"maxQueued\": 1000", "\"maxQueued\": 1000, \"exactMatchSelectors\": []") + "}").getBytes(UTF_8)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown property at line 1");
+    }
+
+    @Test
+    public void testPromote()
+    {
+        ManagerSpecBinary.Snapshot input = FileBasedResourceGroups.parseResourceGroupsFile(getResource("exact_match_selectors.json").getPath());
+        ManagerSpec managerSpec = input.getManagerSpec();
+        List<ExactMatchSelectorSpec> declared = input.getExactMatchSelectors().orElseThrow();
+
+        ExactMatchSelectors.Promotion promotion = ExactMatchSelectors.promote(managerSpec, declared);
+        assertEquals(promotion.getPromotedSelectors(), 2);
+        assertEquals(promotion.getSourceRegexSelectors(), 6);
+        assertEquals(
+                promotion.getExactMatchSelectors().stream()
+                        .map(ExactMatchSelectorSpec::toString)
+                        .collect(toImmutableList()),
+                ImmutableList.of(
+                        "superset (SELECT) -> global.adhoc",
+                        "airflow -> global.pipeline",
+                        "dbt (INSERT) -> global.pipeline"));
+        // the selector behind bob's admin-console selector, the regex and the one
+        // colliding with the declared superset entry stay on the regex path
+        assertEquals(
+                promotion.getManagerSpec().getSelectors().stream()
+                        .map(selector -> selector.getSourceRegex().map(Object::toString).orElse("*"))
+                        .collect(toImmutableList()),
+                ImmutableList.of("admin-console", "admin-console", "jdbc#.*", "superset", "*"));
+        assertEquals(promotion.toString(), "Promoted 2 of 6 source regex selectors to exact match selectors, 5 regex selectors remain");
+    }
+
+    @Test
+    public void testResourceGroupId()
+    {
+        ExactMatchSelectorSpec selector = new ExactMatchSelectorSpec("airflow", Optional.empty(), "global.pipeline");
+        assertEquals(selector.getResourceGroupId(), "[\"global\",\"pipeline\"]");
+        assertEquals(selector.getQueryTypes().size(), 8);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+
+@Test(singleThreaded = true)
+public class TestH2CreateResourceGroupsCli
+        extends BaseTestCreateResourceGroupsCli
+{
+    // kept open between connections, so every command run in this JVM sees the same database
+    private final String jdbcUrl = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+
+    @Override
+    protected final void startDatabase()
+    {
+    }
+
+    @Override
+    protected final void stopDatabase()
+    {
+        jdbi.useHandle(handle -> handle.execute("SHUTDOWN"));
+    }
+
+    @Override
+    protected final String getJdbcUrl()
+    {
+        return jdbcUrl;
+    }
+
+    @Override
+    protected final String getUser()
+    {
+        return "test";
+    }
+
+    @Override
+    protected final String getPassword()
+    {
+        return "test";
+    }
+
+    @Override
+    protected final void createAllTables()
+    {
+        jdbi.useHandle(handle -> ResourceGroupsSchema.initialize(handle, DatabaseType.H2));
+    }
+
+    @Override
+    protected final void dropAllTables()
+    {
+        jdbi.useHandle(handle -> handle.execute("DROP ALL OBJECTS"));
+    }
+}
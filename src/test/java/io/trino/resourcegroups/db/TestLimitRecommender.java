@@ -0,0 +1,249 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.ResourceGroupSpec;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.io.Resources.getResource;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestLimitRecommender
+{
+    @Test
+    public void testQuantileSketch()
+    {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (int i = 1; i <= 10_000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(sketch.getCount(), 10_000);
+        assertEquals(sketch.getQuantile(0.5), 5_000, 5_000 * 0.01);
+        assertEquals(sketch.getQuantile(0.99), 9_900, 9_900 * 0.01);
+        assertEquals(sketch.getQuantile(1), 10_000, 10_000 * 0.01);
+        assertTrue(Double.isNaN(new QuantileSketch().getQuantile(0.5)));
+    }
+
+    @Test
+    public void testParseQueryEvent()
+    {
+        Optional<QueryEvent> event = QueryLogParser.parse("{\"metadata\": {\"queryId\": \"q1\", \"tables\": [{\"catalog\": \"hive\"}]}, " +
+                "\"statistics\": {\"queuedTime\": \"PT2S\", \"peakUserMemoryBytes\": 1024}, " +
+                "\"context\": {\"user\": \"alice\", \"groups\": [\"analysts\"], \"source\": \"jdbc\", \"clientTags\": [\"etl\"], \"queryType\": \"SELECT\"}, " +
+                "\"createTime\": \"2022-03-01T10:00:00Z\", \"endTime\": \"2022-03-01T10:00:10Z\"}");
+        assertTrue(event.isPresent());
+        assertEquals(event.get().getUser(), "alice");
+        assertEquals(event.get().getGroups(), ImmutableList.of("analysts"));
+        assertEquals(event.get().getSource(), Optional.of("jdbc"));
+        assertEquals(event.get().getClientTags(), ImmutableList.of("etl"));
+        assertEquals(event.get().getQueryType(), Optional.of("SELECT"));
+        assertEquals(event.get().getQueuedMillis(), 2_000);
+        assertEquals(event.get().getEndTime() - event.get().getCreateTime(), 10_000);
+        assertEquals(event.get().getPeakMemoryBytes(), 1024);
+
+        assertFalse(QueryLogParser.parse("{\"metadata\": {\"queryId\": \"q1\"}, \"createTime\": \"2022-03-01T10:00:00Z\"}").isPresent());
+        assertFalse(QueryLogParser.parse("not json").isPresent());
+    }
+
+    @Test
+    public void testIngestQueryLog()
+            throws IOException
+    {
+        Path queryLog = createTempFile("query-log", ".json");
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 1_000; i++) {
+            if (i % 10 == 0) {
+                lines.append("not json\n");
+            }
+            else {
+                lines.append(format("{\"context\": {\"user\": \"user_%s\", \"groups\": [\"group_%s\"], \"clientTags\": []}, " +
+                        "\"statistics\": {\"queuedTime\": \"PT1S\", \"peakUserMemoryBytes\": %s}, " +
+                        "\"createTime\": \"2022-03-01T10:00:00Z\", \"endTime\": \"2022-03-01T10:00:10Z\"}\n", i, i % 3, i));
+            }
+        }
+        Files.write(queryLog, lines.toString().getBytes(UTF_8));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // chunks much smaller than the file, so it is split into many batches
+            QueryLogIngester ingester = new QueryLogIngester(executor, 4, DataSize.of(1, KILOBYTE));
+            List<QueryEvent> events = new ArrayList<>();
+            AtomicLong skipped = new AtomicLong();
+            AtomicInteger batches = new AtomicInteger();
+            ingester.ingest(ImmutableList.of(queryLog), batch -> {
+                batches.incrementAndGet();
+                skipped.addAndGet(batch.getSkippedLines());
+                for (int position = 0; position < batch.getPositionCount(); position++) {
+                    events.add(batch.getEvent(position));
+                }
+            });
+
+            assertTrue(batches.get() > 1);
+            assertEquals(skipped.get(), 100);
+            assertEquals(events.size(), 900);
+            for (int i = 0, position = 0; i < 1_000; i++) {
+                if (i % 10 != 0) {
+                    QueryEvent event = events.get(position++);
+                    assertEquals(event.getUser(), "user_" + i);
+                    assertEquals(event.getGroups(), ImmutableList.of("group_" + i % 3));
+                    assertEquals(event.getSource(), Optional.empty());
+                    assertEquals(event.getQueuedMillis(), 1_000);
+                    assertEquals(event.getPeakMemoryBytes(), i);
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            Files.delete(queryLog);
+        }
+    }
+
+    @Test
+    public void testIngestCompressedQueryLog()
+            throws IOException
+    {
+        // with 1 KiB chunks, the first line makes the chunk grow twice and leaves
+        // a rest longer than a chunk, and the second line is not terminated
+        Path queryLog = createTempFile("query-log", ".json.gz");
+        StringBuilder lines = new StringBuilder()
+                .append(paddedEvent(0, 2_559)).append('\n')
+                .append(paddedEvent(1, 1_536));
+        Path mixedQueryLog = createTempFile("query-log", ".json.gz");
+        StringBuilder mixedLines = new StringBuilder();
+        for (int i = 2; i < 100; i++) {
+            mixedLines.append(paddedEvent(i, i % 7 == 0 ? 3_000 + i * 10 : 200)).append('\n');
+        }
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(queryLog))) {
+            output.write(lines.toString().getBytes(UTF_8));
+        }
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(mixedQueryLog))) {
+            output.write(mixedLines.toString().getBytes(UTF_8));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            QueryLogIngester ingester = new QueryLogIngester(executor, 4, DataSize.of(1, KILOBYTE));
+            List<QueryEvent> events = new ArrayList<>();
+            ingester.ingest(ImmutableList.of(queryLog, mixedQueryLog), batch -> {
+                assertEquals(batch.getSkippedLines(), 0);
+                for (int position = 0; position < batch.getPositionCount(); position++) {
+                    events.add(batch.getEvent(position));
+                }
+            });
+
+            assertEquals(events.size(), 100);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(events.get(i).getUser(), "user_" + i);
+            }
+            assertEquals(events.get(0).getSource().orElseThrow().length(), 2_559 - paddedEvent(0, 0).length());
+            assertEquals(events.get(1).getSource().orElseThrow().length(), 1_536 - paddedEvent(1, 0).length());
+        }
+        finally {
+            executor.shutdownNow();
+            Files.delete(queryLog);
+            Files.delete(mixedQueryLog);
+        }
+    }
+
+    /**
+     * Returns a query event of exactly {@code length} characters, padded with
+     * its source, or the unpadded event if it is longer.
+     */
+    private static String paddedEvent(int user, int length)
+    {
+        String event = "{\"context\": {\"user\": \"user_%s\", \"groups\": [], \"clientTags\": [], \"source\": \"%s\"}, " +
+                "\"statistics\": {\"queuedTime\": \"PT1S\", \"peakUserMemoryBytes\": 1}, " +
+                "\"createTime\": \"2022-03-01T10:00:00Z\", \"endTime\": \"2022-03-01T10:00:10Z\"}";
+        String unpadded = format(event, user, "");
+        return format(event, user, "x".repeat(Math.max(0, length - unpadded.length())));
+    }
+
+    @Test
+    public void testRecommend()
+            throws IOException
+    {
+        ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+        LimitRecommender recommender = new LimitRecommender(managerSpec, new Duration(10, MINUTES));
+        // two queries of bob run in admin for 10 seconds
+        recommender.add(event("bob", 0, 0, 10_000, 1_000_000));
+        recommender.add(event("bob", 0, 0, 10_000, 1_000_000));
+        // alice is routed to her own instance of global.adhoc.adhoc-${USER} and queues for 5 seconds
+        recommender.add(event("alice", 0, 5_000, 10_000, 2_000_000));
+        recommender.add(event("carol", 0, 0, 10_000, 2_000_000));
+
+        ManagerSpec recommended = recommender.recommend(managerSpec, 0.99, 1.2, Optional.empty());
+        Map<String, LimitRecommender.GroupStatistics> statistics = recommender.finish();
+        assertEquals(recommender.getRoutedQueries(), 4);
+        assertEquals(statistics.get("admin").getQueries(), 2);
+        assertEquals(statistics.get("global.adhoc.adhoc-${USER}").getQueries(), 2);
+        // alice and carol run in separate instances, but both count towards their parents
+        assertEquals(statistics.get("global.adhoc.adhoc-${USER}").getConcurrency().getMax(), 1.0);
+        assertEquals(statistics.get("global.adhoc").getConcurrency().getMax(), 2.0);
+        assertEquals(statistics.get("global.adhoc").getQueued().getMax(), 1.0);
+
+        ResourceGroupSpec admin = recommended.getRootGroups().get(1);
+        assertEquals(admin.getName().toString(), "admin");
+        assertEquals(admin.getHardConcurrencyLimit(), 3);
+        assertEquals(admin.getMaxQueued(), 3);
+        assertTrue(admin.getSoftMemoryLimit().isPresent());
+        // groups without queries keep their limits
+        ResourceGroupSpec tableau = recommended.getRootGroups().get(0).getSubGroups().get(1);
+        assertEquals(tableau.getName().toString(), "tableau");
+        assertEquals(tableau.getHardConcurrencyLimit(), 50);
+
+        // the patched configuration can be read back
+        Path path = createTempFile("recommended", ".json");
+        try {
+            Files.writeString(path, ManagerSpecToJson.convert(recommended), UTF_8);
+            ManagerSpec parsed = FileBasedResourceGroups.parseResourceGroupsSchema(path.toString());
+            assertEquals(ManagerSpecFingerprint.fingerprint(parsed), ManagerSpecFingerprint.fingerprint(recommended));
+        }
+        catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    private static QueryEvent event(String user, long createTime, long executionStartTime, long endTime, long peakMemoryBytes)
+    {
+        return new QueryEvent(user, ImmutableList.of(), Optional.empty(), ImmutableList.of(), Optional.of("SELECT"), createTime, executionStartTime, endTime, peakMemoryBytes);
+    }
+}
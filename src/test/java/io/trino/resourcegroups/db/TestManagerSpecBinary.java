@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import io.trino.plugin.resourcegroups.SelectorResourceEstimate;
+import io.trino.plugin.resourcegroups.SelectorSpec;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.io.Resources.getResource;
+import static java.nio.file.Files.createTempFile;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestManagerSpecBinary
+{
+    @Test
+    public void testRoundTrip()
+            throws IOException
+    {
+        for (String resource : List.of("resource_group_with_subgroups.json", "resource_group_with_user_group_regex.json", "exact_match_selectors.json")) {
+            byte[] json = Files.readAllBytes(Paths.get(getResource(resource).getPath()));
+            ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(json);
+            Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors = FileBasedResourceGroups.parseExactMatchSelectors(json);
+            for (ManagerSpecBinary.Format format : List.of(ManagerSpecBinary.Format.SMILE, ManagerSpecBinary.Format.CBOR)) {
+                byte[] binary = write(managerSpec, exactMatchSelectors, format);
+                assertEquals(ManagerSpecBinary.Format.detect(binary), format);
+                assertTrue(binary.length < json.length, resource + " " + format);
+
+                ManagerSpec decoded = FileBasedResourceGroups.parseResourceGroupsSchema(binary);
+                assertEquals(ManagerSpecFingerprint.fingerprint(decoded), ManagerSpecFingerprint.fingerprint(managerSpec));
+                assertTrue(ManagerSpecDiff.diff(managerSpec, decoded).isEmpty(), resource + " " + format);
+                assertEquals(toStrings(FileBasedResourceGroups.parseExactMatchSelectors(binary)), toStrings(exactMatchSelectors));
+
+                // back to JSON, the file is the same as the one written from the original spec
+                assertEquals(write(decoded, exactMatchSelectors, ManagerSpecBinary.Format.JSON), write(managerSpec, exactMatchSelectors, ManagerSpecBinary.Format.JSON));
+            }
+        }
+    }
+
+    @Test
+    public void testSelectorResourceEstimate()
+            throws IOException
+    {
+        ManagerSpec parsed = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("simple_resource_groups.json").getPath());
+        SelectorSpec selector = parsed.getSelectors().get(0);
+        SelectorResourceEstimate estimate = new SelectorResourceEstimate(
+                Optional.of(new SelectorResourceEstimate.Range<>(Optional.empty(), Optional.of(Duration.valueOf("5m")))),
+                Optional.empty(),
+                Optional.of(new SelectorResourceEstimate.Range<>(Optional.of(DataSize.valueOf("1GB")), Optional.empty())));
+        ManagerSpec managerSpec = new ManagerSpec(
+                parsed.getRootGroups(),
+                List.of(new SelectorSpec(
+                        selector.getUserRegex(),
+                        selector.getUserGroupRegex(),
+                        selector.getSourceRegex(),
+                        selector.getQueryType(),
+                        Optional.of(List.of()),
+                        Optional.of(estimate),
+                        selector.getGroup())),
+                parsed.getCpuQuotaPeriod());
+
+        SelectorSpec decoded = ManagerSpecBinary.read(write(managerSpec, Optional.empty(), ManagerSpecBinary.Format.SMILE)).getManagerSpec().getSelectors().get(0);
+        ObjectMapper mapper = new ObjectMapperProvider().get();
+        assertEquals(mapper.writeValueAsString(decoded.getSelectorResourceEstimate().orElseThrow()), mapper.writeValueAsString(estimate));
+        assertEquals(decoded.getClientTags(), Optional.of(List.of()));
+    }
+
+    @Test
+    public void testValidate()
+            throws IOException
+    {
+        ManagerSpec managerSpec = FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath());
+        Path path = createTempFile("resource-groups", ".cbor");
+        Files.write(path, write(managerSpec, Optional.empty(), ManagerSpecBinary.Format.CBOR));
+        assertTrue(ResourceGroupsValidator.validate(path).isValid());
+
+        byte[] truncated = write(managerSpec, Optional.empty(), ManagerSpecBinary.Format.SMILE);
+        Files.write(path, Arrays.copyOf(truncated, truncated.length / 2));
+        List<ResourceGroupsValidator.Error> errors = ResourceGroupsValidator.validate(path).getErrors();
+        assertEquals(errors.size(), 1);
+        assertEquals(errors.get(0).getLine(), 0);
+        assertThatThrownBy(() -> FileBasedResourceGroups.parseResourceGroupsSchema(path.toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] write(ManagerSpec managerSpec, Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors, ManagerSpecBinary.Format format)
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ManagerSpecBinary.write(managerSpec, exactMatchSelectors, format, output);
+        return output.toByteArray();
+    }
+
+    private static Optional<List<String>> toStrings(Optional<List<ExactMatchSelectorSpec>> exactMatchSelectors)
+    {
+        return exactMatchSelectors.map(selectors -> selectors.stream()
+                .map(ExactMatchSelectorSpec::toString)
+                .collect(toImmutableList()));
+    }
+}
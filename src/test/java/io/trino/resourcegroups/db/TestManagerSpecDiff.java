@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import io.trino.plugin.resourcegroups.ManagerSpec;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.io.Resources.getResource;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestManagerSpecDiff
+{
+    @Test
+    public void testIdenticalSpecs()
+    {
+        ManagerSpec spec = load("resource_group_with_subgroups.json");
+        assertTrue(ManagerSpecDiff.diff(spec, load("resource_group_with_subgroups.json")).isEmpty());
+    }
+
+    @Test
+    public void testChanges()
+    {
+        List<ManagerSpecDiff.Change> changes = ManagerSpecDiff.diff(
+                load("resource_group_with_subgroups.json"),
+                load("resource_group_with_subgroups_modified.json"));
+        assertEquals(
+                changes.stream()
+                        .map(change -> change.getType().getSymbol() + " " + change.getPath())
+                        .collect(toImmutableList()),
+                ImmutableList.of(
+                        "~ cpuQuotaPeriod",
+                        "~ global.adhoc",
+                        "+ global.etl",
+                        "- global.tableau.tableau-${USER}",
+                        "> selectors[1]"));
+        assertEquals(changes.get(1).toString(), "~ resource_group global.adhoc: hardConcurrencyLimit 50 -> 60");
+        assertEquals(changes.get(4).toString(), "> selector selectors[1]: position 0 -> 1");
+    }
+
+    @Test
+    public void testDiffCommand()
+    {
+        String output = TestCli.cli(
+                "diff",
+                "--from-json=" + getResource("resource_group_with_subgroups.json").getPath(),
+                "--to-json=" + getResource("resource_group_with_subgroups_modified.json").getPath()
+        ).out();
+        assertEquals(output.lines().count(), 5);
+    }
+
+    private static ManagerSpec load(String resource)
+    {
+        return FileBasedResourceGroups.parseResourceGroupsSchema(getResource(resource).getPath());
+    }
+}
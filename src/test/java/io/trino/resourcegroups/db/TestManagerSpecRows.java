@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.google.common.io.Resources.getResource;
+import static org.testng.Assert.assertEquals;
+
+public class TestManagerSpecRows
+{
+    // global (adhoc (adhoc-${USER}), tableau (tableau-${USER})), admin
+    private final ManagerSpecRows.Layout layout = new ManagerSpecRows.Layout(
+            FileBasedResourceGroups.parseResourceGroupsSchema(getResource("resource_group_with_subgroups.json").getPath()));
+
+    @Test
+    public void testPartition()
+    {
+        assertPartitioning(layout.partition(2), new int[] {0}, ImmutableList.of(new int[] {1, 3}, new int[] {3, 5}, new int[] {5, 6}));
+        assertPartitioning(layout.partition(1), new int[] {0, 1, 3}, ImmutableList.of(new int[] {2, 3}, new int[] {4, 5}, new int[] {5, 6}));
+        // small adjacent subtrees are written together
+        assertPartitioning(layout.partition(6), new int[] {}, ImmutableList.of(new int[] {0, 6}));
+        assertPartitioning(layout.partition(5), new int[] {}, ImmutableList.of(new int[] {0, 5}, new int[] {5, 6}));
+    }
+
+    @Test
+    public void testSelectorRowsUseSparsePriorities()
+    {
+        long[] ids = {11, 12, 13, 14, 15, 16};
+        List<SelectorRow> selectors = layout.selectorRows(0, layout.getSelectorCount(), ids).getSelectors();
+        assertEquals(selectors.size(), 4);
+        for (int i = 0; i < selectors.size(); i++) {
+            assertEquals(selectors.get(i).getPriority(), SelectorPriorities.initial(i, selectors.size()));
+        }
+    }
+
+    private static void assertPartitioning(ManagerSpecRows.Partitioning partitioning, int[] spine, List<int[]> ranges)
+    {
+        assertEquals(partitioning.getSpine(), spine);
+        assertEquals(partitioning.getRangeCount(), ranges.size());
+        for (int range = 0; range < ranges.size(); range++) {
+            assertEquals(partitioning.getStart(range), ranges.get(range)[0]);
+            assertEquals(partitioning.getEnd(range), ranges.get(range)[1]);
+        }
+    }
+}
@@ -22,12 +22,37 @@ import org.testng.annotations.Test;
 public class TestPostgresqlCreateResourceGroupsCli
         extends BaseTestCreateResourceGroupsCli
 {
+    private JdbcDatabaseContainer<?> container;
+
     @Override
-    protected final JdbcDatabaseContainer<?> startContainer()
+    protected final void startDatabase()
     {
-        JdbcDatabaseContainer<?> container = new PostgreSQLContainer<>("postgres:9.6");
+        container = new PostgreSQLContainer<>("postgres:9.6");
         container.start();
-        return container;
+    }
+
+    @Override
+    protected final void stopDatabase()
+    {
+        container.close();
+    }
+
+    @Override
+    protected final String getJdbcUrl()
+    {
+        return container.getJdbcUrl();
+    }
+
+    @Override
+    protected final String getUser()
+    {
+        return container.getUsername();
+    }
+
+    @Override
+    protected final String getPassword()
+    {
+        return container.getPassword();
     }
 
     @Override
@@ -79,11 +104,15 @@ public class TestPostgresqlCreateResourceGroupsCli
         String resourceGroupsTable = "DROP TABLE IF EXISTS resource_groups";
         String selectorsTable = "DROP TABLE IF EXISTS selectors";
         String exactMatchTable = "DROP TABLE IF EXISTS exact_match_source_selectors";
+        String applyJournalTable = "DROP TABLE IF EXISTS resource_groups_apply_journal";
+        String historyTable = "DROP TABLE IF EXISTS resource_groups_history";
         Handle jdbiHandle = jdbi.open();
         jdbiHandle.execute(propertiesTable);
         jdbiHandle.execute(selectorsTable);
         jdbiHandle.execute(resourceGroupsTable);
         jdbiHandle.execute(exactMatchTable);
+        jdbiHandle.execute(applyJournalTable);
+        jdbiHandle.execute(historyTable);
         jdbiHandle.close();
     }
 }
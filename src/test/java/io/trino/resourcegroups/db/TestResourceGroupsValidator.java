@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestResourceGroupsValidator
+{
+    @Test
+    public void testValidFiles()
+    {
+        for (String resource : ImmutableList.of("simple_resource_groups.json", "resource_group_with_subgroups.json", "resource_group_with_user_group_regex.json", "exact_match_selectors.json")) {
+            assertTrue(validate(resource).isValid(), resource);
+        }
+    }
+
+    @Test
+    public void testMissingLimit()
+    {
+        List<ResourceGroupsValidator.Error> errors = validate("invalid_resource_groups.json").getErrors();
+        assertEquals(errors.size(), 1);
+        assertEquals(errors.get(0).getPointer(), "/rootGroups/0/subGroups/0");
+        assertEquals(errors.get(0).getLine(), 9);
+        assertEquals(errors.get(0).getColumn(), 9);
+        assertEquals(errors.get(0).getMessage(), "Missing required property: softMemoryLimit");
+    }
+
+    @Test
+    public void testAllErrorsReported()
+    {
+        List<ResourceGroupsValidator.Error> errors = validate("resource_groups_with_errors.json").getErrors();
+        assertEquals(
+                errors.stream()
+                        .map(error -> error.getPointer() + ": " + error.getMessage())
+                        .collect(toImmutableList()),
+                ImmutableList.of(
+                        "/rootGroups/0/softMemoryLimit: softMemoryLimit cannot exceed 100%: 120%",
+                        "/rootGroups/0/softConcurrencyLimit: hardConcurrencyLimit must be greater than or equal to softConcurrencyLimit",
+                        "/rootGroups/0/schedulingPolicy: Unknown scheduling policy round_robin, expected one of [fair, weighted, weighted_fair, query_priority]",
+                        "/rootGroups/0/subGroups/0/name: Unterminated variable in: adhoc-${USER",
+                        "/rootGroups/0/subGroups/0/maxQueued: maxQueued is negative",
+                        "/rootGroups/0/subGroups/0: Missing required property: hardConcurrencyLimit",
+                        "/rootGroups/1/owner: Unknown property: owner",
+                        "/rootGroups/1: cpuQuotaPeriod must be specified to use cpu limits on group: global",
+                        "/rootGroups/1/name: Duplicated root group: global",
+                        "/selectors/0/user: Invalid regular expression: Unclosed group",
+                        "/selectors/0/group: Selector refers to nonexistent group: global.etl",
+                        "/selectors/1/queryType: Unknown query type MERGE, expected one of [SELECT, EXPLAIN, DESCRIBE, INSERT, UPDATE, DELETE, ANALYZE, DATA_DEFINITION]",
+                        "/selectors/1/group: Variable team is not USER, SOURCE or a named group of the selector's regular expressions",
+                        "/selectors/1/group: Selector refers to nonexistent group: global.${team}"));
+        assertEquals(errors.get(6).toString(), "24:16 /rootGroups/1/owner: Unknown property: owner");
+    }
+
+    @Test
+    public void testSyntaxError()
+    {
+        List<ResourceGroupsValidator.Error> errors = ResourceGroupsValidator.validate("{\"rootGroups\": [\n}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(errors.size(), 1);
+        assertEquals(errors.get(0).getLine(), 2);
+    }
+
+    @Test
+    public void testDuplicateProperty()
+    {
+        List<ResourceGroupsValidator.Error> errors = ResourceGroupsValidator.validate(
+                "{\"rootGroups\": [], \"selectors\": [], \"selectors\": []}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(errors.size(), 1);
+        assertEquals(errors.get(0).getPointer(), "/selectors");
+        assertEquals(errors.get(0).getMessage(), "Duplicate property: selectors");
+    }
+
+    @Test
+    public void testJsonReport()
+    {
+        String output = TestCli.cli(
+                "validate_resource_groups_json",
+                "--resource-groups-json=" + getResource("simple_resource_groups.json").getPath(),
+                "--output-format=JSON"
+        ).out();
+        assertThat(output).contains("\"valid\" : true").contains("\"errors\" : [ ]");
+        assertThat(TestCli.cli(
+                "validate_resource_groups_json",
+                "--resource-groups-json=" + getResource("resource_groups_with_errors.json").getPath()
+        ).err()).isNotNull();
+    }
+
+    private static ResourceGroupsValidator.Report validate(String resource)
+    {
+        return ResourceGroupsValidator.validate(Paths.get(getResource(resource).getPath()));
+    }
+}
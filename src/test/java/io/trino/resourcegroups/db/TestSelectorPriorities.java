@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static io.trino.resourcegroups.db.SelectorPriorities.STEP;
+import static io.trino.resourcegroups.db.SelectorPriorities.UNASSIGNED;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestSelectorPriorities
+{
+    @Test
+    public void testInitial()
+    {
+        assertEquals(SelectorPriorities.initial(0, 3), 3 * STEP);
+        assertEquals(SelectorPriorities.initial(2, 3), STEP);
+    }
+
+    @Test
+    public void testInsertIntoGap()
+    {
+        long[] priorities = {3 * STEP, UNASSIGNED, UNASSIGNED, 2 * STEP, STEP, UNASSIGNED};
+        assertEquals(SelectorPriorities.allocate(priorities), 0);
+        assertDescending(priorities);
+        assertEquals(priorities[0], 3 * STEP);
+        assertEquals(priorities[3], 2 * STEP);
+        assertEquals(priorities[4], STEP);
+        assertEquals(priorities[5], 0);
+    }
+
+    @Test
+    public void testInsertAboveAll()
+    {
+        long[] priorities = {UNASSIGNED, UNASSIGNED, STEP};
+        assertEquals(SelectorPriorities.allocate(priorities), 0);
+        assertEquals(priorities[0], 3 * STEP);
+        assertEquals(priorities[1], 2 * STEP);
+    }
+
+    @Test
+    public void testRebalanceDensePriorities()
+    {
+        // priorities written before they were sparse leave no gap at all
+        long[] priorities = {5, 4, 3, UNASSIGNED, 2, 1};
+        assertEquals(SelectorPriorities.allocate(priorities), 5);
+        assertDescending(priorities);
+    }
+
+    @Test
+    public void testRepeatedInsertsStayOrdered()
+    {
+        Random random = new Random(42);
+        long[] priorities = new long[100];
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = SelectorPriorities.initial(i, priorities.length);
+        }
+        int changed = 0;
+        for (int insert = 0; insert < 10_000; insert++) {
+            int position = random.nextInt(priorities.length + 1);
+            long[] next = new long[priorities.length + 1];
+            System.arraycopy(priorities, 0, next, 0, position);
+            next[position] = UNASSIGNED;
+            System.arraycopy(priorities, position, next, position + 1, priorities.length - position);
+            changed += SelectorPriorities.allocate(next);
+            assertDescending(next);
+            priorities = next;
+        }
+        // most inserts fit a gap and write no other row
+        assertTrue(changed < 1_000, "changed " + changed);
+    }
+
+    private static void assertDescending(long[] priorities)
+    {
+        for (int i = 1; i < priorities.length; i++) {
+            assertTrue(priorities[i] < priorities[i - 1], Arrays.toString(priorities));
+        }
+    }
+}
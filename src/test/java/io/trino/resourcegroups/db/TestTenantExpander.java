@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.resourcegroups.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.LongStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.io.Resources.getResource;
+import static io.trino.resourcegroups.db.SelectorPriorities.STEP;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.testng.Assert.assertEquals;
+
+public class TestTenantExpander
+{
+    @Test
+    public void testExpand()
+    {
+        List<ManagerSpecRows> loads = expand("tenants.csv");
+        List<ResourceGroupRow> resourceGroups = loads.stream().flatMap(rows -> rows.getResourceGroups().stream()).collect(toImmutableList());
+        List<SelectorRow> selectors = loads.stream().flatMap(rows -> rows.getSelectors().stream()).collect(toImmutableList());
+
+        assertEquals(
+                resourceGroups.stream().map(ResourceGroupRow::getName).collect(toImmutableList()),
+                ImmutableList.of("global", "tenants", "adhoc", "acme", "etl", "acme-${USER}", "globex", "etl", "globex-${USER}", "initech", "etl", "initech-${USER}"));
+        assertEquals(resourceGroups.stream().map(ResourceGroupRow::getId).collect(toImmutableList()), LongStream.rangeClosed(101, 112).boxed().collect(toImmutableList()));
+        // tenants are added to global.tenants, with their parameters substituted
+        assertEquals(resourceGroups.get(3).getParentId(), Optional.of(102L));
+        assertEquals(resourceGroups.get(4).getParentId(), Optional.of(104L));
+        assertEquals(resourceGroups.get(6).getSoftMemoryLimit(), "5%");
+        assertEquals(resourceGroups.get(6).getHardConcurrencyLimit(), 10);
+
+        // static, tenant and fallback selectors in order of decreasing priority
+        assertEquals(selectors.stream().map(SelectorRow::getPriority).collect(toImmutableList()), ImmutableList.of(8 * STEP, 7 * STEP, 6 * STEP, 5 * STEP, 4 * STEP, 3 * STEP, 2 * STEP, STEP));
+        assertEquals(selectors.stream().map(SelectorRow::getResourceGroupId).collect(toImmutableList()), ImmutableList.of(103L, 105L, 106L, 108L, 109L, 111L, 112L, 103L));
+        assertEquals(selectors.get(3).getUserRegex(), "globex_etl");
+    }
+
+    @Test
+    public void testJsonLinesParameters()
+    {
+        List<ManagerSpecRows> csv = expand("tenants.csv");
+        List<ManagerSpecRows> json = expand("tenants.json");
+        assertEquals(rowNames(json), rowNames(csv));
+    }
+
+    @Test
+    public void testInvalidTenants()
+    {
+        TenantTemplate template = TenantTemplate.parse(resource("tenant_template.json"));
+        assertThatThrownBy(() -> expand(template, ImmutableList.of(ImmutableMap.of("tenant", "acme", "memory", "10%"))))
+                .hasMessageContaining("Missing tenant parameter: concurrency");
+        Map<String, String> tenant = ImmutableMap.of("tenant", "acme", "memory", "10%", "concurrency", "20");
+        assertThatThrownBy(() -> expand(template, ImmutableList.of(tenant, tenant)))
+                .hasMessageContaining("Duplicate resource group global.tenants.acme");
+    }
+
+    private static List<ManagerSpecRows> expand(String tenantsFile)
+    {
+        TenantTemplate template = TenantTemplate.parse(resource("tenant_template.json"));
+        Path tenants = resource(tenantsFile);
+        List<ManagerSpecRows> loads = new ArrayList<>();
+        try (TenantParameters parameters = TenantParameters.open(tenants)) {
+            new TenantExpander(template, "test", TestTenantExpander::allocate, loads::add)
+                    .expand(parameters, TenantParameters.count(tenants));
+        }
+        return loads;
+    }
+
+    private static List<ManagerSpecRows> expand(TenantTemplate template, List<Map<String, String>> tenants)
+    {
+        List<ManagerSpecRows> loads = new ArrayList<>();
+        new TenantExpander(template, "test", TestTenantExpander::allocate, loads::add).expand(tenants.iterator(), tenants.size());
+        return loads;
+    }
+
+    private static List<String> rowNames(List<ManagerSpecRows> loads)
+    {
+        return loads.stream()
+                .flatMap(rows -> rows.getResourceGroups().stream())
+                .map(row -> row.getName() + " " + row.getSoftMemoryLimit() + " " + row.getHardConcurrencyLimit())
+                .collect(toImmutableList());
+    }
+
+    private static long[] allocate(int count)
+    {
+        return LongStream.range(101, 101 + count).toArray();
+    }
+
+    private static Path resource(String name)
+    {
+        return Paths.get(getResource(name).getPath());
+    }
+}